@@ -1,12 +1,19 @@
 package edu.berkeley.cs186.database;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
 import java.util.function.UnaryOperator;
 
 import edu.berkeley.cs186.database.common.ByteBuffer;
@@ -33,6 +40,10 @@ public class Database implements AutoCloseable {
     private static final String INDEX_INFO_TABLE_NAME = METADATA_TABLE_PREFIX + "indices";
     private static final int DEFAULT_BUFFER_SIZE = 262144; // default of 1G
     private static final int MAX_SCHEMA_SIZE = 4005; // a wonderful number pulled out of nowhere
+    // file in the database directory listing the pages loaded at the last clean shutdown
+    static final String RESIDENT_PAGES_FILE = "resident_pages";
+    // number of pages preloaded at a time on startup, between checks for the database closing
+    private static final int WARM_UP_BATCH_PAGES = 256;
 
     // information_schema.tables, manages all tables in the database
     private Table tableInfo;
@@ -67,11 +78,17 @@ public class Database implements AutoCloseable {
     private final Transaction secondaryInitTransaction;
     // thread pool for background tasks
     private final ExecutorService executor;
+    // directory of the database
+    private final String fileDir;
+    // background task loading the pages that were loaded at the last clean shutdown, or null
+    private Future<?> warmUpTask;
+    // set when the database starts closing, to stop the warm-up task
+    private volatile boolean closing = false;
 
     // number of pages of memory to use for joins, etc.
     private int workMem = 1024; // default of 4M
     // number of pages of memory available total
-    private int numMemoryPages;
+    private volatile int numMemoryPages;
 
     // progress in loading tables/indices
     private final Phaser loadingProgress = new Phaser(1);
@@ -115,7 +132,9 @@ public class Database implements AutoCloseable {
      * @param fileDir the directory to put the table files in
      * @param numMemoryPages the number of pages of memory in the buffer cache
      * @param lockManager the lock manager
-     * @param policy eviction policy for buffer cache
+     * @param policy eviction policy for buffer cache (e.g. ClockEvictionPolicy, LRUEvictionPolicy,
+     *               or LRUKEvictionPolicy or ARCEvictionPolicy, which resist being flushed out
+     *               by large scans)
      */
     public Database(String fileDir, int numMemoryPages, LockManager lockManager,
                     EvictionPolicy policy) {
@@ -133,9 +152,70 @@ public class Database implements AutoCloseable {
      */
     public Database(String fileDir, int numMemoryPages, LockManager lockManager,
                     EvictionPolicy policy, boolean useRecoveryManager) {
+        this(fileDir, numMemoryPages, lockManager, policy, useRecoveryManager, DiskSpaceManagerImpl::new);
+    }
+
+    /**
+     * Creates a new database.
+     *
+     * @param fileDir the directory to put the table files in
+     * @param numMemoryPages the number of pages of memory in the buffer cache
+     * @param lockManager the lock manager
+     * @param policy eviction policy for buffer cache
+     * @param useRecoveryManager flag to enable or disable the recovery manager (ARIES)
+     * @param diskSpaceManagerFactory function to create the disk space manager, given the directory
+     *                                and the recovery manager (e.g. to create a DiskSpaceManagerImpl
+     *                                that syncs data pages in batches, a MappedDiskSpaceManager, or
+     *                                a CompressedDiskSpaceManager)
+     */
+    public Database(String fileDir, int numMemoryPages, LockManager lockManager,
+                    EvictionPolicy policy, boolean useRecoveryManager,
+                    BiFunction<String, RecoveryManager, DiskSpaceManager> diskSpaceManagerFactory) {
+        this(fileDir, numMemoryPages, lockManager, policy, useRecoveryManager, diskSpaceManagerFactory, false);
+    }
+
+    /**
+     * Creates a new database.
+     *
+     * @param fileDir the directory to put the table files in
+     * @param numMemoryPages the number of pages of memory in the buffer cache
+     * @param lockManager the lock manager
+     * @param policy eviction policy for buffer cache
+     * @param useRecoveryManager flag to enable or disable the recovery manager (ARIES)
+     * @param diskSpaceManagerFactory function to create the disk space manager, given the directory
+     *                                and the recovery manager
+     * @param offHeapBuffer flag to store the buffer cache off heap, in direct buffers
+     */
+    public Database(String fileDir, int numMemoryPages, LockManager lockManager,
+                    EvictionPolicy policy, boolean useRecoveryManager,
+                    BiFunction<String, RecoveryManager, DiskSpaceManager> diskSpaceManagerFactory,
+                    boolean offHeapBuffer) {
+        this(fileDir, numMemoryPages, lockManager, () -> policy, useRecoveryManager, diskSpaceManagerFactory,
+             offHeapBuffer, 1);
+    }
+
+    /**
+     * Creates a new database.
+     *
+     * @param fileDir the directory to put the table files in
+     * @param numMemoryPages the number of pages of memory in the buffer cache
+     * @param lockManager the lock manager
+     * @param policyFactory function to create the eviction policy of each buffer pool
+     * @param useRecoveryManager flag to enable or disable the recovery manager (ARIES)
+     * @param diskSpaceManagerFactory function to create the disk space manager, given the directory
+     *                                and the recovery manager
+     * @param offHeapBuffer flag to store the buffer cache off heap, in direct buffers
+     * @param numBufferPools number of independent pools to split the buffer cache into (see
+     *                       PartitionedBufferManager), or 1 for a single pool
+     */
+    public Database(String fileDir, int numMemoryPages, LockManager lockManager,
+                    Supplier<EvictionPolicy> policyFactory, boolean useRecoveryManager,
+                    BiFunction<String, RecoveryManager, DiskSpaceManager> diskSpaceManagerFactory,
+                    boolean offHeapBuffer, int numBufferPools) {
         boolean initialized = setupDirectory(fileDir);
 
         numTransactions = 0;
+        this.fileDir = fileDir;
         this.numMemoryPages = numMemoryPages;
         this.lockManager = lockManager;
         tableLookup = new ConcurrentHashMap<>();
@@ -152,9 +232,14 @@ public class Database implements AutoCloseable {
             recoveryManager = new DummyRecoveryManager();
         }
 
-        diskSpaceManager = new DiskSpaceManagerImpl(fileDir, recoveryManager);
-        bufferManager = new BufferManagerImpl(diskSpaceManager, recoveryManager, numMemoryPages,
-                                              policy);
+        diskSpaceManager = diskSpaceManagerFactory.apply(fileDir, recoveryManager);
+        if (numBufferPools == 1) {
+            bufferManager = new BufferManagerImpl(diskSpaceManager, recoveryManager, numMemoryPages,
+                                                  policyFactory.get(), offHeapBuffer);
+        } else {
+            bufferManager = new PartitionedBufferManager(diskSpaceManager, recoveryManager, numMemoryPages,
+                                                         numBufferPools, policyFactory, offHeapBuffer);
+        }
 
         if (!initialized) {
             diskSpaceManager.allocPart(0);
@@ -169,6 +254,10 @@ public class Database implements AutoCloseable {
         Runnable r = recoveryManager.restart();
         executor.submit(r);
 
+        if (initialized) {
+            this.warmUpTask = this.startWarmUp();
+        }
+
         primaryInitTransaction = beginTransaction();
         secondaryInitTransaction = beginTransaction();
         TransactionContext.setTransaction(primaryInitTransaction.getTransactionContext());
@@ -194,6 +283,74 @@ public class Database implements AutoCloseable {
         }
     }
 
+    /**
+     * Starts loading the pages that were loaded at the last clean shutdown (see close) in the
+     * background, so that the buffer does not have to fill up one miss at a time after a
+     * restart. The pages that the eviction policy would have kept the longest are loaded first
+     * (as many as fit in the buffer), in order of page number, into free frames only.
+     *
+     * @return the warm-up task, or null if there is nothing to load
+     */
+    private Future<?> startWarmUp() {
+        Path file = Paths.get(this.fileDir, RESIDENT_PAGES_FILE);
+        long[] pageNums;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            pageNums = new long[Math.min(in.readInt(), this.bufferManager.getBufferSize())];
+            for (int i = 0; i < pageNums.length; ++i) {
+                pageNums[i] = in.readLong();
+            }
+            // the list is only valid for this start; a crash later must not reuse it
+            Files.delete(file);
+        } catch (IOException | NegativeArraySizeException e) {
+            // no list (e.g. after a crash), or a damaged one: start with an empty buffer
+            return null;
+        }
+        Arrays.sort(pageNums);
+        return this.executor.submit(() -> {
+            for (int i = 0; i < pageNums.length && !this.closing; i += WARM_UP_BATCH_PAGES) {
+                long[] batch = Arrays.copyOfRange(pageNums, i, Math.min(pageNums.length, i + WARM_UP_BATCH_PAGES));
+                if (!this.bufferManager.preloadPages(batch)) {
+                    break;
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits for the pages loaded at the last clean shutdown to finish loading, if they are
+     * being loaded.
+     */
+    void waitForWarmUp() {
+        if (this.warmUpTask == null) {
+            return;
+        }
+        try {
+            this.warmUpTask.get();
+        } catch (ExecutionException e) {
+            // pages that failed to load are loaded on demand instead
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Saves the list of loaded pages, to be loaded again on the next start (see startWarmUp).
+     *
+     * @param pageNums page numbers of the loaded pages, from the ones the eviction policy would
+     *                 keep the longest
+     */
+    private void saveResidentPages(long[] pageNums) {
+        Path file = Paths.get(this.fileDir, RESIDENT_PAGES_FILE);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(pageNums.length);
+            for (long pageNum : pageNums) {
+                out.writeLong(pageNum);
+            }
+        } catch (IOException e) {
+            // the list only speeds up the next start, so the database can close without it
+        }
+    }
+
     private boolean setupDirectory(String fileDir) {
         File dir = new File(fileDir);
         boolean initialized = dir.exists();
@@ -315,7 +472,9 @@ public class Database implements AutoCloseable {
                 }
 
                 if (record.isTemporary) {
-                    continue; // no need to load temp tables - they will be cleaned up eventually by recovery
+                    // temp tables' partitions do not survive a restart, and their records are removed
+                    // by recovery along with the transactions that created them
+                    continue;
                 }
 
                 tableInfoLookup.put(record.tableName, recordId);
@@ -452,12 +611,17 @@ public class Database implements AutoCloseable {
             return;
         }
 
+        // stop loading pages in the background
+        this.closing = true;
+        this.waitForWarmUp();
+
         // wait for all transactions to terminate
         this.waitAllTransactions();
 
         // finish executor tasks
         this.executor.shutdown();
 
+        long[] residentPages = this.bufferManager.getResidentPages();
         this.bufferManager.evictAll();
 
         this.recoveryManager.close();
@@ -473,6 +637,7 @@ public class Database implements AutoCloseable {
 
         this.bufferManager.close();
         this.diskSpaceManager.close();
+        this.saveResidentPages(residentPages);
     }
 
     public ExecutorService getExecutor() {
@@ -506,6 +671,23 @@ public class Database implements AutoCloseable {
         this.workMem = workMem;
     }
 
+    /**
+     * Grows or shrinks the buffer cache while the database is running, e.g. to hand memory
+     * back to other services on the same machine. Work memory is capped at the new size for
+     * operators started afterwards. See BufferManager#resize.
+     *
+     * @param numMemoryPages the new number of pages of memory in the buffer cache
+     * @throws IllegalStateException if the buffer cannot be shrunk because of pinned pages
+     */
+    public void setNumMemoryPages(int numMemoryPages) {
+        try {
+            this.bufferManager.resize(numMemoryPages);
+        } finally {
+            // a partitioned buffer may have been partly resized before failing
+            this.numMemoryPages = this.bufferManager.getBufferSize();
+        }
+    }
+
     // schema for information_schema.tables
     private Schema getTableInfoSchema() {
         return new Schema(
@@ -768,7 +950,7 @@ public class Database implements AutoCloseable {
             String tempTableName = "tempTable" + tempTableCounter++;
             String tableName = prefixTempTableName(tempTableName);
 
-            int partNum = diskSpaceManager.allocPart();
+            int partNum = diskSpaceManager.allocTempPart();
             long pageNum = diskSpaceManager.allocPage(partNum);
             RecordId recordId = tableInfo.addRecord(Arrays.asList(
                     new StringDataBox(tableName, 32),
@@ -1308,7 +1490,7 @@ public class Database implements AutoCloseable {
                     throw new DatabaseException("index already exists on " + tableName + "(" + columnName + ")");
                 }
 
-                int order = BPlusTree.maxOrder(BufferManager.EFFECTIVE_PAGE_SIZE, colType);
+                int order = BPlusTree.maxOrder(bufferManager.getEffectivePageSize(), colType);
                 List<DataBox> values = Arrays.asList(
                                            new StringDataBox(tableName, 32),
                                            new StringDataBox(columnName, 32),
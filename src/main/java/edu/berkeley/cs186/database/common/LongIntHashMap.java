@@ -0,0 +1,234 @@
+package edu.berkeley.cs186.database.common;
+
+import java.util.Arrays;
+
+/**
+ * A map from primitive long keys to primitive int values, using open addressing with linear
+ * probing: keys and values are stored in two parallel arrays, so lookups and updates neither box
+ * keys or values nor allocate entry objects. Removing a key shifts later entries of its probe
+ * sequence back, instead of leaving a tombstone.
+ *
+ * The map is not thread safe. However, get never throws or fails to terminate even if the map is
+ * modified concurrently; its result is then meaningless, unless the caller can tell that no
+ * modification happened during the call (e.g. with an optimistic read of a StampedLock).
+ */
+public class LongIntHashMap {
+    // Value returned for keys that are not in the map; cannot be stored in the map.
+    public static final int NO_VALUE = -1;
+
+    // Marks empty slots of keys.
+    private static final long EMPTY_KEY = Long.MIN_VALUE;
+
+    private static final int MIN_CAPACITY = 16;
+
+    // Keys of the map, or EMPTY_KEY for empty slots; length is a power of 2.
+    private long[] keys;
+
+    // Value of the key in the same slot of keys.
+    private int[] values;
+
+    // Number of keys in the map (including EMPTY_KEY, if present).
+    private int size;
+
+    // EMPTY_KEY cannot be stored in keys, so its value (if any) is stored separately.
+    private int emptyKeyValue = NO_VALUE;
+
+    public LongIntHashMap() {
+        this(MIN_CAPACITY / 2);
+    }
+
+    /**
+     * Creates a map with enough space for expectedSize keys before it needs to grow.
+     * @param expectedSize number of keys expected to be in the map at once
+     */
+    public LongIntHashMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < 2 * (long) expectedSize) {
+            capacity *= 2;
+        }
+        this.keys = new long[capacity];
+        Arrays.fill(this.keys, EMPTY_KEY);
+        this.values = new int[capacity];
+        this.size = 0;
+    }
+
+    /**
+     * @return number of keys in the map
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return the keys in the map, in no particular order
+     */
+    public long[] keys() {
+        long[] result = new long[this.size];
+        int n = 0;
+        if (this.emptyKeyValue != NO_VALUE) {
+            result[n++] = EMPTY_KEY;
+        }
+        for (long key : this.keys) {
+            if (key != EMPTY_KEY) {
+                result[n++] = key;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param key key to look up
+     * @return whether the key is in the map
+     */
+    public boolean containsKey(long key) {
+        return this.get(key) != NO_VALUE;
+    }
+
+    /**
+     * @param key key to look up
+     * @return value of the key, or NO_VALUE if the key is not in the map
+     */
+    public int get(long key) {
+        if (key == EMPTY_KEY) {
+            return this.emptyKeyValue;
+        }
+        long[] keys = this.keys;
+        int[] values = this.values;
+        if (keys.length != values.length) {
+            // resized concurrently
+            return NO_VALUE;
+        }
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        for (int i = 0; i < keys.length; ++i) {
+            long k = keys[slot];
+            if (k == key) {
+                return values[slot];
+            }
+            if (k == EMPTY_KEY) {
+                return NO_VALUE;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * Maps a key to a value, replacing any previous value of the key.
+     * @param key key
+     * @param value new value of the key; must not be NO_VALUE
+     * @return previous value of the key, or NO_VALUE if the key was not in the map
+     */
+    public int put(long key, int value) {
+        if (value == NO_VALUE) {
+            throw new IllegalArgumentException("cannot store NO_VALUE in a LongIntHashMap");
+        }
+        if (key == EMPTY_KEY) {
+            int previous = this.emptyKeyValue;
+            if (previous == NO_VALUE) {
+                ++this.size;
+            }
+            this.emptyKeyValue = value;
+            return previous;
+        }
+        int slot = this.findSlot(key);
+        if (this.keys[slot] == key) {
+            int previous = this.values[slot];
+            this.values[slot] = value;
+            return previous;
+        }
+        if (2 * (this.size + 1) > this.keys.length) {
+            this.grow();
+            slot = this.findSlot(key);
+        }
+        // store the value first, so that a concurrent get never finds the key with a stale value
+        this.values[slot] = value;
+        this.keys[slot] = key;
+        ++this.size;
+        return NO_VALUE;
+    }
+
+    /**
+     * Removes a key from the map.
+     * @param key key to remove
+     * @return previous value of the key, or NO_VALUE if the key was not in the map
+     */
+    public int remove(long key) {
+        if (key == EMPTY_KEY) {
+            int previous = this.emptyKeyValue;
+            if (previous != NO_VALUE) {
+                --this.size;
+            }
+            this.emptyKeyValue = NO_VALUE;
+            return previous;
+        }
+        int slot = this.findSlot(key);
+        if (this.keys[slot] != key) {
+            return NO_VALUE;
+        }
+        int previous = this.values[slot];
+        int mask = this.keys.length - 1;
+        // move back any later entry of the probe sequence that could no longer be found
+        // once slot is empty, i.e. one whose home slot is not cyclically in (slot, next]
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            long k = this.keys[next];
+            if (k == EMPTY_KEY) {
+                break;
+            }
+            int home = hash(k) & mask;
+            boolean movable = slot <= next ? (home <= slot || home > next) : (home <= slot && home > next);
+            if (movable) {
+                this.keys[slot] = k;
+                this.values[slot] = this.values[next];
+                slot = next;
+            }
+        }
+        this.keys[slot] = EMPTY_KEY;
+        --this.size;
+        return previous;
+    }
+
+    /**
+     * Finds the slot of a key, or the empty slot where it would be inserted.
+     */
+    private int findSlot(long key) {
+        int mask = this.keys.length - 1;
+        int slot = hash(key) & mask;
+        while (this.keys[slot] != key && this.keys[slot] != EMPTY_KEY) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Doubles the number of slots, rehashing every key.
+     */
+    private void grow() {
+        long[] oldKeys = this.keys;
+        int[] oldValues = this.values;
+        long[] newKeys = new long[oldKeys.length * 2];
+        Arrays.fill(newKeys, EMPTY_KEY);
+        int[] newValues = new int[newKeys.length];
+        int mask = newKeys.length - 1;
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] != EMPTY_KEY) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (newKeys[slot] != EMPTY_KEY) {
+                    slot = (slot + 1) & mask;
+                }
+                newKeys[slot] = oldKeys[i];
+                newValues[slot] = oldValues[i];
+            }
+        }
+        this.keys = newKeys;
+        this.values = newValues;
+    }
+
+    private static int hash(long key) {
+        // Fibonacci hashing, folded so that the low bits depend on all bits of the key
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -96,7 +96,7 @@ public class BPlusTree {
             throw new BPlusTreeException(msg);
         }
 
-        int maxOrder = BPlusTree.maxOrder(BufferManager.EFFECTIVE_PAGE_SIZE, metadata.getKeySchema());
+        int maxOrder = BPlusTree.maxOrder(bufferManager.getEffectivePageSize(), metadata.getKeySchema());
         if (metadata.getOrder() > maxOrder) {
             String msg = String.format(
                              "You cannot construct a B+ tree with order %d greater than the " +
@@ -362,7 +362,7 @@ public class BPlusTree {
      * Returns the largest number d such that the serialization of a LeafNode
      * with 2d entries and an InnerNode with 2d keys will fit on a single page.
      */
-    public static int maxOrder(short pageSize, Type keySchema) {
+    public static int maxOrder(int pageSize, Type keySchema) {
         int leafOrder = LeafNode.maxOrder(pageSize, keySchema);
         int innerOrder = InnerNode.maxOrder(pageSize, keySchema);
         return Math.min(leafOrder, innerOrder);
@@ -1,6 +1,7 @@
 package edu.berkeley.cs186.database.index;
 
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.ExtentAllocator;
 
 /** Metadata about a B+ tree. */
 public class BPlusTreeMetadata {
@@ -31,6 +32,12 @@ public class BPlusTreeMetadata {
     // The height of this tree.
     private int height;
 
+    // Allocators for the pages of new leaf and inner nodes. Leaves and inner nodes are
+    // allocated from separate extents, so that leaves are mostly contiguous on disk.
+    // These are not persisted.
+    private final ExtentAllocator leafAllocator;
+    private final ExtentAllocator innerAllocator;
+
     public BPlusTreeMetadata(String tableName, String colName, Type keySchema, int order, int partNum,
                              long rootPageNum, int height) {
         this.tableName = tableName;
@@ -40,6 +47,8 @@ public class BPlusTreeMetadata {
         this.partNum = partNum;
         this.rootPageNum = rootPageNum;
         this.height = height;
+        this.leafAllocator = new ExtentAllocator(partNum);
+        this.innerAllocator = new ExtentAllocator(partNum);
     }
 
     public BPlusTreeMetadata(String tableName, String colName) {
@@ -85,4 +94,12 @@ public class BPlusTreeMetadata {
     void incrementHeight() {
         ++height;
     }
+
+    ExtentAllocator getLeafAllocator() {
+        return leafAllocator;
+    }
+
+    ExtentAllocator getInnerAllocator() {
+        return innerAllocator;
+    }
 }
@@ -51,7 +51,7 @@ class InnerNode extends BPlusNode {
      */
     InnerNode(BPlusTreeMetadata metadata, BufferManager bufferManager, List<DataBox> keys,
               List<Long> children, LockContext treeContext) {
-        this(metadata, bufferManager, bufferManager.fetchNewPage(treeContext, metadata.getPartNum(), false),
+        this(metadata, bufferManager, bufferManager.fetchNewPage(treeContext, metadata.getInnerAllocator(), false),
              keys, children, treeContext);
     }
 
@@ -211,7 +211,7 @@ class InnerNode extends BPlusNode {
      * Returns the largest number d such that the serialization of an InnerNode
      * with 2d keys will fit on a single page.
      */
-    static int maxOrder(short pageSize, Type keySchema) {
+    static int maxOrder(int pageSize, Type keySchema) {
         // A leaf node with n entries takes up the following number of bytes:
         //
         //   1 + 4 + (n * keySize) + ((n + 1) * 8)
@@ -111,7 +111,7 @@ class LeafNode extends BPlusNode {
      */
     LeafNode(BPlusTreeMetadata metadata, BufferManager bufferManager, List<DataBox> keys,
              List<RecordId> rids, Optional<Long> rightSibling, LockContext treeContext) {
-        this(metadata, bufferManager, bufferManager.fetchNewPage(treeContext, metadata.getPartNum(), false),
+        this(metadata, bufferManager, bufferManager.fetchNewPage(treeContext, metadata.getLeafAllocator(), false),
              keys, rids,
              rightSibling, treeContext);
     }
@@ -306,7 +306,7 @@ class LeafNode extends BPlusNode {
      * Returns the largest number d such that the serialization of a LeafNode
      * with 2d entries will fit on a single page.
      */
-    static int maxOrder(short pageSize, Type keySchema) {
+    static int maxOrder(int pageSize, Type keySchema) {
         // A leaf node with n entries takes up the following number of bytes:
         //
         //   1 + 8 + 4 + n * (keySize + ridSize)
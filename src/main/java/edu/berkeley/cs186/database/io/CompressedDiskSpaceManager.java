@@ -0,0 +1,422 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.recovery.RecoveryManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A disk space manager that stores the data pages of the partitions it creates compressed
+ * (with LZCodec). Master and header pages are managed exactly as in DiskSpaceManagerImpl,
+ * in the partition's OS file, but data pages are stored in two additional files:
+ * - [partition file].data, which holds the compressed contents of data pages, each in a run of
+ *   consecutive SECTOR_SIZE-byte sectors. Pages that do not compress are stored as is.
+ * - [partition file].map, which holds an 8-byte location for each data page, at offset
+ *   8 * (data page number): the first sector of the page's contents in the upper 48 bits, and
+ *   the length of the contents in the lower 16 bits (or 0 if the page has never been written, or
+ *   is all zeros, as newly allocated pages are). Pages stored as is have a length of the page size,
+ *   or of 0xFFFF with 64K pages.
+ *
+ * When a page is rewritten, its contents are always moved to the first run of free sectors that is
+ * large enough, even if their length is unchanged. Free sectors are tracked in memory only, and are
+ * rebuilt from the map file when the partition is opened.
+ *
+ * Changes to the map file are held back until the data file has been forced (see forceData), and
+ * sectors that a page moves out of, or that a freed page used, only become free once the map file
+ * no longer points at them on disk. Until the writes are forced, the map file on disk therefore only
+ * points at the page contents of the last forced write, which are left untouched, so that a crash
+ * never leaves a page pointing at another page's contents.
+ *
+ * Partitions that already exist without a map file (i.e. were created by DiskSpaceManagerImpl)
+ * are left uncompressed, so a database directory may be switched over to this disk space manager,
+ * which then compresses only the partitions created from then on. A directory with compressed
+ * partitions cannot be opened with DiskSpaceManagerImpl.
+ */
+public class CompressedDiskSpaceManager extends DiskSpaceManagerImpl {
+    // Size of the sectors of the data file, in bytes.
+    static final int SECTOR_SIZE = 128;
+
+    // Suffixes of the names of the additional files of a compressed partition.
+    static final String MAP_FILE_SUFFIX = ".map";
+    static final String DATA_FILE_SUFFIX = ".data";
+
+    // Size of a page location in the map file, in bytes.
+    private static final int LOCATION_SIZE = 8;
+
+    /**
+     * Partition whose data pages are stored compressed.
+     */
+    private static class CompressedPartInfo extends PartInfo {
+        // Whether this partition's data pages are compressed (false for existing partitions
+        // that were created uncompressed).
+        private boolean compressed;
+
+        // Map and data files, and their channels.
+        private RandomAccessFile mapFile;
+        private FileChannel mapChannel;
+        private RandomAccessFile dataFile;
+        private FileChannel dataChannel;
+
+        // Location of the contents of each data page, as stored in the map file.
+        private long[] locations;
+
+        // Runs of free sectors in the data file (before numSectors), by first sector.
+        private TreeMap<Long, Long> freeSectors;
+
+        // Runs of sectors no longer in use, that the map file on disk may still point at; these
+        // become free once the map file has been forced.
+        private TreeMap<Long, Long> releasedSectors;
+
+        // Data pages whose location has changed since the map file was last written.
+        private BitSet dirtyLocations;
+
+        // Number of sectors in use at the end of the data file.
+        private long numSectors;
+
+        // Buffer to compress pages into; only used with the partition's write lock held.
+        private byte[] compressBuffer;
+
+        // Buffer to copy pages to be compressed into, when they are not backed by a page-sized
+        // array (e.g. direct buffers); only used with the partition's write lock held.
+        private byte[] pageBuffer;
+
+        private CompressedPartInfo(int partNum, RecoveryManager recoveryManager, int maxUnsyncedPages,
+                                   int pageSize) {
+            super(partNum, recoveryManager, maxUnsyncedPages, pageSize);
+            this.locations = new long[0];
+            this.freeSectors = new TreeMap<>();
+            this.releasedSectors = new TreeMap<>();
+            this.dirtyLocations = new BitSet();
+            this.numSectors = 0;
+        }
+
+        @Override
+        void open(String fileName) {
+            File file = new File(fileName);
+            this.compressed = file.length() == 0 || new File(fileName + MAP_FILE_SUFFIX).exists();
+            super.open(fileName);
+            if (!this.compressed) {
+                return;
+            }
+            // the page size of an existing partition is only known once its master page is read
+            this.compressBuffer = new byte[LZCodec.maxCompressedLength(this.pageSize)];
+            this.pageBuffer = new byte[this.pageSize];
+            try {
+                this.mapFile = new RandomAccessFile(fileName + MAP_FILE_SUFFIX, "rw");
+                this.mapChannel = this.mapFile.getChannel();
+                this.dataFile = new RandomAccessFile(fileName + DATA_FILE_SUFFIX, "rw");
+                this.dataChannel = this.dataFile.getChannel();
+
+                ByteBuffer b = ByteBuffer.allocate((int) this.mapChannel.size());
+                readFully(this.mapChannel, b, 0);
+                b.flip();
+                this.locations = new long[b.remaining() / LOCATION_SIZE];
+                TreeMap<Long, Long> usedSectors = new TreeMap<>();
+                for (int i = 0; i < this.locations.length; ++i) {
+                    this.locations[i] = b.getLong();
+                    if (this.locations[i] != 0) {
+                        usedSectors.put(firstSector(this.locations[i]), numSectors(this.locations[i]));
+                    }
+                }
+                for (Map.Entry<Long, Long> used : usedSectors.entrySet()) {
+                    if (used.getKey() > this.numSectors) {
+                        this.freeSectors.put(this.numSectors, used.getKey() - this.numSectors);
+                    }
+                    this.numSectors = used.getKey() + used.getValue();
+                }
+            } catch (IOException e) {
+                throw new PageException("Could not open or read file: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            if (this.compressed && this.mapChannel.isOpen()) {
+                // pages freed since the last sync still have their locations in the map file
+                this.forceData();
+                this.mapFile.close();
+                this.mapChannel.close();
+                this.dataFile.close();
+                this.dataChannel.close();
+            }
+        }
+
+        @Override
+        void readData(int pageNum, ByteBuffer buf) throws IOException {
+            if (!this.compressed) {
+                super.readData(pageNum, buf);
+                return;
+            }
+            long location = pageNum < this.locations.length ? this.locations[pageNum] : 0;
+            if (location == 0) {
+                buf.duplicate().put(new byte[this.pageSize]);
+                return;
+            }
+            int length = length(location);
+            if (length == this.rawLength()) {
+                readFully(this.dataChannel, buf.duplicate(), firstSector(location) * SECTOR_SIZE);
+                return;
+            }
+            byte[] data = new byte[length];
+            readFully(this.dataChannel, ByteBuffer.wrap(data), firstSector(location) * SECTOR_SIZE);
+            byte[] page = this.pageArray(buf);
+            if (page != null) {
+                LZCodec.decompress(data, length, page, this.pageSize);
+            } else {
+                page = new byte[this.pageSize];
+                LZCodec.decompress(data, length, page, this.pageSize);
+                buf.duplicate().put(page);
+            }
+        }
+
+        @Override
+        void readDataRun(int pageNum, ByteBuffer[] bufs, int offset, int length) throws IOException {
+            if (!this.compressed) {
+                super.readDataRun(pageNum, bufs, offset, length);
+                return;
+            }
+            for (int i = 0; i < length; ++i) {
+                this.readData(pageNum + i, bufs[offset + i]);
+            }
+        }
+
+        @Override
+        void writeDataRun(int pageNum, ByteBuffer[] bufs, int offset, int length) throws IOException {
+            if (!this.compressed) {
+                super.writeDataRun(pageNum, bufs, offset, length);
+                return;
+            }
+            for (int i = 0; i < length; ++i) {
+                this.writeData(pageNum + i, bufs[offset + i]);
+            }
+        }
+
+        @Override
+        void writeData(int pageNum, ByteBuffer buf) throws IOException {
+            if (!this.compressed) {
+                super.writeData(pageNum, buf);
+                return;
+            }
+            byte[] page = this.pageArray(buf);
+            if (page == null) {
+                page = this.pageBuffer;
+                buf.duplicate().get(page);
+            }
+            if (pageNum >= this.locations.length) {
+                this.locations = Arrays.copyOf(this.locations, Math.max(pageNum + 1, 2 * this.locations.length));
+            }
+            if (isZeroPage(page)) {
+                this.freeData(pageNum);
+                return;
+            }
+            byte[] data = this.compressBuffer;
+            int length = LZCodec.compress(page, this.pageSize, data);
+            if (length >= this.rawLength()) {
+                // incompressible page; store as is
+                data = page;
+                length = this.pageSize;
+            }
+            // the map file on disk keeps pointing at the old contents until the new ones are forced,
+            // so they are never overwritten in place
+            long oldLocation = this.locations[pageNum];
+            if (oldLocation != 0) {
+                this.releasedSectors.put(firstSector(oldLocation), numSectors(oldLocation));
+            }
+            long firstSector = this.allocSectors((length + SECTOR_SIZE - 1) / SECTOR_SIZE);
+            ByteBuffer b = ByteBuffer.wrap(data, 0, length);
+            while (b.hasRemaining()) {
+                this.dataChannel.write(b, firstSector * SECTOR_SIZE + b.position());
+            }
+            this.writeLocation(pageNum, (firstSector << 16) | Math.min(length, this.rawLength()));
+        }
+
+        @Override
+        void freeData(int pageNum) throws IOException {
+            if (!this.compressed || pageNum >= this.locations.length || this.locations[pageNum] == 0) {
+                return;
+            }
+            this.releasedSectors.put(firstSector(this.locations[pageNum]), numSectors(this.locations[pageNum]));
+            this.writeLocation(pageNum, 0);
+        }
+
+        @Override
+        void forceData() throws IOException {
+            if (!this.compressed) {
+                super.forceData();
+                return;
+            }
+            // the map file must not point at contents that are not on disk yet
+            this.dataChannel.force(false);
+            if (this.dirtyLocations.isEmpty()) {
+                return;
+            }
+            ByteBuffer b = ByteBuffer.allocate(LOCATION_SIZE);
+            for (int i = this.dirtyLocations.nextSetBit(0); i >= 0; i = this.dirtyLocations.nextSetBit(i + 1)) {
+                b.clear();
+                b.putLong(this.locations[i]);
+                b.flip();
+                while (b.hasRemaining()) {
+                    this.mapChannel.write(b, (long) i * LOCATION_SIZE + b.position());
+                }
+            }
+            this.mapChannel.force(false);
+            this.dirtyLocations.clear();
+
+            // nothing on disk points at the released sectors anymore
+            for (Map.Entry<Long, Long> released : this.releasedSectors.entrySet()) {
+                this.releaseSectors(released.getKey(), released.getValue());
+            }
+            this.releasedSectors.clear();
+        }
+
+        @Override
+        void deleteFiles() {
+            super.deleteFiles();
+            if (this.compressed && (!new File(this.fileName + MAP_FILE_SUFFIX).delete() ||
+                                    !new File(this.fileName + DATA_FILE_SUFFIX).delete())) {
+                throw new PageException("could not delete files for partition " + this.fileName);
+            }
+        }
+
+        /**
+         * Updates the location of a data page in memory; the map file is updated by forceData.
+         */
+        private void writeLocation(int pageNum, long location) {
+            if (this.locations[pageNum] != location) {
+                this.locations[pageNum] = location;
+                this.dirtyLocations.set(pageNum);
+            }
+        }
+
+        /**
+         * Finds a run of free sectors (the first one large enough, or at the end of the data file).
+         * @param numSectors number of sectors needed
+         * @return first sector of the run
+         */
+        private long allocSectors(long numSectors) {
+            for (Map.Entry<Long, Long> free : this.freeSectors.entrySet()) {
+                if (free.getValue() >= numSectors) {
+                    this.freeSectors.remove(free.getKey());
+                    if (free.getValue() > numSectors) {
+                        this.freeSectors.put(free.getKey() + numSectors, free.getValue() - numSectors);
+                    }
+                    return free.getKey();
+                }
+            }
+            long firstSector = this.numSectors;
+            this.numSectors += numSectors;
+            return firstSector;
+        }
+
+        /**
+         * Marks a run of sectors as free, merging it with adjacent free runs.
+         */
+        private void releaseSectors(long firstSector, long numSectors) {
+            if (numSectors == 0) {
+                return;
+            }
+            Map.Entry<Long, Long> before = this.freeSectors.lowerEntry(firstSector);
+            if (before != null && before.getKey() + before.getValue() == firstSector) {
+                this.freeSectors.remove(before.getKey());
+                firstSector = before.getKey();
+                numSectors += before.getValue();
+            }
+            Long after = this.freeSectors.remove(firstSector + numSectors);
+            if (after != null) {
+                numSectors += after;
+            }
+            if (firstSector + numSectors == this.numSectors) {
+                this.numSectors = firstSector;
+            } else {
+                this.freeSectors.put(firstSector, numSectors);
+            }
+        }
+
+        private static boolean isZeroPage(byte[] page) {
+            for (byte b : page) {
+                if (b != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return length recorded in the location of a page stored as is (the page size, unless
+         * that does not fit in 16 bits)
+         */
+        private int rawLength() {
+            return Math.min(this.pageSize, 0xFFFF);
+        }
+
+        private static long firstSector(long location) {
+            return location >>> 16;
+        }
+
+        private static int length(long location) {
+            return (int) (location & 0xFFFF);
+        }
+
+        private static long numSectors(long location) {
+            return (length(location) + SECTOR_SIZE - 1) / SECTOR_SIZE;
+        }
+
+        /**
+         * Gets the array backing a page buffer, if the page is exactly that array, so that the
+         * codec can work on it without a copy.
+         * @param buf page buffer
+         * @return the array backing buf, or null if buf is not backed by a page-sized array
+         */
+        private byte[] pageArray(ByteBuffer buf) {
+            if (buf.hasArray() && buf.arrayOffset() + buf.position() == 0 && buf.array().length == this.pageSize) {
+                return buf.array();
+            }
+            return null;
+        }
+
+        private static void readFully(FileChannel channel, ByteBuffer b, long position) throws IOException {
+            int start = b.position();
+            while (b.hasRemaining()) {
+                if (channel.read(b, position + b.position() - start) < 0) {
+                    throw new PageException("unexpected end of file");
+                }
+            }
+        }
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir base directory of the database
+     */
+    public CompressedDiskSpaceManager(String dbDir, RecoveryManager recoveryManager) {
+        this(dbDir, recoveryManager, 0);
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present. Data page writes are synced to disk in batches, with at most maxUnsyncedPages
+     * unsynced pages per partition at any time.
+     *
+     * @param dbDir base directory of the database
+     * @param maxUnsyncedPages maximum number of unsynced data pages per partition, or 0 to
+     *                         force every data page write to disk immediately
+     */
+    public CompressedDiskSpaceManager(String dbDir, RecoveryManager recoveryManager, int maxUnsyncedPages) {
+        super(dbDir, recoveryManager, maxUnsyncedPages);
+    }
+
+    @Override
+    PartInfo newPartInfo(int partNum, RecoveryManager recoveryManager, int maxUnsyncedPages, int pageSize) {
+        return new CompressedPartInfo(partNum, recoveryManager, maxUnsyncedPages, pageSize);
+    }
+}
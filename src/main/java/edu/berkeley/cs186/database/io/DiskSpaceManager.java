@@ -1,12 +1,27 @@
 package edu.berkeley.cs186.database.io;
 
+import java.nio.ByteBuffer;
+
 public interface DiskSpaceManager extends AutoCloseable {
-    short PAGE_SIZE = 4096; // size of a page in bytes
+    short PAGE_SIZE = 4096; // default size of a page in bytes
+    int MIN_PAGE_SIZE = 4096; // smallest page size a database may be created with
+    int MAX_PAGE_SIZE = 65536; // largest page size a database may be created with
     long INVALID_PAGE_NUM = -1L; // a page number that is always invalid
+    int TEMP_PART_START = 500000000; // partition number of the first temporary partition
 
     @Override
     void close();
 
+    /**
+     * Gets the size of the pages of the database, in bytes. This is chosen when the database
+     * is created, and is a power of 2 between MIN_PAGE_SIZE and MAX_PAGE_SIZE.
+     *
+     * @return page size in bytes
+     */
+    default int getPageSize() {
+        return PAGE_SIZE;
+    }
+
     /**
      * Allocates a new partition.
      *
@@ -22,6 +37,16 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     int allocPart(int partNum);
 
+    /**
+     * Allocates a new temporary partition. Temporary partitions are not durable: their pages
+     * are kept in memory where possible (and otherwise in scratch files that are never synced),
+     * changes to them are not logged, and they do not survive a restart. Temporary partitions
+     * have partition numbers of at least TEMP_PART_START.
+     *
+     * @return partition number of new partition
+     */
+    int allocTempPart();
+
     /**
      * Releases a partition from use.
 
@@ -43,6 +68,17 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     long allocPage(long pageNum);
 
+    /**
+     * Reserves an extent: a run of numPages consecutive free pages of a partition, stored
+     * contiguously on disk. Reserved pages are not allocated; they are only skipped by
+     * allocPage(int) (but may be allocated with allocPage(long)). Reservations are not
+     * persisted, and last until the partition is closed.
+     * @param partNum partition to reserve pages in
+     * @param numPages number of pages to reserve
+     * @return virtual page number of the first page of the extent
+     */
+    long reserveExtent(int partNum, int numPages);
+
     /**
      * Frees a page. The page cannot be used after this call.
      * @param page virtual page number of page to be released
@@ -57,6 +93,49 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     void readPage(long page, byte[] buf);
 
+    /**
+     * Reads a run of consecutive pages of a single partition. Implementations may read
+     * the pages with fewer I/O operations than reading each page individually.
+     *
+     * @param page number of first page to be read
+     * @param bufs page-sized byte buffers, one per page; bufs[i] is filled with the data of page + i
+     */
+    default void readPages(long page, byte[][] bufs) {
+        for (int i = 0; i < bufs.length; ++i) {
+            this.readPage(page + i, bufs[i]);
+        }
+    }
+
+    /**
+     * Reads a page into a ByteBuffer, which may be a direct buffer. Implementations may read
+     * directly into the buffer, without an intermediate copy.
+     *
+     * @param page number of page to be read
+     * @param buf buffer with exactly a page of bytes remaining, which are filled with page data;
+     *            the position and limit of buf are not changed
+     */
+    default void readPage(long page, ByteBuffer buf) {
+        byte[] bytes = new byte[buf.remaining()];
+        this.readPage(page, bytes);
+        buf.duplicate().put(bytes);
+    }
+
+    /**
+     * Reads a run of consecutive pages of a single partition into ByteBuffers
+     * (see readPages(long, byte[][]) and readPage(long, ByteBuffer)).
+     *
+     * @param page number of first page to be read
+     * @param bufs buffers with exactly a page of bytes remaining, one per page; bufs[i] is filled
+     *             with the data of page + i
+     */
+    default void readPages(long page, ByteBuffer[] bufs) {
+        byte[][] bytes = new byte[bufs.length][this.getPageSize()];
+        this.readPages(page, bytes);
+        for (int i = 0; i < bufs.length; ++i) {
+            bufs[i].duplicate().put(bytes[i]);
+        }
+    }
+
     /**
      * Writes to a page.
      *
@@ -65,6 +144,50 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     void writePage(long page, byte[] buf);
 
+    /**
+     * Writes to several pages of a single partition. Implementations may combine writes to
+     * adjacent pages into fewer I/O operations, and force the writes to disk together, than
+     * writing each page individually.
+     *
+     * @param pages numbers of pages to be written, in increasing order
+     * @param bufs page-sized byte buffers, one per page; bufs[i] contains the new data of pages[i]
+     */
+    default void writePages(long[] pages, byte[][] bufs) {
+        for (int i = 0; i < pages.length; ++i) {
+            this.writePage(pages[i], bufs[i]);
+        }
+    }
+
+    /**
+     * Writes to a page from a ByteBuffer, which may be a direct buffer. Implementations may write
+     * directly from the buffer, without an intermediate copy.
+     *
+     * @param page number of page to be written
+     * @param buf buffer with exactly a page of bytes remaining, which contain the new page data;
+     *            the position and limit of buf are not changed
+     */
+    default void writePage(long page, ByteBuffer buf) {
+        byte[] bytes = new byte[buf.remaining()];
+        buf.duplicate().get(bytes);
+        this.writePage(page, bytes);
+    }
+
+    /**
+     * Writes to several pages of a single partition from ByteBuffers
+     * (see writePages(long[], byte[][]) and writePage(long, ByteBuffer)).
+     *
+     * @param pages numbers of pages to be written, in increasing order
+     * @param bufs buffers with exactly a page of bytes remaining, one per page; bufs[i] contains
+     *             the new data of pages[i]
+     */
+    default void writePages(long[] pages, ByteBuffer[] bufs) {
+        byte[][] bytes = new byte[bufs.length][this.getPageSize()];
+        for (int i = 0; i < bufs.length; ++i) {
+            bufs[i].duplicate().get(bytes[i]);
+        }
+        this.writePages(pages, bytes);
+    }
+
     /**
      * Checks if a page is allocated
      *
@@ -73,6 +196,27 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     boolean pageAllocated(long page);
 
+    /**
+     * Forces any writes that have not yet been synced to disk, for every partition.
+     */
+    void sync();
+
+    /**
+     * Forces any writes that have not yet been synced to disk, for a single partition.
+     *
+     * @param partNum partition to sync
+     */
+    void sync(int partNum);
+
+    /**
+     * Checks if a partition is a temporary partition (see allocTempPart)
+     * @param partNum partition number
+     * @return true if the partition number is that of a temporary partition
+     */
+    static boolean isTempPart(int partNum) {
+        return partNum >= TEMP_PART_START;
+    }
+
     /**
      * Gets partition number from virtual page number
      * @param page virtual page number
@@ -10,12 +10,14 @@ import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * An implementation of a disk space manager with virtual page translation, and
- * two levels of header pages, allowing for (with page size of 4K) 256G worth of data per partition:
+ * two levels of header pages, allowing for (with page size of 4K) 128G worth of data per partition:
  *
  *                                           [master page]
  *                  /                              |                               \
@@ -23,10 +25,17 @@ import java.util.concurrent.locks.ReentrantLock;
  *     /    |     |     |     \                   ...                   /    |     |     |     \
  * [data] [data] ... [data] [data]                                   [data] [data] ... [data] [data]
  *
+ * The page size is chosen when the database is created: a power of 2 between 4K and 64K (4K by default).
  * Each header page stores a bitmap, indicating whether each of the data pages has been allocated,
- * and manages 32K pages. The master page stores 16-bit integers for each of the header pages indicating
- * the number of data pages that have been allocated under the header page (managing 2K header pages).
- * A single partition may therefore have a maximum of 64M data pages.
+ * and manages (page size * 8) pages, i.e. 32K pages with 4K pages. The master page starts with a magic
+ * number and the page size, followed by 32-bit integers for each of the header pages indicating the
+ * number of data pages that have been allocated under the header page (managing 1022 header pages with
+ * 4K pages). Partitions are limited to 2^31 data pages, so that data page numbers fit in an int; with
+ * 64K pages, there are at most 4K header pages.
+ *
+ * (Older versions only supported 4K pages, and their master pages store 16-bit integers for 2K header
+ * pages, with no magic number or page size. Their first two counts are at most 32K, so they can never
+ * be mistaken for the magic number; partitions with such master pages keep that layout.)
  *
  * Master and header pages are cached permanently in memory; changes to these are immediately flushed to
  * disk. This imposes a fairly small memory overhead (128M partitions have 2 pages cached). This caching
@@ -42,14 +51,45 @@ import java.util.concurrent.locks.ReentrantLock;
  * manner:
  * - the master page is the 0th page of the OS file
  * - the first header page is the 1st page of the OS file
- * - the next 32K pages are data pages managed by the first header page
+ * - the next (page size * 8) pages are data pages managed by the first header page
  * - the second header page follows
- * - the next 32K pages are data pages managed by the second header page
+ * - the next (page size * 8) pages are data pages managed by the second header page
  * - etc.
+ *
+ * (Older versions placed the second and later header pages one page too early, on top of the last data
+ * page managed by the previous header page. Partitions of more than 32K pages written by those versions
+ * use that layout, and are not readable by this one.)
+ *
+ * By default, every data page write is forced to disk before returning. The disk space manager
+ * may instead be created with a limit on the number of unsynced pages per partition, in which case
+ * data page writes are only forced in batches: when the limit is exceeded, when sync is called
+ * (e.g. at a checkpoint), or when the disk space manager is closed. Durability of these writes relies
+ * on the log, and the recovery manager is only notified of a page write (diskIOHook) once the page
+ * has actually been synced, along with which of the page's updates the write included (diskWriteHook),
+ * so that a page updated again in the meantime is still considered dirty.
+ *
+ * Runs of consecutive free pages may be reserved as extents (see reserveExtent), so that a heap file
+ * or index can place its pages contiguously on disk. Reservations are kept in memory only: reserved
+ * pages are skipped by allocPage(int) until allocated, and simply become free pages again when the
+ * partition is reopened.
+ *
+ * There is no lock on the entire manager: partitions are looked up in a concurrent map, and each
+ * partition has a read/write lock. Data page reads (and checks of whether a page is allocated) only
+ * need the partition's read lock, so they proceed in parallel; everything else takes the write lock.
+ * A partition is marked closed (under its write lock) when freed or when the manager is closed, and
+ * operations that find a closed partition after acquiring its lock fail as if it did not exist.
+ *
+ * Temporary partitions (see allocTempPart) skip all of the above durability machinery: their master
+ * and header pages are never written out, their data pages are kept in memory up to a limit shared by
+ * all temporary partitions (MAX_TEMP_MEMORY_PAGES) and are otherwise written to a scratch file in the
+ * TEMP_DIR subdirectory without being forced, and allocations and frees are not logged. Scratch files
+ * are deleted when the partition is freed, when the manager is closed, and at startup.
  */
 public class DiskSpaceManagerImpl implements DiskSpaceManager {
-    private static final int MAX_HEADER_PAGES = PAGE_SIZE / 2; // 2 bytes per header page
-    private static final int DATA_PAGES_PER_HEADER = PAGE_SIZE * 8; // 1 bit per data page
+    static final int MASTER_PAGE_MAGIC = 0xDB186001; // first 4 bytes of a master page (see below)
+    static final int MASTER_PAGE_HEADER_SIZE = 8; // magic number and page size, before the counts
+    static final int MAX_TEMP_MEMORY_PAGES = 1024; // data pages of temporary partitions kept in memory
+    static final String TEMP_DIR = "tmp"; // subdirectory of scratch files of temporary partitions
 
     // Name of base directory.
     private String dbDir;
@@ -60,19 +100,53 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
     // Counter to generate new partition numbers.
     private AtomicInteger partNumCounter;
 
-    // Lock on the entire manager.
-    private ReentrantLock managerLock;
+    // Counter to generate new temporary partition numbers.
+    private AtomicInteger tempPartNumCounter;
+
+    // Number of data pages of temporary partitions currently kept in memory.
+    private AtomicInteger numTempMemoryPages;
 
     // recovery manager
     private RecoveryManager recoveryManager;
 
-    private static class PartInfo implements AutoCloseable {
+    // Maximum number of unsynced data pages per partition; 0 to force every write.
+    private int maxUnsyncedPages;
+
+    // Size of the pages of every partition, in bytes.
+    private int pageSize;
+
+    /**
+     * Info about a single partition. Data pages are read and written with positional
+     * I/O on the partition's file channel; subclasses may override readData, readDataRun,
+     * writeData, writeDataRun, freeData, forceData, and deleteFiles to store data page contents
+     * in some other way.
+     */
+    static class PartInfo implements AutoCloseable {
+        // Name of the underlying OS file.
+        String fileName;
+
         // Underyling OS file/file channel.
         private RandomAccessFile file;
-        private FileChannel fileChannel;
+        FileChannel fileChannel;
+
+        // Lock on the partition; the read lock suffices to read data pages.
+        private ReentrantReadWriteLock partitionLock;
+
+        // Whether the partition has been closed (or freed).
+        private boolean closed;
+
+        // Size of the pages of this partition, in bytes
+        int pageSize;
 
-        // Lock on the partition.
-        private ReentrantLock partitionLock;
+        // Number of data pages managed by each header page
+        int dataPagesPerHeader;
+
+        // Maximum number of header pages (the number of counts in the master page)
+        private int maxHeaderPages;
+
+        // Whether the master page has the layout of older versions: 16-bit counts, and no magic
+        // number or page size
+        private boolean legacyMasterPage;
 
         // Contents of the master page of this partition
         private int[] masterPage;
@@ -80,49 +154,99 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         // Contents of the various header pages of this partition
         private List<byte[]> headerPages;
 
+        // Lowest index of a header page that may have free data pages
+        private int freeHeaderHint;
+
+        // For each header page, lowest index of a byte of the header page that may have
+        // a free data page's bit
+        private int[] freeByteHints;
+
+        // Data pages reserved as part of an extent, that have not been allocated since
+        private BitSet reservedPages;
+
         // Recovery manager
         private RecoveryManager recoveryManager;
 
         // Partition number
         private int partNum;
 
-        private PartInfo(int partNum, RecoveryManager recoveryManager) {
-            this.masterPage = new int[MAX_HEADER_PAGES];
+        // Maximum number of unsynced data pages; 0 to force every write.
+        private int maxUnsyncedPages;
+
+        // Data pages written since the last sync, with the LSN of the last update to each page
+        // included in its latest write (see RecoveryManager#diskWriteHook)
+        private Map<Integer, Long> unsyncedPages;
+
+        PartInfo(int partNum, RecoveryManager recoveryManager, int maxUnsyncedPages, int pageSize) {
+            this.setPageSize(pageSize, false);
             this.headerPages = new ArrayList<>();
-            this.partitionLock = new ReentrantLock();
+            this.freeHeaderHint = 0;
+            this.reservedPages = new BitSet();
+            this.partitionLock = new ReentrantReadWriteLock();
             this.recoveryManager = recoveryManager;
             this.partNum = partNum;
+            this.maxUnsyncedPages = maxUnsyncedPages;
+            this.unsyncedPages = new LinkedHashMap<>();
+        }
+
+        /**
+         * Sets the size of the pages of the partition, and the limits that depend on it.
+         * @param pageSize page size in bytes
+         * @param legacyMasterPage whether the master page has the layout of older versions
+         */
+        private void setPageSize(int pageSize, boolean legacyMasterPage) {
+            this.pageSize = pageSize;
+            this.legacyMasterPage = legacyMasterPage;
+            this.dataPagesPerHeader = dataPagesPerHeader(pageSize);
+            this.maxHeaderPages = legacyMasterPage ? pageSize / 2 : maxHeaderPages(pageSize);
+            this.masterPage = new int[this.maxHeaderPages];
+            this.freeByteHints = new int[this.maxHeaderPages];
         }
 
         /**
-         * Opens the OS file and loads master and header pages.
+         * Opens the OS file and loads master and header pages. A new partition gets the page
+         * size it was created with; an existing one gets the page size stored in its master page.
          * @param fileName name of OS file partition is stored in
          */
-        private void open(String fileName) {
+        void open(String fileName) {
             assert (this.fileChannel == null);
+            this.fileName = fileName;
             try {
                 this.file = new RandomAccessFile(fileName, "rw");
                 this.fileChannel = this.file.getChannel();
                 long length = this.file.length();
                 if (length == 0) {
                     // new file, write empty master page and fill headerPages with null
-                    for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
+                    for (int i = 0; i < this.maxHeaderPages; ++i) {
                         this.headerPages.add(null);
                     }
                     this.writeMasterPage();
                 } else {
                     // old file, read in master page + header pages
-                    ByteBuffer b = ByteBuffer.wrap(new byte[PAGE_SIZE]);
+                    ByteBuffer b = ByteBuffer.allocate(MASTER_PAGE_HEADER_SIZE);
                     this.fileChannel.read(b, PartInfo.masterPageOffset());
-                    b.position(0);
-                    for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
-                        this.masterPage[i] = (b.getShort() & 0xFFFF);
-                        if (PartInfo.headerPageOffset(i) >= length) {
+                    b.flip();
+                    if (b.getInt() == MASTER_PAGE_MAGIC) {
+                        int pageSize = b.getInt();
+                        if (!isValidPageSize(pageSize)) {
+                            throw new PageException("partition " + this.partNum + " has an invalid page size of " +
+                                                    pageSize);
+                        }
+                        this.setPageSize(pageSize, false);
+                    } else {
+                        this.setPageSize(PAGE_SIZE, true);
+                    }
+                    b = ByteBuffer.wrap(new byte[this.pageSize]);
+                    this.fileChannel.read(b, PartInfo.masterPageOffset());
+                    b.position(this.legacyMasterPage ? 0 : MASTER_PAGE_HEADER_SIZE);
+                    for (int i = 0; i < this.maxHeaderPages; ++i) {
+                        this.masterPage[i] = this.legacyMasterPage ? (b.getShort() & 0xFFFF) : b.getInt();
+                        if (this.headerPageOffset(i) >= length) {
                             this.headerPages.add(null);
                         } else {
-                            byte[] headerPage = new byte[PAGE_SIZE];
+                            byte[] headerPage = new byte[this.pageSize];
                             this.headerPages.add(headerPage);
-                            this.fileChannel.read(ByteBuffer.wrap(headerPage), PartInfo.headerPageOffset(i));
+                            this.fileChannel.read(ByteBuffer.wrap(headerPage), this.headerPageOffset(i));
                         }
                     }
                 }
@@ -133,13 +257,18 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
 
         @Override
         public void close() throws IOException {
-            this.partitionLock.lock();
+            this.partitionLock.writeLock().lock();
             try {
+                if (this.closed) {
+                    return;
+                }
+                this.closed = true;
+                this.sync();
                 this.headerPages.clear();
                 this.file.close();
                 this.fileChannel.close();
             } finally {
-                this.partitionLock.unlock();
+                this.partitionLock.writeLock().unlock();
             }
         }
 
@@ -147,9 +276,20 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
          * Writes the master page to disk.
          */
         private void writeMasterPage() throws IOException {
-            ByteBuffer b = ByteBuffer.wrap(new byte[PAGE_SIZE]);
-            for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
-                b.putShort((short) (masterPage[i] & 0xFFFF));
+            if (!this.isDurable()) {
+                return;
+            }
+            ByteBuffer b = ByteBuffer.wrap(new byte[this.pageSize]);
+            if (this.legacyMasterPage) {
+                for (int i = 0; i < this.maxHeaderPages; ++i) {
+                    b.putShort((short) (masterPage[i] & 0xFFFF));
+                }
+            } else {
+                b.putInt(MASTER_PAGE_MAGIC);
+                b.putInt(this.pageSize);
+                for (int i = 0; i < this.maxHeaderPages; ++i) {
+                    b.putInt(masterPage[i]);
+                }
             }
             b.position(0);
             this.fileChannel.write(b, PartInfo.masterPageOffset());
@@ -160,44 +300,98 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
          * @param headerIndex which header page
          */
         private void writeHeaderPage(int headerIndex) throws IOException {
+            if (!this.isDurable()) {
+                return;
+            }
             ByteBuffer b = ByteBuffer.wrap(this.headerPages.get(headerIndex));
-            this.fileChannel.write(b, PartInfo.headerPageOffset(headerIndex));
+            this.fileChannel.write(b, this.headerPageOffset(headerIndex));
         }
 
         /**
-         * Allocates a new page in the partition.
+         * Allocates a new page in the partition, skipping reserved pages. The search for a free
+         * page starts at the free hints (lower bounds on the first header page with free pages and
+         * on the first byte of each header page with a free page's bit), which only move backwards
+         * when a page is freed, so allocating pages one after another takes amortized constant time.
          * @return data page number
          */
         private int allocPage() throws IOException {
-            int headerIndex = -1;
-            for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
-                if (this.masterPage[i] < DATA_PAGES_PER_HEADER) {
-                    headerIndex = i;
-                    break;
-                }
+            while (this.freeHeaderHint < this.maxHeaderPages &&
+                    this.masterPage[this.freeHeaderHint] >= this.dataPagesPerHeader) {
+                ++this.freeHeaderHint;
             }
-            if (headerIndex == -1) {
-                throw new PageException("no free pages - partition has reached max size");
+            for (int headerIndex = this.freeHeaderHint; headerIndex < this.maxHeaderPages; ++headerIndex) {
+                if (this.masterPage[headerIndex] >= this.dataPagesPerHeader) {
+                    continue;
+                }
+                int pageIndex = this.findFreePage(headerIndex);
+                if (pageIndex != -1) {
+                    return this.allocPage(headerIndex, pageIndex);
+                }
             }
+            throw new PageException("no free pages - partition has reached max size");
+        }
 
+        /**
+         * Finds the first free data page managed by a header page that is not reserved.
+         * @param headerIndex index of header page
+         * @return index within header page of the free page, or -1 if there is none
+         */
+        private int findFreePage(int headerIndex) {
             byte[] headerBytes = this.headerPages.get(headerIndex);
-
-            int pageIndex = -1;
-            if (headerBytes == null) {
-                pageIndex = 0;
-            } else {
-                for (int i = 0; i < DATA_PAGES_PER_HEADER; i++) {
-                    if (Bits.getBit(headerBytes, i) == Bits.Bit.ZERO) {
-                        pageIndex = i;
-                        break;
-                    }
+            int firstPageNum = headerIndex * this.dataPagesPerHeader;
+            boolean hintUpdated = false;
+            for (int i = this.freeByteHints[headerIndex]; i < this.pageSize; ++i) {
+                int freeBits = headerBytes == null ? 0xFF : ~headerBytes[i] & 0xFF;
+                if (freeBits == 0) {
+                    // skip bytes of the bitmap for 8 allocated pages at a time
+                    continue;
                 }
-                if (pageIndex == -1) {
-                    throw new PageException("header page should have free space, but doesn't");
+                if (!hintUpdated) {
+                    this.freeByteHints[headerIndex] = i;
+                    hintUpdated = true;
+                }
+                // bits are numbered from the most significant bit
+                for (int j = Integer.numberOfLeadingZeros(freeBits) - 24; j < 8; ++j) {
+                    int pageIndex = i * 8 + j;
+                    if ((freeBits & (0x80 >>> j)) != 0 && !this.reservedPages.get(firstPageNum + pageIndex)) {
+                        return pageIndex;
+                    }
                 }
             }
+            return -1;
+        }
 
-            return this.allocPage(headerIndex, pageIndex);
+        /**
+         * Reserves a run of consecutive free data pages, all managed by the same header page
+         * (and therefore contiguous in the OS file).
+         * @param numPages number of pages to reserve
+         * @return data page number of the first reserved page
+         */
+        private int reserveExtent(int numPages) {
+            for (int headerIndex = this.freeHeaderHint; headerIndex < this.maxHeaderPages; ++headerIndex) {
+                if (this.masterPage[headerIndex] + numPages > this.dataPagesPerHeader) {
+                    continue;
+                }
+                byte[] headerBytes = this.headerPages.get(headerIndex);
+                int firstPageNum = headerIndex * this.dataPagesPerHeader;
+                int runLength = 0;
+                for (int i = this.freeByteHints[headerIndex] * 8; i < this.dataPagesPerHeader; ++i) {
+                    if (headerBytes != null && i % 8 == 0 && headerBytes[i / 8] == (byte) 0xFF) {
+                        runLength = 0;
+                        i += 7;
+                        continue;
+                    }
+                    boolean free = (headerBytes == null || Bits.getBit(headerBytes, i) == Bits.Bit.ZERO) &&
+                                   !this.reservedPages.get(firstPageNum + i);
+                    runLength = free ? runLength + 1 : 0;
+                    if (runLength == numPages) {
+                        int pageNum = firstPageNum + i - numPages + 1;
+                        this.reservedPages.set(pageNum, pageNum + numPages);
+                        return pageNum;
+                    }
+                }
+            }
+            throw new PageException("no free extent of " + numPages + " pages - partition has reached max size");
         }
 
         /**
@@ -209,7 +403,7 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         private int allocPage(int headerIndex, int pageIndex) throws IOException {
             byte[] headerBytes = this.headerPages.get(headerIndex);
             if (headerBytes == null) {
-                headerBytes = new byte[PAGE_SIZE];
+                headerBytes = new byte[this.pageSize];
                 this.headerPages.remove(headerIndex);
                 this.headerPages.add(headerIndex, headerBytes);
             }
@@ -221,12 +415,13 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
             }
 
             Bits.setBit(headerBytes, pageIndex, Bits.Bit.ONE);
-            this.masterPage[headerIndex] = Bits.countBits(headerBytes);
+            ++this.masterPage[headerIndex];
 
-            int pageNum = pageIndex + headerIndex * DATA_PAGES_PER_HEADER;
+            int pageNum = pageIndex + headerIndex * this.dataPagesPerHeader;
+            this.reservedPages.clear(pageNum);
 
             TransactionContext transaction = TransactionContext.getTransaction();
-            if (transaction != null) {
+            if (transaction != null && this.isDurable()) {
                 long vpn = DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
                 recoveryManager.logAllocPage(transaction.getTransNum(), vpn);
                 recoveryManager.diskIOHook(vpn);
@@ -243,8 +438,8 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
          * @param pageNum data page number to be freed
          */
         private void freePage(int pageNum) throws IOException {
-            int headerIndex = pageNum / DATA_PAGES_PER_HEADER;
-            int pageIndex = pageNum % DATA_PAGES_PER_HEADER;
+            int headerIndex = pageNum / this.dataPagesPerHeader;
+            int pageIndex = pageNum % this.dataPagesPerHeader;
 
             byte[] headerBytes = headerPages.get(headerIndex);
             if (headerBytes == null) {
@@ -255,11 +450,14 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
                 throw new NoSuchElementException("cannot free unallocated page");
             }
 
-            Bits.setBit(headerBytes, pageIndex, Bits.Bit.ONE);
-            this.masterPage[headerIndex] = Bits.countBits(headerBytes);
+            Bits.setBit(headerBytes, pageIndex, Bits.Bit.ZERO);
+            --this.masterPage[headerIndex];
+            this.freeHeaderHint = Math.min(this.freeHeaderHint, headerIndex);
+            this.freeByteHints[headerIndex] = Math.min(this.freeByteHints[headerIndex], pageIndex / 8);
+            this.freeData(pageNum);
 
             TransactionContext transaction = TransactionContext.getTransaction();
-            if (transaction != null) {
+            if (transaction != null && this.isDurable()) {
                 long vpn = DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
                 recoveryManager.logFreePage(transaction.getTransNum(), vpn);
                 recoveryManager.diskIOHook(vpn);
@@ -270,33 +468,238 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         }
 
         /**
-         * Reads in a data page. Assumes that the partition lock is held.
+         * Reads in a data page. Assumes that the partition lock is held (in either mode).
          * @param pageNum data page number to read in
-         * @param buf output buffer to be filled with page - assumed to be page size
+         * @param buf output buffer to be filled with page - assumed to have a page of bytes remaining
          */
-        private void readPage(int pageNum, byte[] buf) throws IOException {
+        private void readPage(int pageNum, ByteBuffer buf) throws IOException {
             if (this.isNotAllocatedPage(pageNum)) {
                 throw new PageException("page " + pageNum + " is not allocated");
             }
-            ByteBuffer b = ByteBuffer.wrap(buf);
-            this.fileChannel.read(b, PartInfo.dataPageOffset(pageNum));
+            this.readData(pageNum, buf);
+        }
+
+        /**
+         * Reads in a run of consecutive data pages. Assumes that the partition lock is held (in either mode).
+         * @param pageNum data page number of first page to read in
+         * @param bufs output buffers to be filled with pages - assumed to have a page of bytes remaining
+         */
+        private void readPages(int pageNum, ByteBuffer[] bufs) throws IOException {
+            for (int i = 0; i < bufs.length; ++i) {
+                if (this.isNotAllocatedPage(pageNum + i)) {
+                    throw new PageException("page " + (pageNum + i) + " is not allocated");
+                }
+            }
+            // data pages are only contiguous in the OS file between header pages
+            int i = 0;
+            while (i < bufs.length) {
+                int runLength = Math.min(bufs.length - i,
+                                         this.dataPagesPerHeader - (pageNum + i) % this.dataPagesPerHeader);
+                this.readDataRun(pageNum + i, bufs, i, runLength);
+                i += runLength;
+            }
         }
 
         /**
          * Writes to a data page. Assumes that the partition lock is held.
          * @param pageNum data page number to write to
-         * @param buf input buffer with new contents of page - assumed to be page size
+         * @param buf input buffer with new contents of page - assumed to have a page of bytes remaining
          */
-        private void writePage(int pageNum, byte[] buf) throws IOException {
+        private void writePage(int pageNum, ByteBuffer buf) throws IOException {
             if (this.isNotAllocatedPage(pageNum)) {
                 throw new PageException("page " + pageNum + " is not allocated");
             }
-            ByteBuffer b = ByteBuffer.wrap(buf);
-            this.fileChannel.write(b, PartInfo.dataPageOffset(pageNum));
-            this.fileChannel.force(false);
+            this.writeData(pageNum, buf);
+            if (!this.isDurable()) {
+                return;
+            }
+            if (this.maxUnsyncedPages <= 0) {
+                this.forceData();
+
+                long vpn = DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
+                recoveryManager.diskIOHook(vpn);
+                return;
+            }
+            this.addUnsyncedPage(pageNum);
+            if (this.unsyncedPages.size() > this.maxUnsyncedPages) {
+                this.sync();
+            }
+        }
 
+        /**
+         * Writes to several data pages, writing each run of adjacent pages with a single write and
+         * forcing all of the writes to disk together. Assumes that the partition lock is held.
+         * @param pageNums data page numbers to write to, in increasing order
+         * @param bufs input buffers with new contents of pages - assumed to have a page of bytes remaining
+         */
+        private void writePages(int[] pageNums, ByteBuffer[] bufs) throws IOException {
+            for (int pageNum : pageNums) {
+                if (this.isNotAllocatedPage(pageNum)) {
+                    throw new PageException("page " + pageNum + " is not allocated");
+                }
+            }
+            int i = 0;
+            while (i < pageNums.length) {
+                // data pages are only contiguous in the OS file between header pages
+                int runLength = 1;
+                while (i + runLength < pageNums.length && pageNums[i + runLength] == pageNums[i] + runLength &&
+                        (pageNums[i] + runLength) % this.dataPagesPerHeader != 0) {
+                    ++runLength;
+                }
+                this.writeDataRun(pageNums[i], bufs, i, runLength);
+                i += runLength;
+            }
+            if (!this.isDurable()) {
+                return;
+            }
+            if (this.maxUnsyncedPages <= 0) {
+                this.forceData();
+                for (int pageNum : pageNums) {
+                    recoveryManager.diskIOHook(DiskSpaceManager.getVirtualPageNum(partNum, pageNum));
+                }
+                return;
+            }
+            for (int pageNum : pageNums) {
+                this.addUnsyncedPage(pageNum);
+            }
+            if (this.unsyncedPages.size() > this.maxUnsyncedPages) {
+                this.sync();
+            }
+        }
+
+        /**
+         * Records a data page write that has not been forced to disk yet. The page may be updated
+         * again before the write is forced, so the recovery manager is asked which of the page's
+         * updates the write includes now, rather than when it is forced.
+         * @param pageNum data page number written to
+         */
+        private void addUnsyncedPage(int pageNum) {
             long vpn = DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
-            recoveryManager.diskIOHook(vpn);
+            this.unsyncedPages.put(pageNum, recoveryManager.diskWriteHook(vpn));
+        }
+
+        /**
+         * Forces all unsynced data page writes to disk, and notifies the recovery manager
+         * of each of them. Assumes that the partition lock is held.
+         */
+        private void sync() throws IOException {
+            if (this.unsyncedPages.isEmpty()) {
+                return;
+            }
+            this.forceData();
+            for (Map.Entry<Integer, Long> page : this.unsyncedPages.entrySet()) {
+                long vpn = DiskSpaceManager.getVirtualPageNum(partNum, page.getKey());
+                recoveryManager.diskIOHook(vpn, page.getValue());
+            }
+            this.unsyncedPages.clear();
+        }
+
+        /**
+         * Reads the contents of a data page from the OS file. Implementations fill the remaining
+         * bytes of buf, but leave its position and limit unchanged; this applies to the other
+         * data page hooks (readDataRun, writeData and writeDataRun) too.
+         * @param pageNum data page number to read in
+         * @param buf output buffer to be filled with page - assumed to have a page of bytes remaining
+         */
+        void readData(int pageNum, ByteBuffer buf) throws IOException {
+            // reading straight into buf saves a copy when buf is a direct buffer
+            ByteBuffer b = buf.duplicate();
+            long position = this.dataPageOffset(pageNum) - b.position();
+            while (b.hasRemaining() && this.fileChannel.read(b, position + b.position()) >= 0) {}
+        }
+
+        /**
+         * Reads the contents of a run of data pages that are stored contiguously in the OS file,
+         * with a single read.
+         * @param pageNum data page number of first page to read in
+         * @param bufs output buffers - assumed to have a page of bytes remaining
+         * @param offset index in bufs of the buffer for the first page
+         * @param length number of pages to read
+         */
+        void readDataRun(int pageNum, ByteBuffer[] bufs, int offset, int length) throws IOException {
+            // scattering reads use (and move) the channel's position, which concurrent readers
+            // share, so read positionally into one buffer and split it up afterwards
+            ByteBuffer b = ByteBuffer.allocate(length * this.pageSize);
+            long position = this.dataPageOffset(pageNum);
+            while (b.hasRemaining()) {
+                int numRead = this.fileChannel.read(b, position + b.position());
+                if (numRead < 0) {
+                    throw new PageException("unexpected end of file reading page " + (pageNum + length - 1));
+                }
+            }
+            b.flip();
+            for (int i = 0; i < length; ++i) {
+                b.limit(b.position() + this.pageSize);
+                bufs[offset + i].duplicate().put(b);
+            }
+        }
+
+        /**
+         * Writes the contents of a data page to the OS file, without forcing it to disk.
+         * @param pageNum data page number to write to
+         * @param buf input buffer with new contents of page - assumed to have a page of bytes remaining
+         */
+        void writeData(int pageNum, ByteBuffer buf) throws IOException {
+            ByteBuffer b = buf.duplicate();
+            long position = this.dataPageOffset(pageNum) - b.position();
+            while (b.hasRemaining()) {
+                this.fileChannel.write(b, position + b.position());
+            }
+        }
+
+        /**
+         * Writes the contents of a run of data pages that are stored contiguously in the OS file,
+         * with a single (gathering) write, without forcing them to disk. Assumes that the partition's
+         * write lock is held, since this moves the channel's position.
+         * @param pageNum data page number of first page to write to
+         * @param bufs input buffers - assumed to have a page of bytes remaining
+         * @param offset index in bufs of the buffer for the first page
+         * @param length number of pages to write
+         */
+        void writeDataRun(int pageNum, ByteBuffer[] bufs, int offset, int length) throws IOException {
+            ByteBuffer[] bs = new ByteBuffer[length];
+            for (int i = 0; i < length; ++i) {
+                bs[i] = bufs[offset + i].duplicate();
+            }
+            this.fileChannel.position(this.dataPageOffset(pageNum));
+            // a gathering write may write fewer buffers than given (e.g. if there are more than IOV_MAX)
+            int written = 0;
+            while (written < length) {
+                this.fileChannel.write(bs, written, length - written);
+                while (written < length && !bs[written].hasRemaining()) {
+                    ++written;
+                }
+            }
+        }
+
+        /**
+         * Releases any storage used by the contents of a data page that has been freed.
+         * Data pages are stored at fixed offsets in the OS file, so this does nothing.
+         * @param pageNum data page number of freed page
+         */
+        void freeData(int pageNum) throws IOException {}
+
+        /**
+         * Forces all data page writes made so far to disk.
+         */
+        void forceData() throws IOException {
+            this.fileChannel.force(false);
+        }
+
+        /**
+         * Deletes the OS file(s) of the partition, once it has been closed.
+         */
+        void deleteFiles() {
+            if (!new File(this.fileName).delete()) {
+                throw new PageException("could not delete files for partition " + this.partNum);
+            }
+        }
+
+        /**
+         * @return whether changes to the partition must survive a crash (false for temporary partitions)
+         */
+        boolean isDurable() {
+            return true;
         }
 
         /**
@@ -305,9 +708,9 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
          * @return true if page is not valid or not allocated
          */
         private boolean isNotAllocatedPage(int pageNum) {
-            int headerIndex = pageNum / DATA_PAGES_PER_HEADER;
-            int pageIndex = pageNum % DATA_PAGES_PER_HEADER;
-            if (headerIndex < 0 || headerIndex >= MAX_HEADER_PAGES) {
+            int headerIndex = pageNum / this.dataPagesPerHeader;
+            int pageIndex = pageNum % this.dataPagesPerHeader;
+            if (headerIndex < 0 || headerIndex >= this.maxHeaderPages) {
                 return true;
             }
             if (masterPage[headerIndex] == 0) {
@@ -319,7 +722,7 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         /**
          * @return offset in OS file for master page
          */
-        private static long masterPageOffset() {
+        static long masterPageOffset() {
             return 0;
         }
 
@@ -327,25 +730,26 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
          * @param headerIndex which header page
          * @return offset in OS file for header page
          */
-        private static long headerPageOffset(int headerIndex) {
-            return (long) (1 + headerIndex * DATA_PAGES_PER_HEADER) * PAGE_SIZE;
+        long headerPageOffset(int headerIndex) {
+            // each header page is followed by the dataPagesPerHeader data pages it manages
+            return (long) (1 + headerIndex * (this.dataPagesPerHeader + 1)) * this.pageSize;
         }
 
         /**
          * @param pageNum data page number
          * @return offset in OS file for data page
          */
-        private static long dataPageOffset(int pageNum) {
-            return (long) (2 + pageNum / DATA_PAGES_PER_HEADER + pageNum) * PAGE_SIZE;
+        long dataPageOffset(int pageNum) {
+            return (long) (2 + pageNum / this.dataPagesPerHeader + pageNum) * this.pageSize;
         }
 
         private void freeDataPages() throws IOException {
-            for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
+            for (int i = 0; i < this.maxHeaderPages; ++i) {
                 if (masterPage[i] > 0) {
                     byte[] headerPage = headerPages.get(i);
-                    for (int j = 0; j < DATA_PAGES_PER_HEADER; ++j) {
+                    for (int j = 0; j < this.dataPagesPerHeader; ++j) {
                         if (Bits.getBit(headerPage, j) == Bits.Bit.ONE) {
-                            this.freePage(i * DATA_PAGES_PER_HEADER + j);
+                            this.freePage(i * this.dataPagesPerHeader + j);
                         }
                     }
                 }
@@ -353,6 +757,87 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         }
     }
 
+    /**
+     * Info about a temporary partition. Data pages are kept in memory while the number of such
+     * pages across all temporary partitions is below MAX_TEMP_MEMORY_PAGES, and are otherwise
+     * stored in the partition's scratch file, which is never forced to disk.
+     */
+    private static class TempPartInfo extends PartInfo {
+        // Contents of the data pages kept in memory, by data page number.
+        private Map<Integer, byte[]> memoryPages;
+
+        // Number of data pages kept in memory by all temporary partitions.
+        private AtomicInteger numMemoryPages;
+
+        private TempPartInfo(int partNum, RecoveryManager recoveryManager, AtomicInteger numMemoryPages,
+                             int pageSize) {
+            super(partNum, recoveryManager, 0, pageSize);
+            this.memoryPages = new HashMap<>();
+            this.numMemoryPages = numMemoryPages;
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            this.numMemoryPages.addAndGet(-this.memoryPages.size());
+            this.memoryPages.clear();
+        }
+
+        @Override
+        void readData(int pageNum, ByteBuffer buf) throws IOException {
+            byte[] data = this.memoryPages.get(pageNum);
+            if (data == null) {
+                super.readData(pageNum, buf);
+            } else {
+                buf.duplicate().put(data, 0, this.pageSize);
+            }
+        }
+
+        @Override
+        void readDataRun(int pageNum, ByteBuffer[] bufs, int offset, int length) throws IOException {
+            for (int i = 0; i < length; ++i) {
+                this.readData(pageNum + i, bufs[offset + i]);
+            }
+        }
+
+        @Override
+        void writeData(int pageNum, ByteBuffer buf) throws IOException {
+            byte[] data = this.memoryPages.get(pageNum);
+            if (data == null) {
+                if (this.numMemoryPages.incrementAndGet() > MAX_TEMP_MEMORY_PAGES) {
+                    this.numMemoryPages.decrementAndGet();
+                    super.writeData(pageNum, buf);
+                    return;
+                }
+                data = new byte[this.pageSize];
+                this.memoryPages.put(pageNum, data);
+            }
+            buf.duplicate().get(data, 0, this.pageSize);
+        }
+
+        @Override
+        void writeDataRun(int pageNum, ByteBuffer[] bufs, int offset, int length) throws IOException {
+            for (int i = 0; i < length; ++i) {
+                this.writeData(pageNum + i, bufs[offset + i]);
+            }
+        }
+
+        @Override
+        void freeData(int pageNum) {
+            if (this.memoryPages.remove(pageNum) != null) {
+                this.numMemoryPages.decrementAndGet();
+            }
+        }
+
+        @Override
+        void forceData() {}
+
+        @Override
+        boolean isDurable() {
+            return false;
+        }
+    }
+
     /**
      * Initialize the disk space manager using the given directory. Creates the directory
      * if not present.
@@ -360,11 +845,48 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
      * @param dbDir base directory of the database
      */
     public DiskSpaceManagerImpl(String dbDir, RecoveryManager recoveryManager) {
+        this(dbDir, recoveryManager, 0);
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present. Data page writes are synced to disk in batches, with at most maxUnsyncedPages
+     * unsynced pages per partition at any time.
+     *
+     * @param dbDir base directory of the database
+     * @param maxUnsyncedPages maximum number of unsynced data pages per partition, or 0 to
+     *                         force every data page write to disk immediately
+     */
+    public DiskSpaceManagerImpl(String dbDir, RecoveryManager recoveryManager, int maxUnsyncedPages) {
+        this(dbDir, recoveryManager, maxUnsyncedPages, PAGE_SIZE);
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present. Data page writes are synced to disk in batches, with at most maxUnsyncedPages
+     * unsynced pages per partition at any time. The page size only applies to a new database: the
+     * page size of an existing database is the one stored in the master pages of its partitions.
+     *
+     * @param dbDir base directory of the database
+     * @param maxUnsyncedPages maximum number of unsynced data pages per partition, or 0 to
+     *                         force every data page write to disk immediately
+     * @param pageSize size of the pages of a new database, in bytes: a power of 2 between
+     *                 MIN_PAGE_SIZE and MAX_PAGE_SIZE
+     */
+    public DiskSpaceManagerImpl(String dbDir, RecoveryManager recoveryManager, int maxUnsyncedPages,
+                                int pageSize) {
+        if (!isValidPageSize(pageSize)) {
+            throw new IllegalArgumentException("page size must be a power of 2 between " + MIN_PAGE_SIZE +
+                                               " and " + MAX_PAGE_SIZE + ", not " + pageSize);
+        }
         this.dbDir = dbDir;
         this.recoveryManager = recoveryManager;
-        this.partInfo = new HashMap<>();
+        this.maxUnsyncedPages = maxUnsyncedPages;
+        this.pageSize = pageSize;
+        this.partInfo = new ConcurrentHashMap<>();
         this.partNumCounter = new AtomicInteger(0);
-        this.managerLock = new ReentrantLock();
+        this.tempPartNumCounter = new AtomicInteger(TEMP_PART_START);
+        this.numTempMemoryPages = new AtomicInteger(0);
 
         File dir = new File(dbDir);
         if (!dir.exists()) {
@@ -377,7 +899,18 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
             if (files == null) {
                 throw new PageException("could not initialize disk space manager - directory is a file");
             }
+            // temporary partitions do not survive a restart
+            File[] tempFiles = new File(dir, TEMP_DIR).listFiles();
+            for (File f : tempFiles == null ? new File[0] : tempFiles) {
+                if (!f.delete()) {
+                    throw new PageException("could not clean up temporary file - " + f.getName());
+                }
+            }
             for (File f : files) {
+                if (!f.getName().chars().allMatch(Character::isDigit)) {
+                    // not a partition's main file (e.g. an additional file of a compressed partition)
+                    continue;
+                }
                 if (f.length() == 0) {
                     if (!f.delete()) {
                         throw new PageException("could not clean up unused file - " + f.getName());
@@ -387,14 +920,32 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
                 int fileNum = Integer.parseInt(f.getName());
                 maxFileNum = Math.max(maxFileNum, fileNum);
 
-                PartInfo pi = new PartInfo(fileNum, recoveryManager);
+                PartInfo pi = this.newPartInfo(fileNum, recoveryManager, maxUnsyncedPages, pageSize);
                 pi.open(dbDir + "/" + f.getName());
                 this.partInfo.put(fileNum, pi);
             }
+            // the partitions of an existing database decide its page size, and must all agree on it
+            Set<Integer> pageSizes = new HashSet<>();
+            for (PartInfo pi : this.partInfo.values()) {
+                pageSizes.add(pi.pageSize);
+            }
+            if (pageSizes.size() > 1) {
+                this.close();
+                throw new PageException("could not initialize disk space manager - partitions have different " +
+                                        "page sizes " + pageSizes);
+            }
+            if (!pageSizes.isEmpty()) {
+                this.pageSize = pageSizes.iterator().next();
+            }
             this.partNumCounter.set(maxFileNum + 1);
         }
     }
 
+    @Override
+    public int getPageSize() {
+        return this.pageSize;
+    }
+
     @Override
     public void close() {
         for (Map.Entry<Integer, PartInfo> part : this.partInfo.entrySet()) {
@@ -403,106 +954,102 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
             } catch (IOException e) {
                 throw new PageException("could not close partition " + part.getKey() + ": " + e.getMessage());
             }
+            if (!part.getValue().isDurable()) {
+                part.getValue().deleteFiles();
+            }
         }
     }
 
     @Override
     public int allocPart() {
-        return this.allocPartHelper(this.partNumCounter.getAndIncrement());
+        int partNum = this.partNumCounter.getAndIncrement();
+        return this.allocPartHelper(this.newPartInfo(partNum, recoveryManager, maxUnsyncedPages, pageSize),
+                                    dbDir + "/" + partNum);
     }
 
     @Override
     public int allocPart(int partNum) {
+        if (DiskSpaceManager.isTempPart(partNum)) {
+            throw new IllegalArgumentException("partition number " + partNum + " is reserved for temporary partitions");
+        }
         this.partNumCounter.updateAndGet((int x) -> Math.max(x, partNum) + 1);
-        return this.allocPartHelper(partNum);
+        return this.allocPartHelper(this.newPartInfo(partNum, recoveryManager, maxUnsyncedPages, pageSize),
+                                    dbDir + "/" + partNum);
     }
 
-    private int allocPartHelper(int partNum) {
-        PartInfo pi;
-
-        this.managerLock.lock();
-        try {
-            if (this.partInfo.containsKey(partNum)) {
-                throw new IllegalStateException("partition number " + partNum + " already exists");
-            }
-
-            pi = new PartInfo(partNum, recoveryManager);
-            this.partInfo.put(partNum, pi);
+    @Override
+    public int allocTempPart() {
+        File tempDir = new File(dbDir, TEMP_DIR);
+        if (!tempDir.mkdirs() && !tempDir.isDirectory()) {
+            throw new PageException("could not make directory for temporary partitions");
+        }
+        int partNum = this.tempPartNumCounter.getAndIncrement();
+        return this.allocPartHelper(new TempPartInfo(partNum, recoveryManager, numTempMemoryPages, pageSize),
+                                    tempDir.getPath() + "/" + partNum);
+    }
 
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
+    private int allocPartHelper(PartInfo pi, String fileName) {
+        int partNum = pi.partNum;
+        // lock the partition before publishing it, so that nothing uses it before it is opened
+        pi.partitionLock.writeLock().lock();
+        if (this.partInfo.putIfAbsent(partNum, pi) != null) {
+            pi.partitionLock.writeLock().unlock();
+            throw new IllegalStateException("partition number " + partNum + " already exists");
         }
         try {
-            // We must open partition only after logging, but we need to release the
-            // manager lock first, in case the log manager is currently in the process
-            // of allocating a new log page (for another txn's records).
+            // We must open partition only after logging; the log manager may be in the
+            // process of allocating a new log page (for another txn's records), so no
+            // other lock may be held here.
             TransactionContext transaction = TransactionContext.getTransaction();
-            if (transaction != null) {
+            if (transaction != null && pi.isDurable()) {
                 recoveryManager.logAllocPart(transaction.getTransNum(), partNum);
             }
 
-            pi.open(dbDir + "/" + partNum);
+            pi.open(fileName);
             return partNum;
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.writeLock().unlock();
         }
     }
 
     @Override
     public void freePart(int partNum) {
-        PartInfo pi;
-
-        this.managerLock.lock();
-        try {
-            pi = this.partInfo.remove(partNum);
-            if (pi == null) {
-                throw new NoSuchElementException("no partition " + partNum);
-            }
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
+        PartInfo pi = this.partInfo.remove(partNum);
+        if (pi == null) {
+            throw new NoSuchElementException("no partition " + partNum);
         }
+        pi.partitionLock.writeLock().lock();
         try {
             try {
                 pi.freeDataPages();
+                pi.unsyncedPages.clear();
                 pi.close();
             } catch (IOException e) {
                 throw new PageException("could not close partition " + partNum + ": " + e.getMessage());
             }
 
             TransactionContext transaction = TransactionContext.getTransaction();
-            if (transaction != null) {
+            if (transaction != null && pi.isDurable()) {
                 recoveryManager.logFreePart(transaction.getTransNum(), partNum);
             }
 
-            File pf = new File(dbDir + "/" + partNum);
-            if (!pf.delete()) {
-                throw new PageException("could not delete files for partition " + partNum);
-            }
+            pi.deleteFiles();
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.writeLock().unlock();
         }
     }
 
     @Override
     public long allocPage(int partNum) {
-        this.managerLock.lock();
-        PartInfo pi;
-        try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
-        }
+        PartInfo pi = this.lockPartInfo(partNum, false);
         try {
             int pageNum = pi.allocPage();
-            pi.writePage(pageNum, new byte[PAGE_SIZE]);
+            pi.writePage(pageNum, ByteBuffer.wrap(new byte[this.pageSize]));
             return DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
         } catch (IOException e) {
             throw new PageException("could not modify partition " + partNum + ": " + e.getMessage());
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.writeLock().unlock();
         }
     }
 
@@ -510,116 +1057,272 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
     public long allocPage(long page) {
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        int headerIndex = pageNum / DATA_PAGES_PER_HEADER;
-        int pageIndex = pageNum % DATA_PAGES_PER_HEADER;
-
-        this.managerLock.lock();
-        PartInfo pi;
+        PartInfo pi = this.lockPartInfo(partNum, false);
         try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
-        }
-        try {
-            pi.allocPage(headerIndex, pageIndex);
-            pi.writePage(pageNum, new byte[PAGE_SIZE]);
+            pi.allocPage(pageNum / pi.dataPagesPerHeader, pageNum % pi.dataPagesPerHeader);
+            pi.writePage(pageNum, ByteBuffer.wrap(new byte[this.pageSize]));
             return DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
         } catch (IOException e) {
             throw new PageException("could not modify partition " + partNum + ": " + e.getMessage());
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.writeLock().unlock();
         }
     }
 
     @Override
-    public void freePage(long page) {
-        int partNum = DiskSpaceManager.getPartNum(page);
-        int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartInfo pi;
+    public long reserveExtent(int partNum, int numPages) {
+        if (numPages <= 0 || numPages > dataPagesPerHeader(this.pageSize)) {
+            throw new IllegalArgumentException("extents must have between 1 and " + dataPagesPerHeader(this.pageSize) +
+                                               " pages");
+        }
+        PartInfo pi = this.lockPartInfo(partNum, false);
         try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
+            return DiskSpaceManager.getVirtualPageNum(partNum, pi.reserveExtent(numPages));
         } finally {
-            this.managerLock.unlock();
+            pi.partitionLock.writeLock().unlock();
         }
+    }
+
+    @Override
+    public void freePage(long page) {
+        int partNum = DiskSpaceManager.getPartNum(page);
+        int pageNum = DiskSpaceManager.getPageNum(page);
+        PartInfo pi = this.lockPartInfo(partNum, false);
         try {
             pi.freePage(pageNum);
         } catch (IOException e) {
             throw new PageException("could not modify partition " + partNum + ": " + e.getMessage());
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.writeLock().unlock();
         }
     }
 
     @Override
     public void readPage(long page, byte[] buf) {
-        if (buf.length != PAGE_SIZE) {
+        if (buf.length != this.pageSize) {
+            throw new IllegalArgumentException("readPage expects a page-sized buffer");
+        }
+        this.readPage(page, ByteBuffer.wrap(buf));
+    }
+
+    @Override
+    public void readPage(long page, ByteBuffer buf) {
+        if (buf.remaining() != this.pageSize) {
             throw new IllegalArgumentException("readPage expects a page-sized buffer");
         }
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartInfo pi;
+        PartInfo pi = this.lockPartInfo(partNum, true);
         try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
+            pi.readPage(pageNum, buf);
+        } catch (IOException e) {
+            throw new PageException("could not read partition " + partNum + ": " + e.getMessage());
         } finally {
-            this.managerLock.unlock();
+            pi.partitionLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void readPages(long page, byte[][] bufs) {
+        this.readPages(page, this.wrapPages(bufs, "readPages"));
+    }
+
+    @Override
+    public void readPages(long page, ByteBuffer[] bufs) {
+        for (ByteBuffer buf : bufs) {
+            if (buf.remaining() != this.pageSize) {
+                throw new IllegalArgumentException("readPages expects page-sized buffers");
+            }
+        }
+        if (bufs.length == 0) {
+            return;
+        }
+        int partNum = DiskSpaceManager.getPartNum(page);
+        int pageNum = DiskSpaceManager.getPageNum(page);
+        if (DiskSpaceManager.getPartNum(page + bufs.length - 1) != partNum) {
+            throw new IllegalArgumentException("readPages cannot read across partitions");
         }
+        PartInfo pi = this.lockPartInfo(partNum, true);
         try {
-            pi.readPage(pageNum, buf);
+            pi.readPages(pageNum, bufs);
         } catch (IOException e) {
             throw new PageException("could not read partition " + partNum + ": " + e.getMessage());
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.readLock().unlock();
         }
     }
 
     @Override
     public void writePage(long page, byte[] buf) {
-        if (buf.length != PAGE_SIZE) {
+        if (buf.length != this.pageSize) {
+            throw new IllegalArgumentException("writePage expects a page-sized buffer");
+        }
+        this.writePage(page, ByteBuffer.wrap(buf));
+    }
+
+    @Override
+    public void writePage(long page, ByteBuffer buf) {
+        if (buf.remaining() != this.pageSize) {
             throw new IllegalArgumentException("writePage expects a page-sized buffer");
         }
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartInfo pi;
+        PartInfo pi = this.lockPartInfo(partNum, false);
         try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
+            pi.writePage(pageNum, buf);
+        } catch (IOException e) {
+            throw new PageException("could not write partition " + partNum + ": " + e.getMessage());
         } finally {
-            this.managerLock.unlock();
+            pi.partitionLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void writePages(long[] pages, byte[][] bufs) {
+        this.writePages(pages, this.wrapPages(bufs, "writePages"));
+    }
+
+    @Override
+    public void writePages(long[] pages, ByteBuffer[] bufs) {
+        if (pages.length != bufs.length) {
+            throw new IllegalArgumentException("writePages expects one buffer per page");
+        }
+        for (ByteBuffer buf : bufs) {
+            if (buf.remaining() != this.pageSize) {
+                throw new IllegalArgumentException("writePages expects page-sized buffers");
+            }
+        }
+        if (pages.length == 0) {
+            return;
+        }
+        int partNum = DiskSpaceManager.getPartNum(pages[0]);
+        int[] pageNums = new int[pages.length];
+        for (int i = 0; i < pages.length; ++i) {
+            if (DiskSpaceManager.getPartNum(pages[i]) != partNum) {
+                throw new IllegalArgumentException("writePages cannot write across partitions");
+            }
+            pageNums[i] = DiskSpaceManager.getPageNum(pages[i]);
+            if (i > 0 && pageNums[i] <= pageNums[i - 1]) {
+                throw new IllegalArgumentException("writePages expects pages in increasing order");
+            }
         }
+        PartInfo pi = this.lockPartInfo(partNum, false);
         try {
-            pi.writePage(pageNum, buf);
+            pi.writePages(pageNums, bufs);
         } catch (IOException e) {
             throw new PageException("could not write partition " + partNum + ": " + e.getMessage());
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.writeLock().unlock();
         }
     }
 
+    /**
+     * Wraps page-sized byte arrays in ByteBuffers.
+     * @param bufs byte arrays to wrap
+     * @param caller name of the calling method, for error messages
+     */
+    private ByteBuffer[] wrapPages(byte[][] bufs, String caller) {
+        ByteBuffer[] wrapped = new ByteBuffer[bufs.length];
+        for (int i = 0; i < bufs.length; ++i) {
+            if (bufs[i].length != this.pageSize) {
+                throw new IllegalArgumentException(caller + " expects page-sized buffers");
+            }
+            wrapped[i] = ByteBuffer.wrap(bufs[i]);
+        }
+        return wrapped;
+    }
+
     @Override
     public boolean pageAllocated(long page) {
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartInfo pi;
+        PartInfo pi = this.lockPartInfo(partNum, true);
         try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
+            return !pi.isNotAllocatedPage(pageNum);
         } finally {
-            this.managerLock.unlock();
+            pi.partitionLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void sync() {
+        for (int partNum : this.partInfo.keySet()) {
+            try {
+                this.sync(partNum);
+            } catch (NoSuchElementException e) {
+                // partition freed concurrently; nothing to sync
+            }
         }
+    }
+
+    @Override
+    public void sync(int partNum) {
+        PartInfo pi = this.lockPartInfo(partNum, false);
         try {
-            return !pi.isNotAllocatedPage(pageNum);
+            pi.sync();
+        } catch (IOException e) {
+            throw new PageException("could not sync partition " + partNum + ": " + e.getMessage());
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.writeLock().unlock();
         }
     }
 
+    /**
+     * Creates the (unopened) PartInfo object for a partition.
+     * @param partNum partition number
+     * @param recoveryManager recovery manager
+     * @param maxUnsyncedPages maximum number of unsynced data pages, or 0 to force every write
+     * @param pageSize page size of the partition, if it is new
+     * @return PartInfo for the partition
+     */
+    PartInfo newPartInfo(int partNum, RecoveryManager recoveryManager, int maxUnsyncedPages, int pageSize) {
+        return new PartInfo(partNum, recoveryManager, maxUnsyncedPages, pageSize);
+    }
+
+    /**
+     * @param pageSize page size in bytes
+     * @return whether a database may have pages of this size
+     */
+    static boolean isValidPageSize(int pageSize) {
+        return pageSize >= MIN_PAGE_SIZE && pageSize <= MAX_PAGE_SIZE && Integer.bitCount(pageSize) == 1;
+    }
+
+    /**
+     * @param pageSize page size in bytes
+     * @return number of data pages managed by each header page (1 bit per data page)
+     */
+    static int dataPagesPerHeader(int pageSize) {
+        return pageSize * 8;
+    }
+
+    /**
+     * @param pageSize page size in bytes
+     * @return maximum number of header pages of a partition: the master page has 4 bytes per header
+     * page, and data page numbers must fit in an int
+     */
+    static int maxHeaderPages(int pageSize) {
+        return (int) Math.min((pageSize - MASTER_PAGE_HEADER_SIZE) / 4,
+                              (1L << 31) / dataPagesPerHeader(pageSize));
+    }
+
+    /**
+     * Gets the PartInfo of a partition and acquires its lock.
+     * @param partNum partition number
+     * @param shared whether to acquire the read lock (instead of the write lock)
+     * @return PartInfo, locked
+     * @throws NoSuchElementException if the partition does not exist or has been closed
+     */
+    private PartInfo lockPartInfo(int partNum, boolean shared) {
+        PartInfo pi = getPartInfo(partNum);
+        Lock lock = shared ? pi.partitionLock.readLock() : pi.partitionLock.writeLock();
+        lock.lock();
+        if (pi.closed) {
+            lock.unlock();
+            throw new NoSuchElementException("no partition " + partNum);
+        }
+        return pi;
+    }
+
     // Gets PartInfo, throws exception if not found.
     private PartInfo getPartInfo(int partNum) {
         PartInfo pi = this.partInfo.get(partNum);
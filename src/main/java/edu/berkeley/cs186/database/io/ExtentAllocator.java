@@ -0,0 +1,72 @@
+package edu.berkeley.cs186.database.io;
+
+/**
+ * Allocates pages of a partition from extents: runs of consecutive pages reserved ahead of
+ * time with DiskSpaceManager#reserveExtent. Pages allocated through the same extent allocator
+ * are therefore stored (mostly) contiguously on disk, in allocation order, even when other pages
+ * of the partition are allocated in between.
+ *
+ * An extent allocator only keeps track of its current extent in memory; pages of the current
+ * extent that have not yet been allocated when the disk space manager is closed are free again
+ * when the partition is reopened.
+ */
+public class ExtentAllocator {
+    // Default number of pages in each extent.
+    public static final int DEFAULT_EXTENT_SIZE = 64;
+
+    // Partition to allocate pages in.
+    private final int partNum;
+
+    // Number of pages to reserve at a time.
+    private final int extentSize;
+
+    // Next page of the current extent to allocate.
+    private long nextPageNum;
+
+    // Number of pages left in the current extent.
+    private int numRemaining;
+
+    public ExtentAllocator(int partNum) {
+        this(partNum, DEFAULT_EXTENT_SIZE);
+    }
+
+    public ExtentAllocator(int partNum, int extentSize) {
+        if (extentSize <= 0) {
+            throw new IllegalArgumentException("extent size must be positive");
+        }
+        this.partNum = partNum;
+        this.extentSize = extentSize;
+        this.nextPageNum = DiskSpaceManager.INVALID_PAGE_NUM;
+        this.numRemaining = 0;
+    }
+
+    /**
+     * Allocates the next page of the current extent, reserving a new extent if the current one
+     * has been used up.
+     * @param diskSpaceManager disk space manager to allocate the page with
+     * @return virtual page number of new page
+     */
+    public synchronized long allocPage(DiskSpaceManager diskSpaceManager) {
+        while (true) {
+            if (this.numRemaining == 0) {
+                this.nextPageNum = diskSpaceManager.reserveExtent(this.partNum, this.extentSize);
+                this.numRemaining = this.extentSize;
+            }
+            long pageNum = this.nextPageNum++;
+            --this.numRemaining;
+            try {
+                return diskSpaceManager.allocPage(pageNum);
+            } catch (IllegalStateException e) {
+                // page was allocated directly (with allocPage(long)) since the extent was
+                // reserved; skip it
+            }
+        }
+    }
+
+    /**
+     * @return partition that pages are allocated in
+     */
+    public int getPartNum() {
+        return this.partNum;
+    }
+}
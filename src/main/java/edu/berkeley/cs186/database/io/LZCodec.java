@@ -0,0 +1,169 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.Arrays;
+
+/**
+ * A simple, fast LZ77-style codec (in the style of LZ4) for compressing pages.
+ *
+ * Compressed data is a sequence of sequences, each of which consists of:
+ * - a token byte: the high 4 bits are the number of literals, and the low 4 bits are
+ *   the length of the match minus MIN_MATCH (15 in either means that more length bytes follow)
+ * - more literal length bytes, if any: each byte is added to the length, until a byte that is not 255
+ * - the literals
+ * - the offset of the match (2 bytes, little endian), i.e. how far back the match starts
+ * - more match length bytes, if any, encoded the same way as more literal length bytes
+ * The last sequence of compressed data consists of only the token and literals; there is no match.
+ */
+final class LZCodec {
+    // Minimum length of a match.
+    private static final int MIN_MATCH = 4;
+
+    // Maximum distance back to the start of a match.
+    private static final int MAX_OFFSET = 0xFFFF;
+
+    // log_2 of the number of entries in the hash table of recently seen 4-byte sequences.
+    private static final int HASH_LOG = 12;
+
+    private LZCodec() {}
+
+    /**
+     * @param length length of uncompressed data
+     * @return maximum length of the compressed data
+     */
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compresses data.
+     * @param src buffer with data to compress
+     * @param srcLength length of data to compress
+     * @param dst output buffer; must be at least maxCompressedLength(srcLength) bytes long
+     * @return length of compressed data
+     */
+    static int compress(byte[] src, int srcLength, byte[] dst) {
+        int[] table = new int[1 << HASH_LOG];
+        Arrays.fill(table, -1);
+        int anchor = 0;
+        int dstPos = 0;
+        int i = 0;
+        while (i + MIN_MATCH <= srcLength) {
+            int sequence = readInt(src, i);
+            int hash = (sequence * -1640531535) >>> (32 - HASH_LOG);
+            int ref = table[hash];
+            table[hash] = i;
+            if (ref < 0 || i - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                ++i;
+                continue;
+            }
+            int matchLength = MIN_MATCH;
+            while (i + matchLength < srcLength && src[ref + matchLength] == src[i + matchLength]) {
+                ++matchLength;
+            }
+            dstPos = writeLiterals(src, anchor, i - anchor, matchLength - MIN_MATCH, dst, dstPos);
+            dst[dstPos++] = (byte) (i - ref);
+            dst[dstPos++] = (byte) ((i - ref) >>> 8);
+            dstPos = writeLength(matchLength - MIN_MATCH, dst, dstPos);
+            i += matchLength;
+            anchor = i;
+        }
+        return writeLiterals(src, anchor, srcLength - anchor, 0, dst, dstPos);
+    }
+
+    /**
+     * Decompresses data.
+     * @param src buffer with compressed data
+     * @param srcLength length of compressed data
+     * @param dst output buffer
+     * @param dstLength expected length of decompressed data
+     * @throws PageException if the compressed data is malformed, or does not decompress to
+     * exactly dstLength bytes
+     */
+    static void decompress(byte[] src, int srcLength, byte[] dst, int dstLength) {
+        int srcPos = 0;
+        int dstPos = 0;
+        try {
+            while (true) {
+                if (srcPos >= srcLength) {
+                    throw new PageException("malformed compressed data");
+                }
+                int token = src[srcPos++] & 0xFF;
+                int literalLength = token >>> 4;
+                if (literalLength == 15) {
+                    int b;
+                    do {
+                        b = src[srcPos++] & 0xFF;
+                        literalLength += b;
+                    } while (b == 255);
+                }
+                if (srcPos + literalLength > srcLength || dstPos + literalLength > dstLength) {
+                    throw new PageException("malformed compressed data");
+                }
+                System.arraycopy(src, srcPos, dst, dstPos, literalLength);
+                srcPos += literalLength;
+                dstPos += literalLength;
+                if (srcPos == srcLength) {
+                    break;
+                }
+
+                int offset = (src[srcPos] & 0xFF) | ((src[srcPos + 1] & 0xFF) << 8);
+                srcPos += 2;
+                int matchLength = token & 0xF;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = src[srcPos++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+                if (offset == 0 || offset > dstPos || dstPos + matchLength > dstLength) {
+                    throw new PageException("malformed compressed data");
+                }
+                // matches may overlap the bytes they produce, so copy byte by byte
+                for (int j = 0; j < matchLength; ++j) {
+                    dst[dstPos + j] = dst[dstPos - offset + j];
+                }
+                dstPos += matchLength;
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new PageException("malformed compressed data");
+        }
+        if (dstPos != dstLength) {
+            throw new PageException("compressed data has wrong length");
+        }
+    }
+
+    // Writes a token and the literals of a sequence.
+    private static int writeLiterals(byte[] src, int start, int length, int extraMatchLength,
+                                     byte[] dst, int dstPos) {
+        dst[dstPos++] = (byte) ((Math.min(length, 15) << 4) | Math.min(extraMatchLength, 15));
+        if (length >= 15) {
+            dstPos = writeMoreLength(length - 15, dst, dstPos);
+        }
+        System.arraycopy(src, start, dst, dstPos, length);
+        return dstPos + length;
+    }
+
+    // Writes the additional length bytes for a match length (past MIN_MATCH), if any.
+    private static int writeLength(int extraMatchLength, byte[] dst, int dstPos) {
+        if (extraMatchLength >= 15) {
+            dstPos = writeMoreLength(extraMatchLength - 15, dst, dstPos);
+        }
+        return dstPos;
+    }
+
+    private static int writeMoreLength(int length, byte[] dst, int dstPos) {
+        while (length >= 255) {
+            dst[dstPos++] = (byte) 255;
+            length -= 255;
+        }
+        dst[dstPos++] = (byte) length;
+        return dstPos;
+    }
+
+    private static int readInt(byte[] buf, int pos) {
+        return (buf[pos] & 0xFF) | ((buf[pos + 1] & 0xFF) << 8) | ((buf[pos + 2] & 0xFF) << 16) |
+               ((buf[pos + 3] & 0xFF) << 24);
+    }
+}
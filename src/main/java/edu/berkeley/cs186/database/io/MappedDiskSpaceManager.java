@@ -0,0 +1,170 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.recovery.RecoveryManager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A disk space manager that serves data page reads and writes from memory mappings of the
+ * partition files, instead of positional reads/writes on the file channel. Partitions use the
+ * same on-disk format as DiskSpaceManagerImpl (and master/header pages are still managed the
+ * same way), so a database directory may be opened with either implementation.
+ *
+ * Each partition file is mapped in fixed-size segments of SEGMENT_PAGES pages. A segment is
+ * mapped lazily, the first time a page in it is accessed, and is remapped if the page accessed
+ * lies beyond the end of the file at the time it was mapped (i.e. the partition has grown).
+ * Writes to a page beyond the end of the file grow the file to the end of the page's segment, so
+ * partition files grow (sparsely) a segment at a time.
+ *
+ * Mappings are not explicitly unmapped when a partition is closed or freed; they are released
+ * when garbage collected.
+ */
+public class MappedDiskSpaceManager extends DiskSpaceManagerImpl {
+    // Size of each mapped segment of a partition file, in pages.
+    static final int SEGMENT_PAGES = 2048;
+
+    /**
+     * Partition whose data pages are accessed through memory mappings.
+     */
+    private static class MappedPartInfo extends PartInfo {
+        // Mapped segments of the partition file; null if not (yet) mapped.
+        private List<MappedByteBuffer> segments;
+
+        // Whether each mapped segment has been written to since it was last forced.
+        private List<Boolean> dirtySegments;
+
+        private MappedPartInfo(int partNum, RecoveryManager recoveryManager, int maxUnsyncedPages, int pageSize) {
+            super(partNum, recoveryManager, maxUnsyncedPages, pageSize);
+            this.segments = new ArrayList<>();
+            this.dirtySegments = new ArrayList<>();
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            this.segments.clear();
+            this.dirtySegments.clear();
+        }
+
+        @Override
+        void readData(int pageNum, ByteBuffer buf) throws IOException {
+            long offset = this.dataPageOffset(pageNum);
+            ByteBuffer b = this.getSegment(offset, false).duplicate();
+            b.position((int) (offset % this.segmentSize()));
+            b.limit(b.position() + this.pageSize);
+            buf.duplicate().put(b);
+        }
+
+        @Override
+        void readDataRun(int pageNum, ByteBuffer[] bufs, int offset, int length) throws IOException {
+            for (int i = 0; i < length; ++i) {
+                this.readData(pageNum + i, bufs[offset + i]);
+            }
+        }
+
+        @Override
+        void writeData(int pageNum, ByteBuffer buf) throws IOException {
+            long offset = this.dataPageOffset(pageNum);
+            int segmentIndex = (int) (offset / this.segmentSize());
+            ByteBuffer b = this.getSegment(offset, true).duplicate();
+            b.position((int) (offset % this.segmentSize()));
+            b.put(buf.duplicate());
+            this.dirtySegments.set(segmentIndex, true);
+        }
+
+        @Override
+        void writeDataRun(int pageNum, ByteBuffer[] bufs, int offset, int length) throws IOException {
+            for (int i = 0; i < length; ++i) {
+                this.writeData(pageNum + i, bufs[offset + i]);
+            }
+        }
+
+        @Override
+        void forceData() throws IOException {
+            for (int i = 0; i < this.segments.size(); ++i) {
+                if (this.dirtySegments.get(i)) {
+                    this.segments.get(i).force();
+                    this.dirtySegments.set(i, false);
+                }
+            }
+        }
+
+        /**
+         * @return size of each mapped segment of the partition file, in bytes
+         */
+        private long segmentSize() {
+            return (long) SEGMENT_PAGES * this.pageSize;
+        }
+
+        /**
+         * Gets the mapped segment containing the page at offset, mapping or remapping the segment
+         * if necessary. Synchronized, since data pages may be read by several threads at once.
+         * @param offset offset in OS file of the page
+         * @param grow whether to grow the file to the end of the segment if the page is past the end
+         *             of the file
+         * @return mapped segment containing the page
+         */
+        private synchronized MappedByteBuffer getSegment(long offset, boolean grow) throws IOException {
+            int segmentIndex = (int) (offset / this.segmentSize());
+            long segmentStart = (long) segmentIndex * this.segmentSize();
+            int pageEnd = (int) (offset - segmentStart) + this.pageSize;
+            while (this.segments.size() <= segmentIndex) {
+                this.segments.add(null);
+                this.dirtySegments.add(false);
+            }
+            MappedByteBuffer segment = this.segments.get(segmentIndex);
+            if (segment != null && segment.capacity() >= pageEnd) {
+                return segment;
+            }
+            if (segment != null && this.dirtySegments.get(segmentIndex)) {
+                segment.force();
+            }
+            long fileLength = this.fileChannel.size();
+            long size = Math.min(this.segmentSize(), fileLength - segmentStart);
+            if (size < pageEnd) {
+                if (!grow) {
+                    throw new PageException("page at offset " + offset + " is past the end of the file");
+                }
+                // mapping past the end of the file in READ_WRITE mode grows the file
+                size = this.segmentSize();
+            }
+            segment = this.fileChannel.map(FileChannel.MapMode.READ_WRITE, segmentStart, size);
+            this.segments.set(segmentIndex, segment);
+            this.dirtySegments.set(segmentIndex, false);
+            return segment;
+        }
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir base directory of the database
+     */
+    public MappedDiskSpaceManager(String dbDir, RecoveryManager recoveryManager) {
+        this(dbDir, recoveryManager, 0);
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present. Data page writes are synced to disk in batches, with at most maxUnsyncedPages
+     * unsynced pages per partition at any time.
+     *
+     * @param dbDir base directory of the database
+     * @param maxUnsyncedPages maximum number of unsynced data pages per partition, or 0 to
+     *                         force every data page write to disk immediately
+     */
+    public MappedDiskSpaceManager(String dbDir, RecoveryManager recoveryManager, int maxUnsyncedPages) {
+        super(dbDir, recoveryManager, maxUnsyncedPages);
+    }
+
+    @Override
+    PartInfo newPartInfo(int partNum, RecoveryManager recoveryManager, int maxUnsyncedPages, int pageSize) {
+        return new MappedPartInfo(partNum, recoveryManager, maxUnsyncedPages, pageSize);
+    }
+}
@@ -0,0 +1,298 @@
+package edu.berkeley.cs186.database.memory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Implementation of the ARC (adaptive replacement cache) eviction policy. Frames are kept in
+ * two LRU lists: T1, of pages referenced once since they were loaded, and T2, of pages
+ * referenced again since. Pages evicted from T1 and T2 are remembered (by page number) in two
+ * ghost lists, B1 and B2. A miss on a page in B1 means that T1 was too small, and a miss on a
+ * page in B2 that T2 was too small, so the target size of T1 is adjusted accordingly, and
+ * frames are evicted from whichever list is over its target. The policy thereby adapts between
+ * recency (e.g. for scans, which only ever use T1) and frequency (e.g. for point lookups on hot
+ * pages, which stay in T2 through a scan) without tuning.
+ *
+ * Every hit of a page counts as a reference, so a hit on a page in T1 only moves it to T2 if it
+ * comes more than a correlated reference period (measured in hits of any page) after the
+ * previous hit of the page; otherwise reading the records of a page one by one would move
+ * every page to T2. Hits are recorded without locking, and applied in batches (see HitBuffer);
+ * the other methods are synchronized.
+ */
+public class ARCEvictionPolicy implements EvictionPolicy {
+    // Correlated reference period, in hits.
+    private static final int CORRELATED_PERIOD = 8;
+
+    // Doubly-linked lists between frames, in order of least to most recently used.
+    private Tag recentHead;
+    private Tag recentTail;
+    private Tag frequentHead;
+    private Tag frequentTail;
+
+    // Sizes of T1 and T2.
+    private int recentSize;
+    private int frequentSize;
+
+    // Page numbers of pages evicted from T1 (B1) and T2 (B2), in order of eviction.
+    private Set<Long> recentGhosts;
+    private Set<Long> frequentGhosts;
+
+    // Target size of T1.
+    private int target;
+
+    // Number of frames in the buffer; 0 until the first eviction.
+    private int numFrames;
+
+    // Whether the page being loaded (see miss) is in B2.
+    private boolean missInFrequentGhosts;
+
+    // Number of hits so far; used to detect correlated references.
+    private long time;
+
+    // Hits not yet applied.
+    private final HitBuffer<Tag> hits = new HitBuffer<>();
+
+    private class Tag {
+        Tag prev = null;
+        Tag next = null;
+        BufferFrame cur = null;
+        boolean frequent = false;
+        long last = 0;
+
+        @Override
+        public String toString() {
+            String scur = cur == null ? "null" : cur.toString();
+            return scur + (frequent ? " (T2)" : " (T1)");
+        }
+    }
+
+    public ARCEvictionPolicy() {
+        this.recentHead = new Tag();
+        this.recentTail = new Tag();
+        this.recentHead.next = this.recentTail;
+        this.recentTail.prev = this.recentHead;
+        this.frequentHead = new Tag();
+        this.frequentTail = new Tag();
+        this.frequentHead.next = this.frequentTail;
+        this.frequentTail.prev = this.frequentHead;
+        this.recentGhosts = new LinkedHashSet<>();
+        this.frequentGhosts = new LinkedHashSet<>();
+        this.target = 0;
+        this.numFrames = 0;
+        this.time = 0;
+    }
+
+    /**
+     * Called when a page is about to be loaded. Adapts the target size of T1 if the page was
+     * recently evicted.
+     * @param pageNum page number of page being loaded
+     */
+    @Override
+    public synchronized void miss(long pageNum) {
+        this.drainHits();
+        this.missInFrequentGhosts = false;
+        if (this.recentGhosts.contains(pageNum)) {
+            int delta = Math.max(1, this.frequentGhosts.size() / this.recentGhosts.size());
+            this.target = Math.min(this.numFrames, this.target + delta);
+        } else if (this.frequentGhosts.contains(pageNum)) {
+            int delta = Math.max(1, this.recentGhosts.size() / this.frequentGhosts.size());
+            this.target = Math.max(0, this.target - delta);
+            this.missInFrequentGhosts = true;
+        }
+    }
+
+    /**
+     * Called to initiaize a new buffer frame.
+     * @param frame new frame to be initialized
+     */
+    @Override
+    public synchronized void init(BufferFrame frame) {
+        this.drainHits();
+        Tag frameTag = unlinkedTag(frame);
+        frameTag.cur = frame;
+        frameTag.last = this.time;
+        // pages recently evicted have been referenced before, so go straight to T2
+        long pageNum = frame.getPageNum();
+        frameTag.frequent = this.recentGhosts.remove(pageNum) | this.frequentGhosts.remove(pageNum);
+        this.append(frameTag);
+        frame.tag = frameTag;
+        this.missInFrequentGhosts = false;
+    }
+
+    /**
+     * Called when a frame is hit.
+     * @param frame Frame object that is being read from/written to
+     */
+    @Override
+    public void hit(BufferFrame frame) {
+        Object frameTag = frame.tag;
+        if (frameTag instanceof Tag && !this.hits.record((Tag) frameTag)) {
+            synchronized (this) {
+                this.drainHits();
+                this.applyHit((Tag) frameTag);
+            }
+        }
+    }
+
+    /**
+     * Records a reference to a frame, unless it has been cleaned up since it was hit (in
+     * which case its page is a ghost, and its tag is unlinked).
+     */
+    private void applyHit(Tag frameTag) {
+        if (frameTag.next == null || frameTag.next == frameTag) {
+            return;
+        }
+        ++this.time;
+        boolean correlated = this.time - frameTag.last <= CORRELATED_PERIOD;
+        frameTag.last = this.time;
+        if (correlated && !frameTag.frequent) {
+            return;
+        }
+        this.unlink(frameTag);
+        frameTag.frequent = true;
+        this.append(frameTag);
+    }
+
+    /**
+     * Called when a frame needs to be evicted.
+     * @param frames Array of all frames (same length every call)
+     * @return index of frame to be evicted
+     * @throws IllegalStateException if everything is pinned
+     */
+    @Override
+    public synchronized BufferFrame evict(BufferFrame[] frames) {
+        this.drainHits();
+        this.numFrames = frames.length;
+        List<BufferFrame> candidates = this.evictionCandidates(frames, 1);
+        if (candidates.isEmpty()) {
+            throw new IllegalStateException("cannot evict anything - everything pinned");
+        }
+        return candidates.get(0);
+    }
+
+    /**
+     * Called to find the frames that are likely to be evicted next: unpinned frames of the list
+     * that is over its target size, from least to most recently used, followed by those of the
+     * other list.
+     * @param frames Array of all frames (same length every call)
+     * @param maxFrames maximum number of frames to return
+     * @return unpinned frames, in order of expected eviction
+     */
+    @Override
+    public synchronized List<BufferFrame> evictionCandidates(BufferFrame[] frames, int maxFrames) {
+        this.drainHits();
+        boolean recentFirst = this.recentSize > 0 && (this.recentSize > this.target ||
+                              (this.missInFrequentGhosts && this.recentSize == this.target));
+        List<BufferFrame> candidates = new ArrayList<>();
+        addUnpinned(candidates, recentFirst ? this.recentHead : this.frequentHead, maxFrames);
+        addUnpinned(candidates, recentFirst ? this.frequentHead : this.recentHead, maxFrames);
+        return candidates;
+    }
+
+    /**
+     * Called when a frame is removed, either because it
+     * was returned from a call to evict, or because of other constraints
+     * (e.g. if the page is deleted on disk).
+     * @param frame frame being removed
+     */
+    @Override
+    public synchronized void cleanup(BufferFrame frame) {
+        this.drainHits();
+        Tag frameTag = (Tag) frame.tag;
+        this.unlink(frameTag);
+        long pageNum = frame.getPageNum();
+        if (frameTag.frequent) {
+            this.frequentGhosts.add(pageNum);
+        } else {
+            this.recentGhosts.add(pageNum);
+        }
+        this.trimGhosts();
+    }
+
+    /**
+     * Called when the buffer is resized; keeps the target size of T1 within the buffer, and
+     * trims the ghost lists to the new size.
+     * @param frames Array of all frames, with the new length
+     */
+    @Override
+    public synchronized void resize(BufferFrame[] frames) {
+        this.drainHits();
+        this.numFrames = frames.length;
+        this.target = Math.min(this.target, this.numFrames);
+        this.trimGhosts();
+    }
+
+    private void drainHits() {
+        this.hits.drain(this::applyHit);
+    }
+
+    /**
+     * Removes the oldest ghosts while the lists hold more pages than they should.
+     */
+    private void trimGhosts() {
+        // T1 and B1 together hold at most a buffer's worth of pages, and all four lists at
+        // most two buffers' worth (before the first eviction, the size of the buffer is not
+        // known, and T1 and T2 alone may hold more than that)
+        int capacity = Math.max(1, this.numFrames);
+        while (this.recentSize + this.recentGhosts.size() > capacity && !this.recentGhosts.isEmpty()) {
+            removeOldest(this.recentGhosts);
+        }
+        while (this.recentSize + this.frequentSize + this.recentGhosts.size() + this.frequentGhosts.size() >
+                2 * capacity && !(this.recentGhosts.isEmpty() && this.frequentGhosts.isEmpty())) {
+            removeOldest(this.frequentGhosts.isEmpty() ? this.recentGhosts : this.frequentGhosts);
+        }
+    }
+
+    private void append(Tag frameTag) {
+        Tag tail = frameTag.frequent ? this.frequentTail : this.recentTail;
+        frameTag.next = tail;
+        frameTag.prev = tail.prev;
+        tail.prev.next = frameTag;
+        tail.prev = frameTag;
+        if (frameTag.frequent) {
+            ++this.frequentSize;
+        } else {
+            ++this.recentSize;
+        }
+    }
+
+    private void unlink(Tag frameTag) {
+        frameTag.prev.next = frameTag.next;
+        frameTag.next.prev = frameTag.prev;
+        frameTag.prev = frameTag.next = frameTag;
+        if (frameTag.frequent) {
+            --this.frequentSize;
+        } else {
+            --this.recentSize;
+        }
+    }
+
+    /**
+     * @return the tag the frame had for an earlier page, if it is unlinked (frames are reused
+     * for different pages), or a new tag
+     */
+    private Tag unlinkedTag(BufferFrame frame) {
+        if (frame.tag instanceof Tag && ((Tag) frame.tag).next == frame.tag) {
+            return (Tag) frame.tag;
+        }
+        return new Tag();
+    }
+
+    private static void addUnpinned(List<BufferFrame> candidates, Tag head, int maxFrames) {
+        for (Tag frameTag = head.next; frameTag.cur != null && candidates.size() < maxFrames;
+                frameTag = frameTag.next) {
+            if (!frameTag.cur.isPinned()) {
+                candidates.add(frameTag.cur);
+            }
+        }
+    }
+
+    private static void removeOldest(Set<Long> ghosts) {
+        Iterator<Long> iterator = ghosts.iterator();
+        iterator.next();
+        iterator.remove();
+    }
+}
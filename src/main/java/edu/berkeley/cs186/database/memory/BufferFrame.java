@@ -1,7 +1,8 @@
 package edu.berkeley.cs186.database.memory;
 
 /**
- * Buffer frame.
+ * Buffer frame. Frames are reused for different pages over time, so users of a frame that do
+ * not hold a pin on it identify the page they expect it to hold by the frame's generation.
  */
 abstract class BufferFrame {
     Object tag = null;
@@ -33,19 +34,61 @@ abstract class BufferFrame {
     }
 
     /**
-     * @return whether this frame is valid
+     * Unpin buffer frame, if it still holds the page it held at the given generation.
+     * @param generation generation of the frame when the page was pinned
+     */
+    abstract void unpin(long generation);
+
+    /**
+     * Drops all pins on the buffer frame, when its page is freed while pinned.
+     */
+    void clearPins() {
+        pinCount = 0;
+    }
+
+    /**
+     * @return whether this frame is valid (holds a page)
      */
     abstract boolean isValid();
 
+    /**
+     * @param generation generation of the frame when it held the page in question
+     * @return whether this frame still holds that page
+     */
+    boolean isValid(long generation) {
+        return isValid() && getGeneration() == generation;
+    }
+
+    /**
+     * @return generation of this frame. Frames are reused for different pages, and the
+     * generation changes whenever the frame stops holding a page, so that handles to the page
+     * (see Page) can tell whether the frame still holds it.
+     */
+    abstract long getGeneration();
+
     /**
      * @return page number of this frame
      */
     abstract long getPageNum();
 
+    /**
+     * @return whether the page in this frame is a log page
+     */
+    abstract boolean isLogPage();
+
     /**
      * Flushes this buffer frame to disk, but does not unload it.
      */
-    abstract void flush();
+    void flush() {
+        flush(getGeneration());
+    }
+
+    /**
+     * Flushes this buffer frame to disk, if it still holds the page it held at the given
+     * generation (if not, the page has already been written back or freed).
+     * @param generation generation of the frame when it held the page
+     */
+    abstract void flush(long generation);
 
     /**
      * Read from the buffer frame.
@@ -53,7 +96,18 @@ abstract class BufferFrame {
      * @param num number of bytes to read
      * @param buf output buffer
      */
-    abstract void readBytes(short position, short num, byte[] buf);
+    void readBytes(int position, int num, byte[] buf) {
+        readBytes(getGeneration(), position, num, buf);
+    }
+
+    /**
+     * Read from the buffer frame, which must still hold the page it held at the given generation.
+     * @param generation generation of the frame when it held the page
+     * @param position position in buffer frame to start reading
+     * @param num number of bytes to read
+     * @param buf output buffer
+     */
+    abstract void readBytes(long generation, int position, int num, byte[] buf);
 
     /**
      * Write to the buffer frame, and mark frame as dirtied.
@@ -61,28 +115,62 @@ abstract class BufferFrame {
      * @param num number of bytes to write
      * @param buf input buffer
      */
-    abstract void writeBytes(short position, short num, byte[] buf);
+    void writeBytes(int position, int num, byte[] buf) {
+        writeBytes(getGeneration(), position, num, buf);
+    }
 
     /**
-     * Requests a valid Frame object for the page (if invalid, a new Frame object is returned).
+     * Write to the buffer frame, which must still hold the page it held at the given generation,
+     * and mark frame as dirtied.
+     * @param generation generation of the frame when it held the page
+     * @param position position in buffer frame to start writing
+     * @param num number of bytes to write
+     * @param buf input buffer
+     */
+    abstract void writeBytes(long generation, int position, int num, byte[] buf);
+
+    /**
+     * Requests a valid frame for a page that this frame held at the given generation: this
+     * frame if it still holds the page, and otherwise the frame the page is loaded into.
      * Frame is pinned on return.
+     * @param generation generation of this frame when it held the page
+     * @param pageNum page number of the page
+     * @param logPage whether the page is a log page
      */
-    abstract BufferFrame requestValidFrame();
+    abstract BufferFrame requestValidFrame(long generation, long pageNum, boolean logPage);
 
     /**
      * @return amount of space available to user of the frame
      */
-    short getEffectivePageSize() {
+    int getEffectivePageSize() {
         return BufferManager.EFFECTIVE_PAGE_SIZE;
     }
 
     /**
      * @param pageLSN new pageLSN of the page loaded in this frame
      */
-    abstract void setPageLSN(long pageLSN);
+    void setPageLSN(long pageLSN) {
+        setPageLSN(getGeneration(), pageLSN);
+    }
+
+    /**
+     * Sets the pageLSN of the page this frame held at the given generation, which it must still hold.
+     * @param generation generation of the frame when it held the page
+     * @param pageLSN new pageLSN of the page
+     */
+    abstract void setPageLSN(long generation, long pageLSN);
 
     /**
      * @return pageLSN of the page loaded in this frame
      */
-    abstract long getPageLSN();
+    long getPageLSN() {
+        return getPageLSN(getGeneration());
+    }
+
+    /**
+     * Gets the pageLSN of the page this frame held at the given generation, which it must still hold.
+     * @param generation generation of the frame when it held the page
+     * @return pageLSN of the page
+     */
+    abstract long getPageLSN(long generation);
 }
@@ -2,6 +2,7 @@ package edu.berkeley.cs186.database.memory;
 
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.ExtentAllocator;
 
 import java.util.function.BiConsumer;
 
@@ -11,7 +12,8 @@ public interface BufferManager extends AutoCloseable {
     // fit on one page).
     short RESERVED_SPACE = 36;
 
-    // Effective page size available to users of buffer manager.
+    // Effective page size available to users of buffer manager, with the default page size
+    // (see getEffectivePageSize).
     short EFFECTIVE_PAGE_SIZE = DiskSpaceManager.PAGE_SIZE - RESERVED_SPACE;
 
     @Override
@@ -27,6 +29,55 @@ public interface BufferManager extends AutoCloseable {
      */
     Page fetchPage(LockContext parentContext, long pageNum, boolean logPage);
 
+    /**
+     * Fetches the specified page, with a loaded and pinned buffer frame, and loads up to
+     * numPages - 1 of the pages immediately following it into memory (without pinning them).
+     * Consecutive pages that are not already loaded are read from disk together. Pages in the
+     * range that are not allocated, or that cannot be loaded without evicting a pinned
+     * page, are skipped, and implementations may limit the number of pages loaded relative
+     * to the size of the buffer.
+     *
+     * @param parentContext lock context of the **parent** of the page being fetched
+     * @param pageNum       page number of first page in the range
+     * @param numPages      number of pages in the range
+     * @param logPage       whether the pages are for the log or not
+     * @return specified page
+     */
+    Page fetchPageRange(LockContext parentContext, long pageNum, int numPages, boolean logPage);
+
+    /**
+     * Creates a ring of buffer frames for a scan of a data partition (see ScanRing), if the scan
+     * is large enough that it would otherwise flush out a significant part of the buffer.
+     *
+     * @param numPages number of pages that the scan will read
+     * @return a new ring, or null if the scan should use the buffer like any other access
+     */
+    ScanRing newScanRing(int numPages);
+
+    /**
+     * Fetches the specified data page for a scan, with a loaded and pinned buffer frame. If the
+     * page is not loaded, it is loaded through the scan's ring.
+     *
+     * @param parentContext lock context of the **parent** of the page being fetched
+     * @param pageNum       page number
+     * @param ring          the scan's ring, or null to fetch the page like fetchPage
+     * @return specified page
+     */
+    Page fetchPage(LockContext parentContext, long pageNum, ScanRing ring);
+
+    /**
+     * Fetches the specified data page for a scan, with a loaded and pinned buffer frame, and loads
+     * up to numPages - 1 of the pages immediately following it (see fetchPageRange). Pages that are
+     * not loaded are loaded through the scan's ring, and at most one ring's worth of pages is loaded.
+     *
+     * @param parentContext lock context of the **parent** of the page being fetched
+     * @param pageNum       page number of first page in the range
+     * @param numPages      number of pages in the range
+     * @param ring          the scan's ring, or null to fetch the pages like fetchPageRange
+     * @return specified page
+     */
+    Page fetchPageRange(LockContext parentContext, long pageNum, int numPages, ScanRing ring);
+
     /**
      * Fetches a new page, with a loaded and pinned buffer frame.
      *
@@ -37,6 +88,16 @@ public interface BufferManager extends AutoCloseable {
      */
     Page fetchNewPage(LockContext parentContext, int partNum, boolean logPage);
 
+    /**
+     * Fetches a new page allocated from an extent allocator, with a loaded and pinned buffer frame.
+     *
+     * @param parentContext parent lock context of the new page
+     * @param extentAllocator extent allocator to allocate the new page with
+     * @param logPage       whether the page is for the log or not
+     * @return the new page
+     */
+    Page fetchNewPage(LockContext parentContext, ExtentAllocator extentAllocator, boolean logPage);
+
     /**
      * Frees a page - evicts the page from cache, and tells the disk space manager
      * that the page is no longer needed. Page must be pinned before this call,
@@ -65,6 +126,18 @@ public interface BufferManager extends AutoCloseable {
      */
     BufferFrame fetchPageFrame(long pageNum, boolean logPage);
 
+    /**
+     * Fetches a buffer frame with data for the specified page, and loads up to numPages - 1 of the
+     * pages immediately following it into memory (see fetchPageRange). Pins the buffer frame of the
+     * specified page only. Cannot be used outside the package.
+     *
+     * @param pageNum page number of first page in the range
+     * @param numPages number of pages in the range
+     * @param logPage whether the pages are for the log or not
+     * @return buffer frame with specified page loaded
+     */
+    BufferFrame fetchPageRangeFrame(long pageNum, int numPages, boolean logPage);
+
     /**
      * Fetches a buffer frame for a new page. Pins the buffer frame. Cannot be used outside the package.
      *
@@ -74,6 +147,16 @@ public interface BufferManager extends AutoCloseable {
      */
     BufferFrame fetchNewPageFrame(int partNum, boolean logPage);
 
+    /**
+     * Fetches a buffer frame for a new page allocated from an extent allocator. Pins the buffer
+     * frame. Cannot be used outside the package.
+     *
+     * @param extentAllocator extent allocator to allocate the new page with
+     * @param logPage whether the page is for the log or not
+     * @return buffer frame for the new page
+     */
+    BufferFrame fetchNewPageFrame(ExtentAllocator extentAllocator, boolean logPage);
+
     /**
      * Calls flush on the frame of a page and unloads the page from the frame. If the page
      * is not loaded, this does nothing.
@@ -82,10 +165,15 @@ public interface BufferManager extends AutoCloseable {
     void evict(long pageNum);
 
     /**
-     * Calls evict on every frame in sequence.
+     * Writes back every dirty page, then calls evict on every frame in sequence.
      */
     void evictAll();
 
+    /**
+     * Writes back every dirty page, without unloading any page.
+     */
+    void flushAll();
+
     /**
      * Calls the passed in method with the page number of every loaded page.
      * @param process method to consume page numbers. The first parameter is the page number,
@@ -94,9 +182,63 @@ public interface BufferManager extends AutoCloseable {
      */
     void iterPageNums(BiConsumer<Long, Boolean> process);
 
+    /**
+     * Lists the loaded data pages, e.g. to load them again after a restart (see preloadPages).
+     *
+     * @return page numbers of the loaded data pages, from the page the eviction policy would
+     * keep the longest to the page it would evict first
+     */
+    long[] getResidentPages();
+
+    /**
+     * Loads data pages into free frames (without evicting any loaded page), in order of page
+     * number, so that runs of consecutive pages are read together. Pages that are not allocated
+     * are skipped.
+     *
+     * @param pageNums page numbers of the pages to load
+     * @return false if some pages were not loaded because there were no free frames left
+     */
+    boolean preloadPages(long[] pageNums);
+
+    /**
+     * @return number of frames in the buffer
+     */
+    int getBufferSize();
+
+    /**
+     * @return size of the pages of the database, in bytes (see DiskSpaceManager#getPageSize)
+     */
+    int getPageSize();
+
+    /**
+     * @return page size available to users of the buffer manager, in bytes
+     */
+    default int getEffectivePageSize() {
+        return this.getPageSize() - RESERVED_SPACE;
+    }
+
+    /**
+     * Grows or shrinks the buffer to bufferSize frames while it is in use. Shrinking evicts
+     * pages (writing back dirty ones) until the remaining pages fit into the smaller buffer.
+     *
+     * @param bufferSize new size of buffer (in pages)
+     * @throws IllegalStateException if the buffer cannot be shrunk because of pinned pages
+     */
+    void resize(int bufferSize);
+
+    /**
+     * Calls the passed in method with the page number of every dirty data page (i.e. not log
+     * pages), along with its recLSN, in time proportional to the number of dirty pages.
+     * @param process method to consume dirty pages. The first parameter is the page number, and
+     *                the second parameter is the pageLSN of the page after the change that made
+     *                it dirty.
+     */
+    void iterDirtyPages(BiConsumer<Long, Long> process);
+
     /**
      * Get the number of I/Os since the buffer manager was started, excluding anything used in disk
-     * space management, and not counting allocation/free. This is not really useful except as a
+     * space management, and not counting allocation/free. Each page read or written counts as one
+     * I/O, even when several pages are read together. This is not really useful except as a
      * relative measure.
      * @return number of I/Os
      */
@@ -1,79 +1,237 @@
 package edu.berkeley.cs186.database.memory;
 
 import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.common.LongIntHashMap;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.ExtentAllocator;
 import edu.berkeley.cs186.database.io.PageException;
 import edu.berkeley.cs186.database.recovery.RecoveryManager;
 
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
 import java.util.function.BiConsumer;
+import java.util.function.LongPredicate;
 
 /**
  * Implementation of a buffer manager, with configurable page replacement policies.
- * Data is stored in page-sized byte arrays, and returned in a Frame object specific
- * to the page loaded (evicting and loading a new page into the frame will result in
- * a new Frame object, with the same underlying byte array), with old Frame objects
- * backed by the same byte array marked as invalid.
+ * Data is stored in page-sized byte buffers, each wrapped in a Frame object that is
+ * allocated with the buffer and kept for as long as the buffer is: evicting a page and
+ * loading another into its frame reuses the same Frame object. Each frame carries a
+ * generation, incremented whenever its page leaves it; page handles (and anyone else
+ * holding on to a frame) remember the generation at which the frame held their page, and
+ * every access through them checks it, so a handle to a page that has since been evicted
+ * or freed fails (or fetches the page again) rather than reading the frame's new page.
+ *
+ * The byte buffers are normally heap byte arrays, but can instead be slices of a few large
+ * direct buffers allocated up front (an off-heap arena, see the offHeap constructor flag).
+ * A large buffer then neither adds to the garbage collector's work nor needs a heap sized
+ * to fit it, and pages are read from and written to disk straight from the arena, without
+ * being copied through a heap array by the disk space manager. The arena counts towards the
+ * JVM's direct memory limit (-XX:MaxDirectMemorySize), and is released when the buffer manager
+ * is garbage collected.
+ *
+ * Large scans can load pages through a ScanRing (see newScanRing), a few frames of their own
+ * that they recycle, instead of evicting frames chosen by the eviction policy; the ring holds
+ * as many frames as a range fetch may load, so that a scan can still read ranges of pages.
+ *
+ * Sequential access to a partition can optionally be detected and used to read ahead:
+ * once prefetching is enabled (see setPrefetchPages), a run of fetches of consecutive
+ * pages of a partition causes the next few pages of the partition to be loaded by a
+ * background thread, so that they are (hopefully) already in memory when requested.
+ * Pages loaded ahead of being requested (by prefetching or by fetchPageRange) are
+ * preferred for eviction until they are first requested.
+ *
+ * When all dirty pages are written back at once (flushAll, evictAll, close), they are
+ * written in batches instead of one at a time in frame order: dirty pages are grouped by
+ * partition and sorted by page number, and each partition's pages are handed to the disk
+ * space manager together, so that adjacent pages are written with a single write and the
+ * partition is forced to disk once. Log pages are still flushed individually.
+ *
+ * A background cleaner can optionally keep the next frames to be evicted clean (see
+ * setCleanFraction): it periodically asks the eviction policy for its next eviction
+ * candidates, and writes back the dirty ones among them in a batch, so that a miss seldom
+ * has to write back (and force the log for) a dirty victim before it can load its page.
+ * The cleaner only holds the manager lock while choosing frames and forcing the log; the
+ * frames being written stay locked and pinned, so evictions pass over them in the meantime (and
+ * only wait for them if no other frame can be evicted).
+ *
+ * Pinning a frame only holds the frame's lock long enough to check the frame and count the
+ * pin, so any number of threads can have the same page pinned. The page's contents are
+ * protected by a separate latch instead, which readBytes takes in shared mode and writeBytes
+ * (and writing the page back) in exclusive and shared mode respectively, only for the duration
+ * of the copy; readers of a hot page (e.g. the root of a B+ tree) do not exclude each other.
+ * The frame's lock is held for longer only while the page is being read from disk (so that
+ * threads that find the frame wait for the read to finish) or written back (so that the frame
+ * is not evicted in the meantime).
+ *
+ * Fetching a page that is already loaded does not take the manager lock: the page table
+ * (a primitive long to int map, so lookups do not allocate) is read optimistically, and a
+ * hit only locks the frame found in it, checking (under the frame's lock) that the frame
+ * still holds the page. Frames are only evicted or freed, and
+ * removed from the page table, while their frame lock is held, so a hit either sees the
+ * frame before that happens (and pins it, preventing its eviction) or notices that it is
+ * gone and falls back to loading the page. Loading a page that is not loaded, and evicting
+ * and freeing pages, still take the manager lock. A dirty page that is evicted to make room
+ * for another is written back after the manager lock is released, so loading it again waits
+ * until the write has finished.
+ *
+ * The buffer can be grown or shrunk while in use (see resize), e.g. to give memory back to
+ * other services running on the same machine; shrinking evicts pages and moves the remaining
+ * pages into the frames that are kept.
  */
 public class BufferManagerImpl implements BufferManager {
-    // Buffer frames
-    private Frame[] frames;
+    // Maximum fraction of the buffer that a single call to fetchPageRange may load (1/n).
+    static final int MAX_RANGE_FRACTION = 8;
+
+    // Scans of more than this fraction of the buffer (1/n) get a scan ring.
+    static final int SCAN_RING_THRESHOLD_FRACTION = 4;
+
+    // Size of each direct buffer of an off-heap arena (1GB buffers, as direct buffers are
+    // indexed by int).
+    private static final int ARENA_CHUNK_SIZE = 1 << 30;
+
+    // Number of consecutive pages of a partition that must be fetched in a row before
+    // pages are prefetched.
+    private static final int SEQUENTIAL_THRESHOLD = 3;
+
+    // Delay between runs of the background cleaner, in milliseconds.
+    private static final long CLEANER_INTERVAL_MS = 10;
+
+    // Buffer frames; replaced by a new array (with the page table's write lock held) when the
+    // buffer is resized
+    private volatile Frame[] frames;
+
+    // Whether frames are stored in off-heap arenas
+    private boolean offHeap;
 
     // Reference to the disk space manager underneath this buffer manager instance.
     private DiskSpaceManager diskSpaceManager;
 
-    // Map of page number to frame index
-    private Map<Long, Integer> pageToFrame;
+    // Size of the pages of the disk space manager (and of the frames), in bytes.
+    private int pageSize;
+
+    // Map of page number to frame index; only modified with the manager lock and the frame's
+    // lock held (through mapFrame and unmapFrame)
+    private LongIntHashMap pageToFrame;
+
+    // Lock on pageToFrame; hits look up frames with optimistic reads
+    private StampedLock pageTableLock;
+
+    // Page tables of the partitions that have loaded pages (page number to frame index), so that
+    // the frames of a partition can be found without going through every frame; modified along
+    // with pageToFrame, but only read with the manager lock held
+    private Map<Integer, LongIntHashMap> partPageToFrame = new HashMap<>();
 
     // Lock on buffer manager
     private ReentrantLock managerLock;
 
+    // Dirty data pages (not log pages), mapped to their recLSN: the pageLSN of the page after the
+    // change that made it dirty. Kept along with the frames' dirty flags (under the frames'
+    // latches), so that dirty pages can be found without going through every frame
+    private ConcurrentHashMap<Long, Long> dirtyPages = new ConcurrentHashMap<>();
+
+    // Pages of evicted dirty frames that are being written back (outside the manager lock);
+    // loading one of them waits until it has been written, so that it is not read stale
+    private Set<Long> writingBackPages = new HashSet<>();
+
+    // Signalled (with the manager lock held) when pages are removed from writingBackPages
+    private Condition pagesWrittenBack;
+
     // Eviction policy
     private EvictionPolicy evictionPolicy;
 
+    // Pages that may be loaded into this buffer manager; pages outside it are never loaded
+    // ahead of being requested (see PartitionedBufferManager)
+    private LongPredicate ownsPage;
+
     // Index of first free frame
     private int firstFreeIndex;
 
     // Recovery manager
     private RecoveryManager recoveryManager;
 
-    // Count of number of I/Os
-    private long numIOs = 0;
+    // Count of number of I/Os; incremented by threads holding different frames' locks
+    private final LongAdder numIOs = new LongAdder();
+
+    // Number of pages to prefetch on sequential access, or 0 if prefetching is disabled
+    private volatile int prefetchPages = 0;
+
+    // Background thread that prefetches pages; null if prefetching was never enabled
+    private ExecutorService prefetchExecutor;
+
+    // Sequential access state for each partition
+    private Map<Integer, ReadAheadState> readAheadStates = new HashMap<>();
+
+    // Frames loaded ahead of being requested, in load order (frames requested since are removed lazily)
+    private Set<Frame> prefetchedFrames = new LinkedHashSet<>();
+
+    // Count of pages loaded ahead of being requested that were later requested
+    private AtomicLong numPrefetchHits = new AtomicLong();
+
+    // Count of pages loaded ahead of being requested that were evicted or freed before being requested
+    private long numPrefetchWasted = 0;
+
+    // Fraction of frames, next in line for eviction, that the cleaner keeps clean, or 0 if the
+    // cleaner is disabled
+    private volatile double cleanFraction = 0;
+
+    // Background thread that writes back dirty eviction candidates; null if the cleaner is disabled
+    private ScheduledExecutorService cleanerExecutor;
+
+    // Frames the cleaner is writing back (locked and pinned by it until written), or an empty list;
+    // set with the manager lock held, and cleared once the frames have been released
+    private volatile List<Frame> cleaningFrames = Collections.emptyList();
 
     /**
      * Buffer frame, containing information about the loaded page, wrapped around the
-     * underlying byte array. Free frames use the index field to create a (singly) linked
+     * underlying byte buffer. Free frames use the index field to create a (singly) linked
      * list between free frames.
+     *
+     * Frames are allocated with the buffer (or when it grows), and reused for page after page:
+     * loading a page into a frame, and evicting or freeing the frame's page, allocate nothing.
+     * The frame's generation is incremented whenever its page leaves it, so that page handles
+     * can tell that the frame no longer holds their page (and fetch the page again).
      */
     class Frame extends BufferFrame {
         private static final int INVALID_INDEX = Integer.MIN_VALUE;
 
-        byte[] contents;
+        // Page-sized buffer with the page's contents; only accessed with absolute gets and puts,
+        // so that its position and limit stay at 0 and the page size
+        ByteBuffer contents;
         private int index;
         private long pageNum;
-        private boolean dirty;
+        // Incremented (with the frame's lock held) whenever the frame stops holding its page
+        private volatile long generation;
+        private volatile boolean dirty;
+        // Protects the frame's state (index, page number, pin count); held briefly to pin and
+        // unpin, and for longer while the page is being loaded, evicted or written back
         private ReentrantLock frameLock;
+        // Protects the page's contents; only taken while the frame is pinned (or locked)
+        private ReentrantReadWriteLock latch;
         private boolean logPage;
+        private volatile boolean prefetched;
 
-        Frame(byte[] contents, int nextFree, boolean logPage) {
-            this(contents, ~nextFree, DiskSpaceManager.INVALID_PAGE_NUM, logPage);
-        }
-
-        Frame(Frame frame) {
-            this(frame.contents, frame.index, frame.pageNum, frame.logPage);
-        }
-
-        Frame(byte[] contents, int index, long pageNum, boolean logPage) {
+        Frame(ByteBuffer contents, int nextFree) {
             this.contents = contents;
-            this.index = index;
-            this.pageNum = pageNum;
+            this.index = ~nextFree;
+            this.pageNum = DiskSpaceManager.INVALID_PAGE_NUM;
             this.dirty = false;
             this.frameLock = new ReentrantLock();
-            this.logPage = logPage;
+            this.latch = new ReentrantReadWriteLock();
+            this.logPage = false;
         }
 
         /**
@@ -82,13 +240,23 @@ public class BufferManagerImpl implements BufferManager {
          */
         @Override
         public void pin() {
+            this.pin(this.generation);
+        }
+
+        /**
+         * Pin buffer frame, which must still hold the page it held at the given generation.
+         */
+        private void pin(long generation) {
             this.frameLock.lock();
+            try {
+                if (!this.isValid(generation)) {
+                    throw new IllegalStateException("pinning invalidated frame");
+                }
 
-            if (!this.isValid()) {
-                throw new IllegalStateException("pinning invalidated frame");
+                super.pin();
+            } finally {
+                this.frameLock.unlock();
             }
-
-            super.pin();
         }
 
         /**
@@ -96,8 +264,29 @@ public class BufferManagerImpl implements BufferManager {
          */
         @Override
         public void unpin() {
-            super.unpin();
-            this.frameLock.unlock();
+            this.frameLock.lock();
+            try {
+                super.unpin();
+            } finally {
+                this.frameLock.unlock();
+            }
+        }
+
+        /**
+         * Unpin buffer frame, if it still holds the page it held at the given generation. A
+         * pinned page only leaves its frame when it is freed, which drops its pins, so there is
+         * nothing to unpin otherwise.
+         */
+        @Override
+        void unpin(long generation) {
+            this.frameLock.lock();
+            try {
+                if (this.generation == generation) {
+                    super.unpin();
+                }
+            } finally {
+                this.frameLock.unlock();
+            }
         }
 
         /**
@@ -116,18 +305,27 @@ public class BufferManagerImpl implements BufferManager {
         }
 
         /**
-         * Invalidates the frame, flushing it if necessary.
+         * Invalidates the frame, flushing it if necessary, when the frame is dropped.
          */
         private void invalidate() {
             if (this.isValid()) {
                 this.flush();
             }
+            this.invalidateMoved();
+        }
+
+        /**
+         * Invalidates the frame without flushing it, when the frame is dropped after its page
+         * has been copied to another frame (or it is free).
+         */
+        private void invalidateMoved() {
             this.index = INVALID_INDEX;
+            ++this.generation;
             this.contents = null;
         }
 
         /**
-         * Marks the frame as free.
+         * Marks the frame as free, dropping any pins on its page (which is being freed).
          */
         private void setFree() {
             if (isFreed()) {
@@ -136,6 +334,10 @@ public class BufferManagerImpl implements BufferManager {
             int nextFreeIndex = firstFreeIndex;
             firstFreeIndex = this.index;
             this.index = ~nextFreeIndex;
+            ++this.generation;
+            this.dirty = false;
+            this.prefetched = false;
+            this.clearPins();
         }
 
         private void setUsed() {
@@ -147,6 +349,28 @@ public class BufferManagerImpl implements BufferManager {
             this.index = index;
         }
 
+        /**
+         * Assigns a new page to the frame, which is either taken off the free list or has had
+         * its page evicted. Handles to the evicted page are invalidated, but its contents are
+         * left in the frame, to be written back with writeContents before the new page is read
+         * in. Must be called with the manager lock and the frame's lock held.
+         *
+         * @param pageNum page number of the new page
+         * @param logPage whether the new page is a log page
+         */
+        private void assign(long pageNum, boolean logPage) {
+            ++this.generation;
+            this.pageNum = pageNum;
+            this.logPage = logPage;
+            this.dirty = false;
+            this.prefetched = false;
+        }
+
+        @Override
+        long getGeneration() {
+            return this.generation;
+        }
+
         /**
          * @return page number of this frame
          */
@@ -155,32 +379,89 @@ public class BufferManagerImpl implements BufferManager {
             return this.pageNum;
         }
 
+        @Override
+        boolean isLogPage() {
+            return this.logPage;
+        }
+
         /**
          * Flushes this buffer frame to disk, but does not unload it.
          */
         @Override
-        void flush() {
+        void flush(long generation) {
             this.frameLock.lock();
             super.pin();
+            this.latch.readLock().lock();
             try {
-                if (!this.isValid()) {
+                if (!this.isValid(generation)) {
                     return;
                 }
                 if (!this.dirty) {
                     return;
                 }
-                if (!this.logPage) {
-                    recoveryManager.pageFlushHook(this.getPageLSN());
-                }
-                BufferManagerImpl.this.diskSpaceManager.writePage(pageNum, contents);
-                BufferManagerImpl.this.incrementIOs();
-                this.dirty = false;
+                this.writeContents(this.pageNum, this.logPage);
+                this.setClean();
             } finally {
+                this.latch.readLock().unlock();
                 super.unpin();
                 this.frameLock.unlock();
             }
         }
 
+        /**
+         * Writes the frame's contents to a page: the frame's page, or a page just evicted from
+         * the frame (whose contents are still in the frame). Must be called with the frame's
+         * lock held, and the frame pinned, so that it is not chosen for eviction if log pages
+         * are loaded to force the log.
+         *
+         * @param pageNum page number of the page to write
+         * @param logPage whether the page is a log page
+         */
+        private void writeContents(long pageNum, boolean logPage) {
+            if (!logPage && !DiskSpaceManager.isTempPart(DiskSpaceManager.getPartNum(pageNum))) {
+                recoveryManager.pageFlushHook(this.loadPageLSN());
+            }
+            BufferManagerImpl.this.diskSpaceManager.writePage(pageNum, contents);
+            if (logPage) {
+                // log pages must be durable as soon as they are flushed
+                BufferManagerImpl.this.diskSpaceManager.sync(DiskSpaceManager.getPartNum(pageNum));
+            }
+            BufferManagerImpl.this.incrementIOs();
+        }
+
+        /**
+         * Pins the frame while it is being written back, assuming that its lock and a shared
+         * latch on it are held.
+         */
+        private void pinForWriteBack() {
+            super.pin();
+        }
+
+        /**
+         * Unpins the frame after it has been written back, and releases its latch and lock.
+         */
+        private void unpinForWriteBack() {
+            super.unpin();
+            this.latch.readLock().unlock();
+            this.frameLock.unlock();
+        }
+
+        /**
+         * Marks the frame clean, after its page has been written back. Must be called with a
+         * shared latch on the frame held.
+         */
+        private void setClean() {
+            dirtyPages.remove(this.pageNum);
+            this.dirty = false;
+        }
+
+        /**
+         * @return whether the page in this frame belongs to a temporary partition
+         */
+        private boolean isTempPage() {
+            return DiskSpaceManager.isTempPart(DiskSpaceManager.getPartNum(this.pageNum));
+        }
+
         /**
          * Read from the buffer frame.
          * @param position position in buffer frame to start reading
@@ -188,16 +469,19 @@ public class BufferManagerImpl implements BufferManager {
          * @param buf output buffer
          */
         @Override
-        void readBytes(short position, short num, byte[] buf) {
-            this.pin();
+        void readBytes(long generation, int position, int num, byte[] buf) {
+            this.pin(generation);
+            this.latch.readLock().lock();
             try {
-                if (!this.isValid()) {
+                // the page may have been freed since it was pinned
+                if (!this.isValid(generation)) {
                     throw new IllegalStateException("reading from invalid buffer frame");
                 }
-                System.arraycopy(this.contents, position + dataOffset(), buf, 0, num);
+                this.getContents(position + dataOffset(), buf, 0, num);
                 BufferManagerImpl.this.evictionPolicy.hit(this);
             } finally {
-                this.unpin();
+                this.latch.readLock().unlock();
+                this.unpin(generation);
             }
         }
 
@@ -208,67 +492,107 @@ public class BufferManagerImpl implements BufferManager {
          * @param buf input buffer
          */
         @Override
-        void writeBytes(short position, short num, byte[] buf) {
-            this.pin();
+        void writeBytes(long generation, int position, int num, byte[] buf) {
+            this.pin(generation);
+            this.latch.writeLock().lock();
             try {
-                if (!this.isValid()) {
+                // the page may have been freed since it was pinned
+                if (!this.isValid(generation)) {
                     throw new IllegalStateException("writing to invalid buffer frame");
                 }
                 int offset = position + dataOffset();
                 TransactionContext transaction = TransactionContext.getTransaction();
-                if (transaction != null && !logPage) {
+                // pages of temporary partitions are not durable, so changes to them are not logged
+                if (transaction != null && !logPage && !this.isTempPage()) {
                     List<Pair<Integer, Integer>> changedRanges = getChangedBytes(offset, num, buf);
                     for (Pair<Integer, Integer> range : changedRanges) {
                         int start = range.getFirst();
                         int len = range.getSecond();
-                        byte[] before = Arrays.copyOfRange(contents, start + offset, start + offset + len);
+                        byte[] before = new byte[len];
+                        this.getContents(start + offset, before, 0, len);
                         byte[] after = Arrays.copyOfRange(buf, start, start + len);
                         long pageLSN = recoveryManager.logPageWrite(transaction.getTransNum(), pageNum, position, before,
                                        after);
-                        this.setPageLSN(pageLSN);
+                        this.storePageLSN(pageLSN);
                     }
                 }
-                System.arraycopy(buf, 0, this.contents, offset, num);
+                this.putContents(offset, buf, 0, num);
+                if (!this.dirty && !this.logPage) {
+                    dirtyPages.put(this.pageNum, this.loadPageLSN());
+                }
                 this.dirty = true;
                 BufferManagerImpl.this.evictionPolicy.hit(this);
             } finally {
-                this.unpin();
+                this.latch.writeLock().unlock();
+                this.unpin(generation);
             }
         }
 
         /**
-         * Requests a valid Frame object for the page (if invalid, a new Frame object is returned).
-         * Page is pinned on return.
+         * Requests a valid frame for a page this frame held at the given generation (if the
+         * frame holds another page by now, the page is fetched again). Page is pinned on return.
          */
         @Override
-        Frame requestValidFrame() {
+        Frame requestValidFrame(long generation, long pageNum, boolean logPage) {
             this.frameLock.lock();
             try {
-                if (this.isFreed()) {
-                    throw new PageException("page already freed");
-                }
-                if (this.isValid()) {
-                    this.pin();
+                if (this.isValid(generation)) {
+                    super.pin();
                     return this;
                 }
-                return BufferManagerImpl.this.fetchPageFrame(this.pageNum, logPage);
             } finally {
                 this.frameLock.unlock();
             }
+            return BufferManagerImpl.this.fetchPageFrame(pageNum, logPage);
         }
 
         @Override
-        short getEffectivePageSize() {
+        int getEffectivePageSize() {
             if (logPage) {
-                return DiskSpaceManager.PAGE_SIZE;
+                return BufferManagerImpl.this.pageSize;
             } else {
-                return BufferManager.EFFECTIVE_PAGE_SIZE;
+                return BufferManagerImpl.this.pageSize - BufferManager.RESERVED_SPACE;
+            }
+        }
+
+        /**
+         * Gets the pageLSN of the page this frame held at the given generation, which it must
+         * still hold.
+         */
+        @Override
+        long getPageLSN(long generation) {
+            this.pin(generation);
+            this.latch.readLock().lock();
+            try {
+                // the page may have been freed since it was pinned
+                if (!this.isValid(generation)) {
+                    throw new IllegalStateException("reading pageLSN of invalid buffer frame");
+                }
+                return this.loadPageLSN();
+            } finally {
+                this.latch.readLock().unlock();
+                this.unpin(generation);
             }
         }
 
+        /**
+         * Sets the pageLSN of the page this frame held at the given generation, which it must
+         * still hold.
+         */
         @Override
-        long getPageLSN() {
-            return ByteBuffer.wrap(this.contents).getLong(8);
+        void setPageLSN(long generation, long pageLSN) {
+            this.pin(generation);
+            this.latch.writeLock().lock();
+            try {
+                // the page may have been freed since it was pinned
+                if (!this.isValid(generation)) {
+                    throw new IllegalStateException("setting pageLSN of invalid buffer frame");
+                }
+                this.storePageLSN(pageLSN);
+            } finally {
+                this.latch.writeLock().unlock();
+                this.unpin(generation);
+            }
         }
 
         @Override
@@ -276,7 +600,7 @@ public class BufferManagerImpl implements BufferManager {
             if (index >= 0) {
                 return "Buffer Frame " + index + ", Page " + pageNum + (isPinned() ? " (pinned)" : "");
             } else if (index == INVALID_INDEX) {
-                return "Buffer Frame (evicted), Page " + pageNum;
+                return "Buffer Frame (dropped)";
             } else {
                 return "Buffer Frame (freed), next free = " + (~index);
             }
@@ -292,7 +616,8 @@ public class BufferManagerImpl implements BufferManager {
             int startIndex = -1;
             int skip = -1;
             for (int i = 0; i < num; ++i) {
-                if (buf[i] == contents[offset + i] && startIndex >= 0) {
+                byte b = contents.get(offset + i);
+                if (buf[i] == b && startIndex >= 0) {
                     if (skip > BufferManager.RESERVED_SPACE) {
                         ranges.add(new Pair<>(startIndex, i - startIndex - skip));
                         startIndex = -1;
@@ -300,7 +625,7 @@ public class BufferManagerImpl implements BufferManager {
                     } else {
                         ++skip;
                     }
-                } else if (buf[i] != contents[offset + i]) {
+                } else if (buf[i] != b) {
                     if (startIndex < 0) {
                         startIndex = i;
                     }
@@ -313,8 +638,46 @@ public class BufferManagerImpl implements BufferManager {
             return ranges;
         }
 
-        void setPageLSN(long pageLSN) {
-            ByteBuffer.wrap(this.contents).putLong(8, pageLSN);
+        /**
+         * Reads the pageLSN straight from the frame's contents. Callers must either hold the
+         * frame's lock or latch, or otherwise know that the frame still holds its page.
+         */
+        private long loadPageLSN() {
+            return this.contents.getLong(8);
+        }
+
+        /**
+         * Writes the pageLSN straight into the frame's contents. Must be called with the frame's
+         * latch held in exclusive mode.
+         */
+        private void storePageLSN(long pageLSN) {
+            this.contents.putLong(8, pageLSN);
+        }
+
+        /**
+         * Copies bytes out of the frame's contents.
+         */
+        private void getContents(int offset, byte[] dst, int dstOffset, int length) {
+            if (this.contents.hasArray()) {
+                System.arraycopy(this.contents.array(), this.contents.arrayOffset() + offset, dst, dstOffset, length);
+            } else {
+                ByteBuffer b = this.contents.duplicate();
+                b.position(offset);
+                b.get(dst, dstOffset, length);
+            }
+        }
+
+        /**
+         * Copies bytes into the frame's contents.
+         */
+        private void putContents(int offset, byte[] src, int srcOffset, int length) {
+            if (this.contents.hasArray()) {
+                System.arraycopy(src, srcOffset, this.contents.array(), this.contents.arrayOffset() + offset, length);
+            } else {
+                ByteBuffer b = this.contents.duplicate();
+                b.position(offset);
+                b.put(src, srcOffset, length);
+            }
         }
 
         private short dataOffset() {
@@ -326,6 +689,20 @@ public class BufferManagerImpl implements BufferManager {
         }
     }
 
+    /**
+     * Sequential access state of a partition.
+     */
+    private static class ReadAheadState {
+        // Page number of the last page fetched
+        private long lastPageNum = DiskSpaceManager.INVALID_PAGE_NUM;
+
+        // Number of consecutive pages fetched in a row, ending at lastPageNum
+        private int runLength = 0;
+
+        // Page number after the last page prefetched for the current run
+        private long prefetchEnd = DiskSpaceManager.INVALID_PAGE_NUM;
+    }
+
     /**
      * Creates a new buffer manager.
      *
@@ -335,22 +712,86 @@ public class BufferManagerImpl implements BufferManager {
      */
     public BufferManagerImpl(DiskSpaceManager diskSpaceManager, RecoveryManager recoveryManager,
                              int bufferSize, EvictionPolicy evictionPolicy) {
+        this(diskSpaceManager, recoveryManager, bufferSize, evictionPolicy, false);
+    }
+
+    /**
+     * Creates a new buffer manager.
+     *
+     * @param diskSpaceManager the underlying disk space manager
+     * @param bufferSize size of buffer (in pages)
+     * @param evictionPolicy eviction policy to use
+     * @param offHeap whether to store pages in an off-heap arena of direct buffers, instead of
+     *                in heap byte arrays
+     */
+    public BufferManagerImpl(DiskSpaceManager diskSpaceManager, RecoveryManager recoveryManager,
+                             int bufferSize, EvictionPolicy evictionPolicy, boolean offHeap) {
+        this(diskSpaceManager, recoveryManager, bufferSize, evictionPolicy, offHeap, pageNum -> true);
+    }
+
+    /**
+     * Creates a new buffer manager that only holds some of the pages, as one of the pools of a
+     * PartitionedBufferManager.
+     *
+     * @param diskSpaceManager the underlying disk space manager
+     * @param bufferSize size of buffer (in pages)
+     * @param evictionPolicy eviction policy to use
+     * @param offHeap whether to store pages in an off-heap arena of direct buffers
+     * @param ownsPage whether a page belongs to this buffer manager; range fetches and
+     *                 prefetching stop at the first page that does not
+     */
+    BufferManagerImpl(DiskSpaceManager diskSpaceManager, RecoveryManager recoveryManager,
+                      int bufferSize, EvictionPolicy evictionPolicy, boolean offHeap, LongPredicate ownsPage) {
+        this.offHeap = offHeap;
+        this.pageSize = diskSpaceManager.getPageSize();
         this.frames = new Frame[bufferSize];
+        ByteBuffer[] contents = this.allocateContents(bufferSize);
         for (int i = 0; i < bufferSize; ++i) {
-            this.frames[i] = new Frame(new byte[DiskSpaceManager.PAGE_SIZE], i + 1, false);
+            this.frames[i] = new Frame(contents[i], i + 1);
         }
         this.firstFreeIndex = 0;
         this.diskSpaceManager = diskSpaceManager;
-        this.pageToFrame = new HashMap<>();
+        this.pageToFrame = new LongIntHashMap(bufferSize);
+        this.pageTableLock = new StampedLock();
         this.managerLock = new ReentrantLock();
+        this.pagesWrittenBack = this.managerLock.newCondition();
         this.evictionPolicy = evictionPolicy;
         this.recoveryManager = recoveryManager;
+        this.ownsPage = ownsPage;
+    }
+
+    /**
+     * Allocates page-sized buffers for new frames, either on the heap or in a new off-heap arena.
+     *
+     * @param numFrames number of buffers to allocate
+     * @return the buffers
+     */
+    private ByteBuffer[] allocateContents(int numFrames) {
+        ByteBuffer[] contents = new ByteBuffer[numFrames];
+        ByteBuffer chunk = null;
+        int chunkFrames = ARENA_CHUNK_SIZE / this.pageSize;
+        for (int i = 0; i < numFrames; ++i) {
+            if (this.offHeap) {
+                if (i % chunkFrames == 0) {
+                    chunk = ByteBuffer.allocateDirect(Math.min(chunkFrames, numFrames - i) * this.pageSize);
+                }
+                chunk.limit((i % chunkFrames + 1) * this.pageSize);
+                chunk.position((i % chunkFrames) * this.pageSize);
+                contents[i] = chunk.slice();
+            } else {
+                contents[i] = ByteBuffer.wrap(new byte[this.pageSize]);
+            }
+        }
+        return contents;
     }
 
     @Override
     public void close() {
+        this.setPrefetchPages(0);
+        this.setCleanFraction(0);
         this.managerLock.lock();
         try {
+            this.writeBackDirtyFrames();
             for (Frame frame : this.frames) {
                 frame.frameLock.lock();
                 try {
@@ -361,6 +802,7 @@ public class BufferManagerImpl implements BufferManager {
                         continue;
                     }
                     evictionPolicy.cleanup(frame);
+                    this.removePrefetched(frame);
                     frame.invalidate();
                 } finally {
                     frame.frameLock.unlock();
@@ -371,147 +813,1110 @@ public class BufferManagerImpl implements BufferManager {
         }
     }
 
-    @Override
-    public Frame fetchPageFrame(long pageNum, boolean logPage) {
+    /**
+     * Enables or disables prefetching. When enabled, fetching SEQUENTIAL_THRESHOLD consecutive
+     * pages of a partition in a row causes the next numPages pages of the partition to be loaded
+     * in the background. Disabling prefetching waits for any prefetches in progress to finish.
+     *
+     * @param numPages number of pages to prefetch, or 0 to disable prefetching
+     */
+    public void setPrefetchPages(int numPages) {
+        if (numPages < 0) {
+            throw new IllegalArgumentException("number of pages to prefetch must be non-negative");
+        }
+        ExecutorService executor = null;
         this.managerLock.lock();
-        Frame newFrame;
-        Frame evictedFrame;
-        // figure out what frame to load data to, and update manager state
         try {
-            if (!this.diskSpaceManager.pageAllocated(pageNum)) {
-                throw new PageException("page " + pageNum + " not allocated");
-            }
-            if (this.pageToFrame.containsKey(pageNum)) {
-                newFrame = this.frames[this.pageToFrame.get(pageNum)];
-                newFrame.pin();
-                return newFrame;
-            }
-            // prioritize free frames over eviction
-            if (this.firstFreeIndex < this.frames.length) {
-                evictedFrame = this.frames[this.firstFreeIndex];
-                evictedFrame.setUsed();
-            } else {
-                evictedFrame = (Frame) evictionPolicy.evict(frames);
-                this.pageToFrame.remove(evictedFrame.pageNum, evictedFrame.index);
-                evictionPolicy.cleanup(evictedFrame);
+            // avoid flushing out a large part of the buffer on each prefetch
+            this.prefetchPages = Math.min(numPages, this.frames.length / MAX_RANGE_FRACTION);
+            this.readAheadStates.clear();
+            if (this.prefetchPages > 0 && this.prefetchExecutor == null) {
+                this.prefetchExecutor = Executors.newSingleThreadExecutor(r -> {
+                    Thread thread = new Thread(r, "prefetcher");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            } else if (this.prefetchPages == 0) {
+                executor = this.prefetchExecutor;
+                this.prefetchExecutor = null;
             }
-            int frameIndex = evictedFrame.index;
-            newFrame = this.frames[frameIndex] = new Frame(evictedFrame.contents, frameIndex, pageNum, logPage);
-            evictionPolicy.init(newFrame);
-
-            evictedFrame.frameLock.lock();
-            newFrame.frameLock.lock();
-
-            this.pageToFrame.put(pageNum, frameIndex);
         } finally {
             this.managerLock.unlock();
         }
-        // flush evicted frame
-        try {
-            evictedFrame.invalidate();
-        } finally {
-            evictedFrame.frameLock.unlock();
-        }
-        // read new page into frame
-        try {
-            newFrame.pageNum = pageNum;
-            newFrame.pin();
-            BufferManagerImpl.this.diskSpaceManager.readPage(pageNum, newFrame.contents);
-            this.incrementIOs();
-            return newFrame;
-        } catch (PageException e) {
-            newFrame.unpin();
-            throw e;
-        } finally {
-            newFrame.frameLock.unlock();
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
     }
 
-    @Override
-    public Page fetchPage(LockContext parentContext, long pageNum, boolean logPage) {
-        return this.frameToPage(parentContext, pageNum, this.fetchPageFrame(pageNum, logPage));
-    }
-
-    @Override
-    public Frame fetchNewPageFrame(int partNum, boolean logPage) {
-        long pageNum = this.diskSpaceManager.allocPage(partNum);
+    /**
+     * Enables or disables the background cleaner. When enabled, the cleaner periodically writes
+     * back the dirty pages among the next fraction * (buffer size) frames that the eviction
+     * policy would evict. Disabling the cleaner waits for a run in progress to finish.
+     *
+     * @param fraction fraction of the buffer to keep clean, between 0 and 1, or 0 to disable
+     *                 the cleaner
+     */
+    public void setCleanFraction(double fraction) {
+        if (!(fraction >= 0 && fraction <= 1)) {
+            throw new IllegalArgumentException("fraction of buffer to keep clean must be between 0 and 1");
+        }
+        ExecutorService executor = null;
         this.managerLock.lock();
         try {
-            return fetchPageFrame(pageNum, logPage);
+            this.cleanFraction = fraction;
+            if (fraction > 0 && this.cleanerExecutor == null) {
+                this.cleanerExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread thread = new Thread(r, "page cleaner");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                this.cleanerExecutor.scheduleWithFixedDelay(this::cleanEvictionCandidates, CLEANER_INTERVAL_MS,
+                        CLEANER_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            } else if (fraction == 0) {
+                executor = this.cleanerExecutor;
+                this.cleanerExecutor = null;
+            }
         } finally {
             this.managerLock.unlock();
         }
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
     @Override
-    public Page fetchNewPage(LockContext parentContext, int partNum, boolean logPage) {
-        Frame newFrame = this.fetchNewPageFrame(partNum, logPage);
-        return this.frameToPage(parentContext, newFrame.getPageNum(), newFrame);
+    public int getBufferSize() {
+        return this.frames.length;
     }
 
     @Override
-    public void freePage(Page page) {
-        this.managerLock.lock();
-        try {
-            int frameIndex = this.pageToFrame.get(page.getPageNum());
-            Frame frame = this.frames[frameIndex];
-            this.pageToFrame.remove(page.getPageNum(), frameIndex);
-            evictionPolicy.cleanup(frame);
-            frame.setFree();
-
-            this.frames[frameIndex] = new Frame(frame);
-            diskSpaceManager.freePage(page.getPageNum());
-        } finally {
-            this.managerLock.unlock();
-        }
+    public int getPageSize() {
+        return this.pageSize;
     }
 
+    /**
+     * Grows or shrinks the buffer to bufferSize frames, without interrupting other threads'
+     * use of the buffer manager beyond holding the manager lock for the duration.
+     *
+     * Growing the buffer adds free frames. Shrinking it first evicts pages, chosen by the
+     * eviction policy (writing them back if they are dirty), until the remaining pages fit
+     * into bufferSize frames, then moves the pages held by the frames beyond the new size into
+     * free frames below it, and drops the frames beyond the new size. Frames of an off-heap
+     * arena are only released once every frame of their direct buffer has been dropped.
+     *
+     * Frames beyond the new size must not be pinned: if one is, the buffer is left as it is
+     * and an IllegalStateException is thrown, and shrinking can be retried later.
+     *
+     * Resizes are serialized (by synchronizing on the buffer manager), since shrinking may
+     * release the manager lock while waiting for frames.
+     *
+     * @param bufferSize new size of buffer (in pages)
+     */
     @Override
-    public void freePart(int partNum) {
+    public synchronized void resize(int bufferSize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("buffer must have at least one frame");
+        }
         this.managerLock.lock();
         try {
-            for (int i = 0; i < frames.length; ++i) {
-                Frame frame = frames[i];
-                if (DiskSpaceManager.getPartNum(frame.pageNum) == partNum) {
-                    this.pageToFrame.remove(frame.getPageNum(), i);
-                    evictionPolicy.cleanup(frame);
-                    frame.setFree();
-
-                    frames[i] = new Frame(frame);
-                }
+            if (bufferSize > this.frames.length) {
+                this.grow(bufferSize);
+            } else if (bufferSize < this.frames.length) {
+                this.shrink(bufferSize);
             }
-
-            diskSpaceManager.freePart(partNum);
         } finally {
             this.managerLock.unlock();
         }
     }
 
-    @Override
-    public void evict(long pageNum) {
-        managerLock.lock();
-        try {
-            if (!pageToFrame.containsKey(pageNum)) {
-                return;
-            }
-            evict(pageToFrame.get(pageNum));
-        } finally {
-            managerLock.unlock();
+    /**
+     * Adds free frames to the end of the buffer. Must be called with the manager lock held.
+     *
+     * @param bufferSize new size of buffer (in pages)
+     */
+    private void grow(int bufferSize) {
+        int oldSize = this.frames.length;
+        Frame[] newFrames = Arrays.copyOf(this.frames, bufferSize);
+        ByteBuffer[] contents = this.allocateContents(bufferSize - oldSize);
+        // the free list ends at the old size, which is now the first new frame
+        for (int i = oldSize; i < bufferSize; ++i) {
+            newFrames[i] = new Frame(contents[i - oldSize], i + 1);
         }
+        this.replaceFrames(newFrames);
     }
 
-    private void evict(int i) {
+    /**
+     * Evicts pages until the loaded pages fit into bufferSize frames, moves the pages in frames
+     * beyond bufferSize below it, and drops the frames beyond bufferSize. Must be called with
+     * the manager lock held.
+     *
+     * @param bufferSize new size of buffer (in pages)
+     */
+    private void shrink(int bufferSize) {
+        this.writeBackDirtyFrames();
+        List<Frame> removedFrames = this.lockFramesFrom(bufferSize);
+        try {
+            int numLoaded = 0;
+            for (Frame frame : this.frames) {
+                if (frame.isValid()) {
+                    ++numLoaded;
+                }
+            }
+            while (numLoaded > bufferSize) {
+                // frames beyond the new size are locked by this thread, so may still be chosen;
+                // policies that go through the frame array (e.g. clock) may also choose free
+                // frames, which misses never see, since they only evict when no frame is free
+                Frame frame = this.lockFrameToEvict(true);
+                try {
+                    if (frame.isValid()) {
+                        this.evict(frame.index);
+                        --numLoaded;
+                    }
+                } finally {
+                    frame.frameLock.unlock();
+                }
+            }
+            int freeIndex = 0;
+            for (int i = bufferSize; i < this.frames.length; ++i) {
+                if (this.frames[i].isValid()) {
+                    while (this.frames[freeIndex].isValid()) {
+                        ++freeIndex;
+                    }
+                    this.moveFrame(this.frames[i], freeIndex);
+                }
+            }
+            // every frame below the new size is now either loaded or free
+            Frame[] newFrames = Arrays.copyOf(this.frames, bufferSize);
+            int nextFree = bufferSize;
+            for (int i = bufferSize - 1; i >= 0; --i) {
+                if (!newFrames[i].isValid()) {
+                    newFrames[i].index = ~nextFree;
+                    nextFree = i;
+                }
+            }
+            for (Frame frame : removedFrames) {
+                if (frame.isFreed()) {
+                    frame.invalidateMoved();
+                }
+            }
+            this.replaceFrames(newFrames);
+            this.firstFreeIndex = nextFree;
+            // avoid flushing out a large part of the smaller buffer on each prefetch
+            this.prefetchPages = Math.min(this.prefetchPages, bufferSize / MAX_RANGE_FRACTION);
+        } finally {
+            for (Frame frame : removedFrames) {
+                frame.frameLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Locks the frames from index start onwards, so that they cannot be pinned, waiting (without
+     * the manager lock) for frames that are locked by other threads, e.g. while being loaded.
+     * Must be called with the manager lock held.
+     *
+     * @param start index of first frame to lock
+     * @return locked frames
+     * @throws IllegalStateException if one of the frames is pinned
+     */
+    private List<Frame> lockFramesFrom(int start) {
+        while (true) {
+            List<Frame> lockedFrames = new ArrayList<>();
+            boolean locked = true;
+            for (int i = start; i < this.frames.length && locked; ++i) {
+                Frame frame = this.frames[i];
+                locked = frame.frameLock.tryLock();
+                if (locked) {
+                    lockedFrames.add(frame);
+                    if (frame.isPinned()) {
+                        for (Frame lockedFrame : lockedFrames) {
+                            lockedFrame.frameLock.unlock();
+                        }
+                        throw new IllegalStateException("cannot shrink buffer: frame " + i + " is pinned");
+                    }
+                }
+            }
+            if (locked) {
+                return lockedFrames;
+            }
+            for (Frame lockedFrame : lockedFrames) {
+                lockedFrame.frameLock.unlock();
+            }
+            // the thread holding the frame may need the manager lock to finish with it
+            this.managerLock.unlock();
+            Thread.yield();
+            this.managerLock.lock();
+        }
+    }
+
+    /**
+     * Copies the page in a frame into a free frame, and invalidates the old frame (which is
+     * about to be dropped). Must be called with the manager lock and the frame's lock held, and
+     * the frame unpinned.
+     *
+     * @param frame frame to move
+     * @param freeIndex index of free frame to move it to; the free list is rebuilt by the caller
+     */
+    private void moveFrame(Frame frame, int freeIndex) {
+        Frame newFrame = this.frames[freeIndex];
+        newFrame.frameLock.lock();
+        try {
+            newFrame.index = freeIndex;
+            newFrame.assign(frame.pageNum, frame.logPage);
+            newFrame.contents.duplicate().put(frame.contents.duplicate());
+            newFrame.dirty = frame.dirty;
+            evictionPolicy.cleanup(frame);
+            evictionPolicy.init(newFrame);
+            if (this.prefetchedFrames.remove(frame) && frame.prefetched) {
+                newFrame.prefetched = true;
+                this.prefetchedFrames.add(newFrame);
+            }
+            this.mapFrame(newFrame);
+        } finally {
+            newFrame.frameLock.unlock();
+        }
+        frame.invalidateMoved();
+    }
+
+    /**
+     * Replaces the frame array after the buffer is resized, and lets the eviction policy know.
+     * Must be called with the manager lock held.
+     *
+     * @param newFrames new frame array
+     */
+    private void replaceFrames(Frame[] newFrames) {
+        // hits read the frame array under the page table's (optimistic) read lock
+        long stamp = this.pageTableLock.writeLock();
+        try {
+            this.frames = newFrames;
+        } finally {
+            this.pageTableLock.unlockWrite(stamp);
+        }
+        evictionPolicy.resize(newFrames);
+    }
+
+    @Override
+    public Frame fetchPageFrame(long pageNum, boolean logPage) {
+        if (!logPage) {
+            this.readAhead(pageNum);
+        }
+        return this.loadPageFrame(pageNum, logPage, null);
+    }
+
+    /**
+     * Fetches a buffer frame with data for the specified data page, loading the page through a
+     * scan ring if it is not loaded. Scans with a ring read ranges of pages themselves, so the
+     * fetch is not recorded for read-ahead purposes.
+     *
+     * @param pageNum page number
+     * @param ring the scan's ring
+     * @return buffer frame with specified page loaded
+     */
+    Frame fetchPageFrame(long pageNum, ScanRing ring) {
+        return this.loadPageFrame(pageNum, false, ring);
+    }
+
+    @Override
+    public ScanRing newScanRing(int numPages) {
+        if (numPages <= this.frames.length / SCAN_RING_THRESHOLD_FRACTION) {
+            return null;
+        }
+        return new ScanRing(Math.max(1, this.frames.length / MAX_RANGE_FRACTION));
+    }
+
+    /**
+     * Records a fetch of pageNum, and prefetches the pages following it in the background
+     * if it continues a long enough run of consecutive pages.
+     *
+     * @param pageNum page number being fetched
+     */
+    private void readAhead(long pageNum) {
+        if (this.prefetchPages == 0) {
+            return;
+        }
+        this.managerLock.lock();
+        try {
+            if (this.prefetchPages == 0) {
+                return;
+            }
+            int partNum = DiskSpaceManager.getPartNum(pageNum);
+            ReadAheadState state = this.readAheadStates.computeIfAbsent(partNum, p -> new ReadAheadState());
+            if (pageNum == state.lastPageNum) {
+                return;
+            }
+            if (pageNum == state.lastPageNum + 1) {
+                ++state.runLength;
+            } else {
+                state.runLength = 1;
+                state.prefetchEnd = pageNum + 1;
+            }
+            state.lastPageNum = pageNum;
+            // prefetch the next window once we are halfway through the last one
+            if (state.runLength < SEQUENTIAL_THRESHOLD ||
+                    state.prefetchEnd - pageNum > this.prefetchPages / 2) {
+                return;
+            }
+            long startPageNum = Math.max(pageNum + 1, state.prefetchEnd);
+            long endPageNum = pageNum + 1 + this.prefetchPages;
+            state.prefetchEnd = endPageNum;
+            this.prefetchExecutor.execute(() -> {
+                try {
+                    this.loadPages(startPageNum, (int) (endPageNum - startPageNum), false, null);
+                } catch (PageException e) {
+                    // partition was freed while prefetching; nothing to load
+                }
+            });
+        } finally {
+            this.managerLock.unlock();
+        }
+    }
+
+    /**
+     * Fetches the specified page, with a loaded and pinned buffer frame, without recording
+     * the fetch for read-ahead purposes.
+     *
+     * @param pageNum page number
+     * @param logPage whether the page is for the log or not
+     * @param ring scan ring to load the page through, or null
+     * @return specified page
+     */
+    private Frame loadPageFrame(long pageNum, boolean logPage, ScanRing ring) {
+        Frame frame = this.pinLoadedFrame(pageNum);
+        if (frame != null) {
+            return frame;
+        }
+        if (!this.diskSpaceManager.pageAllocated(pageNum)) {
+            throw new PageException("page " + pageNum + " not allocated");
+        }
+        long evictedPageNum = DiskSpaceManager.INVALID_PAGE_NUM;
+        boolean evictedLogPage = false;
+        this.managerLock.lock();
+        // figure out what frame to load data to, and update manager state
+        try {
+            while (this.pageToFrame.containsKey(pageNum) || this.writingBackPages.contains(pageNum)) {
+                if (!this.pageToFrame.containsKey(pageNum)) {
+                    // evicted by another thread, which has not written it back yet
+                    this.pagesWrittenBack.awaitUninterruptibly();
+                    continue;
+                }
+                // loaded by another thread since we checked
+                this.managerLock.unlock();
+                try {
+                    frame = this.pinLoadedFrame(pageNum);
+                    if (frame != null) {
+                        return frame;
+                    }
+                } finally {
+                    this.managerLock.lock();
+                }
+            }
+            evictionPolicy.miss(pageNum);
+            // prioritize free frames over eviction, the scan's ring over other frames, and
+            // pages loaded ahead over other pages
+            if (this.firstFreeIndex < this.frames.length) {
+                frame = this.frames[this.firstFreeIndex];
+                frame.setUsed();
+                frame.frameLock.lock();
+            } else {
+                frame = this.lockRingFrame(ring);
+                if (frame == null) {
+                    frame = this.lockFrameToEvict(true);
+                }
+                this.removePrefetched(frame);
+                this.unmapFrame(frame);
+                evictionPolicy.cleanup(frame);
+                if (this.startWriteBack(frame)) {
+                    evictedPageNum = frame.pageNum;
+                    evictedLogPage = frame.logPage;
+                }
+            }
+            frame.assign(pageNum, logPage);
+            evictionPolicy.init(frame);
+            if (ring != null) {
+                ring.add(frame);
+            }
+            // pin the frame so that it is not chosen for eviction while the evicted page is
+            // written back (which may load log pages)
+            frame.pin();
+
+            this.mapFrame(frame);
+        } finally {
+            this.managerLock.unlock();
+        }
+        try {
+            // write back evicted page
+            if (evictedPageNum != DiskSpaceManager.INVALID_PAGE_NUM) {
+                try {
+                    frame.writeContents(evictedPageNum, evictedLogPage);
+                    this.dirtyPages.remove(evictedPageNum);
+                } finally {
+                    this.finishWriteBack(evictedPageNum);
+                }
+            }
+            // read new page into frame
+            BufferManagerImpl.this.diskSpaceManager.readPage(pageNum, frame.contents);
+            this.incrementIOs();
+            return frame;
+        } catch (PageException e) {
+            frame.unpin();
+            throw e;
+        } finally {
+            frame.frameLock.unlock();
+        }
+    }
+
+    /**
+     * Pins the frame of a page if the page is loaded, without taking the manager lock.
+     *
+     * @param pageNum page number
+     * @return pinned frame of the page, or null if the page is not loaded
+     */
+    private Frame pinLoadedFrame(long pageNum) {
+        Frame frame = this.lookupFrame(pageNum);
+        if (frame == null) {
+            return null;
+        }
+        frame.frameLock.lock();
+        try {
+            // the frame may have been evicted or freed since we looked it up
+            if (!frame.isValid() || frame.pageNum != pageNum) {
+                return null;
+            }
+            frame.pin();
+        } finally {
+            frame.frameLock.unlock();
+        }
+        if (frame.prefetched) {
+            // removed from prefetchedFrames lazily, by unusedPrefetchedFrame or removePrefetched
+            frame.prefetched = false;
+            this.numPrefetchHits.incrementAndGet();
+        }
+        return frame;
+    }
+
+    /**
+     * Looks up the frame of a page in the page table, with an optimistic read (falling back
+     * to a read lock if the page table was modified during the lookup).
+     *
+     * @param pageNum page number
+     * @return frame of the page, or null if the page is not loaded
+     */
+    private Frame lookupFrame(long pageNum) {
+        long stamp = this.pageTableLock.tryOptimisticRead();
+        // the page table and frame array may be inconsistent (e.g. during a resize) until validated
+        Frame[] frames = this.frames;
+        int frameIndex = this.pageToFrame.get(pageNum);
+        Frame frame = frameIndex == LongIntHashMap.NO_VALUE || frameIndex >= frames.length ? null : frames[frameIndex];
+        if (!this.pageTableLock.validate(stamp)) {
+            stamp = this.pageTableLock.readLock();
+            try {
+                frameIndex = this.pageToFrame.get(pageNum);
+                frame = frameIndex == LongIntHashMap.NO_VALUE ? null : this.frames[frameIndex];
+            } finally {
+                this.pageTableLock.unlockRead(stamp);
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * Adds a frame to the page table. Must be called with the manager lock and the frame's lock held.
+     *
+     * @param frame frame to add
+     */
+    private void mapFrame(Frame frame) {
+        long stamp = this.pageTableLock.writeLock();
+        try {
+            this.pageToFrame.put(frame.pageNum, frame.index);
+        } finally {
+            this.pageTableLock.unlockWrite(stamp);
+        }
+        this.partPageToFrame.computeIfAbsent(DiskSpaceManager.getPartNum(frame.pageNum), p -> new LongIntHashMap())
+                .put(frame.pageNum, frame.index);
+    }
+
+    /**
+     * Removes a frame from the page table, if the frame's page is mapped to it. Must be called
+     * with the manager lock and the frame's lock held.
+     *
+     * @param frame frame to remove
+     */
+    private void unmapFrame(Frame frame) {
+        if (this.pageToFrame.get(frame.pageNum) != frame.index) {
+            return;
+        }
+        long stamp = this.pageTableLock.writeLock();
+        try {
+            this.pageToFrame.remove(frame.pageNum);
+        } finally {
+            this.pageTableLock.unlockWrite(stamp);
+        }
+        int partNum = DiskSpaceManager.getPartNum(frame.pageNum);
+        LongIntHashMap partPages = this.partPageToFrame.get(partNum);
+        partPages.remove(frame.pageNum);
+        if (partPages.size() == 0) {
+            // temporary partitions come and go, so do not keep a map for each
+            this.partPageToFrame.remove(partNum);
+        }
+    }
+
+    /**
+     * Records that the page of an evicted frame is about to be written back, if it is dirty, so
+     * that it is not loaded again until it has been. Must be called with the manager lock and the
+     * frame's lock held, before a new page is assigned to the frame.
+     *
+     * @param frame evicted frame
+     * @return whether the page needs to be written back
+     */
+    private boolean startWriteBack(Frame frame) {
+        if (frame.isValid() && frame.dirty) {
+            this.writingBackPages.add(frame.pageNum);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records that an evicted page has been written back (or has failed to be), and wakes up
+     * threads waiting to load it.
+     *
+     * @param pageNum evicted page, passed to startWriteBack
+     */
+    private void finishWriteBack(long pageNum) {
+        this.managerLock.lock();
+        try {
+            this.writingBackPages.remove(pageNum);
+            this.pagesWrittenBack.signalAll();
+        } finally {
+            this.managerLock.unlock();
+        }
+    }
+
+    /**
+     * Records that evicted pages have been written back (or have failed to be), and wakes up
+     * threads waiting to load them.
+     *
+     * @param pageNums evicted pages passed to startWriteBack, or INVALID_PAGE_NUM
+     * @param numPages number of entries of pageNums to go through
+     */
+    private void finishWriteBack(long[] pageNums, int numPages) {
+        this.managerLock.lock();
+        try {
+            boolean removed = false;
+            for (int i = 0; i < numPages; ++i) {
+                removed |= this.writingBackPages.remove(pageNums[i]);
+            }
+            if (removed) {
+                this.pagesWrittenBack.signalAll();
+            }
+        } finally {
+            this.managerLock.unlock();
+        }
+    }
+
+    /**
+     * Locks the frame that a scan ring would reuse next, if there is one, and it still holds the
+     * page loaded into it through the ring and is not pinned. Must be called with the manager
+     * lock held.
+     *
+     * @param ring scan ring, or null
+     * @return locked frame to evict, or null if the ring has no frame to reuse
+     */
+    private Frame lockRingFrame(ScanRing ring) {
+        if (ring == null || !(ring.nextVictim() instanceof Frame)) {
+            return null;
+        }
+        Frame frame = (Frame) ring.nextVictim();
+        // the frame may have been dropped since, or belong to another buffer manager
+        if (frame.index < 0 || frame.index >= this.frames.length || this.frames[frame.index] != frame) {
+            return null;
+        }
+        if (!frame.frameLock.tryLock()) {
+            return null;
+        }
+        // the frame may hold another page since
+        if (!frame.isValid(ring.nextVictimGeneration()) || frame.isPinned()) {
+            frame.frameLock.unlock();
+            return null;
+        }
+        return frame;
+    }
+
+    /**
+     * Chooses an unpinned frame to evict, and locks it. The frame is chosen by the eviction
+     * policy, unless preferPrefetched is set and there is an unpinned frame loaded ahead of being
+     * requested that has not been requested since. Must be called with the manager lock held.
+     *
+     * Hits do not take the manager lock, so the chosen frame may have been locked or pinned by
+     * another thread since it was chosen; the next frames the policy would evict are then tried
+     * instead. Frames being written back by the cleaner are pinned, so they are not chosen; if
+     * they are the only unpinned frames, this waits for the cleaner to release one of them.
+     *
+     * @param preferPrefetched whether to prefer frames loaded ahead of being requested
+     * @return locked frame to evict
+     * @throws IllegalStateException if every frame is pinned (other than by the cleaner)
+     */
+    private Frame lockFrameToEvict(boolean preferPrefetched) {
+        while (true) {
+            Frame frame = preferPrefetched ? this.unusedPrefetchedFrame() : null;
+            try {
+                if (frame == null) {
+                    frame = (Frame) evictionPolicy.evict(frames);
+                }
+            } catch (IllegalStateException e) {
+                List<Frame> cleaning = this.cleaningFrames;
+                if (cleaning.isEmpty()) {
+                    throw e;
+                }
+                // the cleaner does not take the manager lock while writing, so this cannot deadlock
+                Frame cleaned = cleaning.get(0);
+                cleaned.frameLock.lock();
+                if (cleaned.isValid() && !cleaned.isPinned()) {
+                    return cleaned;
+                }
+                cleaned.frameLock.unlock();
+                continue;
+            }
+            if (this.tryLockToEvict(frame)) {
+                return frame;
+            }
+            for (BufferFrame candidate : evictionPolicy.evictionCandidates(frames, frames.length)) {
+                if (this.tryLockToEvict((Frame) candidate)) {
+                    return (Frame) candidate;
+                }
+            }
+        }
+    }
+
+    /**
+     * Locks a frame chosen for eviction, if it is neither locked nor pinned by another thread.
+     *
+     * @param frame frame to lock
+     * @return whether the frame was locked
+     */
+    private boolean tryLockToEvict(Frame frame) {
+        if (!frame.frameLock.tryLock()) {
+            return false;
+        }
+        if (frame.isPinned()) {
+            frame.frameLock.unlock();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public Frame fetchPageRangeFrame(long pageNum, int numPages, boolean logPage) {
+        Frame frame = this.fetchPageFrame(pageNum, logPage);
+        // avoid flushing out a large part of the buffer to load a single range
+        numPages = Math.min(numPages, this.frames.length / MAX_RANGE_FRACTION);
+        this.loadPages(pageNum + 1, numPages - 1, logPage, null);
+        return frame;
+    }
+
+    /**
+     * Fetches a buffer frame with data for the specified data page, and loads up to numPages - 1
+     * of the pages following it, through a scan ring (see BufferManager#fetchPageRange).
+     *
+     * @param pageNum page number of first page in the range
+     * @param numPages number of pages in the range
+     * @param ring the scan's ring
+     * @return buffer frame with specified page loaded
+     */
+    private Frame fetchPageRangeFrame(long pageNum, int numPages, ScanRing ring) {
+        Frame frame = this.fetchPageFrame(pageNum, ring);
+        this.loadPages(pageNum + 1, Math.min(numPages, ring.size()) - 1, false, ring);
+        return frame;
+    }
+
+    /**
+     * Loads the pages in [pageNum, pageNum + numPages) that are not already loaded, stopping
+     * at the first page that is not allocated (or not owned by this buffer manager). Pages are
+     * left unpinned.
+     *
+     * @param pageNum page number of first page to load
+     * @param numPages number of pages to load
+     * @param logPage whether the pages are for the log or not
+     * @param ring scan ring to load the pages through, or null
+     * @return whether every page in the range is loaded
+     */
+    boolean loadPages(long pageNum, int numPages, boolean logPage, ScanRing ring) {
+        long endPageNum = pageNum + numPages;
+        long nextPageNum = pageNum;
+        while (nextPageNum < endPageNum) {
+            int numLoaded = this.loadPageRun(nextPageNum, (int) (endPageNum - nextPageNum), logPage, ring, false);
+            if (numLoaded < 0) {
+                break;
+            }
+            nextPageNum += Math.max(numLoaded, 1);
+        }
+        return nextPageNum >= endPageNum;
+    }
+
+    /**
+     * Loads the longest run of consecutive pages starting at pageNum (up to maxPages pages)
+     * that are allocated and not already loaded, with a single read from disk. Pages are
+     * left unpinned, and are marked as loaded ahead of being requested.
+     *
+     * @param pageNum page number of first page in the run
+     * @param maxPages maximum number of pages to load
+     * @param logPage whether the pages are for the log or not
+     * @param ring scan ring to load the pages through, or null
+     * @param freeFramesOnly whether to only load pages into free frames, instead of evicting pages
+     * @return number of pages loaded (0 if pageNum is already loaded), or -1 if pageNum
+     *         is not allocated or there is no frame available to load it into
+     */
+    private int loadPageRun(long pageNum, int maxPages, boolean logPage, ScanRing ring, boolean freeFramesOnly) {
+        List<Frame> newFrames = new ArrayList<>();
+        // pages evicted from the new frames that need to be written back, or INVALID_PAGE_NUM
+        long[] evictedPageNums;
+        boolean[] evictedLogPages;
+        this.managerLock.lock();
+        try {
+            // every page of the run takes a frame
+            maxPages = Math.min(maxPages, this.frames.length);
+            evictedPageNums = new long[maxPages];
+            evictedLogPages = new boolean[maxPages];
+            for (int i = 0; i < maxPages; ++i) {
+                long runPageNum = pageNum + i;
+                if (this.pageToFrame.containsKey(runPageNum) || this.writingBackPages.contains(runPageNum)) {
+                    break;
+                }
+                if (DiskSpaceManager.getPartNum(runPageNum) != DiskSpaceManager.getPartNum(pageNum) ||
+                        !this.ownsPage.test(runPageNum) || !this.diskSpaceManager.pageAllocated(runPageNum)) {
+                    if (i == 0) {
+                        return -1;
+                    }
+                    break;
+                }
+                evictionPolicy.miss(runPageNum);
+                Frame frame;
+                evictedPageNums[i] = DiskSpaceManager.INVALID_PAGE_NUM;
+                if (this.firstFreeIndex < this.frames.length) {
+                    frame = this.frames[this.firstFreeIndex];
+                    frame.setUsed();
+                    frame.frameLock.lock();
+                } else if (freeFramesOnly) {
+                    if (i == 0) {
+                        return -1;
+                    }
+                    break;
+                } else {
+                    try {
+                        frame = this.lockRingFrame(ring);
+                        if (frame == null) {
+                            frame = this.lockFrameToEvict(false);
+                        }
+                    } catch (IllegalStateException e) {
+                        // everything else is pinned; load what we have so far
+                        if (i == 0) {
+                            return -1;
+                        }
+                        break;
+                    }
+                    this.removePrefetched(frame);
+                    this.unmapFrame(frame);
+                    evictionPolicy.cleanup(frame);
+                    if (this.startWriteBack(frame)) {
+                        evictedPageNums[i] = frame.pageNum;
+                        evictedLogPages[i] = frame.logPage;
+                    }
+                }
+                frame.assign(runPageNum, logPage);
+                evictionPolicy.init(frame);
+                frame.prefetched = true;
+                this.prefetchedFrames.add(frame);
+                if (ring != null) {
+                    ring.add(frame);
+                }
+
+                // pin the new frame so that it is not chosen for eviction for a later page in the run
+                // (or while evicted pages are written back), and keep it locked until it is loaded
+                frame.pin();
+
+                this.mapFrame(frame);
+                newFrames.add(frame);
+            }
+        } finally {
+            this.managerLock.unlock();
+        }
+        if (newFrames.isEmpty()) {
+            return 0;
+        }
+        try {
+            // write back evicted pages
+            try {
+                for (int i = 0; i < newFrames.size(); ++i) {
+                    if (evictedPageNums[i] != DiskSpaceManager.INVALID_PAGE_NUM) {
+                        newFrames.get(i).writeContents(evictedPageNums[i], evictedLogPages[i]);
+                        this.dirtyPages.remove(evictedPageNums[i]);
+                    }
+                }
+            } finally {
+                this.finishWriteBack(evictedPageNums, newFrames.size());
+            }
+            // read new pages into frames
+            ByteBuffer[] bufs = new ByteBuffer[newFrames.size()];
+            for (int i = 0; i < bufs.length; ++i) {
+                bufs[i] = newFrames.get(i).contents;
+            }
+            this.diskSpaceManager.readPages(pageNum, bufs);
+            for (int i = 0; i < bufs.length; ++i) {
+                this.incrementIOs();
+            }
+        } finally {
+            for (Frame frame : newFrames) {
+                frame.unpin();
+                frame.frameLock.unlock();
+            }
+        }
+        return newFrames.size();
+    }
+
+    /**
+     * @return page numbers of the loaded data pages (excluding pages of temporary partitions),
+     * from the page the eviction policy would keep the longest (pinned pages first) to the page
+     * it would evict first
+     */
+    @Override
+    public long[] getResidentPages() {
+        this.managerLock.lock();
+        try {
+            Frame[] frames = this.frames;
+            List<BufferFrame> candidates = evictionPolicy.evictionCandidates(frames, frames.length);
+            Set<BufferFrame> unpinned = new HashSet<>(candidates);
+            List<Frame> ordered = new ArrayList<>();
+            for (Frame frame : frames) {
+                if (!unpinned.contains(frame)) {
+                    ordered.add(frame);
+                }
+            }
+            for (int i = candidates.size() - 1; i >= 0; --i) {
+                ordered.add((Frame) candidates.get(i));
+            }
+            long[] pageNums = new long[ordered.size()];
+            int numPages = 0;
+            for (Frame frame : ordered) {
+                if (frame.isValid() && !frame.logPage && !frame.isTempPage()) {
+                    pageNums[numPages++] = frame.pageNum;
+                }
+            }
+            return Arrays.copyOf(pageNums, numPages);
+        } finally {
+            this.managerLock.unlock();
+        }
+    }
+
+    /**
+     * Loads data pages into free frames, in order of page number, reading runs of consecutive
+     * pages together. Pages that are already loaded, or not allocated, are skipped. Pages
+     * are marked as loaded ahead of being requested, so they are evicted first if the workload
+     * turns out to need other pages.
+     *
+     * @param pageNums page numbers of the pages to load
+     * @return false if loading stopped because there were no free frames left
+     */
+    @Override
+    public boolean preloadPages(long[] pageNums) {
+        long[] sorted = pageNums.clone();
+        Arrays.sort(sorted);
+        int i = 0;
+        while (i < sorted.length) {
+            int end = i + 1;
+            while (end < sorted.length && sorted[end] == sorted[end - 1] + 1) {
+                ++end;
+            }
+            long nextPageNum = sorted[i];
+            long endPageNum = sorted[end - 1] + 1;
+            while (nextPageNum < endPageNum) {
+                int numLoaded;
+                try {
+                    numLoaded = this.loadPageRun(nextPageNum, (int) (endPageNum - nextPageNum), false, null, true);
+                } catch (PageException e) {
+                    // partition was freed while loading
+                    numLoaded = -1;
+                }
+                if (numLoaded < 0 && !this.hasFreeFrame()) {
+                    return false;
+                }
+                nextPageNum += Math.max(numLoaded, 1);
+            }
+            i = end;
+        }
+        return true;
+    }
+
+    /**
+     * @return whether there is a free frame
+     */
+    private boolean hasFreeFrame() {
+        this.managerLock.lock();
+        try {
+            return this.firstFreeIndex < this.frames.length;
+        } finally {
+            this.managerLock.unlock();
+        }
+    }
+
+    @Override
+    public Page fetchPageRange(LockContext parentContext, long pageNum, int numPages, boolean logPage) {
+        return this.frameToPage(parentContext, pageNum, this.fetchPageRangeFrame(pageNum, numPages, logPage));
+    }
+
+    @Override
+    public Page fetchPage(LockContext parentContext, long pageNum, boolean logPage) {
+        return this.frameToPage(parentContext, pageNum, this.fetchPageFrame(pageNum, logPage));
+    }
+
+    @Override
+    public Page fetchPage(LockContext parentContext, long pageNum, ScanRing ring) {
+        if (ring == null) {
+            return this.fetchPage(parentContext, pageNum, false);
+        }
+        return this.frameToPage(parentContext, pageNum, this.fetchPageFrame(pageNum, ring));
+    }
+
+    @Override
+    public Page fetchPageRange(LockContext parentContext, long pageNum, int numPages, ScanRing ring) {
+        if (ring == null) {
+            return this.fetchPageRange(parentContext, pageNum, numPages, false);
+        }
+        return this.frameToPage(parentContext, pageNum, this.fetchPageRangeFrame(pageNum, numPages, ring));
+    }
+
+    @Override
+    public Frame fetchNewPageFrame(int partNum, boolean logPage) {
+        long pageNum = this.diskSpaceManager.allocPage(partNum);
+        return loadPageFrame(pageNum, logPage, null);
+    }
+
+    @Override
+    public Frame fetchNewPageFrame(ExtentAllocator extentAllocator, boolean logPage) {
+        long pageNum = extentAllocator.allocPage(this.diskSpaceManager);
+        return loadPageFrame(pageNum, logPage, null);
+    }
+
+    @Override
+    public Page fetchNewPage(LockContext parentContext, int partNum, boolean logPage) {
+        Frame newFrame = this.fetchNewPageFrame(partNum, logPage);
+        return this.frameToPage(parentContext, newFrame.getPageNum(), newFrame);
+    }
+
+    @Override
+    public Page fetchNewPage(LockContext parentContext, ExtentAllocator extentAllocator, boolean logPage) {
+        Frame newFrame = this.fetchNewPageFrame(extentAllocator, logPage);
+        return this.frameToPage(parentContext, newFrame.getPageNum(), newFrame);
+    }
+
+    @Override
+    public void freePage(Page page) {
+        this.managerLock.lock();
+        try {
+            int frameIndex = this.pageToFrame.get(page.getPageNum());
+            Frame frame = this.frames[frameIndex];
+            frame.frameLock.lock();
+            try {
+                this.unmapFrame(frame);
+                evictionPolicy.cleanup(frame);
+                this.removePrefetched(frame);
+                this.dirtyPages.remove(frame.pageNum);
+                frame.setFree();
+            } finally {
+                frame.frameLock.unlock();
+            }
+
+            diskSpaceManager.freePage(page.getPageNum());
+        } finally {
+            this.managerLock.unlock();
+        }
+    }
+
+    @Override
+    public void freePart(int partNum) {
+        this.managerLock.lock();
+        try {
+            this.dropPart(partNum);
+            diskSpaceManager.freePart(partNum);
+        } finally {
+            this.managerLock.unlock();
+        }
+    }
+
+    /**
+     * Frees the frames of all loaded pages of a partition, without writing them back, and
+     * without freeing the partition on disk. Only the frames of the partition's loaded pages
+     * are visited, so dropping a small (e.g. temporary) partition is cheap even with a large
+     * buffer.
+     *
+     * @param partNum partition number
+     */
+    void dropPart(int partNum) {
+        this.managerLock.lock();
+        try {
+            LongIntHashMap partPages = this.partPageToFrame.get(partNum);
+            if (partPages == null) {
+                return;
+            }
+            // unmapFrame removes pages from partPages as we go
+            for (long pageNum : partPages.keys()) {
+                int i = partPages.get(pageNum);
+                Frame frame = frames[i];
+                // waits for the page to finish loading if it is being prefetched
+                frame.frameLock.lock();
+                try {
+                    if (!frame.isValid()) {
+                        continue;
+                    }
+                    this.unmapFrame(frame);
+                    evictionPolicy.cleanup(frame);
+                    this.removePrefetched(frame);
+                    this.dirtyPages.remove(frame.pageNum);
+                    frame.setFree();
+                } finally {
+                    frame.frameLock.unlock();
+                }
+            }
+        } finally {
+            this.managerLock.unlock();
+        }
+    }
+
+    @Override
+    public void evict(long pageNum) {
+        managerLock.lock();
+        try {
+            int frameIndex = pageToFrame.get(pageNum);
+            if (frameIndex == LongIntHashMap.NO_VALUE) {
+                return;
+            }
+            evict(frameIndex);
+        } finally {
+            managerLock.unlock();
+        }
+    }
+
+    private void evict(int i) {
         Frame frame = frames[i];
         frame.frameLock.lock();
         try {
             if (frame.isValid() && !frame.isPinned()) {
-                this.pageToFrame.remove(frame.pageNum, frame.index);
+                this.unmapFrame(frame);
                 evictionPolicy.cleanup(frame);
+                this.removePrefetched(frame);
 
-                frames[i] = new Frame(frame.contents, this.firstFreeIndex, false);
-                this.firstFreeIndex = i;
-
-                frame.invalidate();
+                // write the page back before the frame can be reused
+                frame.flush();
+                frame.setFree();
             }
         } finally {
             frame.frameLock.unlock();
@@ -520,8 +1925,154 @@ public class BufferManagerImpl implements BufferManager {
 
     @Override
     public void evictAll() {
-        for (int i = 0; i < frames.length; ++i) {
-            evict(i);
+        managerLock.lock();
+        try {
+            this.writeBackDirtyFrames();
+            for (int i = 0; i < frames.length; ++i) {
+                evict(i);
+            }
+        } finally {
+            managerLock.unlock();
+        }
+    }
+
+    @Override
+    public void flushAll() {
+        managerLock.lock();
+        try {
+            this.writeBackDirtyFrames();
+        } finally {
+            managerLock.unlock();
+        }
+    }
+
+    /**
+     * Writes back every dirty frame that is not for a log page, in batches (one per partition, in
+     * order of page number). Only the frames of dirty pages are visited. Frames that are locked or
+     * being modified by another thread are skipped, and left to be flushed individually. Must be
+     * called with the manager lock held.
+     */
+    private void writeBackDirtyFrames() {
+        List<Frame> dirtyFrames = new ArrayList<>();
+        try {
+            for (long pageNum : this.dirtyPages.keySet()) {
+                int frameIndex = this.pageToFrame.get(pageNum);
+                // pages of evicted frames are written back by the thread that evicted them
+                if (frameIndex != LongIntHashMap.NO_VALUE && this.lockForWriteBack(this.frames[frameIndex])) {
+                    dirtyFrames.add(this.frames[frameIndex]);
+                }
+            }
+            this.flushLogForWriteBack(dirtyFrames);
+            this.writeBack(dirtyFrames);
+        } finally {
+            for (Frame frame : dirtyFrames) {
+                frame.unpinForWriteBack();
+            }
+        }
+    }
+
+    /**
+     * Writes back the dirty frames among the next frames to be evicted (see setCleanFraction).
+     * Run periodically by the cleaner thread.
+     */
+    private void cleanEvictionCandidates() {
+        List<Frame> dirtyFrames = new ArrayList<>();
+        try {
+            this.managerLock.lock();
+            try {
+                int numCandidates = (int) Math.ceil(this.cleanFraction * this.frames.length);
+                for (BufferFrame frame : this.evictionPolicy.evictionCandidates(this.frames, numCandidates)) {
+                    if (this.lockForWriteBack((Frame) frame)) {
+                        dirtyFrames.add((Frame) frame);
+                    }
+                }
+                // forcing the log may load log pages, which needs the manager lock
+                this.flushLogForWriteBack(dirtyFrames);
+                // the frames are written without the manager lock, and stay pinned meanwhile, so that
+                // misses evict other frames; a miss that finds no other frame waits for one of these
+                this.cleaningFrames = new ArrayList<>(dirtyFrames);
+            } finally {
+                this.managerLock.unlock();
+            }
+            this.writeBack(dirtyFrames);
+        } catch (PageException e) {
+            // partition freed concurrently; its pages no longer need to be written back
+        } finally {
+            for (Frame frame : dirtyFrames) {
+                frame.unpinForWriteBack();
+            }
+            this.cleaningFrames = Collections.emptyList();
+        }
+    }
+
+    /**
+     * Locks, latches and pins a frame to be written back, if it is dirty and not for a log page,
+     * and neither locked nor being modified by another thread. Frames stay locked (so that they
+     * are not evicted), latched (so that they are not modified) and pinned (so that they are not
+     * chosen for eviction, e.g. to make room for log pages in pageFlushHook) until they have
+     * been written back, and must then be released with unpinForWriteBack.
+     *
+     * @param frame frame to lock
+     * @return whether the frame was locked and pinned
+     */
+    private boolean lockForWriteBack(Frame frame) {
+        if (!frame.frameLock.tryLock()) {
+            return false;
+        }
+        if (!frame.isValid() || !frame.dirty || frame.logPage || !frame.latch.readLock().tryLock()) {
+            frame.frameLock.unlock();
+            return false;
+        }
+        frame.pinForWriteBack();
+        return true;
+    }
+
+    /**
+     * Forces the log up to the last change to any of the frames, before they are written back.
+     * Must be called with the manager lock held.
+     *
+     * @param dirtyFrames frames locked with lockForWriteBack
+     */
+    private void flushLogForWriteBack(List<Frame> dirtyFrames) {
+        long maxPageLSN = -1;
+        for (Frame frame : dirtyFrames) {
+            if (!frame.isTempPage()) {
+                maxPageLSN = Math.max(maxPageLSN, frame.loadPageLSN());
+            }
+        }
+        if (maxPageLSN >= 0) {
+            recoveryManager.pageFlushHook(maxPageLSN);
+        }
+    }
+
+    /**
+     * Writes back frames in batches (one per partition, in order of page number), and marks them
+     * clean.
+     *
+     * @param dirtyFrames frames locked with lockForWriteBack, whose log records have been forced
+     */
+    private void writeBack(List<Frame> dirtyFrames) {
+        dirtyFrames.sort(Comparator.comparingLong(Frame::getPageNum));
+        int i = 0;
+        while (i < dirtyFrames.size()) {
+            int partNum = DiskSpaceManager.getPartNum(dirtyFrames.get(i).pageNum);
+            int end = i;
+            while (end < dirtyFrames.size() &&
+                    DiskSpaceManager.getPartNum(dirtyFrames.get(end).pageNum) == partNum) {
+                ++end;
+            }
+            long[] pageNums = new long[end - i];
+            ByteBuffer[] bufs = new ByteBuffer[end - i];
+            for (int j = i; j < end; ++j) {
+                pageNums[j - i] = dirtyFrames.get(j).pageNum;
+                bufs[j - i] = dirtyFrames.get(j).contents;
+            }
+            this.diskSpaceManager.writePages(pageNums, bufs);
+            for (int j = i; j < end; ++j) {
+                dirtyFrames.get(j).setClean();
+                this.incrementIOs();
+            }
+            i = end;
         }
     }
 
@@ -539,13 +2090,76 @@ public class BufferManagerImpl implements BufferManager {
         }
     }
 
+    /**
+     * Calls the passed in method with every dirty data page, without going through the clean
+     * frames. Pages may become dirty or clean concurrently, so the pages seen may be slightly out
+     * of date.
+     *
+     * @param process method to consume dirty pages; the first parameter is the page number, and
+     *                the second parameter is the page's recLSN (its pageLSN after the change
+     *                that made it dirty)
+     */
+    @Override
+    public void iterDirtyPages(BiConsumer<Long, Long> process) {
+        this.dirtyPages.forEach(process);
+    }
+
     @Override
     public long getNumIOs() {
-        return numIOs;
+        return numIOs.sum();
     }
 
     private void incrementIOs() {
-        ++numIOs;
+        numIOs.increment();
+    }
+
+    /**
+     * @return number of pages loaded ahead of being requested that were later requested
+     */
+    public long getNumPrefetchHits() {
+        return numPrefetchHits.get();
+    }
+
+    /**
+     * @return number of pages loaded ahead of being requested that were evicted or freed
+     * without being requested
+     */
+    public long getNumPrefetchWasted() {
+        return numPrefetchWasted;
+    }
+
+    /**
+     * Finds the least recently loaded frame that was loaded ahead of being requested, has not
+     * been requested since, and is not pinned. Must be called with the manager lock held.
+     *
+     * @return frame, or null if there is no such frame
+     */
+    private Frame unusedPrefetchedFrame() {
+        Iterator<Frame> iterator = this.prefetchedFrames.iterator();
+        while (iterator.hasNext()) {
+            Frame frame = iterator.next();
+            if (!frame.prefetched) {
+                // requested since it was loaded
+                iterator.remove();
+            } else if (!frame.isPinned()) {
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stops tracking a frame as loaded ahead of being requested, because the frame is being
+     * evicted or freed. Must be called with the manager lock held.
+     *
+     * @param frame frame being evicted or freed
+     */
+    private void removePrefetched(Frame frame) {
+        this.prefetchedFrames.remove(frame);
+        if (frame.prefetched) {
+            frame.prefetched = false;
+            ++this.numPrefetchWasted;
+        }
     }
 
     /**
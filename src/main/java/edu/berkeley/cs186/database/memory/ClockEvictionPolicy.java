@@ -1,5 +1,8 @@
 package edu.berkeley.cs186.database.memory;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Implementation of clock eviction policy, which works by adding a reference
  * bit to each frame, and running the algorithm.
@@ -58,6 +61,40 @@ public class ClockEvictionPolicy implements EvictionPolicy {
         return evicted;
     }
 
+    /**
+     * Called to find the frames that are likely to be evicted next: unpinned frames with bit 0
+     * from the arm onwards, followed by unpinned frames with bit 1 (which the arm clears on its
+     * first pass) from the arm onwards.
+     * @param frames Array of all frames (same length every call)
+     * @param maxFrames maximum number of frames to return
+     * @return unpinned frames, in order of expected eviction
+     */
+    @Override
+    public List<BufferFrame> evictionCandidates(BufferFrame[] frames, int maxFrames) {
+        List<BufferFrame> candidates = new ArrayList<>();
+        for (int pass = 0; pass < 2; ++pass) {
+            for (int i = 0; i < frames.length && candidates.size() < maxFrames; ++i) {
+                BufferFrame frame = frames[(this.arm + i) % frames.length];
+                if (!frame.isPinned() && (frame.tag == ACTIVE) == (pass == 1)) {
+                    candidates.add(frame);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Called when the buffer is resized; moves the arm back to the start if it is past the
+     * end of the buffer.
+     * @param frames Array of all frames, with the new length
+     */
+    @Override
+    public void resize(BufferFrame[] frames) {
+        if (this.arm >= frames.length) {
+            this.arm = 0;
+        }
+    }
+
     /**
      * Called when a frame is removed, either because it
      * was returned from a call to evict, or because of other constraints
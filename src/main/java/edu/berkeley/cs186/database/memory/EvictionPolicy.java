@@ -1,7 +1,12 @@
 package edu.berkeley.cs186.database.memory;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
- * Interface for eviction policies for the buffer manager.
+ * Interface for eviction policies for the buffer manager. The buffer manager calls miss, init,
+ * evict, evictionCandidates, and cleanup with its manager lock held, but reports hits without
+ * it, so hit may be called concurrently with any of the methods.
  */
 public interface EvictionPolicy {
     /**
@@ -10,6 +15,15 @@ public interface EvictionPolicy {
      */
     void init(BufferFrame frame);
 
+    /**
+     * Called when a page that is not loaded is about to be loaded, before a frame is chosen
+     * for it (with evict, if there is no free frame) and initialized (with init). Policies that
+     * remember pages after evicting them can use this to learn about the page before choosing
+     * which frame to evict. Does nothing by default.
+     * @param pageNum page number of the page being loaded
+     */
+    default void miss(long pageNum) {}
+
     /**
      * Called when a frame is hit.
      * @param frame Frame object that is being read from/written to
@@ -18,12 +32,43 @@ public interface EvictionPolicy {
 
     /**
      * Called when a frame needs to be evicted.
-     * @param frames Array of all frames (same length every call)
+     * @param frames Array of all frames (same length every call, until the buffer is resized)
      * @return index of frame to be evicted
      * @throws IllegalStateException if everything is pinned
      */
     BufferFrame evict(BufferFrame[] frames);
 
+    /**
+     * Called to find the frames that are likely to be evicted next (e.g. to write them back
+     * ahead of time). Must not change which frames are evicted. The default implementation
+     * returns unpinned frames in the order of the array; policies should return them in the
+     * order they would evict them.
+     * @param frames Array of all frames (same length every call, until the buffer is resized)
+     * @param maxFrames maximum number of frames to return
+     * @return unpinned frames, in order of expected eviction
+     */
+    default List<BufferFrame> evictionCandidates(BufferFrame[] frames, int maxFrames) {
+        List<BufferFrame> candidates = new ArrayList<>();
+        for (BufferFrame frame : frames) {
+            if (candidates.size() >= maxFrames) {
+                break;
+            }
+            if (!frame.isPinned()) {
+                candidates.add(frame);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Called when the buffer is resized, after frames have been added, or evicted and moved
+     * (moved pages are cleaned up from their old frame and initialized in their new one).
+     * Policies that keep state sized to the buffer, or indices into the frame array, should
+     * adjust it. Does nothing by default.
+     * @param frames Array of all frames, with the new length
+     */
+    default void resize(BufferFrame[] frames) {}
+
     /**
      * Called when a frame is removed, either because it
      * was returned from a call to evict, or because of other constraints
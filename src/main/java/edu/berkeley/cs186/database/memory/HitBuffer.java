@@ -0,0 +1,75 @@
+package edu.berkeley.cs186.database.memory;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A bounded buffer of the hits reported to an eviction policy, so that reporting a hit does
+ * not need the policy's lock. Hits are recorded without locking (any number of threads may
+ * record at once), and applied in batches, in the order they were recorded, by a thread that
+ * holds the policy's lock (see drain): before anything that depends on them, such as choosing
+ * a frame to evict, and by the hit that finds the buffer full.
+ *
+ * A hit may be applied after the frame it was for has been cleaned up, so policies must check
+ * that the hit's tag is still in use when applying it.
+ *
+ * @param <T> type of the recorded hits (the policy's tags)
+ */
+class HitBuffer<T> {
+    // Number of hits the buffer holds; a power of two.
+    static final int CAPACITY = 128;
+
+    private final AtomicReferenceArray<T> entries;
+
+    // Number of hits recorded so far; a hit's slot is its number modulo CAPACITY.
+    private final AtomicLong tail;
+
+    // Number of hits applied so far; only changed by drain.
+    private volatile long head;
+
+    HitBuffer() {
+        this.entries = new AtomicReferenceArray<>(CAPACITY);
+        this.tail = new AtomicLong(0);
+        this.head = 0;
+    }
+
+    /**
+     * Records a hit.
+     * @param hit hit to record
+     * @return false if the buffer is full, in which case the hit was not recorded
+     */
+    boolean record(T hit) {
+        long t;
+        do {
+            t = this.tail.get();
+            if (t - this.head >= CAPACITY) {
+                return false;
+            }
+        } while (!this.tail.compareAndSet(t, t + 1));
+        this.entries.set((int) (t & (CAPACITY - 1)), hit);
+        return true;
+    }
+
+    /**
+     * Applies the recorded hits, in the order they were recorded. Must be called with the
+     * policy's lock held. Hits whose slot has been claimed, but not yet filled in, by a thread
+     * that is still recording them are left (along with the ones after them) for the next drain.
+     * @param apply applies a hit to the policy
+     */
+    void drain(Consumer<T> apply) {
+        long h = this.head;
+        long t = this.tail.get();
+        while (h < t) {
+            int index = (int) (h & (CAPACITY - 1));
+            T hit = this.entries.get(index);
+            if (hit == null) {
+                break;
+            }
+            this.entries.set(index, null);
+            apply.accept(hit);
+            ++h;
+        }
+        this.head = h;
+    }
+}
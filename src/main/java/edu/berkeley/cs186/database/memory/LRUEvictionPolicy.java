@@ -1,13 +1,21 @@
 package edu.berkeley.cs186.database.memory;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Implementation of LRU eviction policy, which works by creating a
  * doubly-linked list between frames in order of ascending use time.
+ * Hits are recorded without locking, and applied to the list in batches
+ * (see HitBuffer); the other methods are synchronized.
  */
 public class LRUEvictionPolicy implements EvictionPolicy {
     private Tag listHead;
     private Tag listTail;
 
+    // Hits not yet applied to the list.
+    private final HitBuffer<Tag> hits = new HitBuffer<>();
+
     // Doubly-linked list between frames, in order of least to most
     // recently used.
     private class Tag {
@@ -36,8 +44,9 @@ public class LRUEvictionPolicy implements EvictionPolicy {
      * @param frame new frame to be initialized
      */
     @Override
-    public void init(BufferFrame frame) {
-        Tag frameTag = new Tag();
+    public synchronized void init(BufferFrame frame) {
+        this.drainHits();
+        Tag frameTag = unlinkedTag(frame);
         frameTag.next = listTail;
         frameTag.prev = listTail.prev;
         listTail.prev = frameTag;
@@ -52,7 +61,22 @@ public class LRUEvictionPolicy implements EvictionPolicy {
      */
     @Override
     public void hit(BufferFrame frame) {
-        Tag frameTag = (Tag) frame.tag;
+        Object frameTag = frame.tag;
+        if (frameTag instanceof Tag && !this.hits.record((Tag) frameTag)) {
+            synchronized (this) {
+                this.drainHits();
+                this.applyHit((Tag) frameTag);
+            }
+        }
+    }
+
+    /**
+     * Moves a frame to the end of the list, unless it has been cleaned up since it was hit.
+     */
+    private void applyHit(Tag frameTag) {
+        if (frameTag.next == null || frameTag.next == frameTag) {
+            return;
+        }
         frameTag.prev.next = frameTag.next;
         frameTag.next.prev = frameTag.prev;
         frameTag.next = this.listTail;
@@ -68,7 +92,8 @@ public class LRUEvictionPolicy implements EvictionPolicy {
      * @throws IllegalStateException if everything is pinned
      */
     @Override
-    public BufferFrame evict(BufferFrame[] frames) {
+    public synchronized BufferFrame evict(BufferFrame[] frames) {
+        this.drainHits();
         Tag frameTag = this.listHead.next;
         while (frameTag.cur != null && frameTag.cur.isPinned()) {
             frameTag = frameTag.next;
@@ -79,6 +104,26 @@ public class LRUEvictionPolicy implements EvictionPolicy {
         return frameTag.cur;
     }
 
+    /**
+     * Called to find the frames that are likely to be evicted next: unpinned frames, from least
+     * to most recently used.
+     * @param frames Array of all frames (same length every call)
+     * @param maxFrames maximum number of frames to return
+     * @return unpinned frames, in order of expected eviction
+     */
+    @Override
+    public synchronized List<BufferFrame> evictionCandidates(BufferFrame[] frames, int maxFrames) {
+        this.drainHits();
+        List<BufferFrame> candidates = new ArrayList<>();
+        for (Tag frameTag = this.listHead.next; frameTag.cur != null && candidates.size() < maxFrames;
+                frameTag = frameTag.next) {
+            if (!frameTag.cur.isPinned()) {
+                candidates.add(frameTag.cur);
+            }
+        }
+        return candidates;
+    }
+
     /**
      * Called when a frame is removed, either because it
      * was returned from a call to evict, or because of other constraints
@@ -86,10 +131,26 @@ public class LRUEvictionPolicy implements EvictionPolicy {
      * @param frame frame being removed
      */
     @Override
-    public void cleanup(BufferFrame frame) {
+    public synchronized void cleanup(BufferFrame frame) {
+        this.drainHits();
         Tag frameTag = (Tag) frame.tag;
         frameTag.prev.next = frameTag.next;
         frameTag.next.prev = frameTag.prev;
         frameTag.prev = frameTag.next = frameTag;
     }
+
+    private void drainHits() {
+        this.hits.drain(this::applyHit);
+    }
+
+    /**
+     * @return the tag the frame had for an earlier page, if it is unlinked (frames are reused
+     * for different pages), or a new tag
+     */
+    private Tag unlinkedTag(BufferFrame frame) {
+        if (frame.tag instanceof Tag && ((Tag) frame.tag).next == frame.tag) {
+            return (Tag) frame.tag;
+        }
+        return new Tag();
+    }
 }
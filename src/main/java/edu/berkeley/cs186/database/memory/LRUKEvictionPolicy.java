@@ -0,0 +1,233 @@
+package edu.berkeley.cs186.database.memory;
+
+import java.util.*;
+
+/**
+ * Implementation of the LRU-K eviction policy, which evicts the page whose K-th most recent
+ * reference is furthest in the past (pages referenced fewer than K times first, from least to
+ * most recently used). Unlike LRU, a page referenced once by a large scan does not displace
+ * pages that are referenced repeatedly, such as B+ tree inner nodes or page directory headers.
+ *
+ * Every hit of a page counts as a reference, so several hits in quick succession (e.g. reading
+ * the records of a page one by one) would make any page look hot. Hits that happen within a
+ * correlated reference period of the previous hit of the same page (measured in hits of any
+ * page) are therefore treated as part of the same reference. The reference history of evicted
+ * pages is kept for as many pages as there are frames, so that a page that is evicted and soon
+ * loaded again keeps its history. Hits are recorded without locking, and applied in batches
+ * (see HitBuffer); the other methods are synchronized.
+ */
+public class LRUKEvictionPolicy implements EvictionPolicy {
+    // Default number of references tracked per page.
+    private static final int DEFAULT_K = 2;
+
+    // Default correlated reference period, in hits.
+    private static final int DEFAULT_CORRELATED_PERIOD = 8;
+
+    private final int k;
+    private final int correlatedPeriod;
+
+    // Number of hits (and loads) so far; used as the time of references.
+    private long time;
+
+    // Frames, ordered by K-th most recent reference (0 if fewer than K), then by most recent
+    // uncorrelated reference.
+    private TreeSet<Tag> frameTags;
+
+    // Reference history of recently evicted pages, by page number, in order of eviction.
+    private LinkedHashMap<Long, long[]> retainedHistory;
+
+    // Number of frames in the buffer; 0 until the first eviction.
+    private int numFrames;
+
+    // Used to break ties between frames with the same history.
+    private long nextId;
+
+    // Hits not yet applied.
+    private final HitBuffer<Tag> hits = new HitBuffer<>();
+
+    private class Tag {
+        // hist[i] is the time of the (i+1)-th most recent uncorrelated reference, or 0.
+        long[] hist;
+        // Time of the most recent (possibly correlated) reference.
+        long last;
+        long id;
+        BufferFrame cur;
+
+        @Override
+        public String toString() {
+            return cur + " (history=" + Arrays.toString(hist) + ", last=" + last + ")";
+        }
+    }
+
+    public LRUKEvictionPolicy() {
+        this(DEFAULT_K, DEFAULT_CORRELATED_PERIOD);
+    }
+
+    /**
+     * @param k number of references tracked per page (LRU-1 is LRU)
+     * @param correlatedPeriod number of hits after a hit of a page during which further hits
+     *                         of the page are treated as part of the same reference
+     */
+    public LRUKEvictionPolicy(int k, int correlatedPeriod) {
+        if (k < 1 || correlatedPeriod < 0) {
+            throw new IllegalArgumentException("LRU-K needs k >= 1 and a non-negative correlated period");
+        }
+        this.k = k;
+        this.correlatedPeriod = correlatedPeriod;
+        this.time = 0;
+        this.frameTags = new TreeSet<>(Comparator.<Tag>comparingLong(t -> t.hist[this.k - 1])
+                                       .thenComparingLong(t -> t.hist[0])
+                                       .thenComparingLong(t -> t.id));
+        this.retainedHistory = new LinkedHashMap<Long, long[]>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, long[]> eldest) {
+                return this.size() > Math.max(1, LRUKEvictionPolicy.this.numFrames);
+            }
+        };
+        this.numFrames = 0;
+        this.nextId = 0;
+    }
+
+    /**
+     * Called to initiaize a new buffer frame.
+     * @param frame new frame to be initialized
+     */
+    @Override
+    public synchronized void init(BufferFrame frame) {
+        this.drainHits();
+        Tag frameTag = new Tag();
+        frameTag.cur = frame;
+        frameTag.id = this.nextId++;
+        frameTag.hist = this.retainedHistory.remove(frame.getPageNum());
+        if (frameTag.hist == null) {
+            frameTag.hist = new long[this.k];
+        }
+        frameTag.last = frameTag.hist[0];
+        // loading the page is a reference to it
+        ++this.time;
+        this.reference(frameTag);
+        frame.tag = frameTag;
+        this.frameTags.add(frameTag);
+    }
+
+    /**
+     * Called when a frame is hit.
+     * @param frame Frame object that is being read from/written to
+     */
+    @Override
+    public void hit(BufferFrame frame) {
+        Object frameTag = frame.tag;
+        if (frameTag instanceof Tag && !this.hits.record((Tag) frameTag)) {
+            synchronized (this) {
+                this.drainHits();
+                this.applyHit((Tag) frameTag);
+            }
+        }
+    }
+
+    /**
+     * Records a reference to a frame, unless it has been cleaned up since it was hit.
+     */
+    private void applyHit(Tag frameTag) {
+        if (!this.frameTags.contains(frameTag)) {
+            return;
+        }
+        ++this.time;
+        if (this.time - frameTag.last <= this.correlatedPeriod) {
+            frameTag.last = this.time;
+            return;
+        }
+        this.frameTags.remove(frameTag);
+        this.reference(frameTag);
+        this.frameTags.add(frameTag);
+    }
+
+    /**
+     * Called when a frame needs to be evicted.
+     * @param frames Array of all frames (same length every call)
+     * @return index of frame to be evicted
+     * @throws IllegalStateException if everything is pinned
+     */
+    @Override
+    public synchronized BufferFrame evict(BufferFrame[] frames) {
+        this.drainHits();
+        this.numFrames = frames.length;
+        for (Tag frameTag : this.frameTags) {
+            if (!frameTag.cur.isPinned()) {
+                return frameTag.cur;
+            }
+        }
+        throw new IllegalStateException("cannot evict anything - everything pinned");
+    }
+
+    /**
+     * Called to find the frames that are likely to be evicted next: unpinned frames, in order of
+     * their K-th most recent reference.
+     * @param frames Array of all frames (same length every call)
+     * @param maxFrames maximum number of frames to return
+     * @return unpinned frames, in order of expected eviction
+     */
+    @Override
+    public synchronized List<BufferFrame> evictionCandidates(BufferFrame[] frames, int maxFrames) {
+        this.drainHits();
+        List<BufferFrame> candidates = new ArrayList<>();
+        for (Tag frameTag : this.frameTags) {
+            if (candidates.size() >= maxFrames) {
+                break;
+            }
+            if (!frameTag.cur.isPinned()) {
+                candidates.add(frameTag.cur);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Called when the buffer is resized; keeps the retained history to a buffer's worth of pages.
+     * @param frames Array of all frames, with the new length
+     */
+    @Override
+    public synchronized void resize(BufferFrame[] frames) {
+        this.drainHits();
+        this.numFrames = frames.length;
+        Iterator<Long> iterator = this.retainedHistory.keySet().iterator();
+        while (this.retainedHistory.size() > this.numFrames && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Called when a frame is removed, either because it
+     * was returned from a call to evict, or because of other constraints
+     * (e.g. if the page is deleted on disk).
+     * @param frame frame being removed
+     */
+    @Override
+    public synchronized void cleanup(BufferFrame frame) {
+        this.drainHits();
+        Tag frameTag = (Tag) frame.tag;
+        if (this.frameTags.remove(frameTag)) {
+            this.retainedHistory.put(frame.getPageNum(), frameTag.hist);
+        }
+    }
+
+    private void drainHits() {
+        this.hits.drain(this::applyHit);
+    }
+
+    /**
+     * Records an uncorrelated reference to a page at the current time. The previous references
+     * are moved later by the length of the burst of correlated hits that followed the most recent
+     * one, so that the time between references does not count the time spent in the burst.
+     */
+    private void reference(Tag frameTag) {
+        long[] hist = frameTag.hist;
+        long correlatedLength = hist[0] == 0 ? 0 : frameTag.last - hist[0];
+        for (int i = hist.length - 1; i > 0; --i) {
+            hist[i] = hist[i - 1] == 0 ? 0 : hist[i - 1] + correlatedLength;
+        }
+        hist[0] = this.time;
+        frameTag.last = this.time;
+    }
+}
@@ -13,18 +13,30 @@ public class Page {
     // lock context for this page
     private LockContext lockContext;
 
-    // buffer manager frame for this page's data (potentially invalidated)
+    // buffer manager frame for this page's data (potentially holding another page by now)
     private BufferFrame frame;
 
+    // generation of the frame when it held this page
+    private long generation;
+
+    // virtual page number of this page
+    private long pageNum;
+
+    // whether this page is a log page
+    private boolean logPage;
+
     /**
      * Create a page handle with the given buffer frame
      *
      * @param lockContext the lock context
-     * @param frame the buffer manager frame for this page
+     * @param frame the buffer manager frame for this page, which must be pinned
      */
     Page(LockContext lockContext, BufferFrame frame) {
         this.lockContext = lockContext;
         this.frame = frame;
+        this.generation = frame.getGeneration();
+        this.pageNum = frame.getPageNum();
+        this.logPage = frame.isLogPage();
     }
 
     /**
@@ -35,6 +47,9 @@ public class Page {
     protected Page(Page page) {
         this.lockContext = page.lockContext;
         this.frame = page.frame;
+        this.generation = page.generation;
+        this.pageNum = page.pageNum;
+        this.logPage = page.logPage;
     }
 
     /**
@@ -71,7 +86,7 @@ public class Page {
             throw new PageException("num bytes to read is longer than buffer");
         }
 
-        this.frame.readBytes((short) position, (short) num, buf);
+        this.frame.readBytes(this.generation, position, num, buf);
     }
 
     /**
@@ -80,7 +95,7 @@ public class Page {
      * @return a new byte array with all the bytes in the file
      */
     private byte[] readBytes() {
-        byte[] data = new byte[BufferManager.EFFECTIVE_PAGE_SIZE];
+        byte[] data = new byte[this.frame.getEffectivePageSize()];
         getBuffer().get(data);
         return data;
     }
@@ -105,7 +120,7 @@ public class Page {
             throw new PageException("writeBytes would go out of bounds");
         }
 
-        this.frame.writeBytes((short) position, (short) num, buf);
+        this.frame.writeBytes(this.generation, position, num, buf);
     }
 
     /**
@@ -119,7 +134,7 @@ public class Page {
      * Completely wipe (zero out) the page.
      */
     public void wipe() {
-        byte[] zeros = new byte[BufferManager.EFFECTIVE_PAGE_SIZE];
+        byte[] zeros = new byte[this.frame.getEffectivePageSize()];
         writeBytes(zeros);
     }
 
@@ -127,47 +142,48 @@ public class Page {
      * Force the page to disk.
      */
     public void flush() {
-        this.frame.flush();
+        this.frame.flush(this.generation);
     }
 
     /**
      * Loads the page into a frame (if necessary) and pins it.
      */
     public void pin() {
-        this.frame = this.frame.requestValidFrame();
+        this.frame = this.frame.requestValidFrame(this.generation, this.pageNum, this.logPage);
+        this.generation = this.frame.getGeneration();
     }
 
     /**
      * Unpins the frame containing this page. Does not flush immediately.
      */
     public void unpin() {
-        this.frame.unpin();
+        this.frame.unpin(this.generation);
     }
 
     /**
      * @return the virtual page number of this page
      */
     public long getPageNum() {
-        return this.frame.getPageNum();
+        return this.pageNum;
     }
 
     /**
      * @param pageLSN the new pageLSN of this page - should only be used by recovery
      */
     public void setPageLSN(long pageLSN) {
-        this.frame.setPageLSN(pageLSN);
+        this.frame.setPageLSN(this.generation, pageLSN);
     }
 
     /**
      * @return the pageLSN of this page
      */
     public long getPageLSN() {
-        return this.frame.getPageLSN();
+        return this.frame.getPageLSN(this.generation);
     }
 
     @Override
     public String toString() {
-        return "Page " + this.frame.getPageNum();
+        return "Page " + this.pageNum;
     }
 
     @Override
@@ -0,0 +1,422 @@
+package edu.berkeley.cs186.database.memory;
+
+import edu.berkeley.cs186.database.concurrency.LockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.ExtentAllocator;
+import edu.berkeley.cs186.database.recovery.RecoveryManager;
+
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Buffer manager split into several independent pools, each a BufferManagerImpl with its own
+ * frames, page table, eviction policy and manager lock. Every page belongs to exactly one pool,
+ * chosen by hashing its page number, so threads missing on pages of different pools do not
+ * contend for a single manager lock.
+ *
+ * Pages are assigned to pools in stripes of STRIPE_PAGES consecutive pages of a partition,
+ * rather than one by one, so that a range fetch (or a sequential scan being prefetched) still
+ * reads runs of consecutive pages with a single read: a range that crosses into another stripe
+ * is loaded stripe by stripe, each into its own pool. Operations that are not about a single
+ * page (evictAll, flushAll, freePart, iterPageNums, ...) go to every pool in turn, so they are
+ * not atomic across pools.
+ *
+ * Each pool only sees its own frames, so the eviction policy of a pool chooses among a
+ * fraction of the buffer; with enough frames per pool, this makes little difference to the
+ * hit rate.
+ */
+public class PartitionedBufferManager implements BufferManager {
+    // Number of consecutive pages of a partition assigned to the same pool.
+    static final int STRIPE_PAGES = 64;
+
+    // Pools, indexed by poolIndex
+    private BufferManagerImpl[] pools;
+
+    // Reference to the disk space manager underneath this buffer manager instance.
+    private DiskSpaceManager diskSpaceManager;
+
+    // Total number of frames in all pools
+    private volatile int bufferSize;
+
+    /**
+     * Creates a new partitioned buffer manager.
+     *
+     * @param diskSpaceManager the underlying disk space manager
+     * @param bufferSize size of buffer (in pages), split as evenly as possible between the pools
+     * @param numPools number of pools
+     * @param policyFactory creates the eviction policy of each pool (called once per pool)
+     * @param offHeap whether to store pages in off-heap arenas of direct buffers, instead of
+     *                in heap byte arrays
+     */
+    public PartitionedBufferManager(DiskSpaceManager diskSpaceManager, RecoveryManager recoveryManager,
+                                    int bufferSize, int numPools, Supplier<EvictionPolicy> policyFactory,
+                                    boolean offHeap) {
+        if (numPools < 1 || numPools > bufferSize) {
+            throw new IllegalArgumentException("number of pools must be between 1 and the buffer size");
+        }
+        this.pools = new BufferManagerImpl[numPools];
+        for (int i = 0; i < numPools; ++i) {
+            int poolSize = bufferSize / numPools + (i < bufferSize % numPools ? 1 : 0);
+            int index = i;
+            this.pools[i] = new BufferManagerImpl(diskSpaceManager, recoveryManager, poolSize,
+                                                  policyFactory.get(), offHeap,
+                                                  pageNum -> poolIndex(pageNum, numPools) == index);
+        }
+        this.diskSpaceManager = diskSpaceManager;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Computes the pool that a page belongs to.
+     *
+     * @param pageNum page number
+     * @param numPools number of pools
+     * @return index of the page's pool
+     */
+    static int poolIndex(long pageNum, int numPools) {
+        // stripes of the same partition follow each other, but partitions are 10^10 pages apart,
+        // so mix the stripe number to spread the first stripes of partitions between pools
+        long stripe = Math.floorDiv(pageNum, STRIPE_PAGES);
+        int hash = (int) ((stripe * 0x9E3779B97F4A7C15L) >>> 32);
+        return Math.floorMod(hash, numPools);
+    }
+
+    private BufferManagerImpl pool(long pageNum) {
+        return this.pools[poolIndex(pageNum, this.pools.length)];
+    }
+
+    /**
+     * @return number of pools
+     */
+    public int getNumPools() {
+        return this.pools.length;
+    }
+
+    @Override
+    public void close() {
+        for (BufferManagerImpl pool : this.pools) {
+            pool.close();
+        }
+    }
+
+    /**
+     * Enables or disables prefetching in every pool (see BufferManagerImpl#setPrefetchPages).
+     * Prefetching stops at the end of a stripe, so at most STRIPE_PAGES pages are loaded ahead.
+     *
+     * @param numPages number of pages to prefetch, or 0 to disable prefetching
+     */
+    public void setPrefetchPages(int numPages) {
+        for (BufferManagerImpl pool : this.pools) {
+            pool.setPrefetchPages(numPages);
+        }
+    }
+
+    /**
+     * Enables or disables the background cleaner of every pool (see
+     * BufferManagerImpl#setCleanFraction).
+     *
+     * @param fraction fraction of each pool to keep clean, between 0 and 1, or 0 to disable
+     *                 the cleaners
+     */
+    public void setCleanFraction(double fraction) {
+        for (BufferManagerImpl pool : this.pools) {
+            pool.setCleanFraction(fraction);
+        }
+    }
+
+    /**
+     * Lists the loaded data pages of every pool, interleaving the pools' lists, so that the
+     * pages that each pool would keep the longest come first.
+     *
+     * @return page numbers of the loaded data pages
+     */
+    @Override
+    public long[] getResidentPages() {
+        long[][] poolPages = new long[this.pools.length][];
+        int numPages = 0;
+        for (int i = 0; i < this.pools.length; ++i) {
+            poolPages[i] = this.pools[i].getResidentPages();
+            numPages += poolPages[i].length;
+        }
+        long[] pageNums = new long[numPages];
+        int index = 0;
+        for (int rank = 0; index < numPages; ++rank) {
+            for (long[] pages : poolPages) {
+                if (rank < pages.length) {
+                    pageNums[index++] = pages[rank];
+                }
+            }
+        }
+        return pageNums;
+    }
+
+    /**
+     * Loads data pages into the free frames of their pools (see BufferManagerImpl#preloadPages).
+     *
+     * @param pageNums page numbers of the pages to load
+     * @return false if some pages were not loaded because their pool had no free frames left
+     */
+    @Override
+    public boolean preloadPages(long[] pageNums) {
+        int[] numPages = new int[this.pools.length];
+        for (long pageNum : pageNums) {
+            ++numPages[poolIndex(pageNum, this.pools.length)];
+        }
+        long[][] poolPages = new long[this.pools.length][];
+        for (int i = 0; i < this.pools.length; ++i) {
+            poolPages[i] = new long[numPages[i]];
+            numPages[i] = 0;
+        }
+        for (long pageNum : pageNums) {
+            int index = poolIndex(pageNum, this.pools.length);
+            poolPages[index][numPages[index]++] = pageNum;
+        }
+        boolean loadedAll = true;
+        for (int i = 0; i < this.pools.length; ++i) {
+            loadedAll &= this.pools[i].preloadPages(poolPages[i]);
+        }
+        return loadedAll;
+    }
+
+    @Override
+    public int getBufferSize() {
+        return this.bufferSize;
+    }
+
+    @Override
+    public int getPageSize() {
+        return this.diskSpaceManager.getPageSize();
+    }
+
+    /**
+     * Resizes every pool, splitting the new size as evenly as possible between the pools (see
+     * BufferManagerImpl#resize). Pools are resized one at a time, so if shrinking a pool fails
+     * because of pinned pages, the pools before it keep their new size.
+     *
+     * @param bufferSize new size of buffer (in pages)
+     */
+    @Override
+    public synchronized void resize(int bufferSize) {
+        int numPools = this.pools.length;
+        if (bufferSize < numPools) {
+            throw new IllegalArgumentException("buffer must have at least one frame per pool");
+        }
+        try {
+            for (int i = 0; i < numPools; ++i) {
+                this.pools[i].resize(bufferSize / numPools + (i < bufferSize % numPools ? 1 : 0));
+            }
+        } finally {
+            int newSize = 0;
+            for (BufferManagerImpl pool : this.pools) {
+                newSize += pool.getBufferSize();
+            }
+            this.bufferSize = newSize;
+        }
+    }
+
+    @Override
+    public BufferFrame fetchPageFrame(long pageNum, boolean logPage) {
+        return this.pool(pageNum).fetchPageFrame(pageNum, logPage);
+    }
+
+    @Override
+    public BufferFrame fetchPageRangeFrame(long pageNum, int numPages, boolean logPage) {
+        BufferFrame frame = this.pool(pageNum).fetchPageFrame(pageNum, logPage);
+        // avoid flushing out a large part of the buffer to load a single range
+        numPages = Math.min(numPages, this.bufferSize / BufferManagerImpl.MAX_RANGE_FRACTION);
+        this.loadPages(pageNum, numPages, logPage, null);
+        return frame;
+    }
+
+    /**
+     * Loads the pages in (pageNum, pageNum + numPages) that are not already loaded, stripe by
+     * stripe, stopping at the first page that is not allocated. Pages are left unpinned.
+     *
+     * A stripe goes into a single pool, which may be much smaller than the buffer, so no more
+     * than 1/MAX_RANGE_FRACTION of any pool is loaded (counting pageNum itself, which the caller
+     * has already fetched); loading stops at the first page that would go over.
+     *
+     * @param pageNum page number of the page already fetched, just before the first page to load
+     * @param numPages number of pages in the range, including pageNum
+     * @param logPage whether the pages are for the log or not
+     * @param ring scan ring to load the pages through, or null
+     */
+    private void loadPages(long pageNum, int numPages, boolean logPage, ScanRing ring) {
+        int[] poolPages = new int[this.pools.length];
+        poolPages[poolIndex(pageNum, this.pools.length)] = 1;
+        long endPageNum = pageNum + numPages;
+        long stripeStart = pageNum + 1;
+        while (stripeStart < endPageNum) {
+            long stripeEnd = Math.min(endPageNum, (Math.floorDiv(stripeStart, STRIPE_PAGES) + 1) * STRIPE_PAGES);
+            int index = poolIndex(stripeStart, this.pools.length);
+            BufferManagerImpl pool = this.pools[index];
+            int stripePages = (int) Math.min(stripeEnd - stripeStart,
+                    pool.getBufferSize() / BufferManagerImpl.MAX_RANGE_FRACTION - poolPages[index]);
+            if (stripePages <= 0 || !pool.loadPages(stripeStart, stripePages, logPage, ring)) {
+                break;
+            }
+            poolPages[index] += stripePages;
+            if (stripeStart + stripePages < stripeEnd) {
+                break;
+            }
+            stripeStart = stripeEnd;
+        }
+    }
+
+    /**
+     * Creates a scan ring, shared by all pools, if the scan reads more than a fraction of the
+     * whole buffer. A pool only reuses the frames of the ring that are its own, so a scan that
+     * moves to a stripe in another pool starts filling the ring with that pool's frames.
+     *
+     * @param numPages number of pages that the scan will read
+     * @return a new ring, or null if the scan should use the buffer like any other access
+     */
+    @Override
+    public ScanRing newScanRing(int numPages) {
+        if (numPages <= this.bufferSize / BufferManagerImpl.SCAN_RING_THRESHOLD_FRACTION) {
+            return null;
+        }
+        return new ScanRing(Math.max(1, this.bufferSize / BufferManagerImpl.MAX_RANGE_FRACTION));
+    }
+
+    @Override
+    public Page fetchPage(LockContext parentContext, long pageNum, ScanRing ring) {
+        if (ring == null) {
+            return this.fetchPage(parentContext, pageNum, false);
+        }
+        return this.frameToPage(parentContext, pageNum, this.pool(pageNum).fetchPageFrame(pageNum, ring));
+    }
+
+    @Override
+    public Page fetchPageRange(LockContext parentContext, long pageNum, int numPages, ScanRing ring) {
+        if (ring == null) {
+            return this.fetchPageRange(parentContext, pageNum, numPages, false);
+        }
+        BufferFrame frame = this.pool(pageNum).fetchPageFrame(pageNum, ring);
+        this.loadPages(pageNum, Math.min(numPages, ring.size()), false, ring);
+        return this.frameToPage(parentContext, pageNum, frame);
+    }
+
+    @Override
+    public Page fetchPage(LockContext parentContext, long pageNum, boolean logPage) {
+        return this.frameToPage(parentContext, pageNum, this.fetchPageFrame(pageNum, logPage));
+    }
+
+    @Override
+    public Page fetchPageRange(LockContext parentContext, long pageNum, int numPages, boolean logPage) {
+        return this.frameToPage(parentContext, pageNum, this.fetchPageRangeFrame(pageNum, numPages, logPage));
+    }
+
+    @Override
+    public BufferFrame fetchNewPageFrame(int partNum, boolean logPage) {
+        long pageNum = this.diskSpaceManager.allocPage(partNum);
+        return this.pool(pageNum).fetchPageFrame(pageNum, logPage);
+    }
+
+    @Override
+    public BufferFrame fetchNewPageFrame(ExtentAllocator extentAllocator, boolean logPage) {
+        long pageNum = extentAllocator.allocPage(this.diskSpaceManager);
+        return this.pool(pageNum).fetchPageFrame(pageNum, logPage);
+    }
+
+    @Override
+    public Page fetchNewPage(LockContext parentContext, int partNum, boolean logPage) {
+        BufferFrame newFrame = this.fetchNewPageFrame(partNum, logPage);
+        return this.frameToPage(parentContext, newFrame.getPageNum(), newFrame);
+    }
+
+    @Override
+    public Page fetchNewPage(LockContext parentContext, ExtentAllocator extentAllocator, boolean logPage) {
+        BufferFrame newFrame = this.fetchNewPageFrame(extentAllocator, logPage);
+        return this.frameToPage(parentContext, newFrame.getPageNum(), newFrame);
+    }
+
+    @Override
+    public void freePage(Page page) {
+        this.pool(page.getPageNum()).freePage(page);
+    }
+
+    @Override
+    public void freePart(int partNum) {
+        for (BufferManagerImpl pool : this.pools) {
+            pool.dropPart(partNum);
+        }
+        this.diskSpaceManager.freePart(partNum);
+    }
+
+    @Override
+    public void evict(long pageNum) {
+        this.pool(pageNum).evict(pageNum);
+    }
+
+    @Override
+    public void evictAll() {
+        for (BufferManagerImpl pool : this.pools) {
+            pool.evictAll();
+        }
+    }
+
+    @Override
+    public void flushAll() {
+        for (BufferManagerImpl pool : this.pools) {
+            pool.flushAll();
+        }
+    }
+
+    @Override
+    public void iterPageNums(BiConsumer<Long, Boolean> process) {
+        for (BufferManagerImpl pool : this.pools) {
+            pool.iterPageNums(process);
+        }
+    }
+
+    @Override
+    public void iterDirtyPages(BiConsumer<Long, Long> process) {
+        for (BufferManagerImpl pool : this.pools) {
+            pool.iterDirtyPages(process);
+        }
+    }
+
+    @Override
+    public long getNumIOs() {
+        long numIOs = 0;
+        for (BufferManagerImpl pool : this.pools) {
+            numIOs += pool.getNumIOs();
+        }
+        return numIOs;
+    }
+
+    /**
+     * @return number of pages loaded ahead of being requested that were later requested
+     */
+    public long getNumPrefetchHits() {
+        long numHits = 0;
+        for (BufferManagerImpl pool : this.pools) {
+            numHits += pool.getNumPrefetchHits();
+        }
+        return numHits;
+    }
+
+    /**
+     * @return number of pages loaded ahead of being requested that were evicted or freed
+     * without being requested
+     */
+    public long getNumPrefetchWasted() {
+        long numWasted = 0;
+        for (BufferManagerImpl pool : this.pools) {
+            numWasted += pool.getNumPrefetchWasted();
+        }
+        return numWasted;
+    }
+
+    /**
+     * Wraps a frame in a page object.
+     * @param parentContext parent lock context of the page
+     * @param pageNum page number
+     * @param frame frame for the page
+     * @return page object
+     */
+    private Page frameToPage(LockContext parentContext, long pageNum, BufferFrame frame) {
+        return new Page(parentContext.childContext(pageNum), frame);
+    }
+}
@@ -0,0 +1,66 @@
+package edu.berkeley.cs186.database.memory;
+
+/**
+ * A small ring of buffer frames, private to a large scan (see BufferManager#newScanRing).
+ * Pages that the scan loads through the ring are recorded in it, and once the ring is full,
+ * each page the scan loads reuses the frame of the page the scan loaded a ring's length ago
+ * (if that frame still holds that page, and is not pinned), instead of evicting a frame
+ * chosen by the eviction policy. The scan thus recycles the same few frames, and does not
+ * flush out the rest of the buffer. Pages that are already loaded when the scan reaches them
+ * are used where they are, and are not added to the ring.
+ *
+ * A ring is not thread-safe, and should only be used by one scan at a time.
+ */
+public class ScanRing {
+    // Frames loaded through the ring, in load order, starting at next; null until used
+    private BufferFrame[] frames;
+
+    // Generations of the frames when the pages were loaded into them
+    private long[] generations;
+
+    // Index of the frame to reuse next
+    private int next;
+
+    ScanRing(int numFrames) {
+        if (numFrames < 1) {
+            throw new IllegalArgumentException("scan ring must have at least one frame");
+        }
+        this.frames = new BufferFrame[numFrames];
+        this.generations = new long[numFrames];
+        this.next = 0;
+    }
+
+    /**
+     * @return number of frames in the ring
+     */
+    public int size() {
+        return this.frames.length;
+    }
+
+    /**
+     * @return frame to reuse for the next page loaded through the ring, or null if the ring
+     * is not full yet. The frame may have been evicted, or be in use, since it was recorded.
+     */
+    BufferFrame nextVictim() {
+        return this.frames[this.next];
+    }
+
+    /**
+     * @return generation of nextVictim() when the page was loaded into it; the frame still
+     * holds that page if its generation has not changed since
+     */
+    long nextVictimGeneration() {
+        return this.generations[this.next];
+    }
+
+    /**
+     * Records the frame of a page loaded through the ring, in place of nextVictim().
+     *
+     * @param frame frame of the page loaded
+     */
+    void add(BufferFrame frame) {
+        this.frames[this.next] = frame;
+        this.generations[this.next] = frame.getGeneration();
+        this.next = (this.next + 1) % this.frames.length;
+    }
+}
@@ -38,6 +38,10 @@ public class ARIESRecoveryManager implements RecoveryManager {
     LogManager logManager;
     // Dirty page table (page number -> recLSN).
     Map<Long, Long> dirtyPageTable = new ConcurrentHashMap<>();
+    // LSN of the last update logged for each page in the dirty page table (page number -> LSN).
+    // Used to tell whether a page was updated again after a write that is only forced later;
+    // changed together with the dirty page table, while holding its monitor.
+    Map<Long, Long> lastUpdateLSNs = new ConcurrentHashMap<>();
     // Transaction table (transaction number -> entry).
     Map<Long, TransactionTableEntry> transactionTable = new ConcurrentHashMap<>();
 
@@ -196,7 +200,47 @@ public class ARIESRecoveryManager implements RecoveryManager {
      */
     @Override
     public void diskIOHook(long pageNum) {
-        dirtyPageTable.remove(pageNum);
+        synchronized (dirtyPageTable) {
+            dirtyPageTable.remove(pageNum);
+            lastUpdateLSNs.remove(pageNum);
+        }
+    }
+
+    /**
+     * Called when a write to a page has been issued to disk, but will only be forced
+     * to disk later.
+     *
+     * The write includes every update logged for the page so far, so the LSN of the
+     * last of these is returned (or -1 if none have been logged since the page was
+     * last cleaned, e.g. if it was only dirtied before a restart).
+     *
+     * @param pageNum page number of page written
+     * @return LSN of the last update to the page that the write includes
+     */
+    @Override
+    public long diskWriteHook(long pageNum) {
+        return lastUpdateLSNs.getOrDefault(pageNum, -1L);
+    }
+
+    /**
+     * Called when a write to a page issued earlier has been forced to disk.
+     *
+     * The page is only clean (and removed from the dirty page table) if no updates
+     * were logged for it after the write was issued; otherwise its recLSN is kept,
+     * which is no later than the first of those updates.
+     *
+     * @param pageNum page number of page updated on disk
+     * @param lastLSN value returned by diskWriteHook when the write was issued
+     */
+    @Override
+    public void diskIOHook(long pageNum, long lastLSN) {
+        synchronized (dirtyPageTable) {
+            Long lastUpdateLSN = lastUpdateLSNs.get(pageNum);
+            if (lastUpdateLSN == null || lastUpdateLSN <= lastLSN) {
+                dirtyPageTable.remove(pageNum);
+                lastUpdateLSNs.remove(pageNum);
+            }
+        }
     }
 
     /**
@@ -206,8 +250,11 @@ public class ARIESRecoveryManager implements RecoveryManager {
      * are guaranteed to be the same length.
      *
      * The appropriate log record should be emitted; if the number of bytes written is
-     * too large (larger than BufferManager.EFFECTIVE_PAGE_SIZE / 2), then two records
+     * too large (larger than half the effective page size), then two records
      * should be written instead: an undo-only record followed by a redo-only record.
+     * Writes of at least 0xFF00 bytes that are not of a whole page (only possible with
+     * pages of 64K) are logged as two separate writes of half the bytes each, since the
+     * CLR of such an undo-only record could not be serialized (see UndoUpdatePageLogRecord).
      *
      * Both the transaction table and dirty page table should be updated accordingly.
      *
@@ -219,12 +266,19 @@ public class ARIESRecoveryManager implements RecoveryManager {
      * @return LSN of last record written to log
      */
     @Override
-    public long logPageWrite(long transNum, long pageNum, short pageOffset, byte[] before,
+    public long logPageWrite(long transNum, long pageNum, int pageOffset, byte[] before,
                              byte[] after) {
         assert (before.length == after.length);
+        int effectivePageSize = bufferManager.getEffectivePageSize();
+        if (before.length >= 0xFF00 && before.length != effectivePageSize) {
+          int half = before.length / 2;
+          logPageWrite(transNum, pageNum, pageOffset, Arrays.copyOf(before, half), Arrays.copyOf(after, half));
+          return logPageWrite(transNum, pageNum, pageOffset + half, Arrays.copyOfRange(before, half, before.length),
+                              Arrays.copyOfRange(after, half, after.length));
+        }
         TransactionTableEntry transactionEntry = transactionTable.get(transNum);
         long lastRecordLSN = -1;
-        if (before.length <= BufferManager.EFFECTIVE_PAGE_SIZE / 2) {
+        if (before.length <= effectivePageSize / 2) {
           lastRecordLSN = logManager.appendToLog(new UpdatePageLogRecord(transNum,
                                                      pageNum,
                                                      transactionEntry.lastLSN,
@@ -246,8 +300,11 @@ public class ARIESRecoveryManager implements RecoveryManager {
                                                     after));
         }
 
-        if (!dirtyPageTable.containsKey(pageNum)) {
-          dirtyPageTable.put(pageNum, lastRecordLSN);
+        synchronized (dirtyPageTable) {
+          if (!dirtyPageTable.containsKey(pageNum)) {
+            dirtyPageTable.put(pageNum, lastRecordLSN);
+          }
+          lastUpdateLSNs.put(pageNum, lastRecordLSN);
         }
         transactionEntry.lastLSN = lastRecordLSN;
         transactionEntry.touchedPages.add(pageNum);
@@ -383,7 +440,7 @@ public class ARIESRecoveryManager implements RecoveryManager {
         // Update lastLSN, touchedPages
         transactionEntry.lastLSN = LSN;
         transactionEntry.touchedPages.add(pageNum);
-        dirtyPageTable.remove(pageNum);
+        diskIOHook(pageNum);
         // Flush log
         logManager.flushToLSN(LSN);
         return LSN;
@@ -445,6 +502,9 @@ public class ARIESRecoveryManager implements RecoveryManager {
     /**
      * Create a checkpoint.
      *
+     * Any data page writes not yet synced by the disk space manager are synced first,
+     * so that the dirty page table only contains pages that are actually dirty.
+     *
      * First, a begin checkpoint record should be written.
      *
      * Then, end checkpoint records should be filled up as much as possible,
@@ -457,6 +517,8 @@ public class ARIESRecoveryManager implements RecoveryManager {
      */
     @Override
     public void checkpoint() {
+        diskSpaceManager.sync();
+
         // Create begin checkpoint log record and write to log
         LogRecord beginRecord = new BeginCheckpointLogRecord(getTransactionCounter.get());
         long beginLSN = logManager.appendToLog(beginRecord);
@@ -470,7 +532,8 @@ public class ARIESRecoveryManager implements RecoveryManager {
 
         for (Map.Entry<Long, Long> page : dirtyPageTable.entrySet()) {
           long transNum = page.getKey();
-          boolean fitsAfterAdd = EndCheckpointLogRecord.fitsInOneRecord(dpt.size() + 1, 0, 0, 0);
+          boolean fitsAfterAdd = EndCheckpointLogRecord.fitsInOneRecord(dpt.size() + 1, 0, 0, 0,
+                                                                         bufferManager.getPageSize());
           if (!fitsAfterAdd) {
             LogRecord endRecord = new EndCheckpointLogRecord(dpt, txnTable, touchedPages);
             logManager.appendToLog(endRecord);
@@ -482,7 +545,8 @@ public class ARIESRecoveryManager implements RecoveryManager {
 
         for (Map.Entry<Long, TransactionTableEntry> entry : transactionTable.entrySet()) {
           long transNum = entry.getKey();
-          boolean fitsAfterAdd = EndCheckpointLogRecord.fitsInOneRecord(dpt.size(), txnTable.size() + 1, 0, 0);
+          boolean fitsAfterAdd = EndCheckpointLogRecord.fitsInOneRecord(dpt.size(), txnTable.size() + 1, 0, 0,
+                                                                         bufferManager.getPageSize());
           if (!fitsAfterAdd) {
             LogRecord endRecord = new EndCheckpointLogRecord(dpt, txnTable, touchedPages);
             logManager.appendToLog(endRecord);
@@ -498,10 +562,12 @@ public class ARIESRecoveryManager implements RecoveryManager {
                 boolean fitsAfterAdd;
                 if (!touchedPages.containsKey(transNum)) {
                     fitsAfterAdd = EndCheckpointLogRecord.fitsInOneRecord(
-                                       dpt.size(), txnTable.size(), touchedPages.size() + 1, numTouchedPages + 1);
+                                       dpt.size(), txnTable.size(), touchedPages.size() + 1, numTouchedPages + 1,
+                                       bufferManager.getPageSize());
                 } else {
                     fitsAfterAdd = EndCheckpointLogRecord.fitsInOneRecord(
-                                       dpt.size(), txnTable.size(), touchedPages.size(), numTouchedPages + 1);
+                                       dpt.size(), txnTable.size(), touchedPages.size(), numTouchedPages + 1,
+                                       bufferManager.getPageSize());
                 }
 
                 if (!fitsAfterAdd) {
@@ -46,7 +46,17 @@ public class DummyRecoveryManager implements RecoveryManager {
     public void diskIOHook(long pageNum) {}
 
     @Override
-    public long logPageWrite(long transNum, long pageNum, short pageOffset, byte[] before,
+    public long diskWriteHook(long pageNum) {
+        return 0L;
+    }
+
+    @Override
+    public void diskIOHook(long pageNum, long lastLSN) {
+        this.diskIOHook(pageNum);
+    }
+
+    @Override
+    public long logPageWrite(long transNum, long pageNum, int pageOffset, byte[] before,
                              byte[] after) {
         return 0L;
     }
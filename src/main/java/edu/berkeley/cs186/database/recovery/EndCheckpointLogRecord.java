@@ -88,9 +88,20 @@ class EndCheckpointLogRecord extends LogRecord {
      */
     public static boolean fitsInOneRecord(int numDPTRecords, int numTxnTableRecords,
                                           int touchedPagesMapSize, int numTouchedPages) {
+        return fitsInOneRecord(numDPTRecords, numTxnTableRecords, touchedPagesMapSize, numTouchedPages,
+                               DiskSpaceManager.PAGE_SIZE);
+    }
+
+    /**
+     * @param pageSize page size of the database, in bytes
+     * @return boolean indicating whether information for
+     * the log record can fit in one record on a page of the given size
+     */
+    public static boolean fitsInOneRecord(int numDPTRecords, int numTxnTableRecords,
+                                          int touchedPagesMapSize, int numTouchedPages, int pageSize) {
         int recordSize = getRecordSize(numDPTRecords, numTxnTableRecords, touchedPagesMapSize,
                                        numTouchedPages);
-        return recordSize <= DiskSpaceManager.PAGE_SIZE;
+        return recordSize <= pageSize;
     }
 
     public static Optional<LogRecord> fromBytes(Buffer buf) {
@@ -21,7 +21,9 @@ import java.util.*;
  * - page 2: [ LSN 20000, LSN 20030, LSN 20055, ...]
  * - page 3: [ LSN 30000, LSN 30047, LSN 30090, ...]
  * allowing for up to 10,000 log entries per page. The index (last 4 digits) is the offset
- * within the page where the log record starts. Log entries are not fixed width,
+ * within the page where the log record starts. With pages of 16K or more, the index does not
+ * fit in 4 digits, and LSNs are the page number * 100,000 + the index instead (in general, the
+ * page number is multiplied by the smallest power of 10 larger than the page size). Log entries are not fixed width,
  * so backwards iteration is not as easy as forward iteration. Page 0 is reserved for the
  * master record, which only contains a few log entries: the master record, with LSN 0, followed
  * by an empty begin and end checkpoint record. The master record is the only record in the
@@ -40,11 +42,20 @@ class LogManagerImpl implements LogManager {
     private Buffer logTailBuffer;
     private boolean logTailPinned = false;
     private long flushedLSN;
+    // size of the log pages, in bytes
+    private int pageSize;
+    // multiplier of the page number in LSNs
+    private long lsnPageFactor;
 
     private static final int LOG_PARTITION = 0;
 
     LogManagerImpl(BufferManager bufferManager) {
         this.bufferManager = bufferManager;
+        this.pageSize = bufferManager.getPageSize();
+        this.lsnPageFactor = 10000L;
+        while (this.lsnPageFactor < this.pageSize) {
+            this.lsnPageFactor *= 10;
+        }
         this.unflushedLogTail = new ArrayDeque<>();
 
         this.logTail = bufferManager.fetchNewPage(new DummyLockContext(), LOG_PARTITION, true);
@@ -63,7 +74,7 @@ class LogManagerImpl implements LogManager {
     public synchronized void rewriteMasterRecord(MasterLogRecord record) {
         Page firstPage = bufferManager.fetchPage(new DummyLockContext(), 0L, true);
         try {
-            firstPage.getBuffer().put(record.toBytes());
+            firstPage.getBuffer().put(record.toBytes(pageSize));
             firstPage.flush();
         } finally {
             firstPage.unpin();
@@ -77,10 +88,10 @@ class LogManagerImpl implements LogManager {
      */
     @Override
     public synchronized long appendToLog(LogRecord record) {
-        byte[] bytes = record.toBytes();
+        byte[] bytes = record.toBytes(pageSize);
         // loop in case accessing log tail requires flushing the log in order to evict dirty page to load log tail
         do {
-            if (logTailBuffer == null || bytes.length > DiskSpaceManager.PAGE_SIZE - logTailBuffer.position()) {
+            if (logTailBuffer == null || bytes.length > pageSize - logTailBuffer.position()) {
                 logTailPinned = true;
                 logTail = bufferManager.fetchNewPage(new DummyLockContext(), LOG_PARTITION, true);
                 unflushedLogTail.add(logTail);
@@ -117,7 +128,7 @@ class LogManagerImpl implements LogManager {
             try {
                 Buffer buf = logPage.getBuffer();
                 buf.position(getLSNIndex(LSN));
-                Optional<LogRecord> record = LogRecord.fromBytes(buf);
+                Optional<LogRecord> record = LogRecord.fromBytes(buf, pageSize);
                 record.ifPresent((LogRecord e) -> e.setLSN(LSN));
                 return record.orElse(null);
             } finally {
@@ -169,8 +180,8 @@ class LogManagerImpl implements LogManager {
      * @param index index of the log record within the log page
      * @return LSN
      */
-    static long makeLSN(long pageNum, int index) {
-        return DiskSpaceManager.getPageNum(pageNum) * 10000L + index;
+    long makeLSN(long pageNum, int index) {
+        return DiskSpaceManager.getPageNum(pageNum) * lsnPageFactor + index;
     }
 
     /**
@@ -178,8 +189,8 @@ class LogManagerImpl implements LogManager {
      * @param pageNum page number of log page
      * @return max possible LSN on the log page
      */
-    static long maxLSN(long pageNum) {
-        return makeLSN(pageNum, 9999);
+    long maxLSN(long pageNum) {
+        return makeLSN(pageNum, (int) (lsnPageFactor - 1));
     }
 
     /**
@@ -187,8 +198,8 @@ class LogManagerImpl implements LogManager {
      * @param LSN LSN to get page of
      * @return page that LSN resides on
      */
-    static long getLSNPage(long LSN) {
-        return LSN / 10000L;
+    long getLSNPage(long LSN) {
+        return LSN / lsnPageFactor;
     }
 
     /**
@@ -196,8 +207,8 @@ class LogManagerImpl implements LogManager {
      * @param LSN LSN to get index of
      * @return index in page that LSN resides on
      */
-    static int getLSNIndex(long LSN) {
-        return (int) (LSN % 10000L);
+    int getLSNIndex(long LSN) {
+        return (int) (LSN % lsnPageFactor);
     }
 
     /**
@@ -238,7 +249,7 @@ class LogManagerImpl implements LogManager {
         private int startIndex;
 
         private LogPageIterator(Page logPage, int startIndex) {
-            super(DiskSpaceManager.PAGE_SIZE);
+            super(pageSize);
             this.logPage = logPage;
             this.startIndex = startIndex;
             this.logPage.unpin();
@@ -254,14 +265,14 @@ class LogManagerImpl implements LogManager {
                     buf.position(currentIndex);
                 } else {
                     buf.position(currentIndex);
-                    LogRecord.fromBytes(buf);
+                    LogRecord.fromBytes(buf, pageSize);
                     currentIndex = buf.position();
                 }
 
-                if (LogRecord.fromBytes(buf).isPresent()) {
+                if (LogRecord.fromBytes(buf, pageSize).isPresent()) {
                     return currentIndex;
                 } else {
-                    return DiskSpaceManager.PAGE_SIZE;
+                    return pageSize;
                 }
             } finally {
                 logPage.unpin();
@@ -274,7 +285,7 @@ class LogManagerImpl implements LogManager {
             try {
                 Buffer buf = logPage.getBuffer();
                 buf.position(index);
-                LogRecord record = LogRecord.fromBytes(buf).orElseThrow(NoSuchElementException::new);
+                LogRecord record = LogRecord.fromBytes(buf, pageSize).orElseThrow(NoSuchElementException::new);
                 record.setLSN(makeLSN(logPage.getPageNum(), index));
                 return record;
             } finally {
@@ -167,6 +167,16 @@ abstract class LogRecord {
      */
     public abstract byte[] toBytes();
 
+    /**
+     * Serializes the log record for a database with the given page size. Only a few log
+     * records (see UndoUpdatePageLogRecord) are serialized differently depending on the page
+     * size; toBytes() serializes them for the default page size.
+     * @param pageSize page size of the database, in bytes
+     */
+    byte[] toBytes(int pageSize) {
+        return this.toBytes();
+    }
+
     /**
      * Load a log record from a buffer.
      * @param buf Buffer containing a serialized log record.
@@ -174,6 +184,18 @@ abstract class LogRecord {
      * @throws UnsupportedOperationException if log type is not recognized
      */
     public static Optional<LogRecord> fromBytes(Buffer buf) {
+        return fromBytes(buf, DiskSpaceManager.PAGE_SIZE);
+    }
+
+    /**
+     * Load a log record, serialized for a database with the given page size (see
+     * toBytes(int)), from a buffer.
+     * @param buf Buffer containing a serialized log record.
+     * @param pageSize page size of the database, in bytes
+     * @return The log record, or Optional.empty() if logType == 0 (marker for no record)
+     * @throws UnsupportedOperationException if log type is not recognized
+     */
+    static Optional<LogRecord> fromBytes(Buffer buf, int pageSize) {
         int type;
         try {
             type = buf.get();
@@ -209,7 +231,7 @@ abstract class LogRecord {
         case UNDO_ALLOC_PAGE:
             return UndoAllocPageLogRecord.fromBytes(buf);
         case UNDO_UPDATE_PAGE:
-            return UndoUpdatePageLogRecord.fromBytes(buf);
+            return UndoUpdatePageLogRecord.fromBytes(buf, pageSize);
         case UNDO_FREE_PAGE:
             return UndoFreePageLogRecord.fromBytes(buf);
         case UNDO_ALLOC_PART:
@@ -65,6 +65,25 @@ public interface RecoveryManager extends AutoCloseable {
      */
     void diskIOHook(long pageNum);
 
+    /**
+     * Called when a write to a page has been issued to disk, but will only be forced
+     * to disk later (at which point diskIOHook(pageNum, lastLSN) is called).
+     *
+     * @param pageNum page number of page written
+     * @return LSN of the last update to the page that the write includes
+     */
+    long diskWriteHook(long pageNum);
+
+    /**
+     * Called when a write to a page issued earlier (see diskWriteHook) has been forced
+     * to disk. The page may have been updated again since the write was issued, in
+     * which case it is still dirty.
+     *
+     * @param pageNum page number of page updated on disk
+     * @param lastLSN value returned by diskWriteHook when the write was issued
+     */
+    void diskIOHook(long pageNum, long lastLSN);
+
     /**
      * Called when a write to a page happens.
      *
@@ -78,7 +97,7 @@ public interface RecoveryManager extends AutoCloseable {
      * @param after bytes starting at pageOffset after the write
      * @return LSN of last record written to log
     */
-    long logPageWrite(long transNum, long pageNum, short pageOffset, byte[] before,
+    long logPageWrite(long transNum, long pageNum, int pageOffset, byte[] before,
                       byte[] after);
 
     /**
@@ -16,10 +16,10 @@ class UndoUpdatePageLogRecord extends LogRecord {
     private long pageNum;
     private long prevLSN;
     private long undoNextLSN;
-    short offset;
+    int offset;
     byte[] after;
 
-    UndoUpdatePageLogRecord(long transNum, long pageNum, long prevLSN, long undoNextLSN, short offset,
+    UndoUpdatePageLogRecord(long transNum, long pageNum, long prevLSN, long undoNextLSN, int offset,
                             byte[] after) {
         super(LogType.UNDO_UPDATE_PAGE);
         this.transNum = transNum;
@@ -70,16 +70,31 @@ class UndoUpdatePageLogRecord extends LogRecord {
 
     @Override
     public byte[] toBytes() {
-        byte[] b = new byte[(after.length == BufferManager.EFFECTIVE_PAGE_SIZE ? 36 : 37) + after.length];
+        return this.toBytes(DiskSpaceManager.PAGE_SIZE);
+    }
+
+    /**
+     * The length of the after image is stored in 2 bytes, except when the after image is a
+     * whole page (less the reserved space), so that the CLR can actually fit on one page: its
+     * length is then replaced by a single 0xFF byte. Other lengths therefore must not start
+     * with an 0xFF byte (i.e. must be less than 0xFF00).
+     */
+    @Override
+    byte[] toBytes(int pageSize) {
+        boolean wholePage = after.length == pageSize - BufferManager.RESERVED_SPACE;
+        if (!wholePage && after.length >= 0xFF00) {
+            throw new IllegalArgumentException("after image of " + after.length + " bytes is too long for a CLR");
+        }
+        byte[] b = new byte[(wholePage ? 36 : 37) + after.length];
         Buffer buf = ByteBuffer.wrap(b)
                      .put((byte) getType().getValue())
                      .putLong(transNum)
                      .putLong(pageNum)
                      .putLong(prevLSN)
                      .putLong(undoNextLSN)
-                     .putShort(offset);
+                     .putShort((short) offset);
         // to make sure that the CLR can actually fit on one page...
-        if (after.length == BufferManager.EFFECTIVE_PAGE_SIZE) {
+        if (wholePage) {
             buf.put((byte) - 1).put(after);
         } else {
             buf.putShort((short) after.length).put(after);
@@ -88,14 +103,18 @@ class UndoUpdatePageLogRecord extends LogRecord {
     }
 
     public static Optional<LogRecord> fromBytes(Buffer buf) {
+        return fromBytes(buf, DiskSpaceManager.PAGE_SIZE);
+    }
+
+    static Optional<LogRecord> fromBytes(Buffer buf, int pageSize) {
         long transNum = buf.getLong();
         long pageNum = buf.getLong();
         long prevLSN = buf.getLong();
         long undoNextLSN = buf.getLong();
-        short offset = buf.getShort();
-        short length = buf.getShort();
-        if (length < 0) {
-            length = BufferManager.EFFECTIVE_PAGE_SIZE;
+        int offset = buf.getShort() & 0xFFFF;
+        int length = buf.getShort() & 0xFFFF;
+        if (length >= 0xFF00) {
+            length = pageSize - BufferManager.RESERVED_SPACE;
             buf.position(buf.position() - 1);
         }
         byte[] after = new byte[length];
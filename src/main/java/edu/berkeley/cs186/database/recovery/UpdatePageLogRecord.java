@@ -16,11 +16,11 @@ class UpdatePageLogRecord extends LogRecord {
     private long transNum;
     private long pageNum;
     private long prevLSN;
-    short offset;
+    int offset;
     byte[] before;
     byte[] after;
 
-    UpdatePageLogRecord(long transNum, long pageNum, long prevLSN, short offset, byte[] before,
+    UpdatePageLogRecord(long transNum, long pageNum, long prevLSN, int offset, byte[] before,
                         byte[] after) {
         super(LogType.UPDATE_PAGE);
         this.transNum = transNum;
@@ -86,7 +86,7 @@ class UpdatePageLogRecord extends LogRecord {
         .putLong(transNum)
         .putLong(pageNum)
         .putLong(prevLSN)
-        .putShort(offset)
+        .putShort((short) offset)
         .putShort((short) before.length)
         .putShort((short) after.length)
         .put(before)
@@ -98,9 +98,10 @@ class UpdatePageLogRecord extends LogRecord {
         long transNum = buf.getLong();
         long pageNum = buf.getLong();
         long prevLSN = buf.getLong();
-        short offset = buf.getShort();
-        byte[] before = new byte[buf.getShort()];
-        byte[] after = new byte[buf.getShort()];
+        // offsets and lengths are unsigned, as pages may be up to 64K
+        int offset = buf.getShort() & 0xFFFF;
+        byte[] before = new byte[buf.getShort() & 0xFFFF];
+        byte[] after = new byte[buf.getShort() & 0xFFFF];
         buf.get(before).get(after);
         return Optional.of(new UpdatePageLogRecord(transNum, pageNum, prevLSN, offset, before, after));
     }
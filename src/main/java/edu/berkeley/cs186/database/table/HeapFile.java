@@ -13,13 +13,13 @@ public interface HeapFile extends BacktrackingIterable<Page> {
     /**
      * @return effective page size (including metadata).
      */
-    short getEffectivePageSize();
+    int getEffectivePageSize();
 
     /**
      * Sets the size of metadata on an empty page.
      * @param emptyPageMetadataSize amount of metadata on empty page
      */
-    void setEmptyPageMetadataSize(short emptyPageMetadataSize);
+    void setEmptyPageMetadataSize(int emptyPageMetadataSize);
 
     /**
      * Fetches a specific pinned page.
@@ -35,7 +35,7 @@ public interface HeapFile extends BacktrackingIterable<Page> {
      *                      cannot be larger than effectivePageSize - emptyPageMetadataSize
      * @return pinned page with the requested area of contiguous space
      */
-    Page getPageWithSpace(short requiredSpace);
+    Page getPageWithSpace(int requiredSpace);
 
     /**
      * Updates the amount of free space on a page. Updating to effectivePageSize
@@ -43,7 +43,7 @@ public interface HeapFile extends BacktrackingIterable<Page> {
      * @param page the data page returned by getPageWithSpace
      * @param newFreeSpace the size (in bytes) of the free space on the page
      */
-    void updateFreeSpace(Page page, short newFreeSpace);
+    void updateFreeSpace(Page page, int newFreeSpace);
 
     /**
      * @return iterator of all allocated data pages
@@ -51,6 +51,16 @@ public interface HeapFile extends BacktrackingIterable<Page> {
     @Override
     BacktrackingIterator<Page> iterator();
 
+    /**
+     * Returns an iterator of all allocated data pages for a scan of the whole heap file. If the
+     * heap file is large, pages that are not in memory are loaded through a scan ring (see
+     * BufferManager#newScanRing), so that the scan does not flush out the rest of the buffer.
+     * @return iterator of all allocated data pages
+     */
+    default BacktrackingIterator<Page> scanIterator() {
+        return iterator();
+    }
+
     /**
      * Returns estimate of number of data pages.
      * @return estimate of number of data pages
@@ -10,12 +10,15 @@ import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.concurrency.LockType;
 import edu.berkeley.cs186.database.concurrency.LockUtil;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.ExtentAllocator;
 import edu.berkeley.cs186.database.io.PageException;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.Page;
+import edu.berkeley.cs186.database.memory.ScanRing;
 
 import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * An implementation of a heap file, using a page directory. Assumes data pages are packed (but record
@@ -26,6 +29,7 @@ import java.util.Random;
  * - next 4 bytes: page directory id
  * - next 8 bytes: page number of next header page, or -1 (0xFFFFFFFFFFFFFFFF) if no next header page.
  * - next 10 bytes: page number of data page (or -1), followed by 2 bytes of amount of free space
+ *   (unsigned, as pages may be up to 64K)
  * - repeat 10 byte entries
  *
  * Data pages contain a small header containing:
@@ -38,34 +42,42 @@ import java.util.Random;
  *
  * The page directory id is a randomly generated 32-bit integer used to help detect bugs (where we attempt
  * to write to a page that is not managed by the page directory).
+ *
+ * Data pages are allocated from extents (runs of pages reserved together), separately from header
+ * pages, so that consecutive data pages are mostly contiguous on disk and can be read together
+ * when iterating.
  */
 public class PageDirectory implements HeapFile {
     // size of the header in header pages
     private static final short HEADER_HEADER_SIZE = 13;
 
-    // number of data page entries in a header page
-    private static final short HEADER_ENTRY_COUNT = (BufferManager.EFFECTIVE_PAGE_SIZE -
-            HEADER_HEADER_SIZE) / DataPageEntry.SIZE;
-
     // size of the header in data pages
     private static final short DATA_HEADER_SIZE = 10;
 
-    // effective page size
-    private static final short EFFECTIVE_PAGE_SIZE = BufferManager.EFFECTIVE_PAGE_SIZE -
-            DATA_HEADER_SIZE;
+    // maximum number of consecutive data pages to load at once when iterating
+    private static final int READ_AHEAD_PAGES = 32;
 
     // the buffer manager
     private BufferManager bufferManager;
 
+    // number of data page entries in a header page
+    private int headerEntryCount;
+
+    // effective page size
+    private int effectivePageSize;
+
     // partition to allocate new header pages in - may be different from partition
     // for data pages
     private int partNum;
 
+    // allocator for new data pages
+    private ExtentAllocator dataPageAllocator;
+
     // First header page
     private HeaderPage firstHeader;
 
     // Size of metadata of an empty data page.
-    private short emptyPageMetadataSize;
+    private int emptyPageMetadataSize;
 
     // lock context of heap file/table
     private LockContext lockContext;
@@ -84,22 +96,25 @@ public class PageDirectory implements HeapFile {
      * @param lockContext lock context of this heap file
      */
     public PageDirectory(BufferManager bufferManager, int partNum, long pageNum,
-                         short emptyPageMetadataSize, LockContext lockContext) {
+                         int emptyPageMetadataSize, LockContext lockContext) {
         // TODO(proj4_part3): update table capacity
         this.bufferManager = bufferManager;
+        this.headerEntryCount = (bufferManager.getEffectivePageSize() - HEADER_HEADER_SIZE) / DataPageEntry.SIZE;
+        this.effectivePageSize = bufferManager.getEffectivePageSize() - DATA_HEADER_SIZE;
         this.partNum = partNum;
+        this.dataPageAllocator = new ExtentAllocator(partNum);
         this.emptyPageMetadataSize = emptyPageMetadataSize;
         this.lockContext = lockContext;
         this.firstHeader = new HeaderPage(pageNum, 0, true);
     }
 
     @Override
-    public short getEffectivePageSize() {
-        return EFFECTIVE_PAGE_SIZE;
+    public int getEffectivePageSize() {
+        return effectivePageSize;
     }
 
     @Override
-    public void setEmptyPageMetadataSize(short emptyPageMetadataSize) {
+    public void setEmptyPageMetadataSize(int emptyPageMetadataSize) {
         this.emptyPageMetadataSize = emptyPageMetadataSize;
     }
 
@@ -109,13 +124,13 @@ public class PageDirectory implements HeapFile {
     }
 
     @Override
-    public Page getPageWithSpace(short requiredSpace) {
+    public Page getPageWithSpace(int requiredSpace) {
         // TODO(proj4_part3): modify for smarter locking
 
         if (requiredSpace <= 0) {
             throw new IllegalArgumentException("cannot request nonpositive amount of space");
         }
-        if (requiredSpace > EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize) {
+        if (requiredSpace > effectivePageSize - emptyPageMetadataSize) {
             throw new IllegalArgumentException("requesting page with more space than the size of the page");
         }
 
@@ -126,8 +141,8 @@ public class PageDirectory implements HeapFile {
     }
 
     @Override
-    public void updateFreeSpace(Page page, short newFreeSpace) {
-        if (newFreeSpace <= 0 || newFreeSpace > EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize) {
+    public void updateFreeSpace(Page page, int newFreeSpace) {
+        if (newFreeSpace <= 0 || newFreeSpace > effectivePageSize - emptyPageMetadataSize) {
             throw new IllegalArgumentException("bad size for data page free space");
         }
 
@@ -152,7 +167,13 @@ public class PageDirectory implements HeapFile {
 
     @Override
     public BacktrackingIterator<Page> iterator() {
-        return new ConcatBacktrackingIterator<>(new HeaderPageIterator());
+        return new ConcatBacktrackingIterator<>(new HeaderPageIterator(null));
+    }
+
+    @Override
+    public BacktrackingIterator<Page> scanIterator() {
+        ScanRing ring = bufferManager.newScanRing(getNumDataPages());
+        return new ConcatBacktrackingIterator<>(new HeaderPageIterator(ring));
     }
 
     @Override
@@ -208,14 +229,14 @@ public class PageDirectory implements HeapFile {
         private long pageNum;
 
         // size in bytes of free space in data page
-        private short freeSpace;
+        private int freeSpace;
 
         // creates an invalid data page entry (one where no data page has been allocated yet).
         private DataPageEntry() {
-            this(DiskSpaceManager.INVALID_PAGE_NUM, (short) -1);
+            this(DiskSpaceManager.INVALID_PAGE_NUM, -1);
         }
 
-        private DataPageEntry(long pageNum, short freeSpace) {
+        private DataPageEntry(long pageNum, int freeSpace) {
             this.pageNum = pageNum;
             this.freeSpace = freeSpace;
         }
@@ -226,11 +247,11 @@ public class PageDirectory implements HeapFile {
         }
 
         private void toBytes(Buffer b) {
-            b.putLong(pageNum).putShort(freeSpace);
+            b.putLong(pageNum).putShort((short) freeSpace);
         }
 
         private static DataPageEntry fromBytes(Buffer b) {
-            return new DataPageEntry(b.getLong(), b.getShort());
+            return new DataPageEntry(b.getLong(), b.getShort() & 0xFFFF);
         }
 
         @Override
@@ -243,25 +264,29 @@ public class PageDirectory implements HeapFile {
      * Represents a single header page.
      */
     private class HeaderPage implements BacktrackingIterable<Page> {
-        private HeaderPage nextPage;
+        private volatile HeaderPage nextPage;
         private Page page;
-        private short numDataPages;
+        private volatile short numDataPages;
         private int headerOffset;
+        // Held for the whole of every read-modify-write of this header page's data page entries
+        // (and while adding the next header page)
+        private final ReentrantLock entriesLock = new ReentrantLock();
 
         private HeaderPage(long pageNum, int headerOffset, boolean firstHeader) {
             this.page = bufferManager.fetchPage(lockContext, pageNum, false);
-            // We do not lock header pages for the entirety of the transaction. Instead, we simply
-            // use the buffer frame lock (from pinning) to ensure that one transaction writes at a time.
-            // This does mean that we do not have complete isolation in the header pages, but this does not
-            // really matter, as the only observable effect is that a transaction may be told to use a different
-            // data page, which is perfectly fine.
+            // We do not lock header pages for the entirety of the transaction. Instead, we hold the
+            // header page's entriesLock while reading and updating its entries, so that one transaction
+            // updates them at a time (pinning the page does not exclude other transactions, which may
+            // have it pinned at the same time). This does mean that we do not have complete isolation in
+            // the header pages, but this does not really matter, as the only observable effect is that a
+            // transaction may be told to use a different data page, which is perfectly fine.
             this.page.disableLocking();
             this.numDataPages = 0;
             long nextPageNum;
             try {
                 Buffer pageBuffer = this.page.getBuffer();
                 if (pageBuffer.get() != (byte) 1) {
-                    byte[] buf = new byte[BufferManager.EFFECTIVE_PAGE_SIZE];
+                    byte[] buf = new byte[bufferManager.getEffectivePageSize()];
                     Buffer b = ByteBuffer.wrap(buf);
                     // invalid page, initialize empty header page
                     if (firstHeader) {
@@ -269,7 +294,7 @@ public class PageDirectory implements HeapFile {
                     }
                     b.position(0).put((byte) 1).putInt(pageDirectoryId).putLong(DiskSpaceManager.INVALID_PAGE_NUM);
                     DataPageEntry invalidPageEntry = new DataPageEntry();
-                    for (int i = 0; i < HEADER_ENTRY_COUNT; ++i) {
+                    for (int i = 0; i < headerEntryCount; ++i) {
                         invalidPageEntry.toBytes(b);
                     }
                     nextPageNum = -1L;
@@ -283,7 +308,7 @@ public class PageDirectory implements HeapFile {
                         throw new PageException("header page page directory id does not match");
                     }
                     nextPageNum = pageBuffer.getLong();
-                    for (int i = 0; i < HEADER_ENTRY_COUNT; ++i) {
+                    for (int i = 0; i < headerEntryCount; ++i) {
                         DataPageEntry dpe = DataPageEntry.fromBytes(pageBuffer);
                         if (dpe.isValid()) {
                             ++this.numDataPages;
@@ -301,10 +326,10 @@ public class PageDirectory implements HeapFile {
             }
         }
 
-        // add a new header page
+        // add a new header page after this one, if there is none yet; must be called with
+        // entriesLock held
         private void addNewHeaderPage() {
             if (this.nextPage != null) {
-                this.nextPage.addNewHeaderPage();
                 return;
             }
             Page page = bufferManager.fetchNewPage(lockContext, partNum, false);
@@ -319,9 +344,10 @@ public class PageDirectory implements HeapFile {
         }
 
         // gets and loads a page with the required free space
-        private Page loadPageWithSpace(short requiredSpace) {
+        private Page loadPageWithSpace(int requiredSpace) {
             // TODO(proj4_part3): update table capacity
 
+            this.entriesLock.lock();
             this.page.pin();
             try {
                 Buffer b = this.page.getBuffer();
@@ -329,7 +355,7 @@ public class PageDirectory implements HeapFile {
 
                 // if we have any data page managed by this header page with enough space, return it
                 short unusedSlot = -1;
-                for (short i = 0; i < HEADER_ENTRY_COUNT; ++i) {
+                for (short i = 0; i < headerEntryCount; ++i) {
                     DataPageEntry dpe = DataPageEntry.fromBytes(b);
                     if (!dpe.isValid()) {
                         if (unusedSlot == -1) {
@@ -348,9 +374,9 @@ public class PageDirectory implements HeapFile {
 
                 // if we have any unused slot in this header page, allocate a new data page
                 if (unusedSlot != -1) {
-                    Page page = bufferManager.fetchNewPage(lockContext, partNum, false);
+                    Page page = bufferManager.fetchNewPage(lockContext, dataPageAllocator, false);
                     DataPageEntry dpe = new DataPageEntry(page.getPageNum(),
-                                                          (short) (EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize - requiredSpace));
+                                                          effectivePageSize - emptyPageMetadataSize - requiredSpace);
 
                     b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * unusedSlot);
                     dpe.toBytes(b);
@@ -363,22 +389,22 @@ public class PageDirectory implements HeapFile {
                 }
 
                 // if we have no next header page, make one
-                if (this.nextPage == null) {
-                    this.addNewHeaderPage();
-                }
-
-                // no space on this header page, try next one
-                return this.nextPage.loadPageWithSpace(requiredSpace);
+                this.addNewHeaderPage();
             } finally {
                 this.page.unpin();
+                this.entriesLock.unlock();
             }
+
+            // no space on this header page, try next one
+            return this.nextPage.loadPageWithSpace(requiredSpace);
         }
 
         // updates free space
-        private void updateSpace(Page dataPage, short index, short newFreeSpace) {
+        private void updateSpace(Page dataPage, short index, int newFreeSpace) {
+            this.entriesLock.lock();
             this.page.pin();
             try {
-                if (newFreeSpace < EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize) {
+                if (newFreeSpace < effectivePageSize - emptyPageMetadataSize) {
                     // write new free space to disk
                     Buffer b = this.page.getBuffer();
                     b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
@@ -395,18 +421,34 @@ public class PageDirectory implements HeapFile {
                 }
             } finally {
                 this.page.unpin();
+                this.entriesLock.unlock();
             }
         }
 
         @Override
         public BacktrackingIterator<Page> iterator() {
-            return new HeaderPageIterator();
+            return new HeaderPageIterator(null);
+        }
+
+        /**
+         * @param ring scan ring to load data pages through, or null
+         * @return iterator over the data pages managed by this header page
+         */
+        private BacktrackingIterator<Page> iterator(ScanRing ring) {
+            return new HeaderPageIterator(ring);
         }
 
         // iterator over the data pages managed by this header page
         private class HeaderPageIterator extends IndexBacktrackingIterator<Page> {
-            private HeaderPageIterator() {
-                super(HEADER_ENTRY_COUNT);
+            // index of the first entry after the data pages last loaded together
+            private int readAheadEnd = 0;
+
+            // scan ring to load data pages through, or null
+            private ScanRing ring;
+
+            private HeaderPageIterator(ScanRing ring) {
+                super(headerEntryCount);
+                this.ring = ring;
             }
 
             @Override
@@ -415,13 +457,13 @@ public class PageDirectory implements HeapFile {
                 try {
                     Buffer b = HeaderPage.this.page.getBuffer();
                     b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * ++currentIndex);
-                    for (int i = currentIndex; i < HEADER_ENTRY_COUNT; ++i) {
+                    for (int i = currentIndex; i < headerEntryCount; ++i) {
                         DataPageEntry dpe = DataPageEntry.fromBytes(b);
                         if (dpe.isValid()) {
                             return i;
                         }
                     }
-                    return HEADER_ENTRY_COUNT;
+                    return headerEntryCount;
                 } finally {
                     HeaderPage.this.page.unpin();
                 }
@@ -434,7 +476,22 @@ public class PageDirectory implements HeapFile {
                     Buffer b = HeaderPage.this.page.getBuffer();
                     b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
                     DataPageEntry dpe = DataPageEntry.fromBytes(b);
-                    return new DataPage(pageDirectoryId, bufferManager.fetchPage(lockContext, dpe.pageNum, false));
+                    if (index < this.readAheadEnd) {
+                        return new DataPage(pageDirectoryId, bufferManager.fetchPage(lockContext, dpe.pageNum, ring));
+                    }
+                    // load the run of consecutive data pages that follow this one (in both the header page
+                    // and on disk) together
+                    int numPages = 1;
+                    while (numPages < READ_AHEAD_PAGES && index + numPages < headerEntryCount) {
+                        DataPageEntry nextDpe = DataPageEntry.fromBytes(b);
+                        if (nextDpe.pageNum != dpe.pageNum + numPages) {
+                            break;
+                        }
+                        ++numPages;
+                    }
+                    this.readAheadEnd = index + numPages;
+                    return new DataPage(pageDirectoryId, bufferManager.fetchPageRange(lockContext, dpe.pageNum, numPages,
+                                        ring));
                 } finally {
                     HeaderPage.this.page.unpin();
                 }
@@ -450,10 +507,14 @@ public class PageDirectory implements HeapFile {
         private HeaderPage prevPage;
         private HeaderPage markedPage;
 
-        private HeaderPageIterator() {
+        // scan ring to load data pages through, or null
+        private ScanRing ring;
+
+        private HeaderPageIterator(ScanRing ring) {
             this.nextPage = firstHeader;
             this.prevPage = null;
             this.markedPage = null;
+            this.ring = ring;
         }
 
         @Override
@@ -462,14 +523,14 @@ public class PageDirectory implements HeapFile {
         }
 
         @Override
-        public HeaderPage next() {
+        public BacktrackingIterable<Page> next() {
             if (!this.hasNext()) {
                 throw new NoSuchElementException();
             }
             HeaderPage next = this.nextPage;
             this.prevPage = next;
             this.nextPage = next.nextPage;
-            return next;
+            return () -> next.iterator(this.ring);
         }
 
         @Override
@@ -126,8 +126,8 @@ public class Table implements BacktrackingIterable<Record> {
         this.bitmapSizeInBytes = computeBitmapSizeInBytes(heapFile.getEffectivePageSize(), schema);
         this.numRecordsPerPage = computeNumRecordsPerPage(heapFile.getEffectivePageSize(), schema);
         // mark everything that is not used for records as metadata
-        this.heapFile.setEmptyPageMetadataSize((short) (heapFile.getEffectivePageSize() - numRecordsPerPage
-                                               * schema.getSizeInBytes()));
+        this.heapFile.setEmptyPageMetadataSize(heapFile.getEffectivePageSize() - numRecordsPerPage
+                                               * schema.getSizeInBytes());
 
         this.stats = new TableStats(this.schema, this.numRecordsPerPage);
         this.numRecords = 0;
@@ -166,8 +166,8 @@ public class Table implements BacktrackingIterable<Record> {
     public void setFullPageRecords() {
         numRecordsPerPage = 1;
         bitmapSizeInBytes = 0;
-        heapFile.setEmptyPageMetadataSize((short) (heapFile.getEffectivePageSize() -
-                                          schema.getSizeInBytes()));
+        heapFile.setEmptyPageMetadataSize(heapFile.getEffectivePageSize() -
+                                          schema.getSizeInBytes());
     }
 
     public TableStats getStats() {
@@ -356,7 +356,7 @@ public class Table implements BacktrackingIterable<Record> {
             stats.removeRecord(record);
             int numRecords = numRecordsPerPage == 1 ? 0 : numRecordsOnPage(page);
             heapFile.updateFreeSpace(page,
-                                     (short) ((numRecordsPerPage - numRecords) * schema.getSizeInBytes()));
+                                     (numRecordsPerPage - numRecords) * schema.getSizeInBytes());
             this.numRecords--;
 
             return record;
@@ -403,7 +403,8 @@ public class Table implements BacktrackingIterable<Record> {
         // schema.getSizeInBytes() bits for the record.
         int recordOverheadInBits = 1 + 8 * schema.getSizeInBytes();
         int pageSizeInBits = pageSize  * 8;
-        return pageSizeInBits / recordOverheadInBits;
+        // record ids store entry numbers as shorts, which caps the number of records on larger pages
+        return Math.min(pageSizeInBits / recordOverheadInBits, Short.MAX_VALUE);
     }
 
     private int numRecordsOnPage(Page page) {
@@ -457,7 +458,7 @@ public class Table implements BacktrackingIterable<Record> {
     public BacktrackingIterator<RecordId> ridIterator() {
         // TODO(proj4_part3): reduce locking overhead for table scans
 
-        BacktrackingIterator<Page> iter = heapFile.iterator();
+        BacktrackingIterator<Page> iter = heapFile.scanIterator();
         return new ConcatBacktrackingIterator<>(new PageIterator(iter, false));
     }
 
@@ -488,7 +489,7 @@ public class Table implements BacktrackingIterable<Record> {
     }
 
     public BacktrackingIterator<Page> pageIterator() {
-        return heapFile.iterator();
+        return heapFile.scanIterator();
     }
 
     /**
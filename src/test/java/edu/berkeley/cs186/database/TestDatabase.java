@@ -2,7 +2,11 @@ package edu.berkeley.cs186.database;
 
 import edu.berkeley.cs186.database.categories.*;
 import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.concurrency.DummyLockManager;
 import edu.berkeley.cs186.database.databox.*;
+import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
+import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
+import edu.berkeley.cs186.database.memory.PartitionedBufferManager;
 import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.table.*;
 
@@ -16,9 +20,13 @@ import org.junit.rules.TemporaryFolder;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 
 @Category({Proj99Tests.class, SystemTests.class})
 public class TestDatabase {
@@ -144,6 +152,156 @@ public class TestDatabase {
         }
     }
 
+    @Test
+    public void testPartitionedBufferPool() {
+        db.close();
+        db = new Database(this.filename, 32, new DummyLockManager(), ClockEvictionPolicy::new, false,
+                          DiskSpaceManagerImpl::new, false, 4);
+        assertTrue(db.getBufferManager() instanceof PartitionedBufferManager);
+
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        Record input = TestUtils.createRecordWithAllTypes();
+        String tableName = "testTable1";
+
+        List<RecordId> rids = new ArrayList<>();
+        try(Transaction t1 = db.beginTransaction()) {
+            t1.createTable(s, tableName);
+            // enough records for pages in several stripes of the table's partition
+            for (int i = 0; i < 10000; ++i) {
+                rids.add(t1.getTransactionContext().addRecord(tableName, input.getValues()));
+            }
+        }
+
+        db.close();
+        db = new Database(this.filename, 32, new DummyLockManager(), ClockEvictionPolicy::new, false,
+                          DiskSpaceManagerImpl::new, false, 4);
+
+        try(Transaction t1 = db.beginTransaction()) {
+            for (RecordId rid : rids) {
+                assertEquals(input, t1.getTransactionContext().getRecord(tableName, rid));
+            }
+        }
+    }
+
+    @Test
+    public void testLargePages() throws Exception {
+        // the page size is chosen when the database is created, so this needs a new directory
+        db.close();
+        this.filename = tempFolder.newFolder(TestDir + "LargePages").getAbsolutePath();
+        db = new Database(this.filename, 32, new DummyLockManager(), ClockEvictionPolicy::new, false,
+                          (dir, rm) -> new DiskSpaceManagerImpl(dir, rm, 0, 65536), false, 1);
+        assertEquals(65536, db.getBufferManager().getPageSize());
+
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        String tableName = "testTable1";
+
+        List<Record> inputs = new ArrayList<>();
+        List<RecordId> rids = new ArrayList<>();
+        try(Transaction t1 = db.beginTransaction()) {
+            t1.createTable(s, tableName);
+            t1.createIndex(tableName, "int", false);
+            for (int i = 0; i < 5000; ++i) {
+                Record input = new Record(Arrays.asList(new BoolDataBox(true), new IntDataBox(i),
+                                                        new StringDataBox("a", 1), new FloatDataBox(1.2f)));
+                inputs.add(input);
+                rids.add(t1.getTransactionContext().addRecord(tableName, input.getValues()));
+            }
+        }
+
+        try(Transaction t1 = db.beginTransaction()) {
+            for (int i = 0; i < rids.size(); ++i) {
+                Iterator<Record> records = t1.getTransactionContext().lookupKey(tableName, "int",
+                                           new IntDataBox(i));
+                assertEquals(inputs.get(i), records.next());
+                assertFalse(records.hasNext());
+            }
+            t1.dropIndex(tableName, "int");
+        }
+
+        // the page size of the existing database is used, whatever the disk space manager is given
+        db.close();
+        db = new Database(this.filename, 32);
+        assertEquals(65536, db.getBufferManager().getPageSize());
+
+        try(Transaction t1 = db.beginTransaction()) {
+            for (int i = 0; i < rids.size(); ++i) {
+                assertEquals(inputs.get(i), t1.getTransactionContext().getRecord(tableName, rids.get(i)));
+            }
+        }
+    }
+
+    @Test
+    public void testResizeBuffer() {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        Record input = TestUtils.createRecordWithAllTypes();
+        String tableName = "testTable1";
+
+        db.setWorkMem(64);
+        List<RecordId> rids = new ArrayList<>();
+        try(Transaction t1 = db.beginTransaction()) {
+            t1.createTable(s, tableName);
+            for (int i = 0; i < 2000; ++i) {
+                rids.add(t1.getTransactionContext().addRecord(tableName, input.getValues()));
+            }
+        }
+
+        // work memory follows the size of the buffer
+        db.setNumMemoryPages(16);
+        assertEquals(16, db.getBufferManager().getBufferSize());
+        assertEquals(16, db.getWorkMem());
+
+        try(Transaction t1 = db.beginTransaction()) {
+            for (RecordId rid : rids) {
+                assertEquals(input, t1.getTransactionContext().getRecord(tableName, rid));
+            }
+        }
+
+        db.setNumMemoryPages(128);
+        assertEquals(64, db.getWorkMem());
+        try(Transaction t1 = db.beginTransaction()) {
+            for (RecordId rid : rids) {
+                assertEquals(input, t1.getTransactionContext().getRecord(tableName, rid));
+            }
+        }
+    }
+
+    @Test
+    public void testWarmRestart() {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        Record input = TestUtils.createRecordWithAllTypes();
+        String tableName = "testTable1";
+
+        List<RecordId> rids = new ArrayList<>();
+        try(Transaction t1 = db.beginTransaction()) {
+            t1.createTable(s, tableName);
+            for (int i = 0; i < 2000; ++i) {
+                rids.add(t1.getTransactionContext().addRecord(tableName, input.getValues()));
+            }
+        }
+
+        long[] residentPages = db.getBufferManager().getResidentPages();
+        assertTrue(residentPages.length > 0);
+        db.close();
+        File residentPagesFile = new File(this.filename, Database.RESIDENT_PAGES_FILE);
+        assertTrue(residentPagesFile.exists());
+
+        // the pages loaded before the restart are loaded again in the background
+        db = new Database(this.filename, 64);
+        db.waitForWarmUp();
+        Set<Long> loaded = new HashSet<>();
+        db.getBufferManager().iterPageNums((pageNum, dirty) -> loaded.add(pageNum));
+        for (long pageNum : residentPages) {
+            assertTrue(loaded.contains(pageNum));
+        }
+        assertFalse(residentPagesFile.exists());
+
+        try(Transaction t1 = db.beginTransaction()) {
+            for (RecordId rid : rids) {
+                assertEquals(input, t1.getTransactionContext().getRecord(tableName, rid));
+            }
+        }
+    }
+
     @Test
     public void testREADMESample() {
         try (Transaction t1 = db.beginTransaction()) {
@@ -0,0 +1,93 @@
+package edu.berkeley.cs186.database.common;
+
+import edu.berkeley.cs186.database.categories.*;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestLongIntHashMap {
+    @Test
+    public void testPutGetRemove() {
+        LongIntHashMap map = new LongIntHashMap();
+        assertEquals(LongIntHashMap.NO_VALUE, map.get(10000000000L));
+        assertEquals(LongIntHashMap.NO_VALUE, map.put(10000000000L, 3));
+        assertEquals(LongIntHashMap.NO_VALUE, map.put(-1L, 4));
+        assertEquals(LongIntHashMap.NO_VALUE, map.put(Long.MIN_VALUE, 5));
+        assertEquals(3, map.size());
+
+        assertEquals(3, map.get(10000000000L));
+        assertEquals(4, map.get(-1L));
+        assertEquals(5, map.get(Long.MIN_VALUE));
+        assertTrue(map.containsKey(Long.MIN_VALUE));
+        assertFalse(map.containsKey(0L));
+
+        assertEquals(3, map.put(10000000000L, 6));
+        assertEquals(6, map.get(10000000000L));
+        assertEquals(3, map.size());
+
+        assertEquals(6, map.remove(10000000000L));
+        assertEquals(5, map.remove(Long.MIN_VALUE));
+        assertEquals(LongIntHashMap.NO_VALUE, map.remove(10000000000L));
+        assertEquals(LongIntHashMap.NO_VALUE, map.get(Long.MIN_VALUE));
+        assertEquals(4, map.get(-1L));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void testKeys() {
+        LongIntHashMap map = new LongIntHashMap();
+        assertArrayEquals(new long[0], map.keys());
+        for (long key = 0; key < 100; ++key) {
+            map.put(key * 10000000000L, (int) key);
+        }
+        map.put(Long.MIN_VALUE, 100);
+        map.remove(0L);
+
+        long[] keys = map.keys();
+        Arrays.sort(keys);
+        assertEquals(100, keys.length);
+        assertEquals(Long.MIN_VALUE, keys[0]);
+        for (int i = 1; i < keys.length; ++i) {
+            assertEquals(i * 10000000000L, keys[i]);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPutNoValue() {
+        new LongIntHashMap().put(1L, LongIntHashMap.NO_VALUE);
+    }
+
+    @Test
+    public void testRandomOperations() {
+        // compare against a HashMap through growth and many removals (exercising backward shifts)
+        LongIntHashMap map = new LongIntHashMap(4);
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(186);
+        for (int i = 0; i < 100000; ++i) {
+            long key = 10000000000L * random.nextInt(4) + random.nextInt(2000);
+            if (random.nextInt(3) == 0) {
+                Integer previous = expected.remove(key);
+                assertEquals(previous == null ? LongIntHashMap.NO_VALUE : previous, map.remove(key));
+            } else {
+                int value = random.nextInt(Integer.MAX_VALUE);
+                Integer previous = expected.put(key, value);
+                assertEquals(previous == null ? LongIntHashMap.NO_VALUE : previous, map.put(key, value));
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (int p = 0; p < 4; ++p) {
+            for (int n = 0; n < 2000; ++n) {
+                long key = 10000000000L * p + n;
+                Integer value = expected.get(key);
+                assertEquals(value == null ? LongIntHashMap.NO_VALUE : value, map.get(key));
+            }
+        }
+    }
+}
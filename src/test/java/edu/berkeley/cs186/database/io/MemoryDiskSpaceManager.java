@@ -10,6 +10,7 @@ public class MemoryDiskSpaceManager implements DiskSpaceManager {
     private Map<Integer, Integer> nextPageNum = new HashMap<>();
     private Map<Long, byte[]> pages = new HashMap<>();
     private int nextPartitionNum = 0;
+    private int nextTempPartitionNum = DiskSpaceManager.TEMP_PART_START;
 
     @Override
     public void close() {}
@@ -32,6 +33,13 @@ public class MemoryDiskSpaceManager implements DiskSpaceManager {
         return partNum;
     }
 
+    @Override
+    public int allocTempPart() {
+        partitions.put(nextTempPartitionNum, new HashSet<>());
+        nextPageNum.put(nextTempPartitionNum, 0);
+        return nextTempPartitionNum++;
+    }
+
     @Override
     public void freePart(int partNum) {
         if (!partitions.containsKey(partNum)) {
@@ -66,12 +74,22 @@ public class MemoryDiskSpaceManager implements DiskSpaceManager {
         if (pages.containsKey(page)) {
             throw new IllegalStateException("page " + page + " already allocated");
         }
-        nextPageNum.put(partNum, ppageNum + 1);
+        nextPageNum.put(partNum, Math.max(nextPageNum.get(partNum), ppageNum + 1));
         partitions.get(partNum).add(ppageNum);
         pages.put(page, new byte[DiskSpaceManager.PAGE_SIZE]);
         return page;
     }
 
+    @Override
+    public long reserveExtent(int partNum, int numPages) {
+        if (!partitions.containsKey(partNum)) {
+            throw new IllegalArgumentException("partition " + partNum + " not allocated");
+        }
+        int ppageNum = nextPageNum.get(partNum);
+        nextPageNum.put(partNum, ppageNum + numPages);
+        return DiskSpaceManager.getVirtualPageNum(partNum, ppageNum);
+    }
+
     @Override
     public void freePage(long page) {
         if (!pages.containsKey(page)) {
@@ -109,4 +127,10 @@ public class MemoryDiskSpaceManager implements DiskSpaceManager {
     public boolean pageAllocated(long page) {
         return pages.containsKey(page);
     }
+
+    @Override
+    public void sync() {}
+
+    @Override
+    public void sync(int partNum) {}
 }
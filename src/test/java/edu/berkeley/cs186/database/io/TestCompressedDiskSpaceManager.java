@@ -0,0 +1,230 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs all of the disk space manager tests against CompressedDiskSpaceManager.
+ */
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestCompressedDiskSpaceManager extends TestDiskSpaceManager {
+    @Override
+    DiskSpaceManager getDiskSpaceManager() {
+        return new CompressedDiskSpaceManager(managerRoot.toString(), new DummyRecoveryManager());
+    }
+
+    private static void checkRoundTrip(byte[] data) {
+        byte[] compressed = new byte[LZCodec.maxCompressedLength(data.length)];
+        int length = LZCodec.compress(data, data.length, compressed);
+        byte[] decompressed = new byte[data.length];
+        LZCodec.decompress(compressed, length, decompressed, data.length);
+        assertArrayEquals(data, decompressed);
+    }
+
+    @Test
+    public void testCodecRoundTrip() {
+        Random random = new Random(186);
+        checkRoundTrip(new byte[0]);
+        checkRoundTrip(new byte[] {1, 2, 3});
+        checkRoundTrip(new byte[DiskSpaceManager.PAGE_SIZE]);
+
+        byte[] randomBytes = new byte[DiskSpaceManager.PAGE_SIZE];
+        random.nextBytes(randomBytes);
+        checkRoundTrip(randomBytes);
+
+        // padded strings, with long runs and long literals
+        byte[] strings = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i + 40 <= strings.length; i += 40) {
+            for (int j = 0; j < random.nextInt(20); ++j) {
+                strings[i + j] = (byte) ('a' + random.nextInt(26));
+            }
+        }
+        System.arraycopy(randomBytes, 0, strings, 1000, 600);
+        checkRoundTrip(strings);
+
+        byte[] compressed = new byte[LZCodec.maxCompressedLength(DiskSpaceManager.PAGE_SIZE)];
+        assertTrue(LZCodec.compress(new byte[DiskSpaceManager.PAGE_SIZE], DiskSpaceManager.PAGE_SIZE,
+                                    compressed) < 32);
+    }
+
+    @Test(expected = PageException.class)
+    public void testCodecMalformed() {
+        byte[] compressed = new byte[] {(byte) 0x1F, 7, 5, 0};
+        LZCodec.decompress(compressed, compressed.length, new byte[DiskSpaceManager.PAGE_SIZE],
+                           DiskSpaceManager.PAGE_SIZE);
+    }
+
+    @Test
+    public void testCompressedPages() {
+        DiskSpaceManager diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long[] pageNums = new long[100];
+        byte[][] bufs = new byte[pageNums.length][DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            Arrays.fill(bufs[i], 0, 100, (byte) i);
+            diskSpaceManager.writePage(pageNums[i], bufs[i]);
+        }
+        long dataLength = managerRoot.resolve(partNum + CompressedDiskSpaceManager.DATA_FILE_SUFFIX).toFile().length();
+        assertTrue(dataLength <= pageNums.length * CompressedDiskSpaceManager.SECTOR_SIZE);
+
+        // incompressible contents are moved, and compressible contents moved back into the free space
+        byte[] randomBytes = new byte[DiskSpaceManager.PAGE_SIZE];
+        new Random(186).nextBytes(randomBytes);
+        diskSpaceManager.writePage(pageNums[10], randomBytes);
+        diskSpaceManager.writePage(pageNums[11], bufs[11]);
+        diskSpaceManager.freePage(pageNums[12]);
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pageNums.length; ++i) {
+            if (i == 12) {
+                continue;
+            }
+            diskSpaceManager.readPage(pageNums[i], readbuf);
+            assertArrayEquals(i == 10 ? randomBytes : bufs[i], readbuf);
+        }
+        diskSpaceManager.writePage(pageNums[10], bufs[10]);
+        long pageNum = diskSpaceManager.allocPage(partNum);
+        assertEquals(pageNums[12], pageNum);
+        diskSpaceManager.writePage(pageNum, randomBytes);
+        diskSpaceManager.readPage(pageNums[10], readbuf);
+        assertArrayEquals(bufs[10], readbuf);
+        diskSpaceManager.readPage(pageNum, readbuf);
+        assertArrayEquals(randomBytes, readbuf);
+
+        diskSpaceManager.freePart(partNum);
+        assertFalse(managerRoot.resolve(partNum + CompressedDiskSpaceManager.MAP_FILE_SUFFIX).toFile().exists());
+        assertFalse(managerRoot.resolve(partNum + CompressedDiskSpaceManager.DATA_FILE_SUFFIX).toFile().exists());
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testMovedPagesWithoutSync() {
+        DiskSpaceManager diskSpaceManager = new CompressedDiskSpaceManager(managerRoot.toString(),
+                new DummyRecoveryManager(), 16);
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum1 = diskSpaceManager.allocPage(partNum);
+        long pageNum2 = diskSpaceManager.allocPage(partNum);
+        Random random = new Random(186);
+        byte[] buf1 = new byte[DiskSpaceManager.PAGE_SIZE];
+        byte[] randomBytes = new byte[1000];
+        random.nextBytes(randomBytes);
+        System.arraycopy(randomBytes, 0, buf1, 0, randomBytes.length);
+        diskSpaceManager.writePage(pageNum1, buf1);
+        diskSpaceManager.sync();
+
+        // the first page moves out of its sectors, and the second page needs about as many
+        byte[] newBuf1 = new byte[DiskSpaceManager.PAGE_SIZE];
+        random.nextBytes(newBuf1);
+        diskSpaceManager.writePage(pageNum1, newBuf1);
+        byte[] newBuf2 = new byte[DiskSpaceManager.PAGE_SIZE];
+        random.nextBytes(randomBytes);
+        System.arraycopy(randomBytes, 0, newBuf2, 0, 500);
+        diskSpaceManager.writePage(pageNum2, newBuf2);
+
+        // reopen without syncing (as after a crash): both pages still have their synced contents
+        DiskSpaceManager reopened = getDiskSpaceManager();
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        reopened.readPage(pageNum1, readbuf);
+        assertArrayEquals(buf1, readbuf);
+        reopened.readPage(pageNum2, readbuf);
+        assertArrayEquals(new byte[DiskSpaceManager.PAGE_SIZE], readbuf);
+        reopened.close();
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        diskSpaceManager.readPage(pageNum1, readbuf);
+        assertArrayEquals(newBuf1, readbuf);
+        diskSpaceManager.readPage(pageNum2, readbuf);
+        assertArrayEquals(newBuf2, readbuf);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testRewrittenPagesWithoutSync() {
+        DiskSpaceManager diskSpaceManager = new CompressedDiskSpaceManager(managerRoot.toString(),
+                new DummyRecoveryManager(), 16);
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum = diskSpaceManager.allocPage(partNum);
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        Arrays.fill(buf, 0, 100, (byte) 1);
+        diskSpaceManager.writePage(pageNum, buf);
+        diskSpaceManager.sync();
+        File dataFile = managerRoot.resolve(partNum + CompressedDiskSpaceManager.DATA_FILE_SUFFIX).toFile();
+        byte[] syncedData = readFile(dataFile);
+
+        // the new contents compress to the same length, but still go to other sectors
+        byte[] newBuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        Arrays.fill(newBuf, 0, 100, (byte) 2);
+        diskSpaceManager.writePage(pageNum, newBuf);
+        byte[] data = readFile(dataFile);
+        assertTrue(data.length > syncedData.length);
+        assertArrayEquals(syncedData, Arrays.copyOf(data, syncedData.length));
+
+        // reopen without syncing (as after a crash): the page still has its synced contents
+        DiskSpaceManager reopened = getDiskSpaceManager();
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        reopened.readPage(pageNum, readbuf);
+        assertArrayEquals(buf, readbuf);
+        reopened.close();
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        diskSpaceManager.readPage(pageNum, readbuf);
+        assertArrayEquals(newBuf, readbuf);
+        diskSpaceManager.close();
+    }
+
+    private static byte[] readFile(File file) {
+        try {
+            return Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Test
+    public void testExistingUncompressedPartition() {
+        DiskSpaceManager diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(),
+                new DummyRecoveryManager());
+        int partNum1 = diskSpaceManager.allocPart();
+        long pageNum1 = diskSpaceManager.allocPage(partNum1);
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        Arrays.fill(buf, (byte) 42);
+        diskSpaceManager.writePage(pageNum1, buf);
+        diskSpaceManager.close();
+
+        // partitions that already exist stay uncompressed; new ones are compressed
+        diskSpaceManager = getDiskSpaceManager();
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum1, readbuf);
+        assertArrayEquals(buf, readbuf);
+        long pageNum2 = diskSpaceManager.allocPage(partNum1);
+        diskSpaceManager.writePage(pageNum2, buf);
+        int partNum2 = diskSpaceManager.allocPart();
+        diskSpaceManager.writePage(diskSpaceManager.allocPage(partNum2), buf);
+        diskSpaceManager.close();
+
+        assertFalse(managerRoot.resolve(partNum1 + CompressedDiskSpaceManager.MAP_FILE_SUFFIX).toFile().exists());
+        assertTrue(managerRoot.resolve(partNum2 + CompressedDiskSpaceManager.MAP_FILE_SUFFIX).toFile().exists());
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager());
+        diskSpaceManager.readPage(pageNum2, readbuf);
+        assertArrayEquals(buf, readbuf);
+        diskSpaceManager.freePart(partNum1);
+        diskSpaceManager.close();
+    }
+}
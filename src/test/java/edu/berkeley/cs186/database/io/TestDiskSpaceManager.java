@@ -10,8 +10,13 @@ import org.junit.experimental.categories.Category;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.*;
 
@@ -21,14 +26,14 @@ public class TestDiskSpaceManager {
     public TemporaryFolder tempFolder = new TemporaryFolder();
 
     private DiskSpaceManager diskSpaceManager;
-    private Path managerRoot;
+    Path managerRoot;
 
     @Before
     public void beforeEach() throws IOException {
         managerRoot = tempFolder.newFolder("dsm-test").toPath();
     }
 
-    private DiskSpaceManager getDiskSpaceManager() {
+    DiskSpaceManager getDiskSpaceManager() {
         return new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager());
     }
 
@@ -103,6 +108,67 @@ public class TestDiskSpaceManager {
         assertFalse(managerRoot.resolve("1").toFile().exists());
     }
 
+    @Test
+    public void testAllocPageReusesFreedPages() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long[] pageNums = new long[100];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            assertEquals(DiskSpaceManager.getVirtualPageNum(partNum, i), pageNums[i]);
+        }
+
+        diskSpaceManager.freePage(pageNums[50]);
+        diskSpaceManager.freePage(pageNums[10]);
+        assertFalse(diskSpaceManager.pageAllocated(pageNums[10]));
+        assertFalse(diskSpaceManager.pageAllocated(pageNums[50]));
+
+        // lowest free pages are reused first
+        assertEquals(pageNums[10], diskSpaceManager.allocPage(partNum));
+        assertEquals(pageNums[50], diskSpaceManager.allocPage(partNum));
+        assertEquals(DiskSpaceManager.getVirtualPageNum(partNum, 100), diskSpaceManager.allocPage(partNum));
+        diskSpaceManager.close();
+
+        // free space is found again after reopening
+        diskSpaceManager = getDiskSpaceManager();
+        diskSpaceManager.freePage(pageNums[20]);
+        diskSpaceManager.close();
+        diskSpaceManager = getDiskSpaceManager();
+        assertEquals(pageNums[20], diskSpaceManager.allocPage(partNum));
+        assertEquals(DiskSpaceManager.getVirtualPageNum(partNum, 101), diskSpaceManager.allocPage(partNum));
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testReserveExtent() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum0 = diskSpaceManager.allocPage(partNum);
+
+        ExtentAllocator extentAllocator = new ExtentAllocator(partNum, 4);
+        assertEquals(pageNum0 + 1, extentAllocator.allocPage(diskSpaceManager));
+        // reserved pages are skipped by other allocations
+        assertEquals(pageNum0 + 5, diskSpaceManager.allocPage(partNum));
+        assertEquals(pageNum0 + 2, extentAllocator.allocPage(diskSpaceManager));
+        assertEquals(pageNum0 + 3, extentAllocator.allocPage(diskSpaceManager));
+        assertEquals(pageNum0 + 4, extentAllocator.allocPage(diskSpaceManager));
+        // next extent starts after the page allocated in between
+        assertEquals(pageNum0 + 6, extentAllocator.allocPage(diskSpaceManager));
+        assertTrue(diskSpaceManager.pageAllocated(pageNum0 + 6));
+        assertFalse(diskSpaceManager.pageAllocated(pageNum0 + 7));
+        assertEquals(pageNum0 + 10, diskSpaceManager.allocPage(partNum));
+        diskSpaceManager.close();
+
+        // reservations are not persisted
+        diskSpaceManager = getDiskSpaceManager();
+        assertEquals(pageNum0 + 7, diskSpaceManager.allocPage(partNum));
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
     @Test
     public void testAllocPageZeroed() {
         diskSpaceManager = getDiskSpaceManager();
@@ -298,5 +364,361 @@ public class TestDiskSpaceManager {
         diskSpaceManager.freePart(partNum2);
         diskSpaceManager.close();
     }
-}
 
+    @Test
+    public void testSecondHeaderPage() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        // the last data page of the first header page, and the first of the second
+        long[] pageNums = new long[] {
+            DiskSpaceManager.getVirtualPageNum(partNum, DiskSpaceManagerImpl.dataPagesPerHeader(DiskSpaceManager.PAGE_SIZE) - 1),
+            DiskSpaceManager.getVirtualPageNum(partNum, DiskSpaceManagerImpl.dataPagesPerHeader(DiskSpaceManager.PAGE_SIZE)),
+        };
+        byte[][] bufs = new byte[pageNums.length][DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pageNums.length; ++i) {
+            diskSpaceManager.allocPage(pageNums[i]);
+            Arrays.fill(bufs[i], (byte) (i + 1));
+        }
+        diskSpaceManager.writePage(pageNums[0], bufs[0]);
+        diskSpaceManager.writePage(pageNums[1], bufs[1]);
+
+        // neither page overwrote the second header page, nor the other way around
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pageNums.length; ++i) {
+            diskSpaceManager.readPage(pageNums[i], readbuf);
+            assertArrayEquals(bufs[i], readbuf);
+        }
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        for (int i = 0; i < pageNums.length; ++i) {
+            assertTrue(diskSpaceManager.pageAllocated(pageNums[i]));
+            diskSpaceManager.readPage(pageNums[i], readbuf);
+            assertArrayEquals(bufs[i], readbuf);
+        }
+
+        // a run of adjacent pages across the header page is written around it
+        for (byte[] buf : bufs) {
+            Arrays.fill(buf, (byte) 42);
+        }
+        diskSpaceManager.writePages(pageNums, bufs);
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        for (int i = 0; i < pageNums.length; ++i) {
+            assertTrue(diskSpaceManager.pageAllocated(pageNums[i]));
+            diskSpaceManager.readPage(pageNums[i], readbuf);
+            assertArrayEquals(bufs[i], readbuf);
+        }
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testLargePages() {
+        int pageSize = 16384;
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager(), 0,
+                                                    pageSize);
+        assertEquals(pageSize, diskSpaceManager.getPageSize());
+        int partNum = diskSpaceManager.allocPart();
+        assertEquals(pageSize, managerRoot.resolve(Integer.toString(partNum)).toFile().length());
+
+        // a page past the first header page, which covers more data pages than with 4K pages
+        long[] pageNums = new long[] {
+            DiskSpaceManager.getVirtualPageNum(partNum, 0),
+            DiskSpaceManager.getVirtualPageNum(partNum, DiskSpaceManagerImpl.dataPagesPerHeader(pageSize)),
+        };
+        byte[][] bufs = new byte[pageNums.length][pageSize];
+        for (int i = 0; i < pageNums.length; ++i) {
+            diskSpaceManager.allocPage(pageNums[i]);
+            Arrays.fill(bufs[i], (byte) (i + 1));
+            diskSpaceManager.writePage(pageNums[i], bufs[i]);
+        }
+        diskSpaceManager.close();
+
+        // the page size is read back from the master page
+        diskSpaceManager = getDiskSpaceManager();
+        assertEquals(pageSize, diskSpaceManager.getPageSize());
+        byte[] readbuf = new byte[pageSize];
+        for (int i = 0; i < pageNums.length; ++i) {
+            assertTrue(diskSpaceManager.pageAllocated(pageNums[i]));
+            diskSpaceManager.readPage(pageNums[i], readbuf);
+            assertArrayEquals(bufs[i], readbuf);
+        }
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadPageSize() {
+        new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager(), 0, 5000);
+    }
+
+    @Test
+    public void testGroupFlush() {
+        List<Long> syncedPages = new ArrayList<>();
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager() {
+            @Override
+            public void diskIOHook(long pageNum) {
+                syncedPages.add(pageNum);
+            }
+        }, 2);
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum1 = diskSpaceManager.allocPage(partNum);
+        long pageNum2 = diskSpaceManager.allocPage(partNum);
+
+        // allocation writes are pending until the budget is exceeded
+        assertEquals(Arrays.asList(), syncedPages);
+
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < buf.length; ++i) {
+            buf[i] = (byte) (Integer.valueOf(i).hashCode() & 0xFF);
+        }
+        diskSpaceManager.writePage(pageNum1, buf);
+        assertEquals(Arrays.asList(), syncedPages);
+
+        long pageNum3 = diskSpaceManager.allocPage(partNum);
+        assertEquals(Arrays.asList(pageNum1, pageNum2, pageNum3), syncedPages);
+
+        diskSpaceManager.writePage(pageNum2, buf);
+        diskSpaceManager.sync();
+        assertEquals(Arrays.asList(pageNum1, pageNum2, pageNum3, pageNum2), syncedPages);
+
+        diskSpaceManager.writePage(pageNum3, buf);
+        diskSpaceManager.close();
+        assertEquals(Arrays.asList(pageNum1, pageNum2, pageNum3, pageNum2, pageNum3), syncedPages);
+
+        diskSpaceManager = getDiskSpaceManager();
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum1, readbuf);
+        assertArrayEquals(buf, readbuf);
+        diskSpaceManager.readPage(pageNum2, readbuf);
+        assertArrayEquals(buf, readbuf);
+        diskSpaceManager.readPage(pageNum3, readbuf);
+        assertArrayEquals(buf, readbuf);
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testTempPart() throws IOException {
+        List<Long> syncedPages = new ArrayList<>();
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager() {
+            @Override
+            public void diskIOHook(long pageNum) {
+                syncedPages.add(pageNum);
+            }
+        });
+        int partNum = diskSpaceManager.allocTempPart();
+        assertTrue(DiskSpaceManager.isTempPart(partNum));
+        assertFalse(DiskSpaceManager.isTempPart(diskSpaceManager.allocPart()));
+        assertNotEquals(partNum, diskSpaceManager.allocTempPart());
+
+        // enough pages that some of them are spilled to the scratch file
+        int numPages = DiskSpaceManagerImpl.MAX_TEMP_MEMORY_PAGES + 10;
+        long[] pageNums = new long[numPages];
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < numPages; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            Arrays.fill(buf, (byte) i);
+            diskSpaceManager.writePage(pageNums[i], buf);
+        }
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < numPages; ++i) {
+            Arrays.fill(buf, (byte) i);
+            diskSpaceManager.readPage(pageNums[i], readbuf);
+            assertArrayEquals(buf, readbuf);
+        }
+        byte[][] bufs = new byte[numPages][DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPages(pageNums[0], bufs);
+        for (int i = 0; i < numPages; ++i) {
+            Arrays.fill(buf, (byte) i);
+            assertArrayEquals(buf, bufs[i]);
+        }
+
+        // temporary pages are never synced
+        diskSpaceManager.sync();
+        assertEquals(Arrays.asList(), syncedPages);
+
+        Path tempDir = managerRoot.resolve(DiskSpaceManagerImpl.TEMP_DIR);
+        assertTrue(tempDir.resolve(Integer.toString(partNum)).toFile().exists());
+        diskSpaceManager.freePart(partNum);
+        assertFalse(tempDir.resolve(Integer.toString(partNum)).toFile().exists());
+        assertEquals(1, tempDir.toFile().list().length);
+
+        // and do not survive a restart
+        diskSpaceManager.close();
+        assertEquals(0, tempDir.toFile().list().length);
+        assertTrue(tempDir.resolve(Integer.toString(partNum)).toFile().createNewFile());
+        diskSpaceManager = getDiskSpaceManager();
+        assertEquals(0, tempDir.toFile().list().length);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testReadPages() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long[] pageNums = new long[5];
+        byte[][] bufs = new byte[pageNums.length][DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            for (int j = 0; j < bufs[i].length; ++j) {
+                bufs[i][j] = (byte) ((Integer.valueOf(j).hashCode() >> i) & 0xFF);
+            }
+            diskSpaceManager.writePage(pageNums[i], bufs[i]);
+        }
+
+        byte[][] readbufs = new byte[3][DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPages(pageNums[1], readbufs);
+        for (int i = 0; i < readbufs.length; ++i) {
+            assertArrayEquals(bufs[i + 1], readbufs[i]);
+        }
+
+        try {
+            diskSpaceManager.readPages(pageNums[3], readbufs);
+            fail();
+        } catch (PageException e) { /* do nothing */ }
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testWritePages() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        // runs of adjacent pages
+        int[] dataPageNums = new int[] {0, 1, 2, 4, 5, 7};
+        long[] pageNums = new long[dataPageNums.length];
+        byte[][] bufs = new byte[pageNums.length][DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(DiskSpaceManager.getVirtualPageNum(partNum, dataPageNums[i]));
+            for (int j = 0; j < bufs[i].length; ++j) {
+                bufs[i][j] = (byte) ((Integer.valueOf(j).hashCode() >> i) & 0xFF);
+            }
+        }
+        diskSpaceManager.writePages(pageNums, bufs);
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pageNums.length; ++i) {
+            diskSpaceManager.readPage(pageNums[i], readbuf);
+            assertArrayEquals(bufs[i], readbuf);
+        }
+
+        try {
+            diskSpaceManager.writePages(new long[] {pageNums[1], pageNums[0]}, new byte[][] {bufs[1], bufs[0]});
+            fail();
+        } catch (IllegalArgumentException e) { /* do nothing */ }
+        try {
+            diskSpaceManager.writePages(new long[] {pageNums[0], pageNums[0] + 3}, new byte[][] {bufs[0], bufs[1]});
+            fail();
+        } catch (PageException e) { /* do nothing */ }
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testDirectBuffers() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        int numPages = 4;
+        long[] pageNums = new long[numPages];
+        byte[][] expected = new byte[numPages][DiskSpaceManager.PAGE_SIZE];
+        // page-sized slices of one direct buffer, as used by an off-heap buffer manager
+        ByteBuffer arena = ByteBuffer.allocateDirect(numPages * DiskSpaceManager.PAGE_SIZE);
+        ByteBuffer[] bufs = new ByteBuffer[numPages];
+        for (int i = 0; i < numPages; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            for (int j = 0; j < DiskSpaceManager.PAGE_SIZE; ++j) {
+                expected[i][j] = (byte) ((Integer.valueOf(j).hashCode() >> i) & 0xFF);
+            }
+            arena.limit((i + 1) * DiskSpaceManager.PAGE_SIZE);
+            arena.position(i * DiskSpaceManager.PAGE_SIZE);
+            bufs[i] = arena.slice();
+            bufs[i].duplicate().put(expected[i]);
+        }
+        diskSpaceManager.writePage(pageNums[0], bufs[0]);
+        diskSpaceManager.writePages(Arrays.copyOfRange(pageNums, 1, numPages),
+                                    Arrays.copyOfRange(bufs, 1, numPages));
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        arena.clear();
+        arena.put(new byte[numPages * DiskSpaceManager.PAGE_SIZE]);
+        diskSpaceManager.readPage(pageNums[0], bufs[0]);
+        diskSpaceManager.readPages(pageNums[1], Arrays.copyOfRange(bufs, 1, numPages));
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < numPages; ++i) {
+            assertEquals(0, bufs[i].position());
+            assertEquals(DiskSpaceManager.PAGE_SIZE, bufs[i].limit());
+            bufs[i].duplicate().get(readbuf);
+            assertArrayEquals(expected[i], readbuf);
+        }
+
+        try {
+            diskSpaceManager.readPage(pageNums[0], ByteBuffer.allocateDirect(DiskSpaceManager.PAGE_SIZE - 1));
+            fail();
+        } catch (IllegalArgumentException e) { /* do nothing */ }
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testConcurrentReads() throws InterruptedException {
+        diskSpaceManager = getDiskSpaceManager();
+        int[] partNums = new int[] {diskSpaceManager.allocPart(), diskSpaceManager.allocPart()};
+        int numPages = 16;
+        for (int partNum : partNums) {
+            for (int i = 0; i < numPages; ++i) {
+                long pageNum = diskSpaceManager.allocPage(partNum);
+                byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+                Arrays.fill(buf, (byte) (partNum * numPages + i));
+                diskSpaceManager.writePage(pageNum, buf);
+            }
+        }
+
+        // readers of the same partition and of different partitions run at the same time
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; ++t) {
+            int partNum = partNums[t % partNums.length];
+            int start = t;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int iter = 0; iter < 50; ++iter) {
+                        int first = (start + iter) % (numPages - 4);
+                        byte[][] bufs = new byte[4][DiskSpaceManager.PAGE_SIZE];
+                        diskSpaceManager.readPages(DiskSpaceManager.getVirtualPageNum(partNum, first), bufs);
+                        for (int i = 0; i < bufs.length; ++i) {
+                            byte[] expected = new byte[DiskSpaceManager.PAGE_SIZE];
+                            Arrays.fill(expected, (byte) (partNum * numPages + first + i));
+                            assertArrayEquals(expected, bufs[i]);
+                        }
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(error.get());
+
+        for (int partNum : partNums) {
+            diskSpaceManager.freePart(partNum);
+        }
+        diskSpaceManager.close();
+    }
+}
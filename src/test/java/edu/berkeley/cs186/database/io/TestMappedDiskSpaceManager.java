@@ -0,0 +1,47 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs all of the disk space manager tests against MappedDiskSpaceManager.
+ */
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestMappedDiskSpaceManager extends TestDiskSpaceManager {
+    @Override
+    DiskSpaceManager getDiskSpaceManager() {
+        return new MappedDiskSpaceManager(managerRoot.toString(), new DummyRecoveryManager());
+    }
+
+    @Test
+    public void testReadWriteAcrossSegments() {
+        DiskSpaceManager diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        int numPages = 2 * MappedDiskSpaceManager.SEGMENT_PAGES + 1;
+        long[] pageNums = new long[numPages];
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < numPages; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            buf[i % buf.length] = (byte) (i & 0xFF);
+            diskSpaceManager.writePage(pageNums[i], buf);
+        }
+        diskSpaceManager.close();
+
+        // reopen with the non-mapped implementation, which uses the same file format
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager());
+        byte[] expected = new byte[DiskSpaceManager.PAGE_SIZE];
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < numPages; ++i) {
+            expected[i % expected.length] = (byte) (i & 0xFF);
+            diskSpaceManager.readPage(pageNums[i], readbuf);
+            assertArrayEquals(expected, readbuf);
+        }
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+}
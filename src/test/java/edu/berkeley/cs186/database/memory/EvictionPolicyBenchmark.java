@@ -0,0 +1,134 @@
+package edu.berkeley.cs186.database.memory;
+
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Compares the hit rates of eviction policies on synthetic workloads, run against a
+ * BufferManagerImpl over a MemoryDiskSpaceManager. Each page access fetches a page and reads
+ * from it several times, like reading the fields of a few records, so that policies see the
+ * bursts of correlated hits that real operators cause.
+ *
+ * Run main (e.g. java -cp target/classes:target/test-classes with this class's name, after
+ * mvn test-compile) to print a table of hit rates; TestEvictionPolicy checks the results.
+ */
+public class EvictionPolicyBenchmark {
+    static final int BUFFER_SIZE = 64;
+
+    // Pages of a hot set (e.g. B+ tree inner nodes and page directory headers), and of a
+    // table that is scanned.
+    static final int HOT_PAGES = 32;
+    static final int SCAN_PAGES = 512;
+
+    // Number of reads of a page per access, for point lookups and for scans.
+    static final int LOOKUP_READS = 4;
+    static final int SCAN_READS = 16;
+
+    /**
+     * A workload: a sequence of page accesses, over the hot pages and the scanned table.
+     */
+    enum Workload {
+        // point lookups only, skewed towards the hot pages
+        LOOKUPS,
+        // point lookups on the hot pages, interrupted by a full scan of the table every few rounds
+        LOOKUPS_AND_SCANS,
+        // the inner loop of a nested loop join: the table is scanned repeatedly, with lookups in between
+        REPEATED_SCANS,
+        // like LOOKUPS_AND_SCANS, but halfway through, lookups move to a different hot set
+        SHIFTING_LOOKUPS_AND_SCANS
+    }
+
+    /**
+     * Runs a workload with an eviction policy.
+     *
+     * @param policy eviction policy to use (a new instance)
+     * @param workload workload to run
+     * @return fraction of page accesses that did not need to read the page from disk
+     */
+    static double hitRate(EvictionPolicy policy, Workload workload) {
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
+        BufferManagerImpl bufferManager = new BufferManagerImpl(diskSpaceManager, new DummyRecoveryManager(),
+                BUFFER_SIZE, policy);
+        try {
+            int hotPart = diskSpaceManager.allocPart();
+            int scanPart = diskSpaceManager.allocPart();
+            long[] hotPages = new long[2 * HOT_PAGES];
+            long[] scanPages = new long[SCAN_PAGES];
+            for (int i = 0; i < hotPages.length; ++i) {
+                hotPages[i] = diskSpaceManager.allocPage(hotPart);
+            }
+            for (int i = 0; i < SCAN_PAGES; ++i) {
+                scanPages[i] = diskSpaceManager.allocPage(scanPart);
+            }
+
+            Random random = new Random(186);
+            long[] counts = new long[2];
+            for (int round = 0; round < 200; ++round) {
+                int hotStart = workload == Workload.SHIFTING_LOOKUPS_AND_SCANS && round >= 100 ? HOT_PAGES : 0;
+                for (int i = 0; i < 64; ++i) {
+                    long pageNum;
+                    if (workload == Workload.LOOKUPS && random.nextInt(5) == 0) {
+                        pageNum = scanPages[random.nextInt(SCAN_PAGES)];
+                    } else {
+                        pageNum = hotPages[hotStart + random.nextInt(HOT_PAGES)];
+                    }
+                    access(bufferManager, pageNum, LOOKUP_READS, counts);
+                }
+                if (((workload == Workload.LOOKUPS_AND_SCANS ||
+                        workload == Workload.SHIFTING_LOOKUPS_AND_SCANS) && round % 4 == 3) ||
+                        workload == Workload.REPEATED_SCANS) {
+                    int numPages = workload == Workload.REPEATED_SCANS ? 2 * BUFFER_SIZE : SCAN_PAGES;
+                    for (int i = 0; i < numPages; ++i) {
+                        access(bufferManager, scanPages[i], SCAN_READS, counts);
+                    }
+                }
+            }
+            return 1.0 - (double) counts[1] / counts[0];
+        } finally {
+            bufferManager.close();
+            diskSpaceManager.close();
+        }
+    }
+
+    /**
+     * Fetches a page and reads from it, counting accesses (counts[0]) and misses (counts[1]).
+     */
+    private static void access(BufferManagerImpl bufferManager, long pageNum, int numReads, long[] counts) {
+        long numIOs = bufferManager.getNumIOs();
+        BufferFrame frame = bufferManager.fetchPageFrame(pageNum, false);
+        try {
+            byte[] buf = new byte[8];
+            for (int i = 0; i < numReads; ++i) {
+                frame.readBytes((short) (8 * i), (short) 8, buf);
+            }
+        } finally {
+            frame.unpin();
+        }
+        ++counts[0];
+        counts[1] += bufferManager.getNumIOs() - numIOs;
+    }
+
+    public static void main(String[] args) {
+        List<String> names = Arrays.asList("LRU", "Clock", "LRU-2", "ARC");
+        List<Supplier<EvictionPolicy>> policies = Arrays.asList(
+            LRUEvictionPolicy::new, ClockEvictionPolicy::new, LRUKEvictionPolicy::new, ARCEvictionPolicy::new);
+        System.out.printf("%-28s", "hit rate");
+        for (String name : names) {
+            System.out.printf("%10s", name);
+        }
+        System.out.println();
+        for (Workload workload : Workload.values()) {
+            System.out.printf("%-28s", workload);
+            for (Supplier<EvictionPolicy> policy : policies) {
+                System.out.printf("%10.3f", hitRate(policy.get(), workload));
+            }
+            System.out.println();
+        }
+    }
+}
@@ -12,7 +12,18 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.*;
 
@@ -41,13 +52,16 @@ public class TestBufferManager {
         BufferFrame frame1 = bufferManager.fetchNewPageFrame(partNum, false);
         BufferFrame frame2 = bufferManager.fetchNewPageFrame(partNum, false);
         BufferFrame frame3 = bufferManager.fetchNewPageFrame(partNum, false);
+        long generation1 = frame1.getGeneration();
+        long generation2 = frame2.getGeneration();
+        long generation3 = frame3.getGeneration();
         frame1.unpin();
         frame2.unpin();
         frame3.unpin();
 
-        assertTrue(frame1.isValid());
-        assertTrue(frame2.isValid());
-        assertTrue(frame3.isValid());
+        assertTrue(frame1.isValid(generation1));
+        assertTrue(frame2.isValid(generation2));
+        assertTrue(frame3.isValid(generation3));
 
         BufferFrame frame4 = bufferManager.fetchNewPageFrame(partNum, false);
         BufferFrame frame5 = bufferManager.fetchNewPageFrame(partNum, false);
@@ -56,12 +70,14 @@ public class TestBufferManager {
         frame5.unpin();
         frame6.unpin();
 
-        assertFalse(frame1.isValid());
-        assertTrue(frame2.isValid());
-        assertTrue(frame3.isValid());
+        assertFalse(frame1.isValid(generation1));
+        assertTrue(frame2.isValid(generation2));
+        assertTrue(frame3.isValid(generation3));
         assertTrue(frame4.isValid());
         assertTrue(frame5.isValid());
         assertTrue(frame6.isValid());
+        // the evicted page's frame is reused
+        assertSame(frame1, frame6);
     }
 
     @Test
@@ -100,6 +116,8 @@ public class TestBufferManager {
         byte[] actual = new byte[DiskSpaceManager.PAGE_SIZE];
 
         BufferFrame frame1 = bufferManager.fetchNewPageFrame(partNum, false);
+        long pageNum1 = frame1.getPageNum();
+        long generation1 = frame1.getGeneration();
         frame1.writeBytes((short) 67, (short) 4, expected);
         frame1.unpin();
 
@@ -131,8 +149,8 @@ public class TestBufferManager {
         bufferManager.fetchNewPageFrame(partNum, false).unpin();
         bufferManager.fetchNewPageFrame(partNum, false).unpin();
 
-        diskSpaceManager.readPage(frame1.getPageNum(), actual);
-        assertFalse(frame1.isValid());
+        diskSpaceManager.readPage(pageNum1, actual);
+        assertFalse(frame1.isValid(generation1));
         assertArrayEquals(expected, Arrays.copyOfRange(actual, 33 + BufferManager.RESERVED_SPACE,
                           37 + BufferManager.RESERVED_SPACE));
     }
@@ -145,6 +163,8 @@ public class TestBufferManager {
         byte[] actual = new byte[DiskSpaceManager.PAGE_SIZE];
 
         BufferFrame frame1 = bufferManager.fetchNewPageFrame(partNum, true);
+        long pageNum1 = frame1.getPageNum();
+        long generation1 = frame1.getGeneration();
         frame1.writeBytes((short) 67, (short) 4, expected);
         frame1.unpin();
 
@@ -173,11 +193,246 @@ public class TestBufferManager {
         bufferManager.fetchNewPageFrame(partNum, false).unpin();
         bufferManager.fetchNewPageFrame(partNum, false).unpin();
 
-        diskSpaceManager.readPage(frame1.getPageNum(), actual);
-        assertFalse(frame1.isValid());
+        diskSpaceManager.readPage(pageNum1, actual);
+        assertFalse(frame1.isValid(generation1));
         assertArrayEquals(expected, Arrays.copyOfRange(actual, 33, 37));
     }
 
+    @Test
+    public void testWriteBack() {
+        List<Long> singleWrites = new ArrayList<>();
+        List<List<Long>> batchWrites = new ArrayList<>();
+        diskSpaceManager = new MemoryDiskSpaceManager() {
+            @Override
+            public void writePage(long page, byte[] buf) {
+                singleWrites.add(page);
+                super.writePage(page, buf);
+            }
+
+            @Override
+            public void writePages(long[] pages, byte[][] bufs) {
+                List<Long> batch = new ArrayList<>();
+                for (int i = 0; i < pages.length; ++i) {
+                    batch.add(pages[i]);
+                    super.writePage(pages[i], bufs[i]);
+                }
+                batchWrites.add(batch);
+            }
+        };
+        bufferManager.close();
+        bufferManager = new BufferManagerImpl(diskSpaceManager, new DummyRecoveryManager(), 5,
+                                              new ClockEvictionPolicy());
+        int partNum1 = diskSpaceManager.allocPart();
+        int partNum2 = diskSpaceManager.allocPart();
+        long[] pageNums = new long[4];
+        for (int i = 0; i < 4; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(i % 2 == 0 ? partNum1 : partNum2);
+        }
+
+        byte[] expected = new byte[] { (byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF };
+        // dirty the pages in reverse order
+        for (int i = 3; i >= 0; --i) {
+            BufferFrame frame = bufferManager.fetchPageFrame(pageNums[i], false);
+            frame.writeBytes((short) 67, (short) 4, expected);
+            frame.unpin();
+        }
+        long numIOs = bufferManager.getNumIOs();
+
+        bufferManager.flushAll();
+        assertEquals(Arrays.asList(), singleWrites);
+        assertEquals(Arrays.asList(Arrays.asList(pageNums[0], pageNums[2]),
+                                   Arrays.asList(pageNums[1], pageNums[3])), batchWrites);
+        assertEquals(numIOs + 4, bufferManager.getNumIOs());
+
+        byte[] actual = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (long pageNum : pageNums) {
+            diskSpaceManager.readPage(pageNum, actual);
+            assertArrayEquals(expected, Arrays.copyOfRange(actual, 67 + BufferManager.RESERVED_SPACE,
+                              71 + BufferManager.RESERVED_SPACE));
+        }
+
+        // only pages dirtied since are written back
+        BufferFrame frame = bufferManager.fetchPageFrame(pageNums[1], false);
+        frame.writeBytes((short) 33, (short) 4, expected);
+        frame.unpin();
+        bufferManager.evictAll();
+        assertEquals(Arrays.asList(), singleWrites);
+        assertEquals(3, batchWrites.size());
+        assertEquals(Arrays.asList(pageNums[1]), batchWrites.get(2));
+        assertEquals(numIOs + 5, bufferManager.getNumIOs());
+    }
+
+    @Test
+    public void testCleaner() throws InterruptedException {
+        List<Long> singleWrites = new ArrayList<>();
+        diskSpaceManager = new MemoryDiskSpaceManager() {
+            @Override
+            public void writePage(long page, byte[] buf) {
+                singleWrites.add(page);
+                super.writePage(page, buf);
+            }
+
+            @Override
+            public void writePages(long[] pages, byte[][] bufs) {
+                for (int i = 0; i < pages.length; ++i) {
+                    super.writePage(pages[i], bufs[i]);
+                }
+            }
+        };
+        bufferManager.close();
+        BufferManagerImpl bufferManager = new BufferManagerImpl(diskSpaceManager, new DummyRecoveryManager(), 5,
+                new ClockEvictionPolicy());
+        this.bufferManager = bufferManager;
+        int partNum = diskSpaceManager.allocPart();
+        long[] pageNums = new long[5];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+        }
+
+        byte[] expected = new byte[] { (byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF };
+        for (long pageNum : pageNums) {
+            BufferFrame frame = bufferManager.fetchPageFrame(pageNum, false);
+            frame.writeBytes((short) 67, (short) 4, expected);
+            frame.unpin();
+        }
+
+        // wait for the cleaner to write back every page, then stop it (MemoryDiskSpaceManager
+        // is not thread safe)
+        bufferManager.setCleanFraction(1.0);
+        AtomicInteger numDirty = new AtomicInteger();
+        for (int i = 0; i < 500; ++i) {
+            numDirty.set(0);
+            bufferManager.iterPageNums((pageNum, dirty) -> numDirty.addAndGet(dirty ? 1 : 0));
+            if (numDirty.get() == 0) {
+                break;
+            }
+            Thread.sleep(10);
+        }
+        bufferManager.setCleanFraction(0);
+        assertEquals(0, numDirty.get());
+
+        // misses find clean victims
+        for (int i = 0; i < 5; ++i) {
+            bufferManager.fetchNewPageFrame(partNum, false).unpin();
+        }
+        assertEquals(Arrays.asList(), singleWrites);
+        byte[] actual = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (long pageNum : pageNums) {
+            diskSpaceManager.readPage(pageNum, actual);
+            assertArrayEquals(expected, Arrays.copyOfRange(actual, 67 + BufferManager.RESERVED_SPACE,
+                              71 + BufferManager.RESERVED_SPACE));
+        }
+    }
+
+    @Test
+    public void testMissWhileCleaning() throws InterruptedException {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch finishWriting = new CountDownLatch(1);
+        Set<Long> cleanedPages = Collections.synchronizedSet(new HashSet<>());
+        diskSpaceManager = new MemoryDiskSpaceManager() {
+            @Override
+            public synchronized void readPage(long page, byte[] buf) {
+                super.readPage(page, buf);
+            }
+
+            @Override
+            public synchronized void writePage(long page, byte[] buf) {
+                super.writePage(page, buf);
+            }
+
+            @Override
+            public void writePages(long[] pages, byte[][] bufs) {
+                for (long page : pages) {
+                    cleanedPages.add(page);
+                }
+                // hold the cleaner's batch write until the test is done with it
+                writing.countDown();
+                try {
+                    finishWriting.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                synchronized (this) {
+                    for (int i = 0; i < pages.length; ++i) {
+                        super.writePage(pages[i], bufs[i]);
+                    }
+                }
+            }
+        };
+        bufferManager.close();
+        BufferManagerImpl bufferManager = new BufferManagerImpl(diskSpaceManager, new DummyRecoveryManager(), 5,
+                new ClockEvictionPolicy());
+        this.bufferManager = bufferManager;
+        int partNum = diskSpaceManager.allocPart();
+        long[] pageNums = new long[8];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+        }
+        for (int i = 0; i < 5; ++i) {
+            BufferFrame frame = bufferManager.fetchPageFrame(pageNums[i], false);
+            frame.writeBytes((short) 67, (short) 1, new byte[] {(byte) i});
+            frame.unpin();
+        }
+
+        bufferManager.setCleanFraction(0.4);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        List<BufferFrame> pinned = new ArrayList<>();
+        try {
+            assertTrue(writing.await(5, TimeUnit.SECONDS));
+            assertEquals(2, cleanedPages.size());
+
+            // a miss evicts one of the frames not being written back, without waiting for the write
+            Thread miss = new Thread(() -> {
+                try {
+                    bufferManager.fetchPageFrame(pageNums[5], false).unpin();
+                } catch (Throwable t) {
+                    error.set(t);
+                }
+            });
+            miss.start();
+            miss.join(5000);
+            assertFalse(miss.isAlive());
+            assertNull(error.get());
+
+            // with every other frame pinned, a miss blocks until the write is done (instead of spinning
+            // or failing)
+            // (the frames being written back are locked, so find the other loaded pages without locking
+            // frames: the page just loaded, and the dirty pages that were not evicted for it)
+            pinned.add(bufferManager.fetchPageFrame(pageNums[5], false));
+            List<Long> dirtyPages = new ArrayList<>();
+            bufferManager.iterDirtyPages((pageNum, recLSN) -> dirtyPages.add(pageNum));
+            for (long pageNum : dirtyPages) {
+                if (!cleanedPages.contains(pageNum)) {
+                    pinned.add(bufferManager.fetchPageFrame(pageNum, false));
+                }
+            }
+            assertEquals(3, pinned.size());
+            miss = new Thread(() -> {
+                try {
+                    bufferManager.fetchPageFrame(pageNums[6], false).unpin();
+                } catch (Throwable t) {
+                    error.set(t);
+                }
+            });
+            miss.start();
+            for (int i = 0; i < 500 && miss.getState() != Thread.State.WAITING; ++i) {
+                Thread.sleep(10);
+            }
+            assertEquals(Thread.State.WAITING, miss.getState());
+
+            finishWriting.countDown();
+            miss.join(5000);
+            assertFalse(miss.isAlive());
+            assertNull(error.get());
+        } finally {
+            finishWriting.countDown();
+            for (BufferFrame frame : pinned) {
+                frame.unpin();
+            }
+            bufferManager.setCleanFraction(0);
+        }
+    }
+
     @Test
     public void testReload() {
         int partNum = diskSpaceManager.allocPart();
@@ -186,6 +441,8 @@ public class TestBufferManager {
         byte[] actual = new byte[4];
 
         BufferFrame frame1 = bufferManager.fetchNewPageFrame(partNum, false);
+        long pageNum1 = frame1.getPageNum();
+        long generation1 = frame1.getGeneration();
         frame1.writeBytes((short) 67, (short) 4, expected);
         frame1.unpin();
 
@@ -200,16 +457,49 @@ public class TestBufferManager {
         bufferManager.fetchNewPageFrame(partNum, false).unpin();
         bufferManager.fetchNewPageFrame(partNum, false).unpin();
 
-        assertFalse(frame1.isValid());
+        assertFalse(frame1.isValid(generation1));
 
         // reload page
-        frame1 = bufferManager.fetchPageFrame(frame1.getPageNum(), false);
+        frame1 = bufferManager.fetchPageFrame(pageNum1, false);
         frame1.readBytes((short) 67, (short) 4, actual);
         frame1.unpin();
 
         assertArrayEquals(expected, actual);
     }
 
+    @Test
+    public void testOffHeap() {
+        bufferManager.close();
+        bufferManager = new BufferManagerImpl(diskSpaceManager, new DummyRecoveryManager(), 5,
+                                              new ClockEvictionPolicy(), true);
+        int partNum = diskSpaceManager.allocPart();
+
+        byte[] expected = new byte[] { (byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF };
+        byte[] actual = new byte[4];
+
+        BufferFrame frame1 = bufferManager.fetchNewPageFrame(partNum, false);
+        long pageNum1 = frame1.getPageNum();
+        long generation1 = frame1.getGeneration();
+        frame1.writeBytes((short) 67, (short) 4, expected);
+        frame1.setPageLSN(1234L);
+        frame1.readBytes((short) 67, (short) 4, actual);
+        frame1.unpin();
+        assertArrayEquals(expected, actual);
+        assertEquals(1234L, frame1.getPageLSN());
+
+        // force the page out of (and back into) the arena
+        for (int i = 0; i < 9; ++i) {
+            bufferManager.fetchNewPageFrame(partNum, false).unpin();
+        }
+        assertFalse(frame1.isValid(generation1));
+        frame1 = bufferManager.fetchPageFrame(pageNum1, false);
+        Arrays.fill(actual, (byte) 0);
+        frame1.readBytes((short) 67, (short) 4, actual);
+        frame1.unpin();
+        assertArrayEquals(expected, actual);
+        assertEquals(1234L, frame1.getPageLSN());
+    }
+
     @Test
     public void testRequestValidFrame() {
         int partNum = diskSpaceManager.allocPart();
@@ -218,10 +508,12 @@ public class TestBufferManager {
         byte[] actual = new byte[4];
 
         BufferFrame frame1 = bufferManager.fetchNewPageFrame(partNum, false);
+        long pageNum1 = frame1.getPageNum();
+        long generation1 = frame1.getGeneration();
         frame1.writeBytes((short) 67, (short) 4, expected);
         frame1.unpin();
 
-        assertSame(frame1, frame1.requestValidFrame());
+        assertSame(frame1, frame1.requestValidFrame(generation1, pageNum1, false));
         frame1.unpin();
 
         // force a eviction
@@ -235,16 +527,51 @@ public class TestBufferManager {
         bufferManager.fetchNewPageFrame(partNum, false).unpin();
         bufferManager.fetchNewPageFrame(partNum, false).unpin();
 
-        assertFalse(frame1.isValid());
+        assertFalse(frame1.isValid(generation1));
 
-        BufferFrame frame2 = frame1.requestValidFrame();
-        assertNotSame(frame1, frame2);
+        BufferFrame frame2 = frame1.requestValidFrame(generation1, pageNum1, false);
+        assertEquals(pageNum1, frame2.getPageNum());
         frame2.readBytes((short) 67, (short) 4, actual);
         frame2.unpin();
 
         assertArrayEquals(expected, actual);
     }
 
+    @Test
+    public void testReusedFrame() {
+        int partNum = diskSpaceManager.allocPart();
+
+        Page page1 = bufferManager.fetchNewPage(new DummyLockContext(), partNum, false);
+        page1.getBuffer().put((byte) 42);
+        page1.unpin();
+
+        // evict the page, so that its frame holds another page
+        for (int i = 0; i < 9; ++i) {
+            bufferManager.fetchNewPageFrame(partNum, false).unpin();
+        }
+
+        // the handle does not read the page now in its frame
+        try {
+            page1.getBuffer().get();
+            fail();
+        } catch (IllegalStateException e) { /* do nothing */ }
+        // nor the pageLSN of that page
+        try {
+            page1.getPageLSN();
+            fail();
+        } catch (IllegalStateException e) { /* do nothing */ }
+        try {
+            page1.setPageLSN(1234L);
+            fail();
+        } catch (IllegalStateException e) { /* do nothing */ }
+        // unpinning it again does not unpin the other page
+        page1.unpin();
+
+        page1.pin();
+        assertEquals((byte) 42, page1.getBuffer().get());
+        page1.unpin();
+    }
+
     @Test
     public void testFreePage() {
         int partNum = diskSpaceManager.allocPart();
@@ -285,6 +612,10 @@ public class TestBufferManager {
         BufferFrame frame3 = bufferManager.fetchNewPageFrame(partNum1, false);
         BufferFrame frame4 = bufferManager.fetchNewPageFrame(partNum2, false);
         BufferFrame frame5 = bufferManager.fetchNewPageFrame(partNum2, false);
+        long pageNum1 = frame1.getPageNum();
+        long pageNum3 = frame3.getPageNum();
+        long generation1 = frame1.getGeneration();
+        long generation3 = frame3.getGeneration();
 
         frame1.unpin();
         frame2.unpin();
@@ -295,11 +626,11 @@ public class TestBufferManager {
         bufferManager.freePart(partNum1);
 
         try {
-            diskSpaceManager.readPage(frame1.getPageNum(), new byte[DiskSpaceManager.PAGE_SIZE]);
+            diskSpaceManager.readPage(pageNum1, new byte[DiskSpaceManager.PAGE_SIZE]);
             fail();
         } catch (Exception e) { /* do nothing */ }
         try {
-            diskSpaceManager.readPage(frame3.getPageNum(), new byte[DiskSpaceManager.PAGE_SIZE]);
+            diskSpaceManager.readPage(pageNum3, new byte[DiskSpaceManager.PAGE_SIZE]);
             fail();
         } catch (Exception e) { /* do nothing */ }
         try {
@@ -311,15 +642,435 @@ public class TestBufferManager {
         BufferFrame frame7  = bufferManager.fetchNewPageFrame(partNum2, false);
         frame6.unpin();
         frame7.unpin();
-        assertFalse(frame1.isValid());
+        assertFalse(frame1.isValid(generation1));
         assertTrue(frame2.isValid());
-        assertFalse(frame3.isValid());
+        assertFalse(frame3.isValid(generation3));
         assertTrue(frame4.isValid());
         assertTrue(frame5.isValid());
         assertTrue(frame6.isValid());
         assertTrue(frame7.isValid());
     }
 
+    @Test
+    public void testFreePartAfterResize() {
+        bufferManager.resize(10);
+        int partNum1 = diskSpaceManager.allocPart();
+        int partNum2 = diskSpaceManager.allocPart();
+        for (int i = 0; i < 10; ++i) {
+            bufferManager.fetchNewPageFrame(i % 2 == 0 ? partNum1 : partNum2, false).unpin();
+        }
+
+        // pages moved to other frames by the resize are still found by freePart
+        bufferManager.resize(6);
+        bufferManager.freePart(partNum1);
+        Set<Long> loaded = new HashSet<>();
+        bufferManager.iterPageNums((pageNum, dirty) -> loaded.add(pageNum));
+        assertFalse(loaded.isEmpty());
+        for (long pageNum : loaded) {
+            assertEquals(partNum2, DiskSpaceManager.getPartNum(pageNum));
+        }
+
+        // the freed frames are reused
+        for (int i = 0; i < 6; ++i) {
+            bufferManager.fetchNewPageFrame(partNum2, false).unpin();
+        }
+        bufferManager.freePart(partNum2);
+        bufferManager.iterPageNums((pageNum, dirty) -> fail());
+    }
+
+    @Test
+    public void testIterDirtyPages() {
+        int partNum = diskSpaceManager.allocPart();
+        BufferFrame frame1 = bufferManager.fetchNewPageFrame(partNum, false);
+        Page page2 = bufferManager.fetchNewPage(new DummyLockContext(), partNum, false);
+        BufferFrame frame3 = bufferManager.fetchNewPageFrame(partNum, false);
+        frame1.setPageLSN(10L);
+        frame1.writeBytes((short) 0, (short) 1, new byte[] {1});
+        page2.setPageLSN(20L);
+        page2.getBuffer().put((byte) 2);
+        // the recLSN is kept from the change that made the page dirty
+        frame1.setPageLSN(30L);
+        frame1.writeBytes((short) 1, (short) 1, new byte[] {3});
+
+        Map<Long, Long> dirtyPages = new HashMap<>();
+        bufferManager.iterDirtyPages(dirtyPages::put);
+        Map<Long, Long> expected = new HashMap<>();
+        expected.put(frame1.getPageNum(), 10L);
+        expected.put(page2.getPageNum(), 20L);
+        assertEquals(expected, dirtyPages);
+
+        frame1.flush();
+        bufferManager.freePage(page2);
+        frame3.writeBytes((short) 0, (short) 1, new byte[] {4});
+        dirtyPages.clear();
+        bufferManager.iterDirtyPages(dirtyPages::put);
+        assertEquals(Collections.singleton(frame3.getPageNum()), dirtyPages.keySet());
+
+        frame1.unpin();
+        frame3.unpin();
+        bufferManager.flushAll();
+        bufferManager.iterDirtyPages((pageNum, recLSN) -> fail());
+    }
+
+    @Test
+    public void testFetchPageRange() {
+        BufferManager bufferManager = new BufferManagerImpl(diskSpaceManager, new DummyRecoveryManager(), 64,
+                new ClockEvictionPolicy());
+        int partNum = diskSpaceManager.allocPart();
+        long[] pageNums = new long[10];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+        }
+
+        BufferFrame frame0 = bufferManager.fetchPageRangeFrame(pageNums[0], 8, false);
+        assertEquals(pageNums[0], frame0.getPageNum());
+        assertTrue(frame0.isPinned());
+        frame0.unpin();
+        assertEquals(8, bufferManager.getNumIOs());
+
+        // rest of the range was loaded, but not pinned
+        for (int i = 1; i < 8; ++i) {
+            BufferFrame frame = bufferManager.fetchPageFrame(pageNums[i], false);
+            frame.unpin();
+            assertFalse(frame.isPinned());
+        }
+        assertEquals(8, bufferManager.getNumIOs());
+
+        // only the pages not already loaded are read, and unallocated pages are skipped
+        bufferManager.fetchPageRangeFrame(pageNums[6], 8, false).unpin();
+        assertEquals(10, bufferManager.getNumIOs());
+        bufferManager.fetchPageFrame(pageNums[9], false).unpin();
+        assertEquals(10, bufferManager.getNumIOs());
+
+        bufferManager.close();
+    }
+
+    @Test
+    public void testPrefetch() {
+        BufferManagerImpl bufferManager = new BufferManagerImpl(diskSpaceManager, new DummyRecoveryManager(), 64,
+                new ClockEvictionPolicy());
+        int partNum = diskSpaceManager.allocPart();
+        long[] pageNums = new long[20];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+        }
+
+        bufferManager.setPrefetchPages(8);
+        for (int i = 0; i < 3; ++i) {
+            bufferManager.fetchPageFrame(pageNums[i], false).unpin();
+        }
+        // disabling prefetching waits for the prefetch of pages 3-10 to finish
+        bufferManager.setPrefetchPages(0);
+        assertEquals(11, bufferManager.getNumIOs());
+
+        for (int i = 3; i < 11; ++i) {
+            bufferManager.fetchPageFrame(pageNums[i], false).unpin();
+        }
+        assertEquals(11, bufferManager.getNumIOs());
+        assertEquals(8, bufferManager.getNumPrefetchHits());
+        assertEquals(0, bufferManager.getNumPrefetchWasted());
+
+        // prefetching stops at the last allocated page, and unused pages are counted when evicted
+        bufferManager.setPrefetchPages(8);
+        for (int i = 12; i < 15; ++i) {
+            bufferManager.fetchPageFrame(pageNums[i], false).unpin();
+        }
+        bufferManager.setPrefetchPages(0);
+        assertEquals(19, bufferManager.getNumIOs());
+        bufferManager.evictAll();
+        assertEquals(8, bufferManager.getNumPrefetchHits());
+        assertEquals(5, bufferManager.getNumPrefetchWasted());
+
+        bufferManager.close();
+    }
+
+    @Test
+    public void testScanRing() {
+        BufferManagerImpl bufferManager = new BufferManagerImpl(diskSpaceManager, new DummyRecoveryManager(), 64,
+                new LRUEvictionPolicy());
+        assertNull(bufferManager.newScanRing(16));
+        ScanRing ring = bufferManager.newScanRing(200);
+        assertEquals(8, ring.size());
+
+        int hotPart = diskSpaceManager.allocPart();
+        int scanPart = diskSpaceManager.allocPart();
+        Set<Long> hotPages = new HashSet<>();
+        for (int i = 0; i < 48; ++i) {
+            long pageNum = diskSpaceManager.allocPage(hotPart);
+            bufferManager.fetchPageFrame(pageNum, false).unpin();
+            hotPages.add(pageNum);
+        }
+        long[] scanPages = new long[200];
+        for (int i = 0; i < scanPages.length; ++i) {
+            scanPages[i] = diskSpaceManager.allocPage(scanPart);
+        }
+
+        // scan one page at a time, then in ranges; the scan only ever uses the 16 free frames
+        for (int i = 0; i < 100; ++i) {
+            bufferManager.fetchPage(new DummyLockContext(), scanPages[i], ring).unpin();
+        }
+        for (int i = 100; i < 200; i += 16) {
+            bufferManager.fetchPageRange(new DummyLockContext(), scanPages[i], 16, ring).unpin();
+        }
+        Set<Long> loaded = new HashSet<>();
+        bufferManager.iterPageNums((pageNum, dirty) -> loaded.add(pageNum));
+        assertTrue(loaded.containsAll(hotPages));
+        assertEquals(64, loaded.size());
+
+        // a range is limited to the size of the ring
+        long numIOs = bufferManager.getNumIOs();
+        bufferManager.fetchPageRange(new DummyLockContext(), scanPages[50], 16, ring).unpin();
+        assertEquals(8, bufferManager.getNumIOs() - numIOs);
+
+        // pages that are already loaded are used in place
+        numIOs = bufferManager.getNumIOs();
+        for (long pageNum : hotPages) {
+            bufferManager.fetchPage(new DummyLockContext(), pageNum, ring).unpin();
+        }
+        assertEquals(numIOs, bufferManager.getNumIOs());
+
+        // frames of the ring that are pinned are not reused
+        Page pinned = bufferManager.fetchPage(new DummyLockContext(), scanPages[100], ring);
+        for (int i = 101; i < 120; ++i) {
+            bufferManager.fetchPage(new DummyLockContext(), scanPages[i], ring).unpin();
+        }
+        Set<Long> loadedAfter = new HashSet<>();
+        bufferManager.iterPageNums((pageNum, dirty) -> loadedAfter.add(pageNum));
+        assertTrue(loadedAfter.contains(scanPages[100]));
+        pinned.unpin();
+
+        bufferManager.close();
+    }
+
+    @Test
+    public void testConcurrentHits() throws InterruptedException {
+        AtomicInteger numAllocationChecks = new AtomicInteger();
+        diskSpaceManager = new MemoryDiskSpaceManager() {
+            @Override
+            public boolean pageAllocated(long page) {
+                numAllocationChecks.incrementAndGet();
+                return super.pageAllocated(page);
+            }
+        };
+        bufferManager.close();
+        bufferManager = new BufferManagerImpl(diskSpaceManager, new DummyRecoveryManager(), 5,
+                                              new LRUEvictionPolicy());
+        int partNum = diskSpaceManager.allocPart();
+        long[] pageNums = new long[4];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            BufferFrame frame = bufferManager.fetchPageFrame(pageNums[i], false);
+            frame.writeBytes((short) 0, (short) 1, new byte[] {(byte) i});
+            frame.unpin();
+        }
+        long numIOs = bufferManager.getNumIOs();
+        int numChecks = numAllocationChecks.get();
+
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            int offset = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    byte[] buf = new byte[1];
+                    for (int i = 0; i < 1000; ++i) {
+                        int index = (i + offset) % pageNums.length;
+                        BufferFrame frame = bufferManager.fetchPageFrame(pageNums[index], false);
+                        frame.readBytes((short) 0, (short) 1, buf);
+                        frame.unpin();
+                        assertEquals(index, buf[0]);
+                    }
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(error.get());
+
+        // hits neither reload pages nor check that they are allocated
+        assertEquals(numIOs, bufferManager.getNumIOs());
+        assertEquals(numChecks, numAllocationChecks.get());
+    }
+
+    @Test
+    public void testSharedPins() throws InterruptedException {
+        int partNum = diskSpaceManager.allocPart();
+        BufferFrame frame = bufferManager.fetchNewPageFrame(partNum, false);
+        long pageNum = frame.getPageNum();
+
+        // another thread can pin, read and write the page while this thread has it pinned
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                BufferFrame other = bufferManager.fetchPageFrame(pageNum, false);
+                other.writeBytes((short) 0, (short) 1, new byte[] {42});
+                other.unpin();
+            } catch (Throwable e) {
+                error.set(e);
+            }
+        });
+        thread.start();
+        thread.join(10000);
+        assertFalse(thread.isAlive());
+        assertNull(error.get());
+
+        byte[] buf = new byte[1];
+        frame.readBytes((short) 0, (short) 1, buf);
+        assertEquals(42, buf[0]);
+        frame.unpin();
+    }
+
+    @Test
+    public void testLatchedWrites() throws InterruptedException {
+        int partNum = diskSpaceManager.allocPart();
+        BufferFrame frame = bufferManager.fetchNewPageFrame(partNum, false);
+        long pageNum = frame.getPageNum();
+        frame.unpin();
+
+        // readers never see a write half done
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            boolean writer = t % 2 == 0;
+            threads[t] = new Thread(() -> {
+                try {
+                    byte[] buf = new byte[1024];
+                    for (int i = 0; i < 1000; ++i) {
+                        BufferFrame f = bufferManager.fetchPageFrame(pageNum, false);
+                        try {
+                            if (writer) {
+                                Arrays.fill(buf, (byte) i);
+                                f.writeBytes((short) 0, (short) buf.length, buf);
+                            } else {
+                                f.readBytes((short) 0, (short) buf.length, buf);
+                                for (byte b : buf) {
+                                    assertEquals(buf[0], b);
+                                }
+                            }
+                        } finally {
+                            f.unpin();
+                        }
+                    }
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(error.get());
+    }
+
+    @Test
+    public void testResize() {
+        int partNum = diskSpaceManager.allocPart();
+        long[] pageNums = new long[10];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+        }
+        for (int i = 0; i < 5; ++i) {
+            BufferFrame frame = bufferManager.fetchPageFrame(pageNums[i], false);
+            frame.writeBytes((short) 0, (short) 1, new byte[] {(byte) i});
+            frame.unpin();
+        }
+
+        // growing the buffer makes room for more pages without evicting any
+        bufferManager.resize(10);
+        assertEquals(10, bufferManager.getBufferSize());
+        for (int i = 5; i < 10; ++i) {
+            BufferFrame frame = bufferManager.fetchPageFrame(pageNums[i], false);
+            frame.writeBytes((short) 0, (short) 1, new byte[] {(byte) i});
+            frame.unpin();
+        }
+        Set<Long> loaded = new HashSet<>();
+        bufferManager.iterPageNums((pageNum, dirty) -> loaded.add(pageNum));
+        assertEquals(10, loaded.size());
+
+        // shrinking it evicts pages (writing them back), and keeps the rest loaded
+        BufferFrame pinned = bufferManager.fetchPageFrame(pageNums[1], false);
+        bufferManager.resize(3);
+        assertEquals(3, bufferManager.getBufferSize());
+        Set<Long> loadedAfter = new HashSet<>();
+        bufferManager.iterPageNums((pageNum, dirty) -> loadedAfter.add(pageNum));
+        assertEquals(3, loadedAfter.size());
+        assertTrue(loadedAfter.contains(pageNums[1]));
+        assertTrue(pinned.isValid());
+        pinned.unpin();
+
+        long numIOs = bufferManager.getNumIOs();
+        byte[] buf = new byte[1];
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = bufferManager.fetchPageFrame(pageNums[i], false);
+            frame.readBytes((short) 0, (short) 1, buf);
+            frame.unpin();
+            assertEquals((byte) i, buf[0]);
+        }
+        // pages that were kept (possibly in another frame) are not read again
+        assertTrue(bufferManager.getNumIOs() - numIOs < pageNums.length);
+    }
+
+    @Test
+    public void testResizePinned() {
+        int partNum = diskSpaceManager.allocPart();
+        BufferFrame[] frames = new BufferFrame[5];
+        for (int i = 0; i < frames.length; ++i) {
+            frames[i] = bufferManager.fetchNewPageFrame(partNum, false);
+        }
+        try {
+            bufferManager.resize(2);
+            fail();
+        } catch (IllegalStateException e) { /* do nothing */ }
+        assertEquals(5, bufferManager.getBufferSize());
+        for (BufferFrame frame : frames) {
+            assertTrue(frame.isValid());
+            frame.unpin();
+        }
+
+        // the frames beyond the new size are no longer pinned
+        bufferManager.resize(2);
+        assertEquals(2, bufferManager.getBufferSize());
+    }
+
+    @Test
+    public void testPreloadPages() {
+        bufferManager.close();
+        bufferManager = new BufferManagerImpl(diskSpaceManager, new DummyRecoveryManager(), 5,
+                                              new LRUEvictionPolicy());
+        int partNum = diskSpaceManager.allocPart();
+        long[] pageNums = new long[8];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+        }
+        for (int i = 0; i < 4; ++i) {
+            bufferManager.fetchPageFrame(pageNums[i], false).unpin();
+        }
+        // pages that the policy would keep the longest come first
+        BufferFrame hot = bufferManager.fetchPageFrame(pageNums[1], false);
+        hot.readBytes((short) 0, (short) 1, new byte[1]);
+        hot.unpin();
+        assertArrayEquals(new long[] {pageNums[1], pageNums[3], pageNums[2], pageNums[0]},
+                          bufferManager.getResidentPages());
+
+        bufferManager.evictAll();
+        long numIOs = bufferManager.getNumIOs();
+        // only the free frames are filled, in order of page number
+        BufferFrame pinned = bufferManager.fetchPageFrame(pageNums[7], false);
+        assertFalse(bufferManager.preloadPages(new long[] {pageNums[6], pageNums[2], pageNums[0], pageNums[1],
+                                                           pageNums[4], pageNums[5]}));
+        Set<Long> loaded = new HashSet<>();
+        bufferManager.iterPageNums((pageNum, dirty) -> loaded.add(pageNum));
+        assertEquals(new HashSet<>(Arrays.asList(pageNums[0], pageNums[1], pageNums[2], pageNums[4],
+                                                 pageNums[7])), loaded);
+        assertEquals(numIOs + 5, bufferManager.getNumIOs());
+        pinned.unpin();
+    }
+
     @Test(expected = PageException.class)
     public void testMissingPart() {
         bufferManager.fetchPageFrame(DiskSpaceManager.getVirtualPageNum(0, 0), false);
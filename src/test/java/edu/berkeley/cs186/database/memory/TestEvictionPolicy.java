@@ -6,8 +6,15 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 @Category({Proj99Tests.class, SystemTests.class})
 public class TestEvictionPolicy {
@@ -25,39 +32,53 @@ public class TestEvictionPolicy {
             return "Frame #" + index;
         }
 
+        @Override
+        void unpin(long generation) {
+        }
+
         @Override
         boolean isValid() {
             return false;
         }
 
+        @Override
+        long getGeneration() {
+            return 0;
+        }
+
         @Override
         long getPageNum() {
             return 0;
         }
 
         @Override
-        void flush() {
+        boolean isLogPage() {
+            return false;
         }
 
         @Override
-        void readBytes(short position, short num, byte[] buf) {
+        void flush(long generation) {
         }
 
         @Override
-        void writeBytes(short position, short num, byte[] buf) {
+        void readBytes(long generation, int position, int num, byte[] buf) {
         }
 
         @Override
-        long getPageLSN() {
+        void writeBytes(long generation, int position, int num, byte[] buf) {
+        }
+
+        @Override
+        long getPageLSN(long generation) {
             return 0;
         }
 
         @Override
-        void setPageLSN(long pageLSN) {
+        void setPageLSN(long generation, long pageLSN) {
         }
 
         @Override
-        BufferFrame requestValidFrame() {
+        BufferFrame requestValidFrame(long generation, long pageNum, boolean logPage) {
             return null;
         }
     }
@@ -193,4 +214,235 @@ public class TestEvictionPolicy {
         assertEquals(frames[2], policy.evict(new BufferFrame[] {placeholderFrames[0], placeholderFrames[1], frames[2], placeholderFrames[3]}));
         policy.cleanup(frames[2]);
     }
+
+    @Test
+    public void testEvictionCandidates() {
+        for (EvictionPolicy policy : new EvictionPolicy[] {new LRUEvictionPolicy(), new ClockEvictionPolicy()}) {
+            BufferFrame[] frames = new BufferFrame[] {this.frames[0], this.frames[1], this.frames[2], this.frames[3]};
+            for (BufferFrame frame : frames) {
+                policy.init(frame);
+                policy.hit(frame);
+            }
+            assertEquals(frames[0], policy.evict(frames));
+            policy.cleanup(frames[0]);
+            frames[0] = this.frames[4];
+            policy.init(frames[0]);
+            policy.hit(frames[2]);
+            frames[1].pin();
+
+            // candidates come in eviction order, skip pinned frames, and do not change what is evicted
+            assertEquals(Arrays.asList(frames[3], frames[0], frames[2]), policy.evictionCandidates(frames, 8));
+            BufferFrame next = policy.evictionCandidates(frames, 1).get(0);
+            assertEquals(next, policy.evict(frames));
+            frames[1].unpin();
+        }
+    }
+
+    @Test
+    public void testLRUKPolicy() {
+        EvictionPolicy policy = new LRUKEvictionPolicy(2, 0);
+        BufferFrame[] frames = new BufferFrame[] {this.frames[0], this.frames[1], this.frames[2], this.frames[3]};
+        for (BufferFrame frame : frames) {
+            policy.init(frame);
+        }
+        // frames 1 and 3 are referenced twice; the others (referenced once) go first, oldest first
+        policy.hit(frames[3]);
+        policy.hit(frames[1]);
+        assertEquals(frames[0], policy.evict(frames));
+        frames[0].pin();
+        assertEquals(frames[2], policy.evict(frames));
+        frames[2].pin();
+        // then by second most recent reference
+        assertEquals(frames[1], policy.evict(frames));
+        policy.hit(frames[1]);
+        assertEquals(frames[3], policy.evict(frames));
+
+        frames[1].pin();
+        frames[3].pin();
+        boolean exceptionThrown = false;
+        try {
+            policy.evict(frames);
+        } catch (IllegalStateException e) {
+            exceptionThrown = true;
+        }
+        assertTrue(exceptionThrown);
+        for (BufferFrame frame : frames) {
+            frame.unpin();
+        }
+    }
+
+    @Test
+    public void testLRUKCorrelatedReferences() {
+        EvictionPolicy policy = new LRUKEvictionPolicy(2, 4);
+        BufferFrame[] frames = new BufferFrame[] {this.frames[0], this.frames[1]};
+        policy.init(frames[0]);
+        policy.hit(frames[0]);
+        policy.hit(frames[0]);
+        // a burst of hits right after loading is a single reference...
+        policy.init(frames[1]);
+        for (int i = 0; i < 4; ++i) {
+            policy.hit(frames[1]);
+        }
+        assertEquals(frames[0], policy.evict(frames));
+        // ...however long it lasts, but a hit after the correlated period is a second reference
+        for (int i = 0; i < 8; ++i) {
+            policy.hit(frames[1]);
+        }
+        policy.hit(frames[0]);
+        assertEquals(frames[1], policy.evict(frames));
+    }
+
+    @Test
+    public void testLRUKRetainedHistory() {
+        EvictionPolicy policy = new LRUKEvictionPolicy(2, 0);
+        // (every test frame holds page 0)
+        policy.init(frames[0]);
+        policy.hit(frames[0]);
+        policy.cleanup(frames[0]);
+        // frame 1 is loaded with the page's history (two references), frame 2 without
+        policy.init(frames[1]);
+        policy.init(frames[2]);
+        assertEquals(frames[2], policy.evict(new BufferFrame[] {frames[1], frames[2]}));
+    }
+
+    @Test
+    public void testARCPolicy() {
+        EvictionPolicy policy = new ARCEvictionPolicy();
+        BufferFrame[] frames = new BufferFrame[] {this.frames[0], this.frames[1], this.frames[2], this.frames[3]};
+        for (BufferFrame frame : frames) {
+            policy.miss(frame.getPageNum());
+            policy.init(frame);
+        }
+        // a burst of hits right after loading does not move frame 2 to T2, a later hit moves frame 1
+        for (int i = 0; i < 9; ++i) {
+            policy.hit(frames[2]);
+        }
+        policy.hit(frames[1]);
+        assertEquals(frames[0], policy.evict(frames));
+        policy.cleanup(frames[0]);
+
+        // a miss on a page evicted from T1 grows T1's target, and loads the page into T2
+        // (every test frame holds page 0)
+        frames[0] = this.frames[4];
+        policy.miss(frames[0].getPageNum());
+        policy.init(frames[0]);
+        assertEquals(Arrays.asList(frames[2], frames[3], frames[1], frames[0]), policy.evictionCandidates(frames, 8));
+
+        // T2 is used when everything in T1 is pinned
+        frames[2].pin();
+        frames[3].pin();
+        assertEquals(frames[1], policy.evict(frames));
+        frames[0].pin();
+        frames[1].pin();
+        boolean exceptionThrown = false;
+        try {
+            policy.evict(frames);
+        } catch (IllegalStateException e) {
+            exceptionThrown = true;
+        }
+        assertTrue(exceptionThrown);
+        for (BufferFrame frame : frames) {
+            frame.unpin();
+        }
+    }
+
+    @Test
+    public void testARCCleanupBeforeEviction() {
+        // pages may be freed before anything has been evicted, when the size of the buffer is not known yet
+        EvictionPolicy policy = new ARCEvictionPolicy();
+        BufferFrame[] frames = new BufferFrame[] {this.frames[0], this.frames[1], this.frames[2], this.frames[3]};
+        for (BufferFrame frame : frames) {
+            policy.miss(frame.getPageNum());
+            policy.init(frame);
+        }
+        policy.cleanup(frames[0]);
+        policy.cleanup(frames[2]);
+        assertEquals(Arrays.asList(frames[1], frames[3]), policy.evictionCandidates(frames, 8));
+    }
+
+    @Test
+    public void testHitAfterCleanup() {
+        // hits are reported without the manager lock, so a hit may arrive after its frame is cleaned up
+        for (EvictionPolicy policy : new EvictionPolicy[] {new LRUEvictionPolicy(), new LRUKEvictionPolicy(),
+                                                           new ARCEvictionPolicy()}) {
+            BufferFrame[] frames = new BufferFrame[] {this.frames[0], this.frames[1]};
+            for (BufferFrame frame : frames) {
+                policy.init(frame);
+            }
+            policy.cleanup(frames[0]);
+            policy.hit(frames[0]);
+            assertEquals(Collections.singletonList(frames[1]), policy.evictionCandidates(frames, 8));
+
+            // more hits than are buffered, so that some are applied directly
+            for (int i = 0; i < 2 * HitBuffer.CAPACITY; ++i) {
+                policy.hit(frames[0]);
+            }
+            assertEquals(Collections.singletonList(frames[1]), policy.evictionCandidates(frames, 8));
+            policy.init(frames[0]);
+            assertEquals(new HashSet<>(Arrays.asList(frames)), new HashSet<>(policy.evictionCandidates(frames, 8)));
+        }
+    }
+
+    @Test
+    public void testConcurrentHits() throws InterruptedException {
+        for (EvictionPolicy policy : new EvictionPolicy[] {new LRUEvictionPolicy(), new LRUKEvictionPolicy(),
+                                                           new ARCEvictionPolicy()}) {
+            BufferFrame[] frames = Arrays.copyOf(this.frames, 4);
+            for (BufferFrame frame : frames) {
+                policy.init(frame);
+            }
+            AtomicReference<Throwable> error = new AtomicReference<>();
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; ++t) {
+                int offset = t;
+                threads[t] = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < 20000; ++i) {
+                            policy.hit(frames[(i + offset) % frames.length]);
+                        }
+                    } catch (Throwable e) {
+                        error.set(e);
+                    }
+                });
+                threads[t].start();
+            }
+            // frames are loaded with other pages while they are being hit
+            for (int i = 0; i < 2000; ++i) {
+                policy.cleanup(frames[i % frames.length]);
+                policy.init(frames[i % frames.length]);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertNull(error.get());
+
+            // every frame is still tracked exactly once
+            List<BufferFrame> candidates = policy.evictionCandidates(frames, 8);
+            assertEquals(frames.length, candidates.size());
+            assertEquals(new HashSet<>(Arrays.asList(frames)), new HashSet<>(candidates));
+        }
+    }
+
+    @Test
+    public void testScanResistance() {
+        // on a mix of point lookups and large scans, LRU-2 and ARC keep the pages used by lookups
+        double lru = EvictionPolicyBenchmark.hitRate(new LRUEvictionPolicy(),
+                     EvictionPolicyBenchmark.Workload.LOOKUPS_AND_SCANS);
+        double clock = EvictionPolicyBenchmark.hitRate(new ClockEvictionPolicy(),
+                       EvictionPolicyBenchmark.Workload.LOOKUPS_AND_SCANS);
+        double lruK = EvictionPolicyBenchmark.hitRate(new LRUKEvictionPolicy(),
+                      EvictionPolicyBenchmark.Workload.LOOKUPS_AND_SCANS);
+        double arc = EvictionPolicyBenchmark.hitRate(new ARCEvictionPolicy(),
+                     EvictionPolicyBenchmark.Workload.LOOKUPS_AND_SCANS);
+        assertTrue(lruK > lru + 0.02);
+        assertTrue(lruK > clock + 0.02);
+        assertTrue(arc > lru + 0.02);
+
+        // and LRU-2 does no worse on lookups alone
+        double lruLookups = EvictionPolicyBenchmark.hitRate(new LRUEvictionPolicy(),
+                            EvictionPolicyBenchmark.Workload.LOOKUPS);
+        double lruKLookups = EvictionPolicyBenchmark.hitRate(new LRUKEvictionPolicy(),
+                             EvictionPolicyBenchmark.Workload.LOOKUPS);
+        assertTrue(lruKLookups >= lruLookups);
+    }
 }
@@ -0,0 +1,255 @@
+package edu.berkeley.cs186.database.memory;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
+import edu.berkeley.cs186.database.io.PageException;
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestPartitionedBufferManager {
+    private DiskSpaceManager diskSpaceManager;
+    private PartitionedBufferManager bufferManager;
+
+    @Before
+    public void beforeEach() {
+        diskSpaceManager = new MemoryDiskSpaceManager();
+        bufferManager = new PartitionedBufferManager(diskSpaceManager, new DummyRecoveryManager(), 64, 4,
+                ClockEvictionPolicy::new, false);
+    }
+
+    @After
+    public void afterEach() {
+        bufferManager.close();
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testPoolIndex() {
+        Set<Integer> pools = new HashSet<>();
+        for (int partNum = 1; partNum <= 16; ++partNum) {
+            long pageNum = DiskSpaceManager.getVirtualPageNum(partNum, 0);
+            int pool = PartitionedBufferManager.poolIndex(pageNum, 4);
+            // a stripe stays in one pool
+            for (int i = 1; i < PartitionedBufferManager.STRIPE_PAGES; ++i) {
+                assertEquals(pool, PartitionedBufferManager.poolIndex(pageNum + i, 4));
+            }
+            pools.add(pool);
+        }
+        // the first pages of different partitions are spread between pools
+        assertEquals(4, pools.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooManyPools() {
+        new PartitionedBufferManager(diskSpaceManager, new DummyRecoveryManager(), 4, 5,
+                                     ClockEvictionPolicy::new, false);
+    }
+
+    @Test
+    public void testReadWrite() {
+        // pages in many stripes, more than fit in the buffer
+        int partNum = diskSpaceManager.allocPart();
+        long[] pageNums = new long[100];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(DiskSpaceManager.getVirtualPageNum(partNum,
+                          i * PartitionedBufferManager.STRIPE_PAGES / 2));
+            BufferFrame frame = bufferManager.fetchPageFrame(pageNums[i], false);
+            frame.writeBytes((short) 0, (short) 1, new byte[] {(byte) i});
+            frame.unpin();
+        }
+
+        byte[] buf = new byte[1];
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = bufferManager.fetchPageFrame(pageNums[i], false);
+            frame.readBytes((short) 0, (short) 1, buf);
+            frame.unpin();
+            assertEquals((byte) i, buf[0]);
+        }
+
+        Set<Long> loaded = new HashSet<>();
+        bufferManager.iterPageNums((pageNum, dirty) -> assertTrue(loaded.add(pageNum)));
+        assertTrue(loaded.size() > 0 && loaded.size() <= 64);
+
+        bufferManager.evictAll();
+        bufferManager.iterPageNums((pageNum, dirty) -> fail());
+        for (int i = 0; i < pageNums.length; ++i) {
+            byte[] page = new byte[DiskSpaceManager.PAGE_SIZE];
+            diskSpaceManager.readPage(pageNums[i], page);
+            assertEquals((byte) i, page[BufferManager.RESERVED_SPACE]);
+        }
+    }
+
+    @Test
+    public void testFetchPageRange() {
+        // pools large enough to take 8 pages of a range each
+        bufferManager.close();
+        bufferManager = new PartitionedBufferManager(diskSpaceManager, new DummyRecoveryManager(), 256, 4,
+                ClockEvictionPolicy::new, false);
+        int partNum = diskSpaceManager.allocPart();
+        int stripe = PartitionedBufferManager.STRIPE_PAGES;
+        long[] pageNums = new long[stripe + 8];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+        }
+
+        // range crossing into the next stripe, which may be in another pool
+        BufferFrame frame = bufferManager.fetchPageRangeFrame(pageNums[stripe - 4], 8, false);
+        assertEquals(pageNums[stripe - 4], frame.getPageNum());
+        frame.unpin();
+        assertEquals(8, bufferManager.getNumIOs());
+
+        for (int i = stripe - 3; i < stripe + 4; ++i) {
+            bufferManager.fetchPageFrame(pageNums[i], false).unpin();
+        }
+        assertEquals(8, bufferManager.getNumIOs());
+    }
+
+    @Test
+    public void testFetchPageRangeSmallPools() {
+        // 16 frames per pool, but 64 in the whole buffer
+        bufferManager.close();
+        bufferManager = new PartitionedBufferManager(diskSpaceManager, new DummyRecoveryManager(), 512, 32,
+                ClockEvictionPolicy::new, false);
+        int partNum = diskSpaceManager.allocPart();
+        int stripe = PartitionedBufferManager.STRIPE_PAGES;
+        long[] pageNums = new long[stripe];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+        }
+        // fill the pool of the stripe
+        for (int i = stripe - 16; i < stripe; ++i) {
+            bufferManager.fetchPageFrame(pageNums[i], false).unpin();
+        }
+        long numIOs = bufferManager.getNumIOs();
+
+        // the range stays within the stripe, so only 1/8 of its pool is loaded
+        BufferFrame frame = bufferManager.fetchPageRangeFrame(pageNums[0], stripe, false);
+        frame.unpin();
+        assertEquals(numIOs + 2, bufferManager.getNumIOs());
+
+        Set<Long> loaded = new HashSet<>();
+        bufferManager.iterPageNums((pageNum, dirty) -> loaded.add(pageNum));
+        assertTrue(loaded.contains(pageNums[0]));
+        assertTrue(loaded.contains(pageNums[1]));
+        assertFalse(loaded.contains(pageNums[2]));
+        int numKept = 0;
+        for (int i = stripe - 16; i < stripe; ++i) {
+            numKept += loaded.contains(pageNums[i]) ? 1 : 0;
+        }
+        assertEquals(14, numKept);
+    }
+
+    @Test
+    public void testFreePart() {
+        int partNum1 = diskSpaceManager.allocPart();
+        int partNum2 = diskSpaceManager.allocPart();
+        long[] pageNums = new long[8];
+        for (int i = 0; i < pageNums.length; ++i) {
+            long pageNum = DiskSpaceManager.getVirtualPageNum(i % 2 == 0 ? partNum1 : partNum2,
+                           i * PartitionedBufferManager.STRIPE_PAGES);
+            pageNums[i] = diskSpaceManager.allocPage(pageNum);
+            bufferManager.fetchPageFrame(pageNums[i], false).unpin();
+        }
+
+        bufferManager.freePart(partNum1);
+
+        Set<Long> loaded = new HashSet<>();
+        bufferManager.iterPageNums((pageNum, dirty) -> loaded.add(pageNum));
+        for (int i = 0; i < pageNums.length; ++i) {
+            assertEquals(i % 2 != 0, loaded.contains(pageNums[i]));
+        }
+        try {
+            diskSpaceManager.allocPage(partNum1);
+            fail();
+        } catch (Exception e) { /* do nothing */ }
+    }
+
+    @Test
+    public void testConcurrentMisses() throws InterruptedException {
+        int partNum = diskSpaceManager.allocPart();
+        long[] pageNums = new long[256];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            BufferFrame frame = bufferManager.fetchPageFrame(pageNums[i], false);
+            frame.writeBytes((short) 0, (short) 1, new byte[] {(byte) i});
+            frame.unpin();
+        }
+
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            int offset = t * 37;
+            threads[t] = new Thread(() -> {
+                try {
+                    byte[] buf = new byte[1];
+                    for (int i = 0; i < 2000; ++i) {
+                        int index = (i * 7 + offset) % pageNums.length;
+                        BufferFrame frame = bufferManager.fetchPageFrame(pageNums[index], false);
+                        frame.readBytes((short) 0, (short) 1, buf);
+                        frame.unpin();
+                        assertEquals((byte) index, buf[0]);
+                    }
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(error.get());
+    }
+
+    @Test
+    public void testResize() {
+        int partNum = diskSpaceManager.allocPart();
+        long[] pageNums = new long[100];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(DiskSpaceManager.getVirtualPageNum(partNum,
+                          i * PartitionedBufferManager.STRIPE_PAGES / 2));
+            BufferFrame frame = bufferManager.fetchPageFrame(pageNums[i], false);
+            frame.writeBytes((short) 0, (short) 1, new byte[] {(byte) i});
+            frame.unpin();
+        }
+
+        bufferManager.resize(10);
+        assertEquals(10, bufferManager.getBufferSize());
+        Set<Long> loaded = new HashSet<>();
+        bufferManager.iterPageNums((pageNum, dirty) -> loaded.add(pageNum));
+        assertTrue(loaded.size() <= 10);
+
+        bufferManager.resize(128);
+        assertEquals(128, bufferManager.getBufferSize());
+        byte[] buf = new byte[1];
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = bufferManager.fetchPageFrame(pageNums[i], false);
+            frame.readBytes((short) 0, (short) 1, buf);
+            frame.unpin();
+            assertEquals((byte) i, buf[0]);
+        }
+
+        try {
+            bufferManager.resize(3);
+            fail();
+        } catch (IllegalArgumentException e) { /* do nothing */ }
+    }
+
+    @Test(expected = PageException.class)
+    public void testMissingPage() {
+        int partNum = diskSpaceManager.allocPart();
+        bufferManager.fetchPageFrame(DiskSpaceManager.getVirtualPageNum(partNum, 0), false);
+    }
+}
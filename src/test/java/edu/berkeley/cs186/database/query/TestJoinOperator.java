@@ -94,9 +94,11 @@ public class TestJoinOperator {
 
     private void setSourceOperators(TestSourceOperator leftSourceOperator,
                                     TestSourceOperator rightSourceOperator, Transaction transaction) {
+        // materialized source operators are stored in the first two temporary partitions
         setSourceOperators(
             new MaterializeOperator(leftSourceOperator, transaction.getTransactionContext()),
-            new MaterializeOperator(rightSourceOperator, transaction.getTransactionContext())
+            new MaterializeOperator(rightSourceOperator, transaction.getTransactionContext()),
+            DiskSpaceManager.TEMP_PART_START, DiskSpaceManager.TEMP_PART_START + 1
         );
     }
 
@@ -119,6 +121,11 @@ public class TestJoinOperator {
 
     private void setSourceOperators(QueryOperator leftSourceOperator,
                                     QueryOperator rightSourceOperator) {
+        setSourceOperators(leftSourceOperator, rightSourceOperator, 3, 4);
+    }
+
+    private void setSourceOperators(QueryOperator leftSourceOperator,
+                                    QueryOperator rightSourceOperator, int leftPartNum, int rightPartNum) {
         assert (this.leftSourceOperator == null && this.rightSourceOperator == null);
 
         this.leftSourceOperator = leftSourceOperator;
@@ -128,8 +135,8 @@ public class TestJoinOperator {
         pinPage(1, 0); // information_schema.tables header page
         pinPage(1, 3); // information_schema.tables entry for left source
         pinPage(1, 4); // information_schema.tables entry for right source
-        pinPage(3, 0); // left source header page
-        pinPage(4, 0); // right source header page
+        pinPage(leftPartNum, 0); // left source header page
+        pinPage(rightPartNum, 0); // right source header page
     }
 
     @Test
@@ -376,7 +376,17 @@ public abstract class TestARIESStudentRunnerBase {
         }
 
         @Override
-        public long logPageWrite(long transNum, long pageNum, short pageOffset, byte[] before,
+        public long diskWriteHook(long pageNum) {
+            throw new UnsupportedOperationException("this method may not be used");
+        }
+
+        @Override
+        public void diskIOHook(long pageNum, long lastLSN) {
+            throw new UnsupportedOperationException("this method may not be used");
+        }
+
+        @Override
+        public long logPageWrite(long transNum, long pageNum, int pageOffset, byte[] before,
                                  byte[] after) {
             throw new UnsupportedOperationException("this method may not be used");
         }
@@ -490,7 +500,17 @@ public abstract class TestARIESStudentRunnerBase {
         }
 
         @Override
-        public long logPageWrite(long transNum, long pageNum, short pageOffset, byte[] before,
+        public long diskWriteHook(long pageNum) {
+            return inner.diskWriteHook(pageNum);
+        }
+
+        @Override
+        public void diskIOHook(long pageNum, long lastLSN) {
+            inner.diskIOHook(pageNum, lastLSN);
+        }
+
+        @Override
+        public long logPageWrite(long transNum, long pageNum, int pageOffset, byte[] before,
                                  byte[] after) {
             return inner.logPageWrite(transNum, pageNum, pageOffset, before, after);
         }
@@ -103,6 +103,22 @@ public class TestLogRecord {
                        pageString));
     }
 
+    @Test
+    public void testLargePageSerialize() {
+        int pageSize = 65536;
+        byte[] pageString = new byte[pageSize - BufferManager.RESERVED_SPACE];
+        byte[] halfPageString = new byte[pageSize / 2];
+        LogRecord[] records = new LogRecord[] {
+            new UndoUpdatePageLogRecord(-98765L, -43210L, -12345L, -57812L, 0, pageString),
+            new UndoUpdatePageLogRecord(-98765L, -43210L, -12345L, -57812L, 40000, halfPageString),
+            new UpdatePageLogRecord(-98765L, -43210L, -12345L, 50000, halfPageString, null),
+        };
+        for (LogRecord record : records) {
+            assertEquals(record, LogRecord.fromBytes(ByteBuffer.wrap(record.toBytes(pageSize)),
+                         pageSize).orElse(null));
+        }
+    }
+
     @Test
     public void testBeginCheckpointSerialize() {
         checkSerialize(new BeginCheckpointLogRecord(92587213L));
@@ -12,6 +12,7 @@ import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.BufferManagerImpl;
 import edu.berkeley.cs186.database.memory.LRUEvictionPolicy;
+import edu.berkeley.cs186.database.memory.Page;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -144,7 +145,7 @@ public class TestRecoveryManager {
 
         assertEquals(LSNs[7], transactionTable.get(1L).lastLSN);
         assertEquals(LSNs[6], transactionTable.get(2L).lastLSN);
-        assertEquals(LogManagerImpl.maxLSN(LogManagerImpl.getLSNPage(LSNs[6])), logManager.getFlushedLSN());
+        assertEquals(((LogManagerImpl) logManager).maxLSN(((LogManagerImpl) logManager).getLSNPage(LSNs[6])), logManager.getFlushedLSN());
         assertEquals(Transaction.Status.COMMITTING, transactionTable.get(2L).transaction.getStatus());
 
         LSNs[8] = recoveryManager.end(2L);
@@ -205,7 +206,7 @@ public class TestRecoveryManager {
         assertTrue(transactionTable.isEmpty());
 
         // Flushed log tail correct
-        assertEquals(LogManagerImpl.maxLSN(LogManagerImpl.getLSNPage(LSNs[6])), logManager.getFlushedLSN());
+        assertEquals(((LogManagerImpl) logManager).maxLSN(((LogManagerImpl) logManager).getLSNPage(LSNs[6])), logManager.getFlushedLSN());
 
         assertEquals(Transaction.Status.COMPLETE, transaction1.getStatus());
         assertEquals(Transaction.Status.COMPLETE, transaction2.getStatus());
@@ -425,7 +426,7 @@ public class TestRecoveryManager {
         assertEquals(9876543210L, getTransactionCounter(recoveryManager));
 
         // FlushedLSN
-        assertEquals(LogManagerImpl.maxLSN(LogManagerImpl.getLSNPage(LSNs.get(7))),
+        assertEquals(((LogManagerImpl) logManager).maxLSN(((LogManagerImpl) logManager).getLSNPage(LSNs.get(7))),
                      logManager.getFlushedLSN());
     }
 
@@ -1067,6 +1068,65 @@ public class TestRecoveryManager {
         assertEquals(0L, getTransactionCounter(recoveryManager));
     }
 
+    @Test
+    @Category(PublicTests.class)
+    public void testGroupFlushPageUpdatedAgain() throws Exception {
+        byte[] before = new byte[] { (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00 };
+        byte[] after1 = new byte[] { (byte) 0xBA, (byte) 0xAD, (byte) 0xF0, (byte) 0x0D };
+        byte[] after2 = new byte[] { (byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF };
+        long pageNum = 10000000001L;
+
+        // reload, only forcing data page writes in batches (here, at the checkpoint)
+        shutdownRecoveryManager(recoveryManager);
+        recoveryManager = loadRecoveryManager(testDir, 8);
+        LogManager logManager = getLogManager(recoveryManager);
+        DiskSpaceManager dsm = getDiskSpaceManager(recoveryManager);
+        BufferManager bm = getBufferManager(recoveryManager);
+
+        Transaction transaction1 = DummyTransaction.create(1L);
+        recoveryManager.startTransaction(transaction1);
+
+        // update the page, and write it out without forcing the write
+        long LSN1 = recoveryManager.logPageWrite(1L, pageNum, (short) 0, before, after1);
+        logManager.fetchLogRecord(LSN1).redo(dsm, bm);
+        Page page = bm.fetchPage(new DummyLockContext(), pageNum, false);
+        try {
+            page.flush();
+        } finally {
+            page.unpin();
+        }
+
+        // update it again before the write is forced
+        long LSN2 = recoveryManager.logPageWrite(1L, pageNum, (short) 0, after1, after2);
+        logManager.fetchLogRecord(LSN2).redo(dsm, bm);
+        recoveryManager.commit(1L);
+        recoveryManager.end(1L);
+
+        // forcing the first write must not make the page clean, or the checkpoint
+        // would leave out the second update
+        recoveryManager.checkpoint();
+        assertEquals(Long.valueOf(LSN1), getDirtyPageTable(recoveryManager).get(pageNum));
+
+        // crash, with the second update only in the buffer
+        ARIESRecoveryManager arm = (ARIESRecoveryManager) recoveryManager;
+        arm.logManager.close();
+        arm.diskSpaceManager.close();
+        DummyTransaction.cleanupTransactions();
+
+        // analysis + redo; there is nothing to undo
+        recoveryManager = loadRecoveryManager(testDir);
+        recoveryManager.restart();
+
+        page = getBufferManager(recoveryManager).fetchPage(new DummyLockContext(), pageNum, false);
+        try {
+            byte[] bytes = new byte[after2.length];
+            page.getBuffer().get(bytes);
+            assertArrayEquals(after2, bytes);
+        } finally {
+            page.unpin();
+        }
+    }
+
     @Test
     @Category(PublicTests.class)
     public void testRestartCleanup1() throws Exception { // Releasing public sp20
@@ -1498,9 +1558,21 @@ public class TestRecoveryManager {
      * @return recovery manager, loaded from disk
      */
     protected RecoveryManager loadRecoveryManager(String dir) throws Exception {
+        return loadRecoveryManager(dir, 0);
+    }
+
+    /**
+     * Loads the recovery manager from disk, with data page writes only forced to disk in
+     * batches (see DiskSpaceManagerImpl).
+     *
+     * @param dir testDir
+     * @param maxUnsyncedPages maximum number of unsynced data pages per partition
+     * @return recovery manager, loaded from disk
+     */
+    protected RecoveryManager loadRecoveryManager(String dir, int maxUnsyncedPages) throws Exception {
         RecoveryManager recoveryManager = new ARIESRecoveryManagerNoLocking(
             new DummyLockContext(new Pair<>("database", 0L)), DummyTransaction::create);
-        DiskSpaceManager diskSpaceManager = new DiskSpaceManagerImpl(dir, recoveryManager);
+        DiskSpaceManager diskSpaceManager = new DiskSpaceManagerImpl(dir, recoveryManager, maxUnsyncedPages);
         BufferManager bufferManager = new BufferManagerImpl(diskSpaceManager, recoveryManager, 32,
                 new LRUEvictionPolicy());
         boolean isLoaded = true;
@@ -20,8 +20,8 @@ import java.util.*;
 public class MemoryHeapFile implements HeapFile, AutoCloseable {
     private List<Long> pageNums = new ArrayList<>();
     private Map<Long, Page> pages = new HashMap<>();
-    private Map<Long, Short> freeSpace = new HashMap<>();
-    private short emptyPageMetadataSize = 0;
+    private Map<Long, Integer> freeSpace = new HashMap<>();
+    private int emptyPageMetadataSize = 0;
     private BufferManager bufferManager;
     private int numDataPages = 0;
 
@@ -38,12 +38,12 @@ public class MemoryHeapFile implements HeapFile, AutoCloseable {
     }
 
     @Override
-    public short getEffectivePageSize() {
-        return BufferManager.EFFECTIVE_PAGE_SIZE;
+    public int getEffectivePageSize() {
+        return bufferManager.getEffectivePageSize();
     }
 
     @Override
-    public void setEmptyPageMetadataSize(short emptyPageMetadataSize) {
+    public void setEmptyPageMetadataSize(int emptyPageMetadataSize) {
         this.emptyPageMetadataSize = emptyPageMetadataSize;
     }
 
@@ -56,10 +56,10 @@ public class MemoryHeapFile implements HeapFile, AutoCloseable {
     }
 
     @Override
-    public Page getPageWithSpace(short requiredSpace) {
-        for (Map.Entry<Long, Short> entry : freeSpace.entrySet()) {
+    public Page getPageWithSpace(int requiredSpace) {
+        for (Map.Entry<Long, Integer> entry : freeSpace.entrySet()) {
             if (entry.getValue() >= requiredSpace) {
-                freeSpace.put(entry.getKey(), (short) (entry.getValue() - requiredSpace));
+                freeSpace.put(entry.getKey(), entry.getValue() - requiredSpace);
                 return bufferManager.fetchPage(new DummyLockContext(), entry.getKey(), false);
             }
         }
@@ -67,13 +67,13 @@ public class MemoryHeapFile implements HeapFile, AutoCloseable {
         pageNums.add(page.getPageNum());
         pages.put(page.getPageNum(), page);
         freeSpace.put(page.getPageNum(),
-                      (short)  (getEffectivePageSize() - emptyPageMetadataSize - requiredSpace));
+                      getEffectivePageSize() - emptyPageMetadataSize - requiredSpace);
         ++numDataPages;
         return page;
     }
 
     @Override
-    public void updateFreeSpace(Page page, short newFreeSpace) {
+    public void updateFreeSpace(Page page, int newFreeSpace) {
         if (newFreeSpace == getEffectivePageSize() - emptyPageMetadataSize) {
             pages.put(page.getPageNum(), null);
             --numDataPages;
@@ -17,6 +17,8 @@ import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.*;
 
@@ -214,6 +216,90 @@ public class TestPageDirectory {
         }
     }
 
+    @Test
+    public void testScanIterator() {
+        bufferManager.close();
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
+        diskSpaceManager.allocPart(0);
+        bufferManager = new BufferManagerImpl(diskSpaceManager, new DummyRecoveryManager(), 64,
+                                              new ClockEvictionPolicy());
+        createPageDirectory((short) 0);
+        createPageDirectory((short) (pageDirectory.getEffectivePageSize() - 30));
+
+        // more data pages than fit in the buffer, so the scan uses a ring
+        List<Page> pages = new ArrayList<>();
+        for (int i = 0; i < 400; ++i) {
+            Page page = pageDirectory.getPageWithSpace((short) 13);
+            if (pages.size() == 0 || !pages.get(pages.size() - 1).equals(page)) {
+                pages.add(page);
+            }
+            page.unpin();
+        }
+        assertNotNull(bufferManager.newScanRing(pageDirectory.getNumDataPages()));
+
+        Iterator<Page> iter = pageDirectory.scanIterator();
+        for (Page page : pages) {
+            assertTrue(iter.hasNext());
+
+            Page p = iter.next();
+            p.unpin();
+            assertEquals(page, p);
+        }
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void testConcurrentInserts() throws InterruptedException {
+        createPageDirectory((short) 0);
+        // room for 10 records of 100 bytes on each data page
+        createPageDirectory((short) (pageDirectory.getEffectivePageSize() - 1000));
+
+        int numThreads = 8;
+        int recordsPerThread = 500;
+        Map<Long, Integer> recordsPerPage = new ConcurrentHashMap<>();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < numThreads; ++i) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < recordsPerThread; ++j) {
+                        Page page = pageDirectory.getPageWithSpace((short) 100);
+                        recordsPerPage.merge(page.getPageNum(), 1, Integer::sum);
+                        page.unpin();
+                    }
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(error.get());
+
+        // no data page was handed out more space than it has (a lost update of its free
+        // space), and no space was claimed twice (every page is full)
+        for (int numRecords : recordsPerPage.values()) {
+            assertEquals(10, numRecords);
+        }
+        assertEquals(numThreads * recordsPerThread / 10, recordsPerPage.size());
+
+        // every data page handed out is still in the directory (two inserts did not allocate
+        // data pages for the same entry)
+        Set<Long> pageNums = new HashSet<>();
+        Iterator<Page> iter = pageDirectory.iterator();
+        while (iter.hasNext()) {
+            Page p = iter.next();
+            p.unpin();
+            pageNums.add(p.getPageNum());
+        }
+        assertEquals(recordsPerPage.keySet(), pageNums);
+        assertEquals(pageNums.size(), pageDirectory.getNumDataPages());
+    }
+
     @Test
     public void testIteratorWithDeletes() {
         createPageDirectory((short) 0);